@@ -0,0 +1,122 @@
+package me.ather.support;
+
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.TurnTrace;
+import me.ather.support.store.ConversationStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State of one customer conversation: its message history, the rolling summary of its older turns
+ * and the timings of its last turn.
+ * Turns of the same session are serialized through {@link #lock()}; different sessions run in parallel.
+ * A ReentrantLock is used instead of synchronized so virtual threads are not pinned while a turn waits on the model.
+ * With a {@link ConversationStore}, every appended message is logged and an earlier history of the same id is
+ * loaded from the store on first access, i.e. on the session's next message, not when the process starts.
+ * The summary is not persisted; it is rebuilt from the loaded history when needed.
+ */
+public class ConversationSession {
+    private final String id;
+    private final List<ChatMessage> history = new ArrayList<>();
+    private final ConversationStore store; // optional, null = memory only
+    private boolean loaded;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long lastAccessNanos;
+    private volatile TurnTrace lastTurnTrace;
+    private volatile Summary summary = Summary.EMPTY;
+    private final AtomicBoolean summaryRefreshing = new AtomicBoolean();
+
+    public ConversationSession(String id) {
+        this(id, null);
+    }
+
+    public ConversationSession(String id, ConversationStore store) {
+        this.id = id;
+        this.store = store;
+        touch(System.nanoTime());
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public ReentrantLock lock() {
+        return lock;
+    }
+
+    /**
+     * Read-only view of the history; only valid while holding {@link #lock()}.
+     */
+    public List<ChatMessage> history() {
+        ensureLoaded();
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Adds a message to the history and the store. A store failure is reported and the turn goes on in memory.
+     */
+    public void append(ChatMessage message) {
+        ensureLoaded();
+        history.add(message);
+        if (store == null) return;
+        try {
+            store.append(id, message);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not persist a message of session " + id + ": " + e.getMessage());
+        }
+    }
+
+    public String lastMessage() {
+        ensureLoaded();
+        return history.get(history.size() - 1).content();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (store != null) history.addAll(0, store.load(id));
+    }
+
+    public long lastAccessNanos() {
+        return lastAccessNanos;
+    }
+
+    public void touch(long nowNanos) {
+        lastAccessNanos = nowNanos;
+    }
+
+    public TurnTrace lastTurnTrace() {
+        return lastTurnTrace;
+    }
+
+    void setLastTurnTrace(TurnTrace trace) {
+        lastTurnTrace = trace;
+    }
+
+    public Summary summary() {
+        return summary;
+    }
+
+    void setSummary(Summary summary) {
+        this.summary = summary;
+    }
+
+    /**
+     * Guard ensuring at most one background summary refresh per session.
+     */
+    AtomicBoolean summaryRefreshing() {
+        return summaryRefreshing;
+    }
+
+    /**
+     * Rolling summary of the oldest {@code coveredMessages} messages of the history.
+     */
+    public record Summary(String text, int coveredMessages) {
+        public static final Summary EMPTY = new Summary("", 0);
+    }
+}
@@ -0,0 +1,110 @@
+package me.ather.support;
+
+import me.ather.support.model.ChatMessage;
+import me.ather.support.service.LLMClient;
+import me.ather.support.service.TokenEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the per-turn model context from a token budget instead of the full history.
+ * The newest messages are sent verbatim (sliding window); older turns are represented by a rolling
+ * summary that is maintained incrementally by the model in the background, off the turn's critical path.
+ * Request size therefore stays flat however long a conversation runs.
+ *
+ * While a refresh is pending, messages that just slid out of the window are missing from the
+ * context until the summary catches up; the latest user message is always included.
+ */
+public class HistoryManager {
+    public static final int DEFAULT_TOKEN_BUDGET = 2000;
+    public static final int DEFAULT_SUMMARY_BATCH = 6;
+
+    private static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+
+    private final LLMClient llmClient;
+    private final int tokenBudget;
+    private final int summaryBatch;
+
+    public HistoryManager(LLMClient llmClient) {
+        this(llmClient, DEFAULT_TOKEN_BUDGET, DEFAULT_SUMMARY_BATCH);
+    }
+
+    /**
+     * @param tokenBudget  Estimated tokens allowed for the summary plus the recent messages.
+     * @param summaryBatch Minimum number of messages that must fall out of the window before
+     *                     a summary refresh is started, so the model is not called on every turn.
+     */
+    public HistoryManager(LLMClient llmClient, int tokenBudget, int summaryBatch) {
+        if (tokenBudget <= 0) throw new IllegalArgumentException("tokenBudget must be positive: " + tokenBudget);
+        if (summaryBatch <= 0) throw new IllegalArgumentException("summaryBatch must be positive: " + summaryBatch);
+        this.llmClient = llmClient;
+        this.tokenBudget = tokenBudget;
+        this.summaryBatch = summaryBatch;
+    }
+
+    /**
+     * Returns the current summary (if any) and the most recent messages that fit the budget, to follow the
+     * caller's stable prompt prefix. Must be called while holding the session lock; may schedule a background
+     * summary refresh.
+     */
+    public List<ChatMessage> buildHistory(ConversationSession session) {
+        List<ChatMessage> history = session.history();
+        ConversationSession.Summary summary = session.summary();
+        ChatMessage summaryMessage = summary.text().isEmpty() ? null : new ChatMessage("system", SUMMARY_PREFIX + summary.text());
+
+        int remaining = tokenBudget - (summaryMessage == null ? 0 : TokenEstimator.estimate(summaryMessage));
+        int windowStart = history.size();
+        while (windowStart > summary.coveredMessages()) {
+            int cost = TokenEstimator.estimate(history.get(windowStart - 1));
+            if (cost > remaining && windowStart < history.size()) break;
+            remaining -= cost;
+            windowStart--;
+        }
+
+        if (windowStart - summary.coveredMessages() >= summaryBatch) {
+            refreshSummary(session, summary, windowStart);
+        }
+
+        List<ChatMessage> context = new ArrayList<>(history.size() - windowStart + 1);
+        if (summaryMessage != null) context.add(summaryMessage);
+        context.addAll(history.subList(windowStart, history.size()));
+        return context;
+    }
+
+    /**
+     * Folds messages [covered, upTo) into the summary asynchronously. At most one refresh runs per session;
+     * a failed refresh keeps the previous summary and is retried on a later turn.
+     */
+    private void refreshSummary(ConversationSession session, ConversationSession.Summary previous, int upTo) {
+        if (!session.summaryRefreshing().compareAndSet(false, true)) return;
+
+        StringBuilder transcript = new StringBuilder();
+        if (!previous.text().isEmpty()) {
+            transcript.append("Previous summary:\n").append(previous.text()).append("\n\n");
+        }
+        transcript.append("New messages:\n");
+        for (ChatMessage message : session.history().subList(previous.coveredMessages(), upTo)) {
+            transcript.append(message.role()).append(": ").append(message.content()).append('\n');
+        }
+        int maxWords = Math.max(50, tokenBudget / 4 * 3 / 4); // about a quarter of the budget
+        List<ChatMessage> prompt = List.of(
+                new ChatMessage("system", "You maintain a running summary of a customer support conversation. "
+                        + "Merge the previous summary with the new messages. Keep facts the agents need: "
+                        + "device models, error codes, steps already tried, orders and refund requests. "
+                        + "Answer with the summary only, at most " + maxWords + " words."),
+                new ChatMessage("user", transcript.toString()));
+
+        llmClient.getCompletionAsync(prompt).whenComplete((response, error) -> {
+            try {
+                if (error == null && !response.isError() && response.text() != null && !response.text().isBlank()) {
+                    session.setSummary(new ConversationSession.Summary(response.text().trim(), upTo));
+                } else {
+                    System.err.println("Summary refresh failed for session " + session.id() + ", keeping previous summary.");
+                }
+            } finally {
+                session.summaryRefreshing().set(false);
+            }
+        });
+    }
+}
@@ -1,19 +1,36 @@
 package me.ather.support;
 
+import me.ather.support.server.ChatServer;
+import me.ather.support.server.SessionManager;
+
+import java.io.IOException;
 import java.util.Scanner;
 
 /**
  * Main entry point for the AI Support System.
  * Handles the console-based user interface and communication loop.
+ * Run with {@code --server [port]} to serve many sessions over HTTP instead.
  */
 public class Main {
-    public static void main(String[] args) {
+    private static final int DEFAULT_PORT = 8080;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            ChatServer server = new ChatServer(new Orchestrator(), SessionManager.fromEnvironment(), port);
+            server.start();
+            System.out.println("Multi-Agent Support System serving on http://localhost:" + server.port() + "/chat");
+            return;
+        }
+
         Orchestrator orchestrator = new Orchestrator();
+        boolean showTimings = System.getenv("SUPPORT_TRACE") != null;
         Scanner scanner = new Scanner(System.in);
 
         // ANSI escape codes for console styling
         String green = "\u001B[32m";
         String blue = "\u001B[34m";
+        String gray = "\u001B[90m";
         String reset = "\u001B[0m";
 
         System.out.println("==========================================");
@@ -34,10 +51,18 @@ public class Main {
             if (input.isBlank()) continue;
 
             try {
-                // The Orchestrator classifies intent and routes to the correct agent
-                String response = orchestrator.handleUserQuery(input);
-
-                System.out.println(green + "Assistant: " + reset + response);
+                // The Orchestrator classifies intent and routes to the correct agent.
+                // The answer is printed token by token while it is being generated.
+                System.out.print(green + "Assistant: " + reset);
+                orchestrator.handleUserQuery(input, token -> {
+                    System.out.print(token);
+                    System.out.flush();
+                });
+                System.out.println();
+                if (showTimings) {
+                    System.out.println(gray + "[timings] " + orchestrator.getLastTurnTrace() + reset);
+                    System.out.println(gray + "[" + orchestrator.getIntentStats() + "]" + reset);
+                }
                 System.out.println("------------------------------------------");
             } catch (Exception e) {
                 System.err.println("SYSTEM ERROR: " + e.getMessage());
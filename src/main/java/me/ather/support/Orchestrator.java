@@ -1,79 +1,532 @@
 package me.ather.support;
 
+import me.ather.support.ingest.DirectoryIngestor;
+import me.ather.support.metrics.Metrics;
 import me.ather.support.model.ChatMessage;
-import me.ather.support.model.FunctionCall;
 import me.ather.support.model.LLMResponse;
+import me.ather.support.model.ToolResult;
+import me.ather.support.model.TurnTrace;
+import me.ather.support.retrieval.EmbeddingStore;
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.QuantizedVectorStore;
+import me.ather.support.retrieval.VectorIndex;
 import me.ather.support.service.BillingService;
+import me.ather.support.service.ContextCache;
 import me.ather.support.service.DocumentService;
+import me.ather.support.service.EmbeddingCache;
+import me.ather.support.service.IntentClassifier;
 import me.ather.support.service.LLMClient;
+import me.ather.support.service.RefundLedger;
+import me.ather.support.service.SemanticResponseCache;
+import me.ather.support.service.ToolRegistry;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Orchestrator managing the flow between specialized agents.
  * Refactored to address architect's feedback on Tool Calling and Readability.
+ * Conversation state lives in {@link ConversationSession}s, so one Orchestrator (and its shared
+ * LLMClient / DocumentService) can serve many customers concurrently.
+ * A message for both specialists is split into sub-queries that the Technical and Billing agents
+ * answer concurrently; their replies are joined into one answer.
  */
 public class Orchestrator {
-    private final LLMClient llmClient = new LLMClient();
-    private final DocumentService docService = new DocumentService(llmClient); // Pass client for embeddings
-    private final BillingService billingService = new BillingService();
-    private final List<ChatMessage> conversationHistory = new ArrayList<>();
 
+    /**
+     * SEQUENTIAL: classify, then retrieve (technical only), then generate.
+     * SPECULATIVE: retrieval starts together with classification, since it does not depend on the intent;
+     * a BILLING turn discards it. Turn latency drops from classify + retrieve + generate
+     * to max(classify, retrieve) + generate at the cost of one unused retrieval per billing turn.
+     */
+    public enum ExecutionMode { SEQUENTIAL, SPECULATIVE }
+
+    private static final String TECHNICAL_PROMPT = "You are a Technical Specialist. Use provided docs only: ";
+    private static final List<ChatMessage> BILLING_PREFIX = List.of(new ChatMessage("system",
+            "You are a Billing Specialist. Use the 'initiateRefund' tool if criteria are met."));
+
+    private static final String FALLBACK_REPLY = "I'm sorry, I couldn't process that.";
+
+    private static final ExecutorService AGENT_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "agent-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService RETRIEVAL_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "speculative-retrieval");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LLMClient llmClient;
+    private final DocumentService docService;
+    private final ToolRegistry tools = new ToolRegistry();
+    private final ExecutionMode mode;
+    private final HistoryManager historyManager;
+    private final IntentClassifier intentClassifier;
+    private final SemanticResponseCache responseCache; // optional, null = always generate
+    private final ConversationSession consoleSession = new ConversationSession("console");
+
+    public Orchestrator() {
+        this(ExecutionMode.SPECULATIVE);
+    }
+
+    public Orchestrator(ExecutionMode mode) {
+        this(new LLMClient(), mode);
+    }
+
+    private Orchestrator(LLMClient llmClient, ExecutionMode mode) {
+        this(llmClient, openKnowledgeBase(new DocumentService(llmClient, openVectorIndex(), // Pass client for embeddings
+                DocumentService.DEFAULT_TOP_K, DocumentService.DEFAULT_THRESHOLD, openEmbeddingStore())), mode);
+    }
+
+    private Orchestrator(LLMClient llmClient, DocumentService docService, ExecutionMode mode) {
+        // Intent is decided locally from the (shared) query embedding where possible
+        this(llmClient, docService, new BillingService(openRefundLedger()), mode, new HistoryManager(llmClient),
+                new IntentClassifier(llmClient, docService::embedQuery, IntentClassifier.DEFAULT_MIN_MARGIN),
+                new SemanticResponseCache());
+    }
+
+    /**
+     * Uses LLM-only intent classification and no answer cache; see the full constructor
+     * for the local fast path and the semantic response cache.
+     */
+    public Orchestrator(LLMClient llmClient, DocumentService docService, BillingService billingService, ExecutionMode mode) {
+        this(llmClient, docService, billingService, mode, new HistoryManager(llmClient), new IntentClassifier(llmClient), null);
+    }
+
+    /**
+     * @param responseCache Answers near-duplicate technical questions without generation. May be {@code null}.
+     */
+    public Orchestrator(LLMClient llmClient, DocumentService docService, BillingService billingService, ExecutionMode mode,
+                        HistoryManager historyManager, IntentClassifier intentClassifier, SemanticResponseCache responseCache) {
+        this.llmClient = llmClient;
+        this.docService = docService;
+        this.mode = mode;
+        this.historyManager = historyManager;
+        this.intentClassifier = intentClassifier;
+        this.responseCache = responseCache;
+        billingService.registerTools(tools);
+        Metrics.global().register("orchestrator", this::collectMetrics);
+    }
+
+    /**
+     * Tools offered to the billing agent; further tools can be registered here before the first turn.
+     */
+    public ToolRegistry tools() {
+        return tools;
+    }
+
+    /**
+     * Single-conversation entry point used by the console front end.
+     */
     public String handleUserQuery(String userQuery) {
-        conversationHistory.add(new ChatMessage("user", userQuery));
+        return handleUserQuery(consoleSession, userQuery);
+    }
 
-        // Step 1: Intent Classification
-        String intent = classifyIntent();
+    /**
+     * Runs one turn of the given conversation. Turns of the same session are serialized.
+     */
+    public String handleUserQuery(ConversationSession session, String userQuery) {
+        return handleUserQuery(session, userQuery, null);
+    }
 
-        // Step 2: Route to specific Specialist
-        LLMResponse response = intent.contains("BILLING") ? callBillingAgent() : callTechnicalAgent();
+    /**
+     * Console entry point with token streaming; see {@link #handleUserQuery(ConversationSession, String, Consumer)}.
+     */
+    public String handleUserQuery(String userQuery, Consumer<String> onToken) {
+        return handleUserQuery(consoleSession, userQuery, onToken);
+    }
+
+    /**
+     * Runs one turn, streaming the agent's answer to {@code onToken} as it is generated.
+     * Everything the user should see is delivered through the callback, including tool action messages;
+     * the return value is the complete reply as stored in the history. {@code null} disables streaming.
+     */
+    public String handleUserQuery(ConversationSession session, String userQuery, Consumer<String> onToken) {
+        session.lock().lock();
+        try {
+            return runTurn(session, userQuery, onToken);
+        } finally {
+            session.lock().unlock();
+        }
+    }
+
+    private String runTurn(ConversationSession session, String userQuery, Consumer<String> onToken) {
+        TraceRecorder trace = new TraceRecorder();
+        Consumer<String> tokens = onToken == null ? null : trace.firstTokenTimer(onToken);
+        session.append(new ChatMessage("user", userQuery));
+
+        // Step 0 (speculative mode): retrieval runs while the intent is being classified
+        CompletableFuture<DocumentService.Retrieval> speculativeRetrieval = null;
+        long retrieveStart = System.nanoTime();
+        long[] retrieveEnd = new long[1];
+        if (mode == ExecutionMode.SPECULATIVE) {
+            speculativeRetrieval = CompletableFuture.supplyAsync(() -> {
+                DocumentService.Retrieval retrieval = docService.retrieve(userQuery);
+                retrieveEnd[0] = System.nanoTime();
+                return retrieval;
+            }, RETRIEVAL_EXECUTOR);
+        }
+
+        // Step 1: Intent Classification (local fast path, LLM only for ambiguous queries),
+        // splitting a message for both specialists into one sub-query each
+        List<IntentClassifier.SubQuery> parts = trace.time("classify", () -> intentClassifier.decompose(userQuery));
+
+        // Step 2: Route to specific Specialist(s)
+        String output;
+        if (parts.size() == 1 && parts.get(0).intent() == IntentClassifier.Intent.TECHNICAL) {
+            CompletableFuture<DocumentService.Retrieval> speculative = speculativeRetrieval;
+            output = answer(historyManager.buildHistory(session), session.id(), parts.get(0), trace, tokens, () -> {
+                if (speculative == null) return trace.time("retrieve", () -> docService.retrieve(userQuery));
+                DocumentService.Retrieval retrieval = speculative.join(); // join() publishes retrieveEnd
+                trace.record("retrieve", retrieveStart, retrieveEnd[0], false);
+                return retrieval;
+            });
+        } else {
+            if (speculativeRetrieval != null) {
+                // Billing needs no docs, and a sub-query retrieves its own
+                speculativeRetrieval.cancel(false);
+                trace.record("retrieve", retrieveStart, System.nanoTime(), true);
+            }
+            output = parts.size() == 1
+                    ? answer(historyManager.buildHistory(session), session.id(), parts.get(0), trace, tokens, null)
+                    : fanOut(session, parts, trace, tokens);
+        }
+        session.append(new ChatMessage("assistant", output));
+        session.setLastTurnTrace(trace.finish());
+        return output;
+    }
+
+    /**
+     * Answers every sub-query at the same time, each specialist with its own retrieval and tool calls, and joins
+     * the answers in message order. The first answer streams live; the others are delivered once it is complete,
+     * so the turn takes as long as the slowest specialist rather than the sum of both.
+     */
+    private String fanOut(ConversationSession session, List<IntentClassifier.SubQuery> parts, TraceRecorder trace,
+                          Consumer<String> tokens) {
+        // Histories are built here, under the session lock; the specialists only read their own copies
+        List<CompletableFuture<String>> later = new ArrayList<>(parts.size() - 1);
+        for (IntentClassifier.SubQuery part : parts.subList(1, parts.size())) {
+            List<ChatMessage> history = historyFor(session, part.text());
+            later.add(CompletableFuture.supplyAsync(() -> answer(history, session.id(), part, trace, null, retriever(part, trace)),
+                    AGENT_EXECUTOR).exceptionally(error -> {
+                        System.err.println(part.intent() + " agent failed in session " + session.id() + ": " + error.getMessage());
+                        return FALLBACK_REPLY;
+                    }));
+        }
+        IntentClassifier.SubQuery first = parts.get(0);
+        StringBuilder reply = new StringBuilder(
+                answer(historyFor(session, first.text()), session.id(), first, trace, tokens, retriever(first, trace)));
+        for (CompletableFuture<String> part : later) {
+            String text = part.join();
+            if (tokens != null) tokens.accept("\n\n" + text);
+            reply.append("\n\n").append(text);
+        }
+        return reply.toString();
+    }
+
+    /**
+     * The session's context for one sub-query: the current user message is replaced by the sub-query,
+     * so each specialist only sees the part of the message meant for it.
+     */
+    private List<ChatMessage> historyFor(ConversationSession session, String subQuery) {
+        List<ChatMessage> history = new ArrayList<>(historyManager.buildHistory(session));
+        if (!history.isEmpty()) history.set(history.size() - 1, new ChatMessage("user", subQuery));
+        return history;
+    }
+
+    private Supplier<DocumentService.Retrieval> retriever(IntentClassifier.SubQuery part, TraceRecorder trace) {
+        return part.intent() == IntentClassifier.Intent.TECHNICAL
+                ? () -> trace.time("retrieve", () -> docService.retrieve(part.text()))
+                : null;
+    }
 
-        // Step 3: Handle Native Function Call (Tool Calling)
+    /**
+     * One specialist's reply to one (sub-)query, including its tool calls. Text goes to {@code tokens} as it is
+     * generated, or as a whole if nothing was streamed (e.g. a cached answer or an error fallback).
+     *
+     * @param retrieval Docs for a technical query; {@code null} for billing.
+     */
+    private String answer(List<ChatMessage> history, String sessionId, IntentClassifier.SubQuery part, TraceRecorder trace,
+                          Consumer<String> tokens, Supplier<DocumentService.Retrieval> retrieval) {
+        AtomicBoolean streamed = new AtomicBoolean();
+        Consumer<String> deltas = tokens == null ? null : delta -> {
+            streamed.set(true);
+            tokens.accept(delta);
+        };
+        boolean billing = part.intent() == IntentClassifier.Intent.BILLING;
+        DocumentService.Retrieval docs = billing ? null : retrieval.get();
+        // The cache is shared by all sessions, so only answers to a question without earlier turns are reusable:
+        // any other answer may depend on, or repeat details from, that customer's conversation
+        boolean cacheable = !billing && responseCache != null && history.size() == 1;
+        if (cacheable) {
+            // Near-duplicate technical question over the same documents: reuse the earlier answer
+            String cached = trace.time("cache", () -> responseCache.lookup(docs));
+            if (cached != null) {
+                if (tokens != null) tokens.accept(cached);
+                return cached;
+            }
+        }
+        LLMResponse response = trace.time("generate", () -> billing
+                ? callBillingAgent(history, List.of(), deltas)
+                : callTechnicalAgent(history, docs.context(), deltas));
+
+        // Step 3: Handle Native Function Calls (Tool Calling)
         // This is a direct fix for the "missing tool calling mechanism" feedback.
-        if (response.functionCall() != null) {
-            FunctionCall call = response.functionCall();
-            if ("initiateRefund".equals(call.name())) {
-                String result = billingService.initiateRefund(call.reason());
-                String systemMessage = "[System Action]: " + result;
-                conversationHistory.add(new ChatMessage("assistant", systemMessage));
-                return systemMessage;
+        // All calls of the response run concurrently and their results go back in one follow-up call,
+        // so a multi-action turn costs two model round trips. Calls in the follow-up answer are not executed.
+        if (!response.functionCalls().isEmpty()) {
+            List<ToolResult> results = trace.time("tool", () -> tools.executeAll(sessionId, response.functionCalls()));
+            StringBuilder actions = new StringBuilder();
+            for (ToolResult result : results) {
+                if (actions.length() > 0) actions.append('\n');
+                actions.append("[System Action]: ").append(result.output());
             }
+            if (deltas != null) deltas.accept(actions.toString());
+            LLMResponse followUp = trace.time("follow-up",
+                    () -> callBillingAgent(history, results, deltas == null ? null : onNewLine(deltas)));
+            return followUp.text() == null || followUp.isError()
+                    ? actions.toString()
+                    : actions + "\n" + followUp.text();
         }
 
         // Step 4: Normal text response handling
-        String output = (response.text() != null) ? response.text() : "I'm sorry, I couldn't process that.";
-        conversationHistory.add(new ChatMessage("assistant", output));
+        String output = (response.text() != null) ? response.text() : FALLBACK_REPLY;
+        // Only successful technical answers are reusable; billing and tool-calling turns never are
+        if (cacheable && response.text() != null && !response.isError()) {
+            responseCache.store(docs, output);
+        }
+        if (tokens != null && !streamed.get()) tokens.accept(output); // e.g. an error fallback, never streamed
         return output;
     }
 
-    private String classifyIntent() {
-        String prompt = "Classify user intent as 'TECHNICAL' or 'BILLING'. Output one word only.";
-        List<ChatMessage> context = List.of(new ChatMessage("system", prompt), new ChatMessage("user", historyLastMessage()));
-        LLMResponse res = llmClient.getCompletion(context);
-        return res.text() != null ? res.text().toUpperCase() : "TECHNICAL";
+    /**
+     * Hit/miss counters of the semantic answer cache, or {@code null} if it is disabled.
+     */
+    public SemanticResponseCache.Stats getResponseCacheStats() {
+        return responseCache == null ? null : responseCache.stats();
+    }
+
+    /**
+     * How many turns were classified locally and the model latency this saved.
+     */
+    public IntentClassifier.Stats getIntentStats() {
+        return intentClassifier.stats();
+    }
+
+    /**
+     * Intent classifier and cache counters for {@code /metrics}; components without stats are left out.
+     */
+    private void collectMetrics(Metrics.Samples samples) {
+        IntentClassifier.Stats intent = intentClassifier.stats();
+        if (intent != null) {
+            String decisions = "Intent decisions, by the stage that made them.";
+            samples.counter(Metrics.INTENT_DECISIONS, decisions, "stage", "rules", intent.byRules());
+            samples.counter(Metrics.INTENT_DECISIONS, decisions, "stage", "centroid", intent.byCentroid());
+            samples.counter(Metrics.INTENT_DECISIONS, decisions, "stage", "model", intent.byModel());
+            samples.gauge(Metrics.INTENT_LOCAL_RATIO, "Share of intent decisions made without a model call.", intent.localShare());
+            samples.gauge(Metrics.INTENT_SAVED_LATENCY, "Estimated model latency saved by local intent decisions.",
+                    intent.savedNanos() / 1e9);
+        }
+        EmbeddingCache.Stats queries = docService.getQueryCacheStats();
+        if (queries != null) {
+            cacheSamples(samples, "query_embedding", queries.hits(), queries.misses(), queries.size());
+            samples.counter(Metrics.CACHE_COALESCED, "Lookups that waited for another caller's request.",
+                    "cache", "query_embedding", queries.coalesced());
+            samples.counter(Metrics.CACHE_EVICTIONS, "Entries evicted or expired.", "cache", "query_embedding", queries.evictions());
+        }
+        SemanticResponseCache.Stats responses = getResponseCacheStats();
+        if (responses != null) {
+            cacheSamples(samples, "response", responses.hits(), responses.misses(), responses.size());
+            samples.counter(Metrics.CACHE_EVICTIONS, "Entries evicted or expired.", "cache", "response", responses.evictions());
+        }
+        ContextCache.Stats contexts = llmClient.getContextCacheStats();
+        if (contexts != null) {
+            cacheSamples(samples, "context", contexts.hits(), contexts.misses(), contexts.live());
+            samples.counter(Metrics.CONTEXT_CACHE_CREATES, "Gemini context caches created.", "cache", "context", contexts.creates());
+            samples.counter(Metrics.CONTEXT_CACHE_REFRESHES, "Gemini context cache TTL extensions.", "cache", "context", contexts.refreshes());
+        }
+    }
+
+    private static void cacheSamples(Metrics.Samples samples, String cache, long hits, long misses, int entries) {
+        samples.counter(Metrics.CACHE_HITS, "Cache lookups answered from the cache.", "cache", cache, hits);
+        samples.counter(Metrics.CACHE_MISSES, "Cache lookups that had to fetch or compute the value.", "cache", cache, misses);
+        samples.gauge(Metrics.CACHE_ENTRIES, "Entries currently cached.", "cache", cache, entries);
+    }
+
+    /**
+     * Stage timings of the most recent console turn, or {@code null} before the first turn.
+     */
+    public TurnTrace getLastTurnTrace() {
+        return consoleSession.lastTurnTrace();
+    }
+
+    private LLMResponse callTechnicalAgent(List<ChatMessage> history, String context, Consumer<String> onToken) {
+        List<ChatMessage> prefix = List.of(new ChatMessage("system", TECHNICAL_PROMPT + context));
+        return generate(prefix, history, null, List.of(), onToken);
+    }
+
+    /**
+     * @param toolResults Results of the calls in the agent's previous answer this turn, or empty for its first answer.
+     */
+    private LLMResponse callBillingAgent(List<ChatMessage> history, List<ToolResult> toolResults, Consumer<String> onToken) {
+        return generate(BILLING_PREFIX, history, tools, toolResults, onToken);
+    }
+
+    /**
+     * Sends the agent's stable prefix (instruction, docs, tools) first and the per-session part after it,
+     * so the prefix can be served from the model API's context cache.
+     *
+     * @param history Summary of older turns plus a token-budgeted window of recent ones, not the whole history.
+     */
+    private LLMResponse generate(List<ChatMessage> prefix, List<ChatMessage> history, ToolRegistry agentTools,
+                                 List<ToolResult> toolResults, Consumer<String> onToken) {
+        return onToken == null
+                ? llmClient.getCompletion(prefix, history, agentTools, toolResults)
+                : llmClient.streamCompletion(prefix, history, agentTools, toolResults, onToken).join(); // Bounded: stalled streams fail
+    }
+
+    /**
+     * Starts the follow-up answer on its own line below the tool action messages.
+     */
+    private static Consumer<String> onNewLine(Consumer<String> tokens) {
+        boolean[] started = new boolean[1];
+        return delta -> {
+            if (!started[0]) {
+                started[0] = true;
+                delta = "\n" + delta;
+            }
+            tokens.accept(delta);
+        };
     }
 
-    private LLMResponse callTechnicalAgent() {
-        String query = historyLastMessage();
-        String context = docService.findRelevantContext(query);
-        String systemPrompt = "You are a Technical Specialist. Use provided docs only: " + context;
-        return execute(systemPrompt);
+    /**
+     * Opens the persistent embedding store (path from EMBEDDING_STORE_PATH, default ./embeddings.bin)
+     * so restarts skip re-embedding unchanged documents. Runs without persistence if it cannot be opened.
+     */
+    private static EmbeddingStore openEmbeddingStore() {
+        String configured = System.getenv("EMBEDDING_STORE_PATH");
+        Path path = Path.of(configured == null || configured.isBlank() ? "embeddings.bin" : configured);
+        try {
+            return EmbeddingStore.open(path, LLMClient.EMBEDDING_MODEL);
+        } catch (IOException e) {
+            System.err.println("Embedding store unavailable, embedding corpus from scratch: " + e.getMessage());
+            return null;
+        }
     }
 
-    private LLMResponse callBillingAgent() {
-        String systemPrompt = "You are a Billing Specialist. Use the 'initiateRefund' tool if criteria are met.";
-        return execute(systemPrompt);
+    /**
+     * Opens the refund ticket log (path from REFUND_LEDGER_PATH, default ./refunds.log).
+     * Falls back to in-memory tickets if it cannot be opened, so refunds still work but are not persisted.
+     */
+    private static RefundLedger openRefundLedger() {
+        String configured = System.getenv("REFUND_LEDGER_PATH");
+        Path path = Path.of(configured == null || configured.isBlank() ? "refunds.log" : configured);
+        try {
+            return RefundLedger.open(path);
+        } catch (IOException e) {
+            System.err.println("Refund ledger unavailable, tickets will not be persisted: " + e.getMessage());
+            return RefundLedger.inMemory();
+        }
     }
 
-    private LLMResponse execute(String systemInstruction) {
-        List<ChatMessage> fullContext = new ArrayList<>();
-        fullContext.add(new ChatMessage("system", systemInstruction));
-        fullContext.addAll(conversationHistory);
-        return llmClient.getCompletion(fullContext);
+    /**
+     * Vector engine selected by {@code VECTOR_QUANTIZATION}: {@code int8} or {@code binary} keep quantized codes
+     * on the heap and the float32 vectors in a mapped file; unset means exact float32 search.
+     */
+    private static VectorIndex openVectorIndex() {
+        String configured = System.getenv("VECTOR_QUANTIZATION");
+        if (configured == null || configured.isBlank()) return new FlatVectorStore();
+        try {
+            return new QuantizedVectorStore(QuantizedVectorStore.Quantization.valueOf(configured.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown VECTOR_QUANTIZATION '" + configured + "', using float32 vectors.");
+            return new FlatVectorStore();
+        }
+    }
+
+    /**
+     * Ingests the manuals under {@code KNOWLEDGE_BASE_DIR}, if set, and keeps watching the directory for changes.
+     * The watcher thread lives as long as the process. Embeddings are persisted once the initial corpus is
+     * loaded; if the directory cannot be read they are not, so its stored embeddings survive until it can.
+     */
+    private static DocumentService openKnowledgeBase(DocumentService docService) {
+        String configured = System.getenv("KNOWLEDGE_BASE_DIR");
+        if (configured == null || configured.isBlank()) {
+            docService.persistEmbeddings();
+            return docService;
+        }
+        try {
+            DirectoryIngestor ingestor = new DirectoryIngestor(docService, Path.of(configured));
+            ingestor.sync();
+            docService.persistEmbeddings();
+            ingestor.watch();
+        } catch (IOException e) {
+            System.err.println("Knowledge base directory unavailable, using built-in docs only: " + e.getMessage());
+        }
+        return docService;
     }
 
-    private String historyLastMessage() {
-        return conversationHistory.get(conversationHistory.size() - 1).content();
+    /**
+     * Collects stage spans of one turn; stages may be recorded from several threads.
+     * Every span, and the whole turn as stage "turn", is also added to the process-wide stage histograms.
+     */
+    private static final class TraceRecorder {
+        private final long turnStart = System.nanoTime();
+        private final List<TurnTrace.Span> spans = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicBoolean firstToken = new AtomicBoolean();
+
+        <T> T time(String stage, Supplier<T> work) {
+            long start = System.nanoTime();
+            try {
+                return work.get();
+            } finally {
+                record(stage, start, System.nanoTime(), false);
+            }
+        }
+
+        /**
+         * Wraps a token consumer so the first delivered token is recorded as the "first-token" span.
+         * A failing consumer (e.g. a disconnected HTTP client) does not abort the turn.
+         */
+        Consumer<String> firstTokenTimer(Consumer<String> onToken) {
+            return token -> {
+                if (firstToken.compareAndSet(false, true)) record("first-token", turnStart, System.nanoTime(), false);
+                try {
+                    onToken.accept(token);
+                } catch (RuntimeException e) {
+                    // The reply is still stored in the session history
+                }
+            };
+        }
+
+        void record(String stage, long start, long end, boolean wasted) {
+            spans.add(new TurnTrace.Span(stage, start - turnStart, end - start, wasted));
+            Metrics.global().recordStage(stage, end - start, wasted);
+        }
+
+        TurnTrace finish() {
+            List<TurnTrace.Span> ordered;
+            synchronized (spans) {
+                ordered = new ArrayList<>(spans);
+            }
+            ordered.sort(Comparator.comparingLong(TurnTrace.Span::startNanos));
+            long total = System.nanoTime() - turnStart;
+            Metrics.global().recordStage("turn", total);
+            return new TurnTrace(List.copyOf(ordered), total);
+        }
     }
-}
\ No newline at end of file
+}
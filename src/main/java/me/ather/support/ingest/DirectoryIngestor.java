@@ -0,0 +1,230 @@
+package me.ather.support.ingest;
+
+import me.ather.support.service.DocumentService;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps the knowledge base in sync with a directory tree of markdown and text manuals.
+ * Every file is one source of the {@link DocumentService}: it is streamed through a {@link TextChunker},
+ * and only chunks that are not indexed yet are embedded, so editing one paragraph of a manual costs
+ * about one embedding call. Files whose size and modification time are unchanged are not read again.
+ *
+ * {@link #sync()} reconciles the whole tree; {@link #watch()} additionally applies file adds, updates and
+ * deletes as they happen. Changes arriving within {@link #DEBOUNCE_MILLIS} of each other are applied as one
+ * knowledge base update. Queries keep running against the previous snapshot while an update is embedded.
+ */
+public class DirectoryIngestor implements Closeable {
+    public static final Set<String> EXTENSIONS = Set.of(".md", ".markdown", ".txt");
+    static final long DEBOUNCE_MILLIS = 200;
+
+    private final DocumentService docService;
+    private final Path root;
+    private final TextChunker chunker;
+    private final Map<Path, Fingerprint> indexed = new HashMap<>(); // guarded by this
+    private WatchService watchService;
+    private Thread watcher;
+
+    public DirectoryIngestor(DocumentService docService, Path root) {
+        this(docService, root, new TextChunker());
+    }
+
+    public DirectoryIngestor(DocumentService docService, Path root, TextChunker chunker) {
+        this.docService = docService;
+        this.root = root.toAbsolutePath().normalize();
+        this.chunker = chunker;
+    }
+
+    /**
+     * Ingests new and modified files and removes the chunks of files that no longer exist.
+     */
+    public synchronized SyncResult sync() throws IOException {
+        Set<Path> paths = new HashSet<>(indexed.keySet());
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(this::isDocument).forEach(paths::add);
+        }
+        return refresh(paths);
+    }
+
+    /**
+     * Re-reads the given paths (existing or deleted) and applies the differences as one update.
+     */
+    synchronized SyncResult refresh(Collection<Path> paths) {
+        Map<String, List<String>> upserts = new HashMap<>();
+        Set<String> removals = new HashSet<>();
+        Map<Path, Fingerprint> fingerprints = new HashMap<>();
+        int chunks = 0;
+
+        for (Path path : paths) {
+            if (!isDocument(path)) {
+                if (indexed.containsKey(path)) removals.add(sourceOf(path));
+                continue;
+            }
+            try {
+                Fingerprint fingerprint = Fingerprint.of(path);
+                if (fingerprint.equals(indexed.get(path))) continue;
+                List<String> fileChunks = new ArrayList<>();
+                try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    chunker.chunk(reader, fileChunks::add);
+                }
+                upserts.put(sourceOf(path), fileChunks);
+                fingerprints.put(path, fingerprint);
+                chunks += fileChunks.size();
+            } catch (IOException e) {
+                // Unreadable or not UTF-8: keep whatever version of the file was indexed before
+                System.err.println("Skipping " + path + ": " + e);
+            }
+        }
+        if (upserts.isEmpty() && removals.isEmpty()) return SyncResult.NONE;
+
+        DocumentService.Update update = docService.updateSources(upserts, removals);
+        if (update.added() > 0) docService.persistEmbeddings();
+        if (!update.failed().isEmpty()) {
+            // Keep the file tracked but never up to date, so the next sync reads it again and retries the chunks
+            fingerprints.replaceAll((path, fingerprint) ->
+                    upserts.get(sourceOf(path)).stream().anyMatch(update.failed()::contains) ? Fingerprint.RETRY : fingerprint);
+            System.err.println(update.failed().size() + " chunks could not be embedded and are retried on the next sync");
+        }
+        indexed.putAll(fingerprints);
+        indexed.keySet().removeIf(path -> removals.contains(sourceOf(path)));
+        return new SyncResult(upserts.size(), removals.size(), chunks, update.added());
+    }
+
+    /**
+     * Starts a daemon thread that applies changes under the root directory until {@link #close()}.
+     * Call {@link #sync()} first to ingest the files that already exist.
+     */
+    public synchronized void watch() throws IOException {
+        if (watcher != null) return;
+        watchService = root.getFileSystem().newWatchService();
+        register(root);
+        watcher = new Thread(this::watchLoop, "knowledge-base-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new HashSet<>();
+                boolean overflow = false;
+                WatchKey key = watchService.take();
+                do {
+                    overflow |= collect(key, changed);
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                try {
+                    if (overflow) sync(); // Events were lost: reconcile the whole tree
+                    else refresh(changed);
+                } catch (IOException e) {
+                    System.err.println("Knowledge base sync failed: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close()
+        }
+    }
+
+    /**
+     * Adds the paths affected by the key's events to {@code changed}.
+     * @return true if the event queue overflowed.
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        Path directory = (Path) key.watchable();
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            changed.add(path);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // A new (or moved-in) directory: watch it and pick up the files it already contains
+                try {
+                    register(path);
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(this::isDocument).forEach(changed::add);
+                    }
+                } catch (IOException e) {
+                    overflow = true;
+                }
+            } else if (event.kind() == ENTRY_DELETE) {
+                synchronized (this) {
+                    // A deleted directory only reports itself
+                    indexed.keySet().stream().filter(file -> file.startsWith(path)).forEach(changed::add);
+                }
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    private void register(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher == null) return;
+        watcher.interrupt();
+        watchService.close();
+        watcher = null;
+    }
+
+    /**
+     * Sources currently indexed from this directory, as relative paths.
+     */
+    public synchronized Set<String> indexedFiles() {
+        return indexed.keySet().stream().map(path -> root.relativize(path).toString())
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    private boolean isDocument(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot)) && Files.isRegularFile(path);
+    }
+
+    private static String sourceOf(Path path) {
+        return path.toString();
+    }
+
+    /**
+     * Outcome of one update: files (re)ingested, files removed, chunks read and chunks that were newly indexed.
+     */
+    public record SyncResult(int filesUpdated, int filesRemoved, int chunks, int chunksAdded) {
+        static final SyncResult NONE = new SyncResult(0, 0, 0, 0);
+    }
+
+    private record Fingerprint(long size, FileTime modified) {
+        static final Fingerprint RETRY = new Fingerprint(-1, FileTime.fromMillis(0)); // matches no file
+
+
+        static Fingerprint of(Path path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Fingerprint(attributes.size(), attributes.lastModifiedTime());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package me.ather.support.ingest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into overlapping chunks of at most {@code chunkSize} characters, reading it as a stream:
+ * only one chunk plus one read buffer is held in memory, however large the input is.
+ * Chunks end at a paragraph break if there is one in the second half of the window, otherwise at the last
+ * whitespace, so words are not cut. Chunks that split a paragraph share about {@code overlap} characters
+ * of context with the next chunk; a chunk ending at a paragraph break does not.
+ */
+public class TextChunker {
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final int DEFAULT_OVERLAP = 150;
+    private static final int READ_BUFFER = 8192;
+
+    private final int chunkSize;
+    private final int overlap;
+
+    public TextChunker() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_OVERLAP);
+    }
+
+    /**
+     * @param chunkSize Maximum chunk length in characters.
+     * @param overlap   Characters repeated from the end of one chunk at the start of the next; less than chunkSize.
+     */
+    public TextChunker(int chunkSize, int overlap) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        if (overlap < 0 || overlap >= chunkSize) {
+            throw new IllegalArgumentException("overlap must be in [0, chunkSize): " + overlap);
+        }
+        this.chunkSize = chunkSize;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Reads the text to the end and passes every non-blank chunk, stripped, to {@code sink} in order.
+     * The reader is not closed.
+     */
+    public void chunk(Reader reader, Consumer<String> sink) throws IOException {
+        char[] buffer = new char[READ_BUFFER];
+        StringBuilder window = new StringBuilder(chunkSize + READ_BUFFER);
+        int carried = 0; // leading characters of the window that were already emitted as overlap
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            window.append(buffer, 0, read);
+            while (window.length() > chunkSize) {
+                carried = emit(window, sink);
+            }
+        }
+        // The rest is a chunk of its own unless it only repeats the end of the previous one
+        if (!window.substring(carried).isBlank()) accept(window.toString(), sink);
+    }
+
+    public List<String> chunk(String text) {
+        List<String> chunks = new ArrayList<>();
+        try {
+            chunk(new StringReader(text), chunks::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringReader does not fail
+        }
+        return chunks;
+    }
+
+    /**
+     * Emits the first chunk of a window longer than chunkSize and drops it, keeping the overlap.
+     * @return the length of the overlap left at the start of the window.
+     */
+    private int emit(StringBuilder window, Consumer<String> sink) {
+        int cut = cutPoint(window);
+        accept(window.substring(0, cut), sink);
+        if (window.charAt(cut) == '\n' && window.charAt(cut - 1) == '\n') {
+            // Paragraphs are self-contained: no overlap, so a paragraph shared by many files chunks identically
+            window.delete(0, cut);
+            return 0;
+        }
+
+        int start = cut - overlap;
+        if (start > 0 && !Character.isWhitespace(window.charAt(start - 1))) {
+            // Start the overlap at a word boundary rather than in the middle of a word
+            while (start < cut && !Character.isWhitespace(window.charAt(start))) start++;
+        }
+        window.delete(0, start);
+        return cut - start;
+    }
+
+    /**
+     * End of the next chunk: after {@code overlap} so that every chunk makes progress, at most chunkSize.
+     */
+    private int cutPoint(CharSequence window) {
+        int min = overlap + 1;
+        for (int i = chunkSize - 1; i >= Math.max(min, chunkSize / 2); i--) {
+            if (window.charAt(i) == '\n' && window.charAt(i - 1) == '\n') return i;
+        }
+        for (int i = chunkSize; i >= min; i--) {
+            if (Character.isWhitespace(window.charAt(i))) return i;
+        }
+        return chunkSize;
+    }
+
+    private static void accept(String chunk, Consumer<String> sink) {
+        String stripped = chunk.strip();
+        if (!stripped.isEmpty()) sink.accept(stripped);
+    }
+}
@@ -0,0 +1,101 @@
+package me.ather.support.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets, from 16 µs (2^14 ns) up to about 69 s (2^36 ns),
+ * plus an overflow bucket. Recording is one leading-zero count and two {@link LongAdder} increments, so
+ * concurrent writers never block each other and contended buckets are striped across cells.
+ *
+ * Reads are not atomic with respect to writers: a snapshot taken during recording may miss the latest
+ * few values, but bucket counts never go backwards.
+ */
+public final class LatencyHistogram {
+    static final int MIN_SHIFT = 14;
+    static final int BOUNDS = 23; // upper bounds 2^14 .. 2^36 ns; index BOUNDS is the overflow bucket
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[bucketIndex(value)].increment();
+        sumNanos.add(value);
+    }
+
+    /**
+     * Smallest bucket whose upper bound is at least {@code nanos}.
+     */
+    static int bucketIndex(long nanos) {
+        if (nanos <= 1L << MIN_SHIFT) return 0;
+        return Math.min(BOUNDS, 64 - Long.numberOfLeadingZeros((nanos - 1) >> MIN_SHIFT));
+    }
+
+    /**
+     * Inclusive upper bound of bucket {@code index}, or {@link Long#MAX_VALUE} for the overflow bucket.
+     */
+    static long upperBoundNanos(int index) {
+        return index >= BOUNDS ? Long.MAX_VALUE : 1L << (MIN_SHIFT + index);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sumNanos.sum());
+    }
+
+    /**
+     * Point-in-time copy of the bucket counts.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumNanos;
+
+        private Snapshot(long[] counts, long count, long sumNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long sumNanos() {
+            return sumNanos;
+        }
+
+        /**
+         * Number of recorded values of at most the upper bound of bucket {@code index}.
+         */
+        long cumulativeCount(int index) {
+            long cumulative = 0;
+            for (int i = 0; i <= index; i++) cumulative += counts[i];
+            return cumulative;
+        }
+
+        /**
+         * Upper bound of the bucket holding the {@code quantile} (0..1) value, so the true value is at most
+         * this and, above the first bucket, more than half of it. Returns 0 for an empty histogram.
+         */
+        public long quantileNanos(double quantile) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(quantile * count);
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= Math.max(1, rank)) return upperBoundNanos(i);
+            }
+            return upperBoundNanos(BOUNDS);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package me.ather.support.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one request to the Gemini API, committed when the response (or failure) is handled.
+ */
+@Name("me.ather.support.LlmCall")
+@Label("LLM Call")
+@Category({"Support", "LLM"})
+@Description("One Gemini API request with its payload sizes")
+@StackTrace(false)
+final class LlmCallEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long durationNanos;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytesReceived;
+
+    @Label("Failed")
+    boolean failed;
+}
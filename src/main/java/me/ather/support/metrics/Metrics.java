@@ -0,0 +1,319 @@
+package me.ather.support.metrics;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Process-wide latency histograms and counters for the support pipeline.
+ *
+ * Stage timings (classify, embed, vector-search, generate, tool, ...) go to one {@link LatencyHistogram} per stage;
+ * every Gemini API request updates the counters of its operation (requests, errors, retries, hedges, bytes, tokens).
+ * Recording never locks once a stage or operation has been seen, and each record is also emitted as a
+ * JFR event ({@code me.ather.support.Stage} / {@code me.ather.support.LlmCall}) when a recording has them enabled.
+ * Components that keep their own counters (caches, the intent classifier) {@link #register} a {@link Collector}
+ * that adds them at scrape time. {@link #scrape()} renders everything in the Prometheus text exposition format.
+ */
+public final class Metrics {
+    public static final String STAGE_DURATION = "support_stage_duration_seconds";
+    public static final String LLM_DURATION = "support_llm_request_duration_seconds";
+    public static final String LLM_REQUESTS = "support_llm_requests_total";
+    public static final String LLM_ERRORS = "support_llm_errors_total";
+    public static final String LLM_RETRIES = "support_llm_retries_total";
+    public static final String LLM_HEDGES = "support_llm_hedged_requests_total";
+    public static final String LLM_BYTES_SENT = "support_llm_sent_bytes_total";
+    public static final String LLM_BYTES_RECEIVED = "support_llm_received_bytes_total";
+    public static final String LLM_TOKENS = "support_llm_tokens_total";
+    public static final String INTENT_DECISIONS = "support_intent_decisions_total";
+    public static final String INTENT_LOCAL_RATIO = "support_intent_local_ratio";
+    public static final String INTENT_SAVED_LATENCY = "support_intent_saved_latency_seconds";
+    public static final String CACHE_HITS = "support_cache_hits_total";
+    public static final String CACHE_MISSES = "support_cache_misses_total";
+    public static final String CACHE_COALESCED = "support_cache_coalesced_total";
+    public static final String CACHE_EVICTIONS = "support_cache_evictions_total";
+    public static final String CACHE_ENTRIES = "support_cache_entries";
+    public static final String CONTEXT_CACHE_CREATES = "support_context_cache_creates_total";
+    public static final String CONTEXT_CACHE_REFRESHES = "support_context_cache_refreshes_total";
+
+    private static final Metrics GLOBAL = new Metrics();
+
+    private final Map<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+    private final Map<String, CallStats> calls = new ConcurrentHashMap<>();
+    private final Map<String, Collector> collectors = new ConcurrentHashMap<>();
+
+    /**
+     * Registry used by the LLM client, the document service and the orchestrator.
+     */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records a completed pipeline stage. Discarded speculative work is only reported to JFR,
+     * so the histograms describe the stages a turn actually waited for.
+     */
+    public void recordStage(String stage, long nanos, boolean wasted) {
+        if (!wasted) stage(stage).record(nanos);
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage;
+            event.durationNanos = nanos;
+            event.wasted = wasted;
+            event.commit();
+        }
+    }
+
+    public void recordStage(String stage, long nanos) {
+        recordStage(stage, nanos, false);
+    }
+
+    /**
+     * Records one finished API request of the given operation (e.g. "generate", "embed").
+     * A failure is a transport error, a timeout, an HTTP error status or an unreadable body.
+     */
+    public void recordLlmCall(String operation, long nanos, long bytesSent, long bytesReceived, boolean failed) {
+        CallStats stats = calls(operation);
+        stats.latency.record(nanos);
+        stats.requests.increment();
+        if (failed) stats.errors.increment();
+        stats.bytesSent.add(bytesSent);
+        stats.bytesReceived.add(bytesReceived);
+        LlmCallEvent event = new LlmCallEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.durationNanos = nanos;
+            event.bytesSent = bytesSent;
+            event.bytesReceived = bytesReceived;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds the token counts the API reported in {@code usageMetadata}.
+     */
+    public void recordTokens(String operation, long promptTokens, long completionTokens, long cachedTokens) {
+        CallStats stats = calls(operation);
+        stats.promptTokens.add(promptTokens);
+        stats.completionTokens.add(completionTokens);
+        stats.cachedTokens.add(cachedTokens);
+    }
+
+    /**
+     * Counts a request that is sent again after a failed attempt.
+     */
+    public void recordRetry(String operation) {
+        calls(operation).retries.increment();
+    }
+
+    /**
+     * Counts a second copy of a slow request sent to cut tail latency.
+     */
+    public void recordHedge(String operation) {
+        calls(operation).hedges.increment();
+    }
+
+    /**
+     * Adds the collector's samples to every scrape. A collector registered under an existing key replaces it,
+     * so a component that is built again does not report twice.
+     */
+    public void register(String key, Collector collector) {
+        collectors.put(key, collector);
+    }
+
+    public LatencyHistogram stage(String stage) {
+        LatencyHistogram histogram = stages.get(stage); // Lock-free for known stages
+        return histogram != null ? histogram : stages.computeIfAbsent(stage, name -> new LatencyHistogram());
+    }
+
+    public CallStats calls(String operation) {
+        CallStats stats = calls.get(operation);
+        return stats != null ? stats : calls.computeIfAbsent(operation, name -> new CallStats());
+    }
+
+    /**
+     * Current values in the Prometheus text format (version 0.0.4), sorted by metric and label.
+     */
+    public String scrape() {
+        Map<String, LatencyHistogram.Snapshot> stageSnapshots = new TreeMap<>();
+        stages.forEach((stage, histogram) -> stageSnapshots.put(stage, histogram.snapshot()));
+        Map<String, CallStats> callStats = new TreeMap<>(calls);
+
+        StringBuilder out = new StringBuilder(4096);
+        header(out, STAGE_DURATION, "histogram", "Time spent in each stage of a support turn.");
+        stageSnapshots.forEach((stage, snapshot) -> histogram(out, STAGE_DURATION, "stage=\"" + escape(stage) + "\"", snapshot));
+
+        header(out, LLM_DURATION, "histogram", "Gemini API request latency, including failed requests.");
+        callStats.forEach((operation, stats) -> histogram(out, LLM_DURATION, label(operation), stats.latency.snapshot()));
+
+        counter(out, LLM_REQUESTS, "Gemini API requests sent.", callStats, stats -> stats.requests.sum());
+        counter(out, LLM_ERRORS, "Gemini API requests that failed or timed out.", callStats, stats -> stats.errors.sum());
+        counter(out, LLM_RETRIES, "Gemini API requests sent again after a failure.", callStats, stats -> stats.retries.sum());
+        counter(out, LLM_HEDGES, "Duplicate Gemini API requests sent because the first was slow.", callStats, stats -> stats.hedges.sum());
+        counter(out, LLM_BYTES_SENT, "Request body bytes sent to the Gemini API.", callStats, stats -> stats.bytesSent.sum());
+        counter(out, LLM_BYTES_RECEIVED, "Response body bytes received from the Gemini API.", callStats, stats -> stats.bytesReceived.sum());
+
+        header(out, LLM_TOKENS, "counter", "Tokens reported by the Gemini API, by direction.");
+        callStats.forEach((operation, stats) -> {
+            sample(out, LLM_TOKENS, label(operation) + ",direction=\"prompt\"", stats.promptTokens.sum());
+            sample(out, LLM_TOKENS, label(operation) + ",direction=\"completion\"", stats.completionTokens.sum());
+            sample(out, LLM_TOKENS, label(operation) + ",direction=\"cached\"", stats.cachedTokens.sum());
+        });
+
+        Samples samples = new Samples();
+        new TreeMap<>(collectors).values().forEach(collector -> collector.collect(samples));
+        samples.appendTo(out);
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+        for (int i = 0; i < LatencyHistogram.BOUNDS; i++) {
+            sample(out, name + "_bucket", labels + ",le=\"" + seconds(LatencyHistogram.upperBoundNanos(i)) + "\"",
+                    snapshot.cumulativeCount(i));
+        }
+        sample(out, name + "_bucket", labels + ",le=\"+Inf\"", snapshot.count());
+        out.append(name).append("_sum{").append(labels).append("} ").append(seconds(snapshot.sumNanos())).append('\n');
+        sample(out, name + "_count", labels, snapshot.count());
+    }
+
+    private static void counter(StringBuilder out, String name, String help, Map<String, CallStats> callStats,
+                                ToLongFunction<CallStats> value) {
+        header(out, name, "counter", help);
+        callStats.forEach((operation, stats) -> sample(out, name, label(operation), value.applyAsLong(stats)));
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String label(String operation) {
+        return "operation=\"" + escape(operation) + "\"";
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Reads the current values of counters kept outside this registry.
+     */
+    @FunctionalInterface
+    public interface Collector {
+        void collect(Samples samples);
+    }
+
+    /**
+     * Samples added by the collectors of one scrape, grouped into metric families by name.
+     */
+    public static final class Samples {
+        private final Map<String, Family> families = new TreeMap<>();
+
+        private Samples() {
+        }
+
+        public void counter(String name, String help, String labelName, String labelValue, long value) {
+            add(name, "counter", help, labelName + "=\"" + escape(labelValue) + "\"", Long.toString(value));
+        }
+
+        public void gauge(String name, String help, String labelName, String labelValue, double value) {
+            add(name, "gauge", help, labelName + "=\"" + escape(labelValue) + "\"", number(value));
+        }
+
+        public void gauge(String name, String help, double value) {
+            add(name, "gauge", help, "", number(value));
+        }
+
+        private void add(String name, String type, String help, String labels, String value) {
+            families.computeIfAbsent(name, key -> new Family(type, help, new TreeMap<>())).values().put(labels, value);
+        }
+
+        private void appendTo(StringBuilder out) {
+            families.forEach((name, family) -> {
+                header(out, name, family.type(), family.help());
+                family.values().forEach((labels, value) -> {
+                    out.append(name);
+                    if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+                    out.append(' ').append(value).append('\n');
+                });
+            });
+        }
+
+        private static String number(double value) {
+            return Double.isFinite(value) ? BigDecimal.valueOf(value).stripTrailingZeros().toPlainString() : "NaN";
+        }
+
+        private record Family(String type, String help, Map<String, String> values) {
+        }
+    }
+
+    /**
+     * Counters and latency of one API operation.
+     */
+    public static final class CallStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder hedges = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder cachedTokens = new LongAdder();
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        public long requests() {
+            return requests.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long retries() {
+            return retries.sum();
+        }
+
+        public long hedges() {
+            return hedges.sum();
+        }
+
+        public long bytesSent() {
+            return bytesSent.sum();
+        }
+
+        public long bytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        public long promptTokens() {
+            return promptTokens.sum();
+        }
+
+        public long completionTokens() {
+            return completionTokens.sum();
+        }
+
+        /**
+         * Prompt tokens served from a context cache; a subset of {@link #promptTokens()}.
+         */
+        public long cachedTokens() {
+            return cachedTokens.sum();
+        }
+    }
+}
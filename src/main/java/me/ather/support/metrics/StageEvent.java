@@ -0,0 +1,31 @@
+package me.ather.support.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one pipeline stage of a turn. Stages are often measured on another thread than the one that
+ * records them (e.g. speculative retrieval), so the duration is a field rather than the event's own span.
+ */
+@Name("me.ather.support.Stage")
+@Label("Pipeline Stage")
+@Category({"Support", "Pipeline"})
+@Description("Duration of one stage of a support turn")
+@StackTrace(false)
+final class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long durationNanos;
+
+    @Label("Discarded")
+    @Description("Speculative work whose result was not used")
+    boolean wasted;
+}
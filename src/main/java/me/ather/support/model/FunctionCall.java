@@ -1,6 +1,32 @@
 package me.ather.support.model;
 
+import java.util.Map;
+
 /**
  * Represents a structured request from the LLM to execute a specific tool.
+ * Argument values are kept as strings: JSON primitives as their text, objects and arrays as compact JSON.
  */
-public record FunctionCall(String name, String reason) {}
\ No newline at end of file
+public record FunctionCall(String name, Map<String, String> args) {
+
+    public FunctionCall {
+        args = args == null ? Map.of() : Map.copyOf(args);
+    }
+
+    /**
+     * Call of a tool whose only argument is {@code reason}, e.g. initiateRefund.
+     */
+    public FunctionCall(String name, String reason) {
+        this(name, reason == null ? Map.of() : Map.of("reason", reason));
+    }
+
+    public String arg(String key) {
+        return args.get(key);
+    }
+
+    /**
+     * The {@code reason} argument, or a placeholder if the model did not provide one.
+     */
+    public String reason() {
+        return args.getOrDefault("reason", "No justification provided.");
+    }
+}
@@ -3,35 +3,26 @@ package me.ather.support.model;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
+import java.util.Collection;
+
 /**
  * Defines the JSON structures for Gemini API tools and declarations.
  */
 public class GeminiSchema {
 
     /**
-     * Returns the tool definition for refund processing.
-     * Addressing "missing tool calling mechanism" feedback.
+     * Builds the {@code tools} array declaring the given tools as function declarations.
+     * The declarations are generated from the registered tools, so there is no hand-written JSON per tool.
      */
-    public static JsonArray getRefundTools() {
-        JsonObject refundTool = new JsonObject();
-        refundTool.addProperty("name", "initiateRefund");
-        refundTool.addProperty("description", "Starts the refund process for the user.");
-
-        JsonObject parameters = new JsonObject();
-        parameters.addProperty("type", "OBJECT");
-
-        JsonObject properties = new JsonObject();
-        JsonObject reasonProp = new JsonObject();
-        reasonProp.addProperty("type", "STRING");
-        reasonProp.addProperty("description", "Customer's reason for the refund.");
-        properties.add("reason", reasonProp);
-
-        parameters.add("properties", properties);
-        parameters.add("required", createRequiredList("reason"));
-        refundTool.add("parameters", parameters);
-
+    public static JsonArray tools(Collection<ToolDefinition> definitions) {
         JsonArray declarations = new JsonArray();
-        declarations.add(refundTool);
+        for (ToolDefinition definition : definitions) {
+            JsonObject tool = new JsonObject();
+            tool.addProperty("name", definition.name());
+            tool.addProperty("description", definition.description());
+            if (!definition.parameters().isEmpty()) tool.add("parameters", createParameters(definition));
+            declarations.add(tool);
+        }
 
         JsonObject toolWrapper = new JsonObject();
         toolWrapper.add("function_declarations", declarations);
@@ -41,9 +32,22 @@ public class GeminiSchema {
         return tools;
     }
 
-    private static JsonArray createRequiredList(String... fields) {
+    private static JsonObject createParameters(ToolDefinition definition) {
+        JsonObject parameters = new JsonObject();
+        parameters.addProperty("type", "OBJECT");
+
+        JsonObject properties = new JsonObject();
         JsonArray required = new JsonArray();
-        for (String f : fields) required.add(f);
-        return required;
+        for (ToolDefinition.Parameter parameter : definition.parameters()) {
+            JsonObject property = new JsonObject();
+            property.addProperty("type", parameter.type());
+            property.addProperty("description", parameter.description());
+            properties.add(parameter.name(), property);
+            if (parameter.required()) required.add(parameter.name());
+        }
+
+        parameters.add("properties", properties);
+        if (!required.isEmpty()) parameters.add("required", required);
+        return parameters;
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,57 @@
 package me.ather.support.model;
 
+import java.util.List;
+
 /**
  * Representing the unified response from Gemini 3 Flash.
+ * A response may carry text, function calls, or both (e.g. "Let me open a ticket." plus the call).
+ * The fallback responses LLMClient produces instead of throwing carry a {@link Failure}; their text only
+ * describes the problem, so a model answer that happens to start with "Error:" is still an answer.
  */
-public record LLMResponse(String text, FunctionCall functionCall) {}
\ No newline at end of file
+public record LLMResponse(String text, List<FunctionCall> functionCalls, Failure failure) {
+
+    /**
+     * Why no model answer could be produced.
+     */
+    public enum Failure {
+        /** The request did not get a response: I/O error, timeout, or rejection by the concurrency limit. */
+        COMMUNICATION,
+        /** The response body could not be read. */
+        PARSING,
+        /** The API answered without a usable candidate, e.g. an error body or empty parts. */
+        NO_ANSWER
+    }
+
+    public LLMResponse {
+        functionCalls = functionCalls == null ? List.of() : List.copyOf(functionCalls);
+    }
+
+    /**
+     * A model answer.
+     */
+    public LLMResponse(String text, List<FunctionCall> functionCalls) {
+        this(text, functionCalls, null);
+    }
+
+    /**
+     * A fallback response with a human-readable description in {@code text}.
+     */
+    public static LLMResponse failure(Failure failure, String text) {
+        return new LLMResponse(text, null, failure);
+    }
+
+    /**
+     * The first function call, or {@code null} if the model did not call a tool.
+     */
+    public FunctionCall functionCall() {
+        return functionCalls.isEmpty() ? null : functionCalls.get(0);
+    }
+
+    /**
+     * True for the fallback responses LLMClient produces instead of throwing
+     * (communication, parsing or API format errors).
+     */
+    public boolean isError() {
+        return failure != null;
+    }
+}
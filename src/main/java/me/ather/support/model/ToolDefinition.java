@@ -0,0 +1,20 @@
+package me.ather.support.model;
+
+import java.util.List;
+
+/**
+ * Declaration of a tool the model may call: its name, what it does and its parameters.
+ * GeminiSchema turns a set of these into the request's function declarations.
+ */
+public record ToolDefinition(String name, String description, List<Parameter> parameters) {
+
+    public ToolDefinition {
+        parameters = parameters == null ? List.of() : List.copyOf(parameters);
+    }
+
+    /**
+     * One argument of a tool. {@code type} is a Gemini schema type: STRING, NUMBER, INTEGER, BOOLEAN, ARRAY or OBJECT.
+     */
+    public record Parameter(String name, String type, String description, boolean required) {
+    }
+}
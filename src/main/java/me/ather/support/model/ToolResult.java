@@ -0,0 +1,8 @@
+package me.ather.support.model;
+
+/**
+ * Outcome of executing one function call, sent back to the model as its functionResponse.
+ * A failed result carries the error message (unknown tool, exception or timeout) as its output.
+ */
+public record ToolResult(FunctionCall call, String output, boolean failed) {
+}
@@ -0,0 +1,39 @@
+package me.ather.support.model;
+
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Per-stage timings of one conversation turn.
+ * Offsets are relative to the start of the turn, so overlapping stages are visible directly.
+ */
+public record TurnTrace(List<Span> spans, long totalNanos) {
+
+    /**
+     * One pipeline stage (e.g. "classify", "retrieve", "generate").
+     * A cancelled or discarded speculative stage is marked {@code wasted}.
+     */
+    public record Span(String stage, long startNanos, long durationNanos, boolean wasted) {
+
+        public long endNanos() {
+            return startNanos + durationNanos;
+        }
+    }
+
+    public Span span(String stage) {
+        for (Span span : spans) {
+            if (span.stage().equals(stage)) return span;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(" | ", "", " | total " + totalNanos / 1_000_000 + "ms");
+        for (Span span : spans) {
+            joiner.add(span.stage() + " " + span.startNanos() / 1_000_000 + "-" + span.endNanos() / 1_000_000 + "ms"
+                    + (span.wasted() ? " (discarded)" : ""));
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package me.ather.support.retrieval;
+
+import java.util.Arrays;
+
+/**
+ * Growable max-heap of (id, score) pairs used as the expansion frontier of graph searches.
+ * Primitive arrays only, so a search allocates two arrays instead of one object per candidate.
+ */
+final class CandidateQueue {
+    private int[] ids;
+    private float[] scores;
+    private int size;
+
+    CandidateQueue(int initialCapacity) {
+        ids = new int[Math.max(initialCapacity, 4)];
+        scores = new float[ids.length];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    float peekScore() {
+        return scores[0];
+    }
+
+    int peekId() {
+        return ids[0];
+    }
+
+    void push(int id, float score) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] >= score) break;
+            ids[i] = ids[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+    /** Removes the best candidate; read it with peekId/peekScore first. */
+    void pop() {
+        int lastId = ids[--size];
+        float lastScore = scores[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && scores[child + 1] > scores[child]) child++;
+            if (scores[child] <= lastScore) break;
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        ids[i] = lastId;
+        scores[i] = lastScore;
+    }
+}
@@ -0,0 +1,259 @@
+package me.ather.support.retrieval;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Persistent embedding cache keyed by the SHA-256 of the document text, so restarts do not re-embed the corpus.
+ *
+ * File layout (little-endian):
+ * <pre>
+ *   int    magic ("EMBS")
+ *   int    format version
+ *   int    dimension
+ *   int    count
+ *   short  model id length, followed by the UTF-8 model id, padded to 8 bytes
+ *   count x 32 bytes   SHA-256 content hashes
+ *   count x dimension  float32 vectors, row-major
+ * </pre>
+ * The file is memory-mapped on open and only the key section is read eagerly;
+ * a vector row is paged in when its document is looked up. Vectors are mapped in segments of whole rows,
+ * so the store is not limited by the 2 GB size of a single mapping.
+ * A file written for another model or format version is ignored and rewritten on the next save.
+ */
+public class EmbeddingStore implements Closeable {
+    static final int MAGIC = 0x53424D45; // "EMBS" in little-endian byte order
+    static final int VERSION = 1;
+    private static final int HASH_BYTES = 32;
+    private static final int SEGMENT_BYTES = 1 << 30;
+
+    private final Path path;
+    private final String modelId;
+    private final Map<ContentHash, Integer> rows = new HashMap<>();
+    private final Map<ContentHash, float[]> pending = new LinkedHashMap<>();
+    private final Set<ContentHash> live = new HashSet<>();
+    private FileChannel channel;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int rowsPerSegment;
+    private int dimension;
+
+    private EmbeddingStore(Path path, String modelId) {
+        this.path = path;
+        this.modelId = modelId;
+    }
+
+    /**
+     * Opens (or prepares to create) the store at {@code path} for embeddings produced by {@code modelId}.
+     */
+    public static EmbeddingStore open(Path path, String modelId) throws IOException {
+        EmbeddingStore store = new EmbeddingStore(path, modelId);
+        store.map();
+        return store;
+    }
+
+    /**
+     * Returns the stored embedding for this exact text, or {@code null} if it has to be (re-)embedded.
+     */
+    public synchronized float[] get(String text) {
+        ContentHash key = ContentHash.of(text);
+        float[] fresh = pending.get(key);
+        if (fresh != null) {
+            live.add(key);
+            return fresh;
+        }
+        Integer row = rows.get(key);
+        if (row == null) return null;
+        live.add(key);
+        return readRow(row);
+    }
+
+    public synchronized void put(String text, float[] vector) {
+        if (vector.length == 0) return;
+        if (dimension == 0) dimension = vector.length;
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+        ContentHash key = ContentHash.of(text);
+        pending.put(key, vector.clone());
+        live.add(key);
+    }
+
+    /**
+     * Number of embeddings currently persisted on disk.
+     */
+    public synchronized int persistedCount() {
+        return rows.size();
+    }
+
+    /**
+     * True when a save would change the file: new embeddings were added,
+     * or some persisted documents were not used by this process.
+     */
+    public synchronized boolean isDirty() {
+        return !pending.isEmpty() || live.size() != rows.size();
+    }
+
+    /**
+     * Rewrites the file with every embedding used since open (looked up or added), then re-maps it.
+     * Documents that disappeared from the corpus are dropped. The write goes to a temp file and is
+     * atomically renamed, so a crash never leaves a torn store behind.
+     */
+    public synchronized void save() throws IOException {
+        if (!isDirty()) return;
+
+        List<ContentHash> keys = new ArrayList<>(live);
+        byte[] model = modelId.getBytes(StandardCharsets.UTF_8);
+        int headerSize = align8(18 + model.length);
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(keys.size());
+            buffer.putShort((short) model.length).put(model);
+            buffer.position(headerSize);
+            for (ContentHash key : keys) {
+                if (buffer.remaining() < HASH_BYTES) drain(buffer, out);
+                key.writeTo(buffer);
+            }
+            for (ContentHash key : keys) {
+                float[] vector = pending.containsKey(key) ? pending.get(key) : readRow(rows.get(key));
+                for (float value : vector) {
+                    if (buffer.remaining() < Float.BYTES) drain(buffer, out);
+                    buffer.putFloat(value);
+                }
+            }
+            drain(buffer, out);
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        closeChannel();
+        pending.clear();
+        live.clear();
+        map();
+        live.addAll(rows.keySet());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeChannel();
+    }
+
+    private void map() throws IOException {
+        rows.clear();
+        if (!Files.exists(path)) return;
+
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (!readHeader()) {
+            closeChannel();
+            rows.clear();
+        }
+    }
+
+    private boolean readHeader() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < 18) return false;
+        ByteBuffer fixed = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(fixed, 0);
+        if (fixed.getInt(0) != MAGIC || fixed.getInt(4) != VERSION) return false;
+        int fileDimension = fixed.getInt(8);
+        int count = fixed.getInt(12);
+        int modelLength = fixed.getShort(16);
+        if (count < 0 || fileDimension < 0 || modelLength < 0 || 18 + modelLength > fileSize) return false;
+
+        ByteBuffer model = ByteBuffer.allocate(modelLength);
+        channel.read(model, 18);
+        if (!modelId.equals(new String(model.array(), StandardCharsets.UTF_8))) return false;
+
+        long keysOffset = align8(18 + modelLength);
+        long vectorsOffset = keysOffset + (long) count * HASH_BYTES;
+        long rowBytes = (long) fileDimension * Float.BYTES;
+        if (vectorsOffset + count * rowBytes != fileSize) return false;
+
+        MappedByteBuffer keys = channel.map(FileChannel.MapMode.READ_ONLY, keysOffset, (long) count * HASH_BYTES);
+        keys.order(ByteOrder.LITTLE_ENDIAN);
+        for (int row = 0; row < count; row++) {
+            rows.put(ContentHash.read(keys, row * HASH_BYTES), row);
+        }
+
+        rowsPerSegment = rowBytes == 0 ? Integer.MAX_VALUE : (int) Math.max(1, SEGMENT_BYTES / rowBytes);
+        int segmentCount = count == 0 ? 0 : (count - 1) / rowsPerSegment + 1;
+        segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int firstRow = i * rowsPerSegment;
+            int segmentRows = Math.min(rowsPerSegment, count - firstRow);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, vectorsOffset + firstRow * rowBytes, segmentRows * rowBytes);
+        }
+        dimension = fileDimension;
+        return true;
+    }
+
+    private float[] readRow(int row) {
+        float[] vector = new float[dimension];
+        int rowBytes = dimension * Float.BYTES;
+        segments[row / rowsPerSegment]
+                .slice((row % rowsPerSegment) * rowBytes, rowBytes)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer()
+                .get(vector);
+        return vector;
+    }
+
+    private void closeChannel() throws IOException {
+        segments = new MappedByteBuffer[0];
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) out.write(buffer);
+        buffer.clear();
+    }
+
+    private static int align8(int value) {
+        return (value + 7) & ~7;
+    }
+
+    /**
+     * SHA-256 of the UTF-8 document text, held as four longs for cheap hashing and equality.
+     */
+    record ContentHash(long a, long b, long c, long d) {
+
+        static ContentHash of(String text) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+                ByteBuffer buffer = ByteBuffer.wrap(digest).order(ByteOrder.LITTLE_ENDIAN);
+                return new ContentHash(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+            }
+        }
+
+        static ContentHash read(ByteBuffer buffer, int offset) {
+            return new ContentHash(buffer.getLong(offset), buffer.getLong(offset + 8),
+                    buffer.getLong(offset + 16), buffer.getLong(offset + 24));
+        }
+
+        void writeTo(ByteBuffer buffer) {
+            buffer.putLong(a).putLong(b).putLong(c).putLong(d);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package me.ather.support.retrieval;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Exact (brute-force) vector store backed by one contiguous row-major float array.
+ * Vectors are unit-normalized on insert, so cosine similarity is a single dot product per row
+ * and the scan touches memory strictly sequentially.
+ * Ids are dense and assigned in insertion order, starting at 0.
+ */
+public class FlatVectorStore implements VectorIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private float[] data = new float[0];
+    private int dimension = -1;
+    private int size;
+
+    @Override
+    public int add(float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+            data = new float[INITIAL_CAPACITY * dimension];
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+        if ((size + 1) * dimension > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, (size + 1) * dimension));
+        }
+        System.arraycopy(VectorMath.normalize(vector), 0, data, size * dimension, dimension);
+        return size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float[] vector(int id) {
+        Objects.checkIndex(id, size);
+        return Arrays.copyOfRange(data, id * dimension, (id + 1) * dimension);
+    }
+
+    @Override
+    public int dimension() {
+        return Math.max(dimension, 0);
+    }
+
+    @Override
+    public SearchHits search(float[] query, int k, float threshold) {
+        if (size == 0 || query.length != dimension) return SearchHits.EMPTY;
+
+        float[] q = VectorMath.normalize(query);
+        TopK top = new TopK(k);
+        for (int id = 0, offset = 0; id < size; id++, offset += dimension) {
+            float score = VectorMath.dot(q, 0, data, offset, dimension);
+            if (score > threshold) top.offer(id, score);
+        }
+        return top.drain();
+    }
+
+    @Override
+    public FlatVectorStore emptyCopy() {
+        return new FlatVectorStore();
+    }
+}
@@ -0,0 +1,332 @@
+package me.ather.support.retrieval;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest-neighbour index based on Hierarchical Navigable Small World graphs
+ * (Malkov &amp; Yashunin). Query cost grows roughly logarithmically with corpus size instead of linearly.
+ *
+ * Tuning knobs:
+ * - {@code m}: links per node on upper layers (layer 0 keeps 2*m). Higher = better recall, more memory.
+ * - {@code efConstruction}: candidate list size while inserting. Higher = better graph, slower inserts.
+ * - {@code efSearch}: candidate list size while querying. Higher = better recall, slower queries.
+ *
+ * Inserts are serialized; searches run concurrently with each other and never observe a half-linked node.
+ */
+public class HnswIndex implements VectorIndex {
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+    private final long seed;
+    private final Random random;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<VisitedSet> visitedSets = ThreadLocal.withInitial(VisitedSet::new);
+
+    private float[] data = new float[0];
+    // links[node][level] = {count, neighbour ids...}
+    private int[][][] links = new int[0][][];
+    private int dimension = -1;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex() {
+        this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH);
+    }
+
+    public HnswIndex(int m, int efConstruction, int efSearch) {
+        this(m, efConstruction, efSearch, 42L);
+    }
+
+    /**
+     * @param seed Seed for level assignment, so the same inserts always build the same graph.
+     */
+    public HnswIndex(int m, int efConstruction, int efSearch, long seed) {
+        if (m < 2) throw new IllegalArgumentException("m must be at least 2: " + m);
+        if (efConstruction < 1 || efSearch < 1) throw new IllegalArgumentException("ef values must be positive");
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Changes the query-time candidate list size; takes effect for subsequent searches.
+     */
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1) throw new IllegalArgumentException("efSearch must be positive: " + efSearch);
+        this.efSearch = efSearch;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    @Override
+    public HnswIndex emptyCopy() {
+        return new HnswIndex(m, efConstruction, efSearch, seed);
+    }
+
+    @Override
+    public int add(float[] vector) {
+        lock.writeLock().lock();
+        try {
+            int id = append(vector);
+            link(id);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float[] vector(int id) {
+        lock.readLock().lock();
+        try {
+            Objects.checkIndex(id, size);
+            return Arrays.copyOfRange(data, id * dimension, (id + 1) * dimension);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int dimension() {
+        lock.readLock().lock();
+        try {
+            return Math.max(dimension, 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SearchHits search(float[] query, int k, float threshold) {
+        lock.readLock().lock();
+        try {
+            if (size == 0 || query.length != dimension) return SearchHits.EMPTY;
+
+            float[] q = VectorMath.normalize(query);
+            int ep = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                ep = greedyClosest(q, ep, level);
+            }
+            SearchHits candidates = searchLayer(q, ep, Math.max(efSearch, k), 0);
+
+            TopK top = new TopK(k);
+            for (int i = 0; i < candidates.size(); i++) {
+                if (candidates.scores()[i] > threshold) top.offer(candidates.ids()[i], candidates.scores()[i]);
+            }
+            return top.drain();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int append(float[] vector) {
+        if (dimension < 0) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+        if ((size + 1) * dimension > data.length) {
+            int capacity = Math.max(16, size * 2);
+            data = Arrays.copyOf(data, capacity * dimension);
+            links = Arrays.copyOf(links, capacity);
+        }
+        System.arraycopy(VectorMath.normalize(vector), 0, data, size * dimension, dimension);
+        return size++;
+    }
+
+    private void link(int id) {
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        links[id] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) links[id][l] = new int[1 + maxLinks(l)];
+
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+
+        float[] q = Arrays.copyOfRange(data, id * dimension, (id + 1) * dimension);
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(q, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            SearchHits candidates = searchLayer(q, ep, efConstruction, l);
+            int[] selected = selectNeighbours(candidates.ids(), candidates.scores(), candidates.size(), m);
+            int[] own = links[id][l];
+            for (int neighbour : selected) {
+                own[++own[0]] = neighbour;
+                connect(neighbour, id, l);
+            }
+            ep = candidates.ids()[0];
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = id;
+        }
+    }
+
+    /**
+     * Adds a back-link from {@code node} to {@code newNeighbour}, pruning with the selection heuristic on overflow.
+     */
+    private void connect(int node, int newNeighbour, int level) {
+        int[] list = links[node][level];
+        int count = list[0];
+        if (count < list.length - 1) {
+            list[++list[0]] = newNeighbour;
+            return;
+        }
+        TopK ranked = new TopK(count + 1);
+        int nodeOffset = node * dimension;
+        for (int i = 1; i <= count; i++) {
+            ranked.offer(list[i], similarity(nodeOffset, list[i]));
+        }
+        ranked.offer(newNeighbour, similarity(nodeOffset, newNeighbour));
+        SearchHits sorted = ranked.drain();
+        int[] kept = selectNeighbours(sorted.ids(), sorted.scores(), sorted.size(), maxLinks(level));
+        list[0] = kept.length;
+        System.arraycopy(kept, 0, list, 1, kept.length);
+    }
+
+    /**
+     * HNSW neighbour-selection heuristic: a candidate is kept only if it is closer to the base node
+     * than to every neighbour already kept, which spreads links across clusters.
+     * Remaining slots are back-filled with the closest discarded candidates to keep the graph well connected.
+     * Candidates must be sorted best first.
+     */
+    private int[] selectNeighbours(int[] ids, float[] scores, int count, int limit) {
+        int[] selected = new int[Math.min(limit, count)];
+        boolean[] taken = new boolean[count];
+        int n = 0;
+        for (int i = 0; i < count && n < selected.length; i++) {
+            boolean diverse = true;
+            int candidateOffset = ids[i] * dimension;
+            for (int j = 0; j < n; j++) {
+                if (similarity(candidateOffset, selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[n++] = ids[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && n < selected.length; i++) {
+            if (!taken[i]) selected[n++] = ids[i];
+        }
+        return selected;
+    }
+
+    private int greedyClosest(float[] q, int start, int level) {
+        int current = start;
+        float best = VectorMath.dot(q, 0, data, current * dimension, dimension);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] list = links[current][level];
+            for (int i = 1; i <= list[0]; i++) {
+                float score = VectorMath.dot(q, 0, data, list[i] * dimension, dimension);
+                if (score > best) {
+                    best = score;
+                    current = list[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first beam search on one layer; returns up to {@code ef} nodes sorted best first.
+     */
+    private SearchHits searchLayer(float[] q, int entry, int ef, int level) {
+        VisitedSet visited = visitedSets.get();
+        visited.reset(size);
+        visited.visit(entry);
+
+        float entryScore = VectorMath.dot(q, 0, data, entry * dimension, dimension);
+        CandidateQueue frontier = new CandidateQueue(ef);
+        TopK results = new TopK(ef);
+        frontier.push(entry, entryScore);
+        results.offer(entry, entryScore);
+
+        while (!frontier.isEmpty()) {
+            float candidateScore = frontier.peekScore();
+            int candidate = frontier.peekId();
+            if (results.isFull() && candidateScore < results.minScore()) break;
+            frontier.pop();
+
+            int[] list = links[candidate][level];
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbour = list[i];
+                if (!visited.visit(neighbour)) continue;
+                float score = VectorMath.dot(q, 0, data, neighbour * dimension, dimension);
+                if (!results.isFull() || score > results.minScore()) {
+                    frontier.push(neighbour, score);
+                    results.offer(neighbour, score);
+                }
+            }
+        }
+        return results.drain();
+    }
+
+    private float similarity(int offset, int other) {
+        return VectorMath.dot(data, offset, data, other * dimension, dimension);
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    /**
+     * Generation-stamped visited marks, reused per thread so searches do not allocate a fresh bitmap.
+     */
+    private static final class VisitedSet {
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                generation = 0;
+            }
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean visit(int id) {
+            if (marks[id] == generation) return false;
+            marks[id] = generation;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package me.ather.support.retrieval;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory inverted index with Okapi BM25 scoring for exact-token queries ("Error Code 501", "/v2/webhooks").
+ * The term dictionary maps each token to a dense term id; postings are kept as parallel primitive
+ * arrays per term (document ids ascending, term frequencies), so there is no object per posting.
+ * Ids are dense and assigned in insertion order, starting at 0, like {@link VectorIndex} ids.
+ * Not internally thread-safe; callers synchronize writes against reads.
+ */
+public class InvertedIndex {
+    static final float K1 = 1.2f;
+    static final float B = 0.75f;
+
+    /**
+     * Words too common to make a lexical match meaningful. They are indexed, so document lengths are those of
+     * the full text, but a query's stopwords are neither scored nor counted towards {@link #coverage}:
+     * "what is the weather?" must not match every manual that says "what" or "the".
+     */
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "an", "and", "are", "can", "do", "does", "for", "how", "i", "in", "is", "it", "my", "of", "on",
+            "or", "the", "to", "what", "when", "where", "which", "why", "with", "you", "your");
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private int[][] postingDocs = new int[16][];
+    private int[][] postingFreqs = new int[16][];
+    private int[] postingSizes = new int[16];
+    private int[] docLengths = new int[16];
+    private int docCount;
+    private long totalLength;
+
+    /**
+     * Indexes the text and returns its document id.
+     */
+    public int add(String text) {
+        int doc = docCount;
+        if (doc == docLengths.length) docLengths = Arrays.copyOf(docLengths, doc * 2);
+
+        String[] tokens = tokenize(text);
+        Map<Integer, int[]> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.computeIfAbsent(termId(token), id -> new int[1])[0]++;
+        }
+        for (Map.Entry<Integer, int[]> entry : frequencies.entrySet()) {
+            appendPosting(entry.getKey(), doc, entry.getValue()[0]);
+        }
+        docLengths[doc] = tokens.length;
+        totalLength += tokens.length;
+        return docCount++;
+    }
+
+    public int size() {
+        return docCount;
+    }
+
+    /**
+     * Total length and number of the documents a search scores against, i.e. those not deleted.
+     * They depend only on the indexes and the deleted ids, so a snapshot computes them once for all its queries.
+     */
+    public record Corpus(long liveLength, int liveCount) {
+
+        public static Corpus of(List<InvertedIndex> segments, int[] bases, BitSet deleted) {
+            int last = segments.size() - 1;
+            int idSpace = last < 0 ? 0 : bases[last] + segments.get(last).docCount;
+            long liveLength = 0;
+            for (InvertedIndex segment : segments) liveLength += segment.totalLength;
+            for (int id = deleted.nextSetBit(0); id >= 0 && id < idSpace; id = deleted.nextSetBit(id + 1)) {
+                int i = segmentOf(bases, id);
+                liveLength -= segments.get(i).docLengths[id - bases[i]];
+            }
+            return new Corpus(liveLength, idSpace - deleted.get(0, idSpace).cardinality());
+        }
+    }
+
+    /**
+     * Top {@code k} documents by BM25 score; documents sharing no content word with the query are not returned.
+     */
+    public SearchHits search(String query, int k) {
+        return search(List.of(this), new int[]{0}, new BitSet(), new Corpus(totalLength, docCount), query, k);
+    }
+
+    /**
+     * BM25 over several indexes as if they were one, e.g. the segments of a knowledge base snapshot.
+     * Document {@code d} of {@code segments.get(i)} has the id {@code bases[i] + d}; ids set in {@code deleted}
+     * are neither returned nor counted in the collection statistics, so scores equal those of a single index
+     * holding only the remaining documents. {@code corpus} must describe the same segments and deleted ids.
+     * Only documents on the postings lists of the query's content words are visited.
+     */
+    public static SearchHits search(List<InvertedIndex> segments, int[] bases, BitSet deleted, Corpus corpus,
+                                    String query, int k) {
+        int liveCount = corpus.liveCount();
+        if (liveCount == 0) return SearchHits.EMPTY;
+        float averageLength = (float) corpus.liveLength() / liveCount;
+        String[] tokens = distinct(tokenize(query));
+        int postings = 0;
+        for (String token : tokens) {
+            if (STOPWORDS.contains(token)) continue;
+            for (InvertedIndex segment : segments) {
+                Integer term = segment.dictionary.get(token);
+                if (term != null) postings += segment.postingSizes[term];
+            }
+        }
+        if (postings == 0) return SearchHits.EMPTY;
+        Scores scores = new Scores(postings);
+
+        for (String token : tokens) {
+            if (STOPWORDS.contains(token)) continue;
+            int df = 0;
+            for (int i = 0; i < segments.size(); i++) df += segments.get(i).liveFrequency(token, bases[i], deleted);
+            if (df == 0) continue;
+            float idf = (float) Math.log(1 + (liveCount - df + 0.5) / (df + 0.5));
+            for (int i = 0; i < segments.size(); i++) {
+                InvertedIndex segment = segments.get(i);
+                Integer term = segment.dictionary.get(token);
+                if (term == null) continue;
+                int[] docs = segment.postingDocs[term];
+                int[] freqs = segment.postingFreqs[term];
+                for (int p = 0; p < segment.postingSizes[term]; p++) {
+                    int id = bases[i] + docs[p];
+                    if (deleted.get(id)) continue;
+                    float tf = freqs[p];
+                    float norm = K1 * (1 - B + B * segment.docLengths[docs[p]] / averageLength);
+                    scores.add(id, idf * tf * (K1 + 1) / (tf + norm));
+                }
+            }
+        }
+        if (scores.size == 0) return SearchHits.EMPTY;
+
+        TopK top = new TopK(k);
+        for (int slot = 0; slot < scores.ids.length; slot++) {
+            if (scores.ids[slot] >= 0) top.offer(scores.ids[slot], scores.values[slot]);
+        }
+        return top.drain();
+    }
+
+    /**
+     * Number of documents containing the token that are not deleted.
+     */
+    private int liveFrequency(String token, int base, BitSet deleted) {
+        Integer term = dictionary.get(token);
+        if (term == null) return 0;
+        int live = 0;
+        for (int p = 0; p < postingSizes[term]; p++) {
+            if (!deleted.get(base + postingDocs[term][p])) live++;
+        }
+        return live;
+    }
+
+    /**
+     * Index of the segment holding {@code id}, given ascending segment bases.
+     */
+    private static int segmentOf(int[] bases, int id) {
+        int i = Arrays.binarySearch(bases, id);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Fraction of the query's content words (non-stopwords) that occur in document {@code doc}.
+     * Used to decide whether a lexical hit is specific enough to answer without the embedding model.
+     */
+    public float coverage(String query, int doc) {
+        int content = 0;
+        int matched = 0;
+        for (String token : distinct(tokenize(query))) {
+            if (STOPWORDS.contains(token)) continue;
+            content++;
+            Integer term = dictionary.get(token);
+            if (term != null && Arrays.binarySearch(postingDocs[term], 0, postingSizes[term], doc) >= 0) matched++;
+        }
+        return content == 0 ? 0f : (float) matched / content;
+    }
+
+    /**
+     * Lower-cased runs of letters and digits: "/v2/webhooks" becomes [v2, webhooks], "Hub-V3" [hub, v3].
+     */
+    static String[] tokenize(String text) {
+        String[] tokens = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        if (tokens.length > 0 && tokens[0].isEmpty()) return Arrays.copyOfRange(tokens, 1, tokens.length);
+        return tokens;
+    }
+
+    private static String[] distinct(String[] tokens) {
+        return Arrays.stream(tokens).distinct().toArray(String[]::new);
+    }
+
+    private int termId(String token) {
+        Integer existing = dictionary.get(token);
+        if (existing != null) return existing;
+        int term = dictionary.size();
+        dictionary.put(token, term);
+        if (term == postingDocs.length) {
+            postingDocs = Arrays.copyOf(postingDocs, term * 2);
+            postingFreqs = Arrays.copyOf(postingFreqs, term * 2);
+            postingSizes = Arrays.copyOf(postingSizes, term * 2);
+        }
+        postingDocs[term] = new int[4];
+        postingFreqs[term] = new int[4];
+        return term;
+    }
+
+    private void appendPosting(int term, int doc, int frequency) {
+        int size = postingSizes[term];
+        if (size == postingDocs[term].length) {
+            postingDocs[term] = Arrays.copyOf(postingDocs[term], size * 2);
+            postingFreqs[term] = Arrays.copyOf(postingFreqs[term], size * 2);
+        }
+        postingDocs[term][size] = doc;
+        postingFreqs[term][size] = frequency;
+        postingSizes[term] = size + 1;
+    }
+
+    /**
+     * Score accumulator of one query: open addressing over primitive arrays, sized for the postings the query
+     * visits rather than for the whole id space.
+     */
+    private static final class Scores {
+        final int[] ids; // -1 = free slot
+        final float[] values;
+        final int mask;
+        int size;
+
+        Scores(int postings) {
+            int capacity = Integer.highestOneBit(2 * postings - 1) << 1; // At most half full
+            ids = new int[capacity];
+            values = new float[capacity];
+            mask = capacity - 1;
+            Arrays.fill(ids, -1);
+        }
+
+        void add(int id, float score) {
+            int slot = (id * 0x9E3779B9) & mask;
+            while (ids[slot] >= 0 && ids[slot] != id) slot = (slot + 1) & mask;
+            if (ids[slot] < 0) {
+                ids[slot] = id;
+                size++;
+            }
+            values[slot] += score;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package me.ather.support.retrieval;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Exact-quality vector store that keeps only compact quantized codes on the heap.
+ *
+ * INT8: each unit vector is scaled so that its largest component maps to 127 and stored as one byte per
+ * dimension plus a float scale (about 4x smaller than float32). The query is quantized the same way and the
+ * approximate score is the integer dot product of the codes times the document scale (the query scale is the
+ * same for every document, so it does not change the ranking).
+ * BINARY: one sign bit per dimension, packed into longs (32x smaller). The approximate similarity is
+ * {@code dimension - 2 * hamming(q, code)}, computed with one XOR and popcount per 64 dimensions.
+ *
+ * A search keeps the {@code overFetch * k} best candidates by approximate score and re-scores them with the
+ * float32 vectors, so returned scores (and the threshold) are exact cosine similarities. The float32 vectors
+ * live in a memory-mapped temporary file outside the heap; the OS pages in the rows that are re-scored.
+ * The file is unlinked right after creation and its space is released when the store is closed or collected.
+ * Ids are dense and assigned in insertion order, starting at 0.
+ */
+public class QuantizedVectorStore implements VectorIndex, Closeable {
+
+    public enum Quantization { INT8, BINARY }
+
+    public static final int DEFAULT_INT8_OVER_FETCH = 4;
+    public static final int DEFAULT_BINARY_OVER_FETCH = 16;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long SEGMENT_BYTES = 64L << 20;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Quantization quantization;
+    private final int overFetch;
+    private final Path directory; // for the float32 file, null = system temp directory
+
+    private byte[] codes = new byte[0];   // INT8: dimension bytes per vector
+    private float[] scales = new float[0]; // INT8: one scale per vector
+    private long[] bits = new long[0];    // BINARY: words longs per vector
+    private int dimension = -1;
+    private int words;
+    private int size;
+
+    private FileChannel channel;
+    private Cleaner.Cleanable cleanable;
+    private final List<FloatBuffer> segments = new ArrayList<>();
+    private int rowsPerSegment;
+
+    public QuantizedVectorStore(Quantization quantization) {
+        this(quantization, quantization == Quantization.INT8 ? DEFAULT_INT8_OVER_FETCH : DEFAULT_BINARY_OVER_FETCH, null);
+    }
+
+    /**
+     * @param overFetch Candidates re-scored at full precision, as a multiple of k. Higher = better recall, slower queries.
+     * @param directory Directory for the float32 file, or {@code null} for the system temp directory.
+     */
+    public QuantizedVectorStore(Quantization quantization, int overFetch, Path directory) {
+        if (overFetch < 1) throw new IllegalArgumentException("overFetch must be positive: " + overFetch);
+        this.quantization = quantization;
+        this.overFetch = overFetch;
+        this.directory = directory;
+    }
+
+    @Override
+    public int add(float[] vector) {
+        if (dimension < 0) {
+            init(vector.length);
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+        float[] unit = VectorMath.normalize(vector);
+        int id = size;
+        if (id % rowsPerSegment == 0) mapSegment(id / rowsPerSegment);
+        segments.get(id / rowsPerSegment).put((id % rowsPerSegment) * dimension, unit);
+
+        if (quantization == Quantization.INT8) {
+            if (id == scales.length) {
+                scales = Arrays.copyOf(scales, Math.max(INITIAL_CAPACITY, id * 2));
+                codes = Arrays.copyOf(codes, scales.length * dimension);
+            }
+            scales[id] = quantizeInt8(unit, codes, id * dimension);
+        } else {
+            if ((id + 1) * words > bits.length) bits = Arrays.copyOf(bits, Math.max(INITIAL_CAPACITY, id * 2) * words);
+            binarize(unit, bits, id * words);
+        }
+        return size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimension() {
+        return Math.max(dimension, 0);
+    }
+
+    @Override
+    public float[] vector(int id) {
+        Objects.checkIndex(id, size);
+        float[] row = new float[dimension];
+        readRow(id, row);
+        return row;
+    }
+
+    @Override
+    public SearchHits search(float[] query, int k, float threshold) {
+        if (size == 0 || query.length != dimension) return SearchHits.EMPTY;
+
+        float[] q = VectorMath.normalize(query);
+        SearchHits candidates = quantization == Quantization.INT8 ? scanInt8(q, candidateCount(k)) : scanBinary(q, candidateCount(k));
+
+        float[] row = new float[dimension];
+        TopK top = new TopK(k);
+        for (int id : candidates.ids()) {
+            readRow(id, row);
+            float score = VectorMath.dot(q, row);
+            if (score > threshold) top.offer(id, score);
+        }
+        return top.drain();
+    }
+
+    @Override
+    public QuantizedVectorStore emptyCopy() {
+        return new QuantizedVectorStore(quantization, overFetch, directory);
+    }
+
+    /**
+     * Heap bytes taken by the quantized codes; the float32 vectors are off-heap.
+     */
+    public long heapBytes() {
+        long perVector = quantization == Quantization.INT8 ? dimension() + Float.BYTES : (long) words * Long.BYTES;
+        return perVector * size;
+    }
+
+    /**
+     * Releases the float32 file. Searches must not run concurrently with or after closing.
+     */
+    @Override
+    public void close() {
+        if (cleanable != null) cleanable.clean();
+    }
+
+    private int candidateCount(int k) {
+        return (int) Math.min(size, (long) k * overFetch);
+    }
+
+    private SearchHits scanInt8(float[] q, int count) {
+        byte[] queryCodes = new byte[dimension];
+        quantizeInt8(q, queryCodes, 0);
+        TopK top = new TopK(count);
+        for (int id = 0, offset = 0; id < size; id++, offset += dimension) {
+            top.offer(id, dotInt8(queryCodes, codes, offset, dimension) * scales[id]);
+        }
+        return top.drain();
+    }
+
+    private SearchHits scanBinary(float[] q, int count) {
+        long[] queryBits = new long[words];
+        binarize(q, queryBits, 0);
+        TopK top = new TopK(count);
+        for (int id = 0, offset = 0; id < size; id++, offset += words) {
+            int hamming = 0;
+            for (int w = 0; w < words; w++) hamming += Long.bitCount(queryBits[w] ^ bits[offset + w]);
+            top.offer(id, dimension - 2 * hamming);
+        }
+        return top.drain();
+    }
+
+    /**
+     * Integer dot product of two int8 code rows. Integer addition is associative, so unlike the float kernels
+     * the JIT may vectorize this reduction.
+     */
+    static int dotInt8(byte[] a, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Writes the int8 codes of the unit vector at {@code offset} and returns the scale that maps them back.
+     */
+    static float quantizeInt8(float[] unit, byte[] codes, int offset) {
+        float max = 0f;
+        for (float value : unit) max = Math.max(max, Math.abs(value));
+        if (max == 0f) return 0f;
+        float inverse = 127f / max;
+        for (int i = 0; i < unit.length; i++) codes[offset + i] = (byte) Math.round(unit[i] * inverse);
+        return max / 127f;
+    }
+
+    /**
+     * Sets bit i when component i is positive; padding bits of the last word stay 0 for every vector.
+     */
+    private static void binarize(float[] vector, long[] bits, int offset) {
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0f) bits[offset + (i >>> 6)] |= 1L << (i & 63);
+        }
+    }
+
+    private void readRow(int id, float[] row) {
+        segments.get(id / rowsPerSegment).get((id % rowsPerSegment) * dimension, row);
+    }
+
+    private void init(int vectorDimension) {
+        dimension = vectorDimension;
+        words = (vectorDimension + 63) >>> 6;
+        rowsPerSegment = (int) Math.max(1, SEGMENT_BYTES / ((long) Math.max(1, dimension) * Float.BYTES));
+        try {
+            Path file = directory == null ? Files.createTempFile("vectors-", ".f32") : Files.createTempFile(directory, "vectors-", ".f32");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel opened = channel;
+            cleanable = CLEANER.register(this, () -> {
+                try {
+                    opened.close();
+                } catch (IOException ignored) {
+                    // Nothing left to release
+                }
+            });
+            try {
+                Files.delete(file); // Space is reclaimed once the channel and the mappings are gone
+            } catch (IOException e) {
+                file.toFile().deleteOnExit(); // Platforms that cannot delete open files
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the vector file", e);
+        }
+    }
+
+    private void mapSegment(int segment) {
+        long rowBytes = (long) dimension * Float.BYTES;
+        try {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segment * rowsPerSegment * rowBytes, rowsPerSegment * rowBytes)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map the vector file", e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package me.ather.support.retrieval;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reciprocal-rank fusion (Cormack et al.): each ranked list contributes {@code 1 / (c + rank)} per document,
+ * so lists with incomparable score scales (cosine similarity, BM25) can be merged without calibration.
+ */
+public final class RankFusion {
+    public static final int DEFAULT_C = 60;
+
+    private RankFusion() {}
+
+    /**
+     * Fuses the ranked lists into the top {@code k} documents; the returned scores are the fused RRF scores.
+     * Equal fused scores are common (rank 1 in one list only), so ties go to the document that appears
+     * in the earliest list, at the better rank: pass the most trusted ranking first.
+     */
+    public static SearchHits reciprocalRank(int k, int c, SearchHits... rankings) {
+        Map<Integer, Fused> fused = new LinkedHashMap<>();
+        for (int list = 0; list < rankings.length; list++) {
+            SearchHits ranking = rankings[list];
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                int order = list * 1_000_000 + rank; // first appearance wins the tie-break
+                fused.computeIfAbsent(ranking.ids()[rank], id -> new Fused(id, order)).score += 1f / (c + rank + 1);
+            }
+        }
+        if (fused.isEmpty()) return SearchHits.EMPTY;
+
+        List<Fused> ordered = new ArrayList<>(fused.values());
+        ordered.sort(Comparator.comparingDouble((Fused f) -> -f.score).thenComparingInt(f -> f.order));
+        int size = Math.min(k, ordered.size());
+        int[] ids = new int[size];
+        float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = ordered.get(i).id;
+            scores[i] = ordered.get(i).score;
+        }
+        return new SearchHits(ids, scores);
+    }
+
+    private static final class Fused {
+        final int id;
+        final int order;
+        float score;
+
+        Fused(int id, int order) {
+            this.id = id;
+            this.order = order;
+        }
+    }
+}
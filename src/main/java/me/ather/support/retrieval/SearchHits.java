@@ -0,0 +1,13 @@
+package me.ather.support.retrieval;
+
+/**
+ * Ranked search result: parallel arrays of document ids and similarity scores, best first.
+ */
+public record SearchHits(int[] ids, float[] scores) {
+
+    public static final SearchHits EMPTY = new SearchHits(new int[0], new float[0]);
+
+    public int size() {
+        return ids.length;
+    }
+}
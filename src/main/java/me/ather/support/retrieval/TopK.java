@@ -0,0 +1,100 @@
+package me.ather.support.retrieval;
+
+/**
+ * Bounded min-heap collecting the K best (id, score) pairs without boxing.
+ * The weakest kept candidate sits at the root, so a full heap rejects most offers with one compare.
+ * Equal scores are ordered by insertion id to keep the ranking deterministic.
+ */
+public final class TopK {
+    private final int[] ids;
+    private final float[] scores;
+    private int size;
+
+    public TopK(int k) {
+        if (k <= 0) throw new IllegalArgumentException("k must be positive: " + k);
+        this.ids = new int[k];
+        this.scores = new float[k];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    /**
+     * Score of the weakest kept candidate; only meaningful once the heap is full.
+     */
+    public float minScore() {
+        return scores[0];
+    }
+
+    public void offer(int id, float score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (isWorse(ids[0], scores[0], id, score)) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Drains the heap into hits sorted from best to worst. The heap is empty afterwards.
+     */
+    public SearchHits drain() {
+        int n = size;
+        int[] outIds = new int[n];
+        float[] outScores = new float[n];
+        for (int i = n - 1; i >= 0; i--) {
+            outIds[i] = ids[0];
+            outScores[i] = scores[0];
+            size--;
+            if (size > 0) {
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+        return new SearchHits(outIds, outScores);
+    }
+
+    /** True when (idA, scoreA) ranks below (idB, scoreB). */
+    private static boolean isWorse(int idA, float scoreA, int idB, float scoreB) {
+        return scoreA < scoreB || (scoreA == scoreB && idA > idB);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!isWorse(ids[i], scores[i], ids[parent], scores[parent])) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int right = left + 1;
+            int worst = (right < size && isWorse(ids[right], scores[right], ids[left], scores[left])) ? right : left;
+            if (!isWorse(ids[worst], scores[worst], ids[i], scores[i])) break;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,35 @@
+package me.ather.support.retrieval;
+
+/**
+ * Retrieval engine contract used by DocumentService.
+ * Implementations store unit-normalized vectors under dense ids assigned in insertion order
+ * and rank them by cosine similarity to a query.
+ */
+public interface VectorIndex {
+
+    /**
+     * Normalizes and stores the vector.
+     * @return the id of the stored vector.
+     */
+    int add(float[] vector);
+
+    int size();
+
+    /**
+     * Copy of the stored (unit-normalized) vector with the given id, at full precision.
+     */
+    float[] vector(int id);
+
+    int dimension();
+
+    /**
+     * Returns up to {@code k} ids whose cosine similarity to the query is strictly above {@code threshold}, best first.
+     * A query with a different dimension (e.g. a failed embedding) matches nothing.
+     */
+    SearchHits search(float[] query, int k, float threshold);
+
+    /**
+     * A new, empty index with the same configuration; used to rebuild a snapshot when documents change.
+     */
+    VectorIndex emptyCopy();
+}
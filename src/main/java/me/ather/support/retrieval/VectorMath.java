@@ -0,0 +1,48 @@
+package me.ather.support.retrieval;
+
+/**
+ * Primitive vector kernels shared by the retrieval engines.
+ * All loops work on contiguous float ranges so the JIT can keep them in registers.
+ */
+public final class VectorMath {
+
+    private VectorMath() {}
+
+    /**
+     * Dot product of {@code a[aOffset..aOffset+length)} and {@code b[bOffset..bOffset+length)}.
+     * Four independent accumulators break the add dependency chain of the naive loop.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int upper = length & ~3;
+        for (; i < upper; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Returns a unit-length copy of the vector so cosine similarity reduces to a dot product.
+     * A zero vector stays zero, which scores 0 against everything instead of NaN.
+     */
+    public static float[] normalize(float[] vector) {
+        float[] copy = vector.clone();
+        float norm = (float) Math.sqrt(dot(copy, copy));
+        if (norm > 0f) {
+            float inv = 1f / norm;
+            for (int i = 0; i < copy.length; i++) copy[i] *= inv;
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,259 @@
+package me.ather.support.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.ather.support.ConversationSession;
+import me.ather.support.Orchestrator;
+import me.ather.support.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded HTTP front end serving many concurrent conversations from one JVM.
+ *
+ * Endpoints:
+ * - {@code POST /chat} with {@code {"sessionId": "...", "message": "..."}} returns {@code {"sessionId": "...", "reply": "..."}}.
+ *   Omitting the session id starts a new conversation; the generated id is returned.
+ *   With {@code ?stream=true} the reply is sent as server-sent events while it is generated:
+ *   {@code data: {"delta": "..."}} per token, then {@code data: {"done": true, "sessionId": "...", "reply": "..."}}.
+ * - {@code DELETE /chat?sessionId=...} ends a conversation.
+ * - {@code GET /health} reports liveness and the number of open sessions.
+ * - {@code GET /metrics} returns stage latency histograms, LLM call counters, and intent and cache statistics
+ *   in the Prometheus text format.
+ *
+ * Each request runs on its own virtual thread when the JDK supports them (21+),
+ * otherwise on a fixed platform-thread pool. Turns beyond the concurrency limit are answered with 503 at once
+ * instead of queueing, so a burst of chats never holds up new connections or {@code /health}.
+ */
+public class ChatServer implements AutoCloseable {
+    private static final int FALLBACK_THREADS = 200;
+    private static final int RESERVED_THREADS = 8; // Fallback threads kept free for /health, /metrics and 503s
+
+    private final Orchestrator orchestrator;
+    private final SessionManager sessions;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore turns;
+    private final Gson gson = new Gson();
+
+    /**
+     * Server with no turn limit on virtual threads, and one that leaves a few pool threads free otherwise.
+     */
+    public ChatServer(Orchestrator orchestrator, SessionManager sessions, int port) throws IOException {
+        this(orchestrator, sessions, port, 0);
+    }
+
+    /**
+     * @param maxConcurrentTurns Chat turns served at once before further ones get a 503; 0 for the default.
+     */
+    public ChatServer(Orchestrator orchestrator, SessionManager sessions, int port, int maxConcurrentTurns) throws IOException {
+        this.orchestrator = orchestrator;
+        this.sessions = sessions;
+        this.executor = newRequestExecutor();
+        if (maxConcurrentTurns > 0) {
+            this.turns = new Semaphore(maxConcurrentTurns);
+        } else {
+            this.turns = executor instanceof ThreadPoolExecutor ? new Semaphore(FALLBACK_THREADS - RESERVED_THREADS) : null;
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/chat", this::handleChat);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Virtual-thread-per-task executor on JDK 21+, looked up reflectively so the build can keep its older target;
+     * a fixed pool otherwise. The pool never runs work on the accepting thread: its queue only holds exchanges
+     * waiting for a thread, and the turn limit keeps enough threads free that they are picked up promptly.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return new ThreadPoolExecutor(FALLBACK_THREADS, FALLBACK_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>());
+        }
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if ("DELETE".equals(method)) {
+                String sessionId = queryParameter(exchange, "sessionId");
+                boolean removed = sessionId != null && sessions.remove(sessionId);
+                respond(exchange, removed ? 200 : 404, status(removed ? "closed" : "unknown session"));
+                return;
+            }
+            if (!"POST".equals(method)) {
+                respond(exchange, 405, status("method not allowed"));
+                return;
+            }
+
+            JsonObject request;
+            try {
+                request = gson.fromJson(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), JsonObject.class);
+            } catch (JsonParseException e) {
+                request = null;
+            }
+            String message = request == null ? null : string(request, "message");
+            if (message == null || message.isBlank()) {
+                respond(exchange, 400, status("'message' must be a non-empty string"));
+                return;
+            }
+            if (request.has("sessionId") && string(request, "sessionId") == null) {
+                respond(exchange, 400, status("'sessionId' must be a string"));
+                return;
+            }
+            if (turns != null && !turns.tryAcquire()) {
+                respond(exchange, 503, status("too many concurrent conversations, retry later"));
+                return;
+            }
+
+            try {
+                String sessionId = request.has("sessionId") ? string(request, "sessionId") : UUID.randomUUID().toString();
+                ConversationSession session = sessions.getOrCreate(sessionId);
+                if ("true".equals(queryParameter(exchange, "stream"))) {
+                    streamReply(exchange, session, message);
+                    return;
+                }
+                String reply = orchestrator.handleUserQuery(session, message);
+
+                JsonObject response = new JsonObject();
+                response.addProperty("sessionId", sessionId);
+                response.addProperty("reply", reply);
+                respond(exchange, 200, response);
+            } finally {
+                if (turns != null) turns.release();
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 500, status("internal error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Writes the answer as server-sent events; each token is flushed to the client as soon as the model emits it.
+     * The status line is already sent when the turn starts, so a failing turn ends the stream with an
+     * {@code error} event instead of a 500.
+     */
+    private void streamReply(HttpExchange exchange, ConversationSession session, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0); // chunked
+        try (OutputStream out = exchange.getResponseBody()) {
+            JsonObject last;
+            try {
+                String reply = orchestrator.handleUserQuery(session, message, token -> {
+                    JsonObject delta = new JsonObject();
+                    delta.addProperty("delta", token);
+                    writeEvent(out, delta);
+                });
+                last = new JsonObject();
+                last.addProperty("done", true);
+                last.addProperty("sessionId", session.id());
+                last.addProperty("reply", reply);
+            } catch (RuntimeException e) {
+                last = new JsonObject();
+                last.addProperty("error", "internal error: " + e.getMessage());
+            }
+            try {
+                writeEvent(out, last);
+            } catch (UncheckedIOException e) {
+                // Client went away; there is no one left to tell
+            }
+        }
+    }
+
+    private static void writeEvent(OutputStream out, JsonObject event) {
+        try {
+            synchronized (out) {
+                out.write(("data: " + event + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Client went away; the orchestrator ignores failing consumers
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonObject response = status("ok");
+            response.addProperty("sessions", sessions.size());
+            respond(exchange, 200, response);
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] bytes = Metrics.global().scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static JsonObject status(String message) {
+        JsonObject json = new JsonObject();
+        json.addProperty("status", message);
+        return json;
+    }
+
+    /**
+     * The field's value if it is a JSON string, otherwise {@code null}.
+     */
+    private static String string(JsonObject json, String field) {
+        JsonElement value = json.get(field);
+        return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isString() ? value.getAsString() : null;
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) return pair.substring(eq + 1);
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        sessions.close();
+    }
+}
@@ -0,0 +1,159 @@
+package me.ather.support.server;
+
+import me.ather.support.ConversationSession;
+import me.ather.support.store.ConversationStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of live conversations keyed by session id.
+ * Memory stays bounded under load: sessions idle for longer than the TTL are swept periodically,
+ * and once the session cap is exceeded the least recently used sessions are evicted. A session whose turn is
+ * running (its lock is held) is never evicted: the next message would otherwise get a new session with its own
+ * lock, and two turns of one conversation would run at once on separate histories.
+ * With a {@link ConversationStore}, eviction only frees memory: an evicted session's history is loaded from the
+ * store on its next message, and only {@link #remove} ends a conversation for good.
+ */
+public class SessionManager implements AutoCloseable {
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(30);
+    public static final int DEFAULT_MAX_SESSIONS = 10_000;
+
+    private final ConcurrentHashMap<String, ConversationSession> sessions = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxSessions;
+    private final LongSupplier clock;
+    private final AtomicLong evictions = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+    private final ConversationStore store; // optional, null = memory only
+
+    public SessionManager() {
+        this(DEFAULT_TTL, DEFAULT_MAX_SESSIONS, System::nanoTime, true, null);
+    }
+
+    public SessionManager(Duration ttl, int maxSessions, LongSupplier clock, boolean autoSweep) {
+        this(ttl, maxSessions, clock, autoSweep, null);
+    }
+
+    /**
+     * @param clock      Monotonic nanosecond clock (injectable for tests).
+     * @param autoSweep  Whether to run the TTL sweep in the background every TTL/4 (at least once a second).
+     * @param store      Log that keeps conversations across evictions and restarts. May be {@code null}.
+     */
+    public SessionManager(Duration ttl, int maxSessions, LongSupplier clock, boolean autoSweep, ConversationStore store) {
+        if (maxSessions <= 0) throw new IllegalArgumentException("maxSessions must be positive: " + maxSessions);
+        this.ttlNanos = ttl.toNanos();
+        this.maxSessions = maxSessions;
+        this.clock = clock;
+        this.store = store;
+        if (autoSweep) {
+            long period = Math.max(ttl.toMillis() / 4, 1000);
+            sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "session-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleAtFixedRate(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Returns the session with this id, creating it if it does not exist (or was evicted), and marks it as used.
+     */
+    public ConversationSession getOrCreate(String sessionId) {
+        long now = clock.getAsLong();
+        boolean[] created = new boolean[1];
+        ConversationSession session = sessions.computeIfAbsent(sessionId, id -> {
+            created[0] = true;
+            return new ConversationSession(id, store);
+        });
+        session.touch(now);
+        if (created[0] && sessions.size() > maxSessions) evictLeastRecentlyUsed();
+        return session;
+    }
+
+    /**
+     * Sessions persisted in {@code CONVERSATION_STORE_DIR}, if set; memory only otherwise or if the store cannot be opened.
+     */
+    public static SessionManager fromEnvironment() {
+        String configured = System.getenv("CONVERSATION_STORE_DIR");
+        if (configured == null || configured.isBlank()) return new SessionManager();
+        try {
+            return new SessionManager(DEFAULT_TTL, DEFAULT_MAX_SESSIONS, System::nanoTime, true,
+                    ConversationStore.open(Path.of(configured)));
+        } catch (IOException e) {
+            System.err.println("Conversation store unavailable, sessions will not survive a restart: " + e.getMessage());
+            return new SessionManager();
+        }
+    }
+
+    /**
+     * Ends a conversation, in memory and in the store. Returns false if it was unknown to both.
+     */
+    public boolean remove(String sessionId) {
+        boolean removed = sessions.remove(sessionId) != null;
+        if (store == null) return removed;
+        try {
+            return store.end(sessionId) || removed;
+        } catch (IOException e) {
+            System.err.println("Could not end session " + sessionId + " in the store: " + e.getMessage());
+            return removed;
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Drops every session that has been idle for longer than the TTL and is not in the middle of a turn.
+     */
+    public void evictExpired() {
+        long now = clock.getAsLong();
+        for (Map.Entry<String, ConversationSession> entry : sessions.entrySet()) {
+            ConversationSession session = entry.getValue();
+            if (now - session.lastAccessNanos() > ttlNanos && !session.lock().isLocked()
+                    && sessions.remove(entry.getKey(), session)) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        evictExpired();
+        while (sessions.size() > maxSessions) {
+            ConversationSession oldest = null;
+            for (ConversationSession candidate : sessions.values()) {
+                if (candidate.lock().isLocked()) continue;
+                if (oldest == null || candidate.lastAccessNanos() < oldest.lastAccessNanos()) oldest = candidate;
+            }
+            if (oldest == null) return; // Every session is mid-turn; the cap is restored on a later eviction
+            if (sessions.remove(oldest.id(), oldest)) evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (sweeper != null) sweeper.shutdownNow();
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("Could not close the conversation store: " + e.getMessage());
+        }
+    }
+}
@@ -1,10 +1,28 @@
 package me.ather.support.service;
 
+import me.ather.support.model.ToolDefinition;
+
+import java.io.IOException;
+import java.util.List;
+
 /**
  * Service handling billing policies, pricing, and refund processes.
  * Acts as the primary data source for Agent B (Billing Specialist).
+ * Refund tickets are issued and persisted by a {@link RefundLedger}.
  */
 public class BillingService {
+    private final RefundLedger ledger;
+
+    /**
+     * Keeps refund tickets in memory only.
+     */
+    public BillingService() {
+        this(RefundLedger.inMemory());
+    }
+
+    public BillingService(RefundLedger ledger) {
+        this.ledger = ledger;
+    }
 
     /**
      * Provides the main policy context for the LLM.
@@ -34,15 +52,41 @@ public class BillingService {
                 "Processing time is 3-5 business days depending on your bank.";
     }
 
+    /**
+     * Registers the billing actions the model may call.
+     * Addressing "missing tool calling mechanism" feedback.
+     */
+    public void registerTools(ToolRegistry tools) {
+        tools.register(new ToolDefinition("initiateRefund",
+                "Automates refund ticket creation based on user justification.",
+                List.of(new ToolDefinition.Parameter("reason", "STRING",
+                        "The semantic reason extracted from user input.", true))),
+                (sessionId, call) -> initiateRefund(sessionId, call.reason()));
+    }
+
     /**
      * Action: Initiates a refund ticket in the system.
      * @param reason The reason provided by the user.
      * @return A message containing the ticket ID and final instructions.
      */
     public String initiateRefund(String reason) {
-        String ticketId = "REF-" + (int)(Math.random() * 10000);
-        return "I have initiated a refund request (Ticket ID: " + ticketId + "). " +
+        try {
+            return initiateRefund(null, reason);
+        } catch (IOException e) {
+            return "I could not open a refund request right now (" + e.getMessage() + "). " +
+                    "Please try again shortly or use https://support.example.com/refund-form";
+        }
+    }
+
+    /**
+     * Action: Initiates a refund ticket for a conversation, once per session and reason.
+     * A repeated request (e.g. a retried model call) returns the same ticket instead of opening another.
+     * @throws IOException if the ticket could not be recorded.
+     */
+    public String initiateRefund(String sessionId, String reason) throws IOException {
+        RefundLedger.Ticket ticket = ledger.record(sessionId, reason);
+        return "I have initiated a refund request (Ticket ID: " + ticket.id() + "). " +
                 "Reason provided: " + (reason == null || reason.isEmpty() ? "Not specified" : reason) + ". " +
                 "Please finalize the process here: https://support.example.com/refund-form";
     }
-}
\ No newline at end of file
+}
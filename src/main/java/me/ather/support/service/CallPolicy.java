@@ -0,0 +1,277 @@
+package me.ather.support.service;
+
+import me.ather.support.metrics.LatencyHistogram;
+import me.ather.support.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Deadline, retry, hedging and admission rules for the requests of one {@link LLMClient}.
+ *
+ * - Deadline: every attempt gets the time left until the call's deadline as its HTTP timeout; no retry or hedge
+ *   is started that could not finish in time.
+ * - Retries: 408, 429, 500, 502, 503, 504 and I/O failures are retried up to {@code maxAttempts} in total, after a
+ *   "full jitter" backoff (uniform in {@code (0, min(maxBackoff, baseBackoff * 2^(attempt - 1))]}), or after the
+ *   server's {@code Retry-After} if that is longer. Other statuses are returned to the caller as they are.
+ * - Admission: each request (including retries and hedges) holds a {@link ConcurrencyLimiter} permit while in flight.
+ * - Hedging (optional): if an attempt has not answered after the {@code hedgeQuantile} latency of earlier successful
+ *   attempts of the same operation, a second copy is sent when a permit is free, and the first answer wins; the
+ *   other copy is cancelled. Needs {@value #HEDGE_MIN_SAMPLES} samples first. Latencies are kept in power-of-two
+ *   buckets, so the hedge fires at the upper bound of the quantile's bucket, never earlier than the quantile.
+ *
+ * Every request the client sends is idempotent (generation and embedding have no side effects), so retrying
+ * and hedging cannot duplicate work on the server beyond the extra tokens. The one exception, creating a context
+ * cache, can at worst leave an unused cache behind, which expires with its TTL.
+ */
+public class CallPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final Duration DEFAULT_BASE_BACKOFF = Duration.ofMillis(200);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(5);
+    public static final double DEFAULT_HEDGE_QUANTILE = 0.95;
+    public static final int HEDGE_MIN_SAMPLES = 20;
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+    private static final Metrics METRICS = Metrics.global();
+
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final double hedgeQuantile; // 0 = no hedging
+    private final ConcurrencyLimiter limiter;
+    private final Map<String, LatencyHistogram> attemptLatency = new ConcurrentHashMap<>();
+
+    /**
+     * Default retries and an adaptive limiter, without hedging.
+     */
+    public CallPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF, 0, new ConcurrencyLimiter());
+    }
+
+    /**
+     * @param maxAttempts   Attempts per call including the first; 1 disables retries.
+     * @param hedgeQuantile Latency quantile (e.g. {@link #DEFAULT_HEDGE_QUANTILE}) after which a second copy is sent,
+     *                      or 0 to disable hedging.
+     */
+    public CallPolicy(int maxAttempts, Duration baseBackoff, Duration maxBackoff, double hedgeQuantile,
+                      ConcurrencyLimiter limiter) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        if (hedgeQuantile < 0 || hedgeQuantile >= 1) throw new IllegalArgumentException("hedgeQuantile must be in [0, 1)");
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.hedgeQuantile = hedgeQuantile;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Default policy, with hedging at the p95 latency when {@code LLM_HEDGING=true}.
+     */
+    public static CallPolicy fromEnvironment() {
+        boolean hedging = "true".equalsIgnoreCase(System.getenv("LLM_HEDGING"));
+        return new CallPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF,
+                hedging ? DEFAULT_HEDGE_QUANTILE : 0, new ConcurrencyLimiter());
+    }
+
+    public ConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    /**
+     * Runs {@code send} under this policy. {@code send} issues one request with the given HTTP timeout.
+     * The result is the first non-retryable response, or the last response or failure once retries are exhausted
+     * or the deadline leaves no room for another attempt. A full limiter queue fails the call with a
+     * {@link java.util.concurrent.RejectedExecutionException}. Cancelling the result cancels every request in flight.
+     */
+    public <R> CompletableFuture<HttpResponse<R>> execute(String operation, Duration timeout,
+                                                          Function<Duration, CompletableFuture<HttpResponse<R>>> send) {
+        Execution<R> execution = new Execution<>(operation, System.nanoTime() + timeout.toNanos(), send);
+        execution.runAttempt();
+        return execution.result;
+    }
+
+    private LatencyHistogram latency(String operation) {
+        LatencyHistogram histogram = attemptLatency.get(operation);
+        return histogram != null ? histogram : attemptLatency.computeIfAbsent(operation, name -> new LatencyHistogram());
+    }
+
+    /**
+     * Delay before a second copy of an attempt, or -1 if hedging is off or there is not enough history yet.
+     */
+    private long hedgeDelayNanos(String operation) {
+        if (hedgeQuantile == 0) return -1;
+        LatencyHistogram.Snapshot snapshot = latency(operation).snapshot();
+        return snapshot.count() < HEDGE_MIN_SAMPLES ? -1 : snapshot.quantileNanos(hedgeQuantile);
+    }
+
+    private long backoffNanos(int attempt, HttpResponse<?> response) {
+        long cap = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 30));
+        long delay = 1 + ThreadLocalRandom.current().nextLong(Math.max(1, cap));
+        String retryAfter = response == null ? null : response.headers().firstValue("Retry-After").orElse(null);
+        if (retryAfter != null) {
+            try {
+                delay = Math.max(delay, TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException e) {
+                // An HTTP-date Retry-After is rare for this API; the jittered delay is used instead
+            }
+        }
+        return delay;
+    }
+
+    private static void schedule(long delayNanos, Runnable task) {
+        CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(task);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * State of one call across its attempts. An attempt is the primary request plus at most one hedge;
+     * it fails only when every copy it sent has failed.
+     */
+    private final class Execution<R> {
+        private final String operation;
+        private final long deadline;
+        private final Function<Duration, CompletableFuture<HttpResponse<R>>> send;
+        private final CompletableFuture<HttpResponse<R>> result = new CompletableFuture<>();
+        private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+        private volatile int attempts;
+
+        Execution(String operation, long deadline, Function<Duration, CompletableFuture<HttpResponse<R>>> send) {
+            this.operation = operation;
+            this.deadline = deadline;
+            this.send = send;
+            result.whenComplete((response, error) -> pending.forEach(future -> future.cancel(true)));
+        }
+
+        void runAttempt() {
+            attempts++;
+            Attempt attempt = new Attempt();
+            attempt.copies = 1;
+            launch(attempt, limiter.acquire(), false);
+        }
+
+        private void launch(Attempt attempt, CompletableFuture<ConcurrencyLimiter.Permit> permit, boolean hedge) {
+            track(permit);
+            permit.whenComplete((granted, rejected) -> {
+                pending.remove(permit);
+                if (rejected != null) {
+                    copyFailed(attempt, null, unwrap(rejected), false);
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (result.isDone() || remaining <= 0) {
+                    granted.release(ConcurrencyLimiter.Outcome.IGNORE);
+                    copyFailed(attempt, null, new HttpTimeoutException("deadline expired while queued"), false);
+                    return;
+                }
+                long sentAt = System.nanoTime();
+                CompletableFuture<HttpResponse<R>> exchange;
+                try {
+                    exchange = send.apply(Duration.ofNanos(remaining));
+                } catch (RuntimeException e) {
+                    granted.release(ConcurrencyLimiter.Outcome.IGNORE);
+                    copyFailed(attempt, null, e, false);
+                    return;
+                }
+                track(exchange);
+                if (!hedge) {
+                    long hedgeDelay = hedgeDelayNanos(operation);
+                    if (hedgeDelay > 0 && sentAt + hedgeDelay < deadline) schedule(hedgeDelay, () -> hedge(attempt));
+                }
+                exchange.whenComplete((response, failure) -> {
+                    pending.remove(exchange);
+                    handle(attempt, granted, sentAt, response, failure == null ? null : unwrap(failure));
+                });
+            });
+        }
+
+        /**
+         * Adds a future to cancel with the call; covers the race with a cancellation that already happened.
+         */
+        private void track(CompletableFuture<?> future) {
+            pending.add(future);
+            if (result.isDone()) future.cancel(true);
+        }
+
+        private void hedge(Attempt attempt) {
+            synchronized (attempt) {
+                if (attempt.settled || attempt.copies > 1 || result.isDone()) return;
+            }
+            ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+            if (permit == null) return; // No spare capacity; hedging must not add to an overload
+            synchronized (attempt) {
+                if (attempt.settled) {
+                    permit.release(ConcurrencyLimiter.Outcome.IGNORE);
+                    return;
+                }
+                attempt.copies++;
+            }
+            METRICS.recordHedge(operation);
+            launch(attempt, CompletableFuture.completedFuture(permit), true);
+        }
+
+        private void handle(Attempt attempt, ConcurrencyLimiter.Permit permit, long sentAt,
+                            HttpResponse<R> response, Throwable error) {
+            if (response == null) {
+                // A timeout means the server could not keep up; other I/O failures say nothing about its load
+                permit.release(error instanceof HttpTimeoutException ? ConcurrencyLimiter.Outcome.OVERLOAD : ConcurrencyLimiter.Outcome.IGNORE);
+                copyFailed(attempt, null, error, error instanceof IOException && !(error instanceof CancellationException));
+                return;
+            }
+            int status = response.statusCode();
+            if (status == 429 || status == 503) {
+                permit.release(ConcurrencyLimiter.Outcome.OVERLOAD);
+            } else {
+                permit.release(status < 400 ? ConcurrencyLimiter.Outcome.SUCCESS : ConcurrencyLimiter.Outcome.IGNORE);
+            }
+            if (RETRYABLE_STATUSES.contains(status)) {
+                copyFailed(attempt, response, null, true);
+                return;
+            }
+            if (status < 400) latency(operation).record(System.nanoTime() - sentAt);
+            synchronized (attempt) {
+                attempt.settled = true;
+            }
+            result.complete(response);
+        }
+
+        private void copyFailed(Attempt attempt, HttpResponse<R> response, Throwable error, boolean retryable) {
+            synchronized (attempt) {
+                if (attempt.settled || ++attempt.failures < attempt.copies) return; // The other copy may still answer
+                attempt.settled = true;
+            }
+            if (result.isDone()) return;
+            if (retryable && attempts < maxAttempts) {
+                long delay = backoffNanos(attempts, response);
+                if (System.nanoTime() + delay < deadline) {
+                    METRICS.recordRetry(operation);
+                    schedule(delay, this::runAttempt);
+                    return;
+                }
+            }
+            if (response != null) {
+                result.complete(response);
+            } else {
+                result.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static final class Attempt {
+        int copies;    // requests sent or queued for this attempt, guarded by the attempt
+        int failures;
+        boolean settled;
+    }
+}
@@ -0,0 +1,138 @@
+package me.ather.support.service;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Adaptive cap on the number of model requests in flight (AIMD, as in TCP congestion control).
+ *
+ * Every successful request that ran while the limit was at least half used raises the limit by {@code 1 / limit},
+ * i.e. by about one per round trip of a full window. An overload signal (HTTP 429 / 503 or a timeout) halves it,
+ * at most once per window: only permits acquired since the last decrease can trigger the next one, so one burst of
+ * 429s does not collapse the limit to its minimum. Latency-gradient (Vegas-style) limiting was not used because
+ * completion latency depends mostly on the answer length, not on queueing.
+ *
+ * Requests over the limit wait in a bounded FIFO queue without holding a thread; a full queue rejects immediately.
+ */
+public class ConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 16;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 256;
+    public static final int DEFAULT_MAX_QUEUE = 1000;
+    private static final double BACKOFF_RATIO = 0.5;
+
+    /**
+     * How a request ended, as far as the limit is concerned.
+     * IGNORE covers failures that say nothing about server load (bad requests, cancelled calls).
+     */
+    public enum Outcome { SUCCESS, OVERLOAD, IGNORE }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final ArrayDeque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long epoch; // incremented on every decrease
+
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_QUEUE);
+    }
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit || maxQueue < 0) {
+            throw new IllegalArgumentException("Require 1 <= minLimit <= initialLimit <= maxLimit and maxQueue >= 0");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * Completes with a permit once a request may be sent, or exceptionally with a {@link RejectedExecutionException}
+     * if the queue is full. A waiter that is completed or cancelled by the caller before its turn is skipped.
+     */
+    public CompletableFuture<Permit> acquire() {
+        synchronized (this) {
+            if (waiters.isEmpty() && inFlight < (int) limit) return CompletableFuture.completedFuture(grant());
+            if (waiters.size() >= maxQueue) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Too many queued model requests (limit " + (int) limit + ", queue " + maxQueue + ")"));
+            }
+            CompletableFuture<Permit> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    /**
+     * A permit if one is free right now, otherwise {@code null}; never queues. Used for optional work like hedging.
+     */
+    public synchronized Permit tryAcquire() {
+        return waiters.isEmpty() && inFlight < (int) limit ? grant() : null;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return waiters.size();
+    }
+
+    private Permit grant() {
+        inFlight++;
+        return new Permit(epoch);
+    }
+
+    private void release(Permit permit, Outcome outcome) {
+        // Waiters are completed outside the lock, since completion runs their continuations
+        ArrayDeque<CompletableFuture<Permit>> ready = new ArrayDeque<>();
+        ArrayDeque<Permit> granted = new ArrayDeque<>();
+        synchronized (this) {
+            if (outcome == Outcome.SUCCESS && inFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            } else if (outcome == Outcome.OVERLOAD && permit.epoch == epoch) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                epoch++;
+            }
+            inFlight--;
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                CompletableFuture<Permit> waiter = waiters.poll();
+                if (waiter.isDone()) continue;
+                ready.add(waiter);
+                granted.add(grant());
+            }
+        }
+        while (!ready.isEmpty()) {
+            Permit next = granted.poll();
+            if (!ready.poll().complete(next)) next.release(Outcome.IGNORE); // Caller gave up in the meantime
+        }
+    }
+
+    /**
+     * The right to have one request in flight. Must be released exactly once; later releases are ignored.
+     */
+    public final class Permit {
+        private final long epoch;
+        private boolean released;
+
+        private Permit(long epoch) {
+            this.epoch = epoch;
+        }
+
+        public void release(Outcome outcome) {
+            synchronized (this) {
+                if (released) return;
+                released = true;
+            }
+            ConcurrencyLimiter.this.release(this, outcome);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package me.ather.support.service;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Local bookkeeping of the explicit context caches ({@code cachedContents}) of one {@link LLMClient}.
+ *
+ * A prompt prefix (system instruction, retrieved docs, tool declarations) is identified by the SHA-256 of its
+ * encoded cachedContents body. It is registered with the API the {@code admitAfter}-th time it is seen and only if
+ * it has at least {@code minTokens} estimated tokens, the smallest prefix the API accepts; later requests then
+ * reference it by name instead of resending it. Until the cache exists, or while creating it fails, requests carry
+ * the prefix inline, so a cache is never on a request's critical path.
+ *
+ * Expiry is tracked locally from the TTL requested at creation, measured from the moment the request was sent, so
+ * the local view expires no later than the server's. A prefix used in the second half of its TTL gets its TTL
+ * extended in the background; an idle one simply expires on the server, which costs nothing further. The least
+ * recently used prefix is forgotten locally when the table is full.
+ */
+public class ContextCache {
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+    public static final int DEFAULT_MIN_TOKENS = 1024;
+    public static final int DEFAULT_ADMIT_AFTER = 2;
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Duration ttl;
+    private final long ttlNanos;
+    private final int minTokens;
+    private final int admitAfter;
+    private final int capacity;
+    private final LongSupplier clock;
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder creates = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    public ContextCache() {
+        this(DEFAULT_TTL, DEFAULT_MIN_TOKENS, DEFAULT_ADMIT_AFTER, DEFAULT_CAPACITY, System::nanoTime);
+    }
+
+    /**
+     * @param minTokens  Smallest estimated prefix size worth caching; smaller prefixes are always sent inline.
+     * @param admitAfter Uses of a prefix before it is registered; 1 registers it on first sight.
+     * @param clock      Nanosecond time source, replaceable in tests.
+     */
+    public ContextCache(Duration ttl, int minTokens, int admitAfter, int capacity, LongSupplier clock) {
+        if (ttl.getSeconds() < 1) throw new IllegalArgumentException("ttl must be at least one second: " + ttl);
+        if (admitAfter <= 0) throw new IllegalArgumentException("admitAfter must be positive: " + admitAfter);
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.ttl = ttl;
+        this.ttlNanos = ttl.toNanos();
+        this.minTokens = minTokens;
+        this.admitAfter = admitAfter;
+        this.capacity = capacity;
+        this.clock = clock;
+    }
+
+    /**
+     * Default cache, or none when {@code LLM_CONTEXT_CACHE=false}.
+     */
+    public static ContextCache fromEnvironment() {
+        return "false".equalsIgnoreCase(System.getenv("LLM_CONTEXT_CACHE")) ? null : new ContextCache();
+    }
+
+    public Duration ttl() {
+        return ttl;
+    }
+
+    /**
+     * True if a prefix of this estimated size may be cached at all; callers skip encoding a key otherwise.
+     */
+    boolean eligible(int estimatedTokens) {
+        return estimatedTokens >= minTokens;
+    }
+
+    /**
+     * Name of the live cache for this cachedContents body, or {@code null} to send the prefix inline.
+     * May start creating the cache or extending its TTL through {@code api}; neither is waited for.
+     */
+    String lookup(byte[] body, Api api) {
+        ByteBuffer key = ByteBuffer.wrap(sha256(body));
+        long now = clock.getAsLong();
+        Entry entry;
+        boolean create = false;
+        boolean refresh = false;
+        String name;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                if (entries.size() > capacity) {
+                    Iterator<Entry> eldest = entries.values().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            entry.uses++;
+            if (entry.name != null && now - entry.expiresAt >= 0) entry.name = null; // Gone on the server too
+            name = entry.name;
+            if (!entry.pending) {
+                if (name == null) {
+                    create = entry.uses >= admitAfter && (!entry.failed || now - entry.retryAt >= 0);
+                } else {
+                    refresh = entry.expiresAt - now < ttlNanos / 2;
+                }
+                entry.pending = create || refresh;
+            }
+        }
+        (name == null ? misses : hits).increment();
+        if (create) create(entry, body, now, api);
+        if (refresh) refresh(entry, name, now, api);
+        return name;
+    }
+
+    /**
+     * Forgets the cache for this body, e.g. after the API rejected a request that referenced it.
+     * It is registered again on a later use.
+     */
+    void invalidate(byte[] body) {
+        ByteBuffer key = ByteBuffer.wrap(sha256(body));
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) entry.name = null;
+        }
+    }
+
+    private void create(Entry entry, byte[] body, long sentAt, Api api) {
+        api.create(body).whenComplete((name, error) -> {
+            synchronized (entries) {
+                if (error == null && name != null) {
+                    creates.increment();
+                    entry.name = name;
+                    entry.expiresAt = sentAt + ttlNanos;
+                    entry.failed = false;
+                } else {
+                    entry.failed = true;
+                    entry.retryAt = sentAt + ttlNanos; // e.g. too small for the API; do not ask again on every turn
+                }
+                entry.pending = false;
+            }
+        });
+    }
+
+    private void refresh(Entry entry, String name, long sentAt, Api api) {
+        api.refresh(name, ttl).whenComplete((extended, error) -> {
+            synchronized (entries) {
+                if (error == null && Boolean.TRUE.equals(extended) && name.equals(entry.name)) {
+                    refreshes.increment();
+                    entry.expiresAt = sentAt + ttlNanos;
+                }
+                entry.pending = false;
+            }
+        });
+    }
+
+    public Stats stats() {
+        long now = clock.getAsLong();
+        int live = 0;
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                if (entry.name != null && now - entry.expiresAt < 0) live++;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), creates.sum(), refreshes.sum(), live);
+    }
+
+    private static byte[] sha256(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
+    }
+
+    /**
+     * Lookups that found a live cache (hits) or sent the prefix inline (misses), the caches created and TTL
+     * extensions made so far, and the number of caches currently live.
+     */
+    public record Stats(long hits, long misses, long creates, long refreshes, int live) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+
+    /**
+     * The cachedContents calls, implemented by the client. Both futures complete normally; failures are
+     * reported as {@code null} / {@code false}.
+     */
+    interface Api {
+        /** Name of the created cache, or null. */
+        CompletableFuture<String> create(byte[] body);
+
+        /** True if the TTL of the named cache was extended. */
+        CompletableFuture<Boolean> refresh(String name, Duration ttl);
+    }
+
+    private static final class Entry {
+        int uses;
+        String name;       // null until created, and after expiry
+        long expiresAt;
+        boolean failed;    // the last create failed: no new attempt before retryAt
+        long retryAt;
+        boolean pending;   // a create or refresh is in flight
+    }
+}
@@ -1,76 +1,525 @@
 package me.ather.support.service;
 
+import me.ather.support.metrics.Metrics;
+import me.ather.support.retrieval.EmbeddingStore;
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.InvertedIndex;
+import me.ather.support.retrieval.RankFusion;
+import me.ather.support.retrieval.SearchHits;
+import me.ather.support.retrieval.TopK;
+import me.ather.support.retrieval.VectorIndex;
+
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Enterprise-grade Knowledge Base using Semantic Vector Search.
  * Improved for high recall by using expanded documentation and Top-K retrieval.
  * Addresses the "basic search" feedback by implementing a multi-result semantic bridge.
+ *
+ * Documents are grouped by source (a file, or {@link #INLINE_SOURCE} for snippets added in code).
+ * Queries read an immutable snapshot of the indexes without locking; every change builds a new snapshot
+ * and swaps it in, so ingestion never blocks retrieval. Identical snippets are indexed and embedded once.
+ *
+ * A snapshot is a list of immutable index segments plus a set of deleted ids, shared with the snapshots before
+ * it. A change only indexes its new snippets, into one new segment, and marks the removed ones as deleted;
+ * small segments are merged into larger ones as they accumulate, so every snippet is re-indexed a logarithmic
+ * number of times rather than on every change.
  */
 public class DocumentService {
+    public static final int DEFAULT_TOP_K = 2;
+    public static final double DEFAULT_THRESHOLD = 0.35;
+
+    /**
+     * VECTOR: embedding similarity only.
+     * HYBRID: BM25 over an inverted index fused with the vector ranking by reciprocal rank; a query whose best
+     * lexical hit covers most of its content words and clearly leads the runner-up is answered without embedding.
+     */
+    public enum RetrievalMode { VECTOR, HYBRID }
+
+    static final float LEXICAL_MIN_COVERAGE = 0.75f;
+    static final float LEXICAL_MIN_LEAD = 2.0f;
+    private static final int FUSION_DEPTH = 2; // candidates per ranking, as a multiple of topK
+    private static final int MERGE_FACTOR = 2; // newest segments merge once they hold 1/MERGE_FACTOR of the one before
+    private static final int COMPACT_DELETED_RATIO = 4; // compact everything once 1/4 of all ids are deleted
+    private static final Metrics METRICS = Metrics.global();
+
+    /**
+     * Source of the snippets added through {@link #addDoc} and {@link #addDocs}.
+     */
+    public static final String INLINE_SOURCE = "";
+
     private final LLMClient llmClient;
-    private final Map<String, float[]> vectorizedDocs = new HashMap<>();
-    private final List<String> knowledgeBase = new ArrayList<>();
+    private final VectorIndex indexTemplate; // configuration of the vector index of every snapshot
+    private final RetrievalMode retrievalMode;
+    private final LongAdder embeddingsSkipped = new LongAdder();
+    private final EmbeddingStore embeddingStore; // optional, null = always embed
+    private final EmbeddingCache queryEmbeddings;
+    private final Object writeLock = new Object(); // serializes snapshot rebuilds, never taken by queries
+    private volatile Snapshot snapshot;
+    private final int topK;
+    private final float threshold;
 
     public DocumentService(LLMClient llmClient) {
+        this(llmClient, DEFAULT_TOP_K, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param topK      Maximum number of snippets returned per query.
+     * @param threshold Minimum cosine similarity (exclusive) for a snippet to qualify.
+     */
+    public DocumentService(LLMClient llmClient, int topK, double threshold) {
+        this(llmClient, new FlatVectorStore(), topK, threshold);
+    }
+
+    /**
+     * @param vectorIndex Retrieval engine: exact {@link FlatVectorStore} or approximate
+     *                    {@link me.ather.support.retrieval.HnswIndex} for very large corpora.
+     */
+    public DocumentService(LLMClient llmClient, VectorIndex vectorIndex, int topK, double threshold) {
+        this(llmClient, vectorIndex, topK, threshold, null);
+    }
+
+    /**
+     * @param embeddingStore Persistent embedding cache; documents whose text is already stored
+     *                       are indexed without an embedding call. May be {@code null}.
+     */
+    public DocumentService(LLMClient llmClient, VectorIndex vectorIndex, int topK, double threshold,
+                           EmbeddingStore embeddingStore) {
+        this(llmClient, vectorIndex, topK, threshold, embeddingStore, RetrievalMode.HYBRID);
+    }
+
+    public DocumentService(LLMClient llmClient, VectorIndex vectorIndex, int topK, double threshold,
+                           EmbeddingStore embeddingStore, RetrievalMode retrievalMode) {
+        if (topK <= 0) throw new IllegalArgumentException("topK must be positive: " + topK);
         this.llmClient = llmClient;
+        this.indexTemplate = vectorIndex;
+        this.snapshot = new Snapshot(Map.of(), Map.of(), List.of(), List.of(), new BitSet(), 0);
+        this.retrievalMode = retrievalMode;
+        this.embeddingStore = embeddingStore;
+        this.queryEmbeddings = new EmbeddingCache(llmClient::getEmbedding, EmbeddingCache.DEFAULT_CAPACITY);
+        this.topK = topK;
+        this.threshold = (float) threshold;
         initializeKnowledgeBase();
     }
 
     private void initializeKnowledgeBase() {
         // We expand the descriptions to give the embedding model more "semantic surface" to hit.
-        addDoc("System Maintenance & Hardware: The Hub-V3 device is powered by a CR2032 battery (power source) with a 3-year life. Hardware specs include Zigbee 3.0 wireless protocol and an indoor range of 50 meters.");
-        addDoc("Troubleshooting Errors: For Error Code 404 (Sensor offline), press the 'Reset' button for 5 seconds. Error Code 501 indicates a database sync failure.");
-        addDoc("Connectivity & Pairing: To pair a new device (connection setup), hold the 'Pair' button until the LED flashes blue. Initial setup requires the mobile app.");
-        addDoc("Developer Integration: Authentication for the API requires OAuth2 Bearer Tokens. Webhooks are available via /v2/webhooks using POST requests with JSON payloads.");
+        addDocs(List.of(
+                "System Maintenance & Hardware: The Hub-V3 device is powered by a CR2032 battery (power source) with a 3-year life. Hardware specs include Zigbee 3.0 wireless protocol and an indoor range of 50 meters.",
+                "Troubleshooting Errors: For Error Code 404 (Sensor offline), press the 'Reset' button for 5 seconds. Error Code 501 indicates a database sync failure.",
+                "Connectivity & Pairing: To pair a new device (connection setup), hold the 'Pair' button until the LED flashes blue. Initial setup requires the mobile app.",
+                "Developer Integration: Authentication for the API requires OAuth2 Bearer Tokens. Webhooks are available via /v2/webhooks using POST requests with JSON payloads."));
+    }
+
+    /**
+     * Embeds the snippet and adds it to the live index.
+     * The embedding call runs outside the write lock; queries are never blocked.
+     */
+    public void addDoc(String text) {
+        float[] vector = snapshot.vectorOf(text);
+        if (vector == null && embeddingStore != null) vector = embeddingStore.get(text);
+        if (vector == null) {
+            vector = llmClient.getEmbedding(text);
+            if (embeddingStore != null && vector.length > 0) embeddingStore.put(text, vector);
+        }
+        commit(Map.of(text, vector), sources -> appendInline(sources, List.of(text)));
+    }
+
+    /**
+     * Bulk-loads snippets: known and stored embeddings are reused and all remaining texts are embedded
+     * through the batched, concurrent {@link LLMClient#getEmbeddings} API. Insertion order is preserved.
+     */
+    public void addDocs(List<String> texts) {
+        Map<String, float[]> vectors = embedMissing(texts);
+        commit(vectors, sources -> appendInline(sources, texts));
+    }
+
+    /**
+     * Replaces the snippets of the given sources and drops the removed sources, as one atomic change.
+     * Only snippets that are not indexed yet (and not in the embedding store) are embedded.
+     *
+     * Snippets whose embedding fails stay part of their source but are not indexed; they are returned so the
+     * caller can apply the source again later, which embeds them again.
+     *
+     * @param upserts  Complete new snippet list per source, e.g. the chunks of a changed file.
+     * @param removals Sources to drop, e.g. deleted files.
+     */
+    public Update updateSources(Map<String, List<String>> upserts, Collection<String> removals) {
+        Map<String, Integer> known = snapshot.ids;
+        Set<String> texts = new LinkedHashSet<>();
+        upserts.values().forEach(texts::addAll);
+
+        Map<String, float[]> vectors = embedMissing(new ArrayList<>(texts));
+        commit(vectors, sources -> {
+            removals.forEach(sources::remove);
+            upserts.forEach((source, chunks) -> sources.put(source, List.copyOf(chunks)));
+        });
+        int added = 0;
+        Set<String> failed = new LinkedHashSet<>();
+        for (String text : texts) {
+            if (vectors.get(text).length == 0) failed.add(text);
+            else if (!known.containsKey(text)) added++;
+        }
+        return new Update(added, Collections.unmodifiableSet(failed));
+    }
+
+    /**
+     * Vectors for all texts: already indexed ones are reused, the others come from the embedding store
+     * where possible and otherwise from one batched embedding call. Failed embeddings are empty arrays.
+     */
+    private Map<String, float[]> embedMissing(List<String> texts) {
+        Snapshot current = snapshot;
+        Map<String, float[]> vectors = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String text : texts) {
+            if (vectors.containsKey(text) || missing.contains(text)) continue;
+            float[] vector = current.vectorOf(text);
+            if (vector == null && embeddingStore != null) vector = embeddingStore.get(text);
+            if (vector != null) vectors.put(text, vector);
+            else missing.add(text);
+        }
+
+        if (!missing.isEmpty()) {
+            Iterator<float[]> embedded = llmClient.getEmbeddings(new ArrayList<>(missing)).iterator();
+            for (String text : missing) {
+                float[] vector = embedded.hasNext() ? embedded.next() : new float[0];
+                vectors.put(text, vector);
+                if (embeddingStore != null && vector.length > 0) embeddingStore.put(text, vector);
+            }
+        }
+        return vectors;
+    }
+
+    private static void appendInline(Map<String, List<String>> sources, List<String> texts) {
+        List<String> inline = new ArrayList<>(sources.getOrDefault(INLINE_SOURCE, List.of()));
+        inline.addAll(texts);
+        sources.put(INLINE_SOURCE, inline);
+    }
+
+    /**
+     * Applies the change to a copy of the source map and publishes the next snapshot. Snippets no longer in any
+     * source are marked deleted and snippets not indexed yet go into one new segment; the segments of the current
+     * snapshot are shared, not copied. {@code embedded} must hold the vectors of all snippets the change adds.
+     * Snapshots stay immutable: a query sees either the old or the new knowledge base, never a half-applied change.
+     */
+    private void commit(Map<String, float[]> embedded, Consumer<Map<String, List<String>>> change) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            Map<String, List<String>> sources = new LinkedHashMap<>(current.sources);
+            change.accept(sources);
+
+            Set<String> referenced = new HashSet<>();
+            sources.values().forEach(referenced::addAll);
+            Map<String, Integer> ids = new HashMap<>(current.ids);
+            List<String> texts = new ArrayList<>(current.texts);
+            List<Segment> segments = new ArrayList<>(current.segments);
+            BitSet deleted = (BitSet) current.deleted.clone();
+            ids.entrySet().removeIf(entry -> {
+                if (referenced.contains(entry.getKey())) return false;
+                deleted.set(entry.getValue());
+                return true;
+            });
+
+            Segment added = new Segment(indexTemplate.emptyCopy(), new InvertedIndex());
+            for (List<String> chunks : sources.values()) {
+                for (String text : chunks) {
+                    if (ids.containsKey(text)) continue; // Indexed already, or a duplicate snippet
+                    float[] vector = embedded.get(text);
+                    if (vector == null || vector.length == 0) continue; // Embedding failed; left out until its source is applied again
+                    ids.put(text, texts.size());
+                    texts.add(text);
+                    added.add(vector, text);
+                }
+            }
+            if (added.size() > 0) segments.add(added);
+
+            if (deleted.cardinality() * COMPACT_DELETED_RATIO > texts.size()) {
+                merge(0, segments, texts, ids, deleted);
+            } else {
+                // Merge the newest segments once together they are about as large as the one before them
+                int from = segments.size() - 1;
+                int base = texts.size() - (from < 0 ? 0 : segments.get(from).size());
+                long tail = from < 0 ? 0 : liveCount(segments.get(from), base, deleted);
+                while (from > 0) {
+                    Segment previous = segments.get(from - 1);
+                    long previousLive = liveCount(previous, base - previous.size(), deleted);
+                    if (tail * MERGE_FACTOR < previousLive) break;
+                    tail += previousLive;
+                    base -= previous.size();
+                    from--;
+                }
+                if (from < segments.size() - 1) merge(from, segments, texts, ids, deleted);
+            }
+            snapshot = new Snapshot(Collections.unmodifiableMap(sources), ids, texts, segments, deleted, current.version + 1);
+        }
+    }
+
+    private static long liveCount(Segment segment, int base, BitSet deleted) {
+        return segment.size() - deleted.get(base, base + segment.size()).cardinality();
+    }
+
+    /**
+     * Replaces the segments from index {@code from} on by one segment of their live snippets, renumbering them.
+     * Ids before the merged range keep their values.
+     */
+    private void merge(int from, List<Segment> segments, List<String> texts, Map<String, Integer> ids, BitSet deleted) {
+        int base = 0;
+        for (Segment segment : segments.subList(0, from)) base += segment.size();
+        Segment merged = new Segment(indexTemplate.emptyCopy(), new InvertedIndex());
+        List<String> kept = new ArrayList<>();
+        int id = base;
+        for (Segment segment : segments.subList(from, segments.size())) {
+            for (int local = 0; local < segment.size(); local++, id++) {
+                if (deleted.get(id)) continue;
+                String text = texts.get(id);
+                merged.add(segment.vectors.vector(local), text);
+                kept.add(text);
+            }
+        }
+        deleted.clear(base, texts.size());
+        texts.subList(base, texts.size()).clear();
+        for (String text : kept) {
+            ids.put(text, texts.size());
+            texts.add(text);
+        }
+        segments.subList(from, segments.size()).clear();
+        if (merged.size() > 0) segments.add(merged);
+    }
+
+    /**
+     * Flushes newly computed embeddings to the persistent store, if one is configured.
+     * Saving drops stored embeddings not used since the store was opened, so call this only once the whole
+     * initial corpus is loaded, not before the knowledge base directory has been ingested.
+     * A failed write only costs re-embedding on the next start, so it is reported and otherwise ignored.
+     */
+    public void persistEmbeddings() {
+        if (embeddingStore == null) return;
+        try {
+            embeddingStore.save();
+        } catch (IOException e) {
+            System.err.println("Could not persist embeddings: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Number of distinct snippets in the live index.
+     */
+    public int getDocumentCount() {
+        return snapshot.ids.size();
     }
 
-    private void addDoc(String text) {
-        knowledgeBase.add(text);
-        vectorizedDocs.put(text, llmClient.getEmbedding(text));
+    /**
+     * Number of queries answered from a confident lexical match without an embedding call.
+     */
+    public long getEmbeddingsSkipped() {
+        return embeddingsSkipped.sum();
     }
 
     /**
-     * Finds the Top-2 most relevant context snippets.
+     * Hit/miss/eviction counters of the query-embedding cache.
+     */
+    public EmbeddingCache.Stats getQueryCacheStats() {
+        return queryEmbeddings.stats();
+    }
+
+    /**
+     * Query embedding through the shared cache, so retrieval and intent classification of the same
+     * turn cost one embedding call. Returns an empty array if embedding failed.
+     */
+    public float[] embedQuery(String userQuery) {
+        return queryEmbeddings.get(userQuery);
+    }
+
+    /**
+     * Finds the Top-K (default 2) most relevant context snippets.
      * Returning multiple snippets (Top-K) ensures the LLM sees the full picture.
      */
     public String findRelevantContext(String userQuery) {
-        float[] queryVector = llmClient.getEmbedding(userQuery);
-        if (queryVector.length == 0) return "";
+        return retrieve(userQuery).context();
+    }
 
-        // Map to store text and its similarity score
-        Map<String, Double> scores = new HashMap<>();
+    /**
+     * Like {@link #findRelevantContext}, but also returns what the answer depends on:
+     * the query embedding, the ids of the selected documents and the knowledge base version.
+     */
+    public Retrieval retrieve(String userQuery) {
+        Snapshot current = snapshot;
+        if (retrievalMode == RetrievalMode.HYBRID) {
+            Retrieval lexical = confidentLexicalMatch(current, userQuery);
+            if (lexical != null) {
+                embeddingsSkipped.increment();
+                return lexical;
+            }
+        }
 
-        for (String doc : knowledgeBase) {
-            double similarity = calculateCosineSimilarity(queryVector, vectorizedDocs.get(doc));
-            scores.put(doc, similarity);
+        // Repeated questions are answered from the query-embedding cache
+        long start = System.nanoTime();
+        float[] queryVector = queryEmbeddings.get(userQuery);
+        long embedded = System.nanoTime();
+        METRICS.recordStage("embed", embedded - start);
+        if (queryVector.length == 0 && retrievalMode == RetrievalMode.VECTOR) {
+            return new Retrieval(queryVector, new int[0], "", -1);
         }
 
-        // We filter by a slightly lower threshold (0.35) and take TOP 2 results.
-        // This is a standard practice to handle variations in user phrasing.
-        String context = scores.entrySet().stream()
-                .filter(entry -> entry.getValue() > 0.35)
-                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
-                .limit(2)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.joining("\n---\n"));
+        // Stored vectors are pre-normalized, so the scan is one dot product per doc
+        // and only the K best candidates are kept in a bounded heap.
+        SearchHits hits;
+        if (retrievalMode == RetrievalMode.VECTOR) {
+            hits = current.vectorSearch(queryVector, topK, threshold);
+            METRICS.recordStage("vector-search", System.nanoTime() - embedded);
+        } else {
+            // A failed embedding leaves the lexical ranking on its own (the vector search returns nothing)
+            int depth = topK * FUSION_DEPTH;
+            SearchHits semantic = queryVector.length == 0 ? SearchHits.EMPTY : current.vectorSearch(queryVector, depth, threshold);
+            long searched = System.nanoTime();
+            METRICS.recordStage("vector-search", searched - embedded);
+            SearchHits lexical = current.lexicalSearch(userQuery, depth);
+            METRICS.recordStage("lexical-search", System.nanoTime() - searched);
+            hits = RankFusion.reciprocalRank(topK, RankFusion.DEFAULT_C, semantic, lexical);
+        }
+        return toRetrieval(current, queryVector, hits);
+    }
 
-        return context.isEmpty() ? "No specific technical docs found for this query." : context;
+    /**
+     * The best BM25 hit if it contains most of the query's content words and scores at least twice the runner-up,
+     * e.g. "Error Code 501"; otherwise {@code null}.
+     */
+    private Retrieval confidentLexicalMatch(Snapshot current, String userQuery) {
+        long start = System.nanoTime();
+        SearchHits lexical = current.lexicalSearch(userQuery, 2);
+        METRICS.recordStage("lexical-search", System.nanoTime() - start);
+        if (lexical.size() == 0) return null;
+        int best = lexical.ids()[0];
+        if (lexical.size() > 1 && lexical.scores()[0] < LEXICAL_MIN_LEAD * lexical.scores()[1]) return null;
+        if (current.coverage(userQuery, best) < LEXICAL_MIN_COVERAGE) return null;
+        return toRetrieval(current, new float[0], new SearchHits(new int[]{best}, new float[]{lexical.scores()[0]}));
+    }
+
+    private static Retrieval toRetrieval(Snapshot current, float[] queryVector, SearchHits hits) {
+        if (hits.size() == 0) {
+            return new Retrieval(queryVector, hits.ids(), "No specific technical docs found for this query.", current.version);
+        }
+        StringJoiner context = new StringJoiner("\n---\n");
+        for (int id : hits.ids()) context.add(current.texts.get(id));
+        return new Retrieval(queryVector, hits.ids(), context.toString(), current.version);
+    }
+
+    /**
+     * Outcome of {@link #updateSources}: the number of distinct snippets that were not indexed before and now are
+     * (embedded or read from the embedding store), and the snippets that could not be embedded.
+     */
+    public record Update(int added, Set<String> failed) {
+    }
+
+    /**
+     * Result of one retrieval. {@code knowledgeVersion} changes whenever documents are added,
+     * so answers derived from an older version can be recognized as stale.
+     */
+    public record Retrieval(float[] queryVector, int[] docIds, String context, long knowledgeVersion) {
+    }
+
+    /**
+     * Immutable state of the knowledge base. Ids are positions in {@code texts} and run through the segments in
+     * order; {@code ids} maps each live snippet back to its id, and deleted ids keep their slot until their segment
+     * is merged. Embeddings are only held by the vector indexes, which may keep them off-heap, and are read back
+     * from them when segments are merged. {@code version} changes whenever documents change.
+     */
+    private static final class Snapshot {
+        final Map<String, List<String>> sources;
+        final Map<String, Integer> ids;
+        final List<String> texts;
+        final List<Segment> segments;
+        final int[] bases;
+        final BitSet deleted;
+        final int[] deletedCounts; // per segment
+        final List<InvertedIndex> lexical;
+        final InvertedIndex.Corpus corpus; // BM25 statistics of the live snippets
+        final long version;
+
+        Snapshot(Map<String, List<String>> sources, Map<String, Integer> ids, List<String> texts,
+                 List<Segment> segments, BitSet deleted, long version) {
+            this.sources = sources;
+            this.ids = ids;
+            this.texts = texts;
+            this.segments = segments;
+            this.deleted = deleted;
+            this.version = version;
+            this.bases = new int[segments.size()];
+            this.deletedCounts = new int[segments.size()];
+            for (int i = 0, base = 0; i < segments.size(); base += segments.get(i++).size()) {
+                bases[i] = base;
+                deletedCounts[i] = deleted.get(base, base + segments.get(i).size()).cardinality();
+            }
+            List<InvertedIndex> lexical = new ArrayList<>(segments.size());
+            for (Segment segment : segments) lexical.add(segment.lexical);
+            this.lexical = List.copyOf(lexical);
+            this.corpus = InvertedIndex.Corpus.of(this.lexical, bases, deleted);
+        }
+
+        /**
+         * The stored (normalized) embedding of an indexed snippet, or {@code null}.
+         */
+        float[] vectorOf(String text) {
+            Integer id = ids.get(text);
+            if (id == null) return null;
+            int i = segmentOf(id);
+            return segments.get(i).vectors.vector(id - bases[i]);
+        }
+
+        /**
+         * Best {@code k} live snippets over all segments; each segment is asked for enough extra candidates
+         * to make up for its deleted ones.
+         */
+        SearchHits vectorSearch(float[] query, int k, float threshold) {
+            TopK top = new TopK(k);
+            for (int i = 0; i < segments.size(); i++) {
+                SearchHits hits = segments.get(i).vectors.search(query, k + deletedCounts[i], threshold);
+                for (int h = 0; h < hits.size(); h++) {
+                    int id = bases[i] + hits.ids()[h];
+                    if (!deleted.get(id)) top.offer(id, hits.scores()[h]);
+                }
+            }
+            return top.drain();
+        }
+
+        SearchHits lexicalSearch(String query, int k) {
+            return InvertedIndex.search(lexical, bases, deleted, corpus, query, k);
+        }
+
+        float coverage(String query, int id) {
+            int i = segmentOf(id);
+            return segments.get(i).lexical.coverage(query, id - bases[i]);
+        }
+
+        private int segmentOf(int id) {
+            int i = Arrays.binarySearch(bases, id);
+            return i >= 0 ? i : -i - 2;
+        }
     }
 
     /**
-     * Mathematical implementation of Cosine Similarity: (A · B) / (||A|| * ||B||)
+     * Vector and lexical index over the same snippets, with matching local ids. Written only while it is built,
+     * read-only once it is part of a snapshot.
      */
-    private double calculateCosineSimilarity(float[] vectorA, float[] vectorB) {
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += Math.pow(vectorA[i], 2);
-            normB += Math.pow(vectorB[i], 2);
+    private static final class Segment {
+        final VectorIndex vectors;
+        final InvertedIndex lexical;
+
+        Segment(VectorIndex vectors, InvertedIndex lexical) {
+            this.vectors = vectors;
+            this.lexical = lexical;
+        }
+
+        void add(float[] vector, String text) {
+            vectors.add(vector);
+            lexical.add(text);
+        }
+
+        int size() {
+            return lexical.size();
         }
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
     }
-}
\ No newline at end of file
+}
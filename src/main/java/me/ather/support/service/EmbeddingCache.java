@@ -0,0 +1,122 @@
+package me.ather.support.service;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Size-bounded LRU cache for query embeddings, keyed by normalized text.
+ * Concurrent misses for the same key are collapsed into a single in-flight call (single-flight),
+ * so a burst of identical questions costs one embedding request.
+ * Failed embeddings (empty vectors) are never cached. Returned arrays are shared and must not be modified.
+ */
+public class EmbeddingCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Function<String, float[]> loader;
+    private final int capacity;
+    private final Map<String, float[]> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param loader   Computes the embedding on a miss, e.g. {@code llmClient::getEmbedding}.
+     * @param capacity Maximum number of cached vectors.
+     */
+    public EmbeddingCache(Function<String, float[]> loader, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.loader = loader;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                if (size() <= EmbeddingCache.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public float[] get(String text) {
+        String key = normalize(text);
+        float[] cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<float[]> mine = new CompletableFuture<>();
+        CompletableFuture<float[]> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            return leader.join();
+        }
+        try {
+            // Another caller may have finished loading between our lookup and claiming the key
+            float[] vector = lookup(key);
+            if (vector != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                vector = loader.apply(text);
+                if (vector.length > 0) store(key, vector);
+            }
+            mine.complete(vector);
+            return vector;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Cache key: Unicode-normalized, lower-cased, whitespace-collapsed text without
+     * surrounding punctuation, so "Battery?" and " battery " share one entry.
+     */
+    static String normalize(String text) {
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return folded.replaceAll("\\s+", " ")
+                .replaceAll("^[\\p{Punct}\\s]+|[\\p{Punct}\\s]+$", "");
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), size);
+    }
+
+    private float[] lookup(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void store(String key, float[] vector) {
+        synchronized (entries) {
+            entries.put(key, vector);
+        }
+    }
+
+    /**
+     * Counter snapshot. {@code coalesced} counts callers that waited on another caller's in-flight request.
+     */
+    public record Stats(long hits, long misses, long coalesced, long evictions, int size) {
+
+        public double hitRate() {
+            long total = hits + misses + coalesced;
+            return total == 0 ? 0.0 : (double) (hits + coalesced) / total;
+        }
+    }
+}
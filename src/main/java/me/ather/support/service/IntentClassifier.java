@@ -0,0 +1,303 @@
+package me.ather.support.service;
+
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.retrieval.VectorMath;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Routes a user query to the Technical or Billing specialist.
+ * Cheap local stages answer first and the generative model is only asked about ambiguous input:
+ * <ol>
+ *   <li>keyword rules, when the query mentions terms of exactly one domain;</li>
+ *   <li>nearest centroid on the query embedding (shared with retrieval through the query cache),
+ *       when the similarity margin between the two class centroids is at least {@code minMargin};</li>
+ *   <li>the LLM, whose answer is matched as a whole word instead of a substring.</li>
+ * </ol>
+ * Centroids are trained once from the labelled example utterances below.
+ *
+ * {@link #decompose} additionally splits a message that addresses both specialists ("what battery does it use?
+ * Also, I want a refund") into one sub-query per specialist, so both halves are answered in the same turn.
+ */
+public class IntentClassifier {
+
+    public enum Intent { TECHNICAL, BILLING }
+
+    public static final double DEFAULT_MIN_MARGIN = 0.05;
+
+    static final String PROMPT = "Classify user intent as 'TECHNICAL' or 'BILLING'. Output one word only.";
+    static final String SPLIT_PROMPT = "Split the customer message into the part for technical support and the part "
+            + "for billing. Answer with a line 'TECHNICAL: <part>' and a line 'BILLING: <part>', quoting the customer's "
+            + "words. Leave out a line if the message has no such part.";
+
+    // Only words that are billing words in every context: "charge" (the hub's battery) and "pay" (pay attention)
+    // are left to the later stages, since a wrong BILLING label reaches the agent that can open refund tickets
+    private static final Pattern BILLING_TERMS = Pattern.compile(
+            "\\b(refunds?|money back|invoices?|bill|billing|billed|payments?|paid"
+                    + "|subscriptions?|price|pricing|receipts?|credit card|reimburse\\w*|overcharged)\\b");
+    private static final Pattern TECHNICAL_TERMS = Pattern.compile(
+            "\\b(errors?|error code|battery|batteries|pair|pairing|reset|sensors?|api|webhooks?|oauth\\w*|zigbee"
+                    + "|firmware|led|offline|setup|set up|connect\\w*|range|protocol|token|sync)\\b");
+    private static final Pattern LLM_LABEL = Pattern.compile("\\b(TECHNICAL|BILLING)\\b");
+    // Sentence ends, semicolons and an explicit "also" start a new clause
+    private static final Pattern CLAUSE_BOUNDARY = Pattern.compile("(?<=[.!?])\\s+|;\\s*|,?\\s+and also\\s+|,\\s+also,?\\s+");
+    private static final Pattern LLM_PART = Pattern.compile("(?m)^\\W*(TECHNICAL|BILLING)\\W*:\\s*(.+)$");
+
+    private static final List<String> TECHNICAL_EXAMPLES = List.of(
+            "What battery does the Hub-V3 use?",
+            "My sensor shows error 404, what should I do?",
+            "How do I pair a new device with the hub?",
+            "The LED keeps flashing and nothing connects",
+            "How do I authenticate against your API?",
+            "Where can I register a webhook?",
+            "What is the wireless range of the hub?",
+            "The app says the database sync failed");
+    private static final List<String> BILLING_EXAMPLES = List.of(
+            "I want a refund for my order",
+            "I was charged twice this month",
+            "The device arrived broken, give me my money back",
+            "Can I get an invoice for my purchase?",
+            "Please cancel my subscription",
+            "Why is my bill higher than usual?",
+            "I returned the product but was not reimbursed",
+            "How much does the premium plan cost?");
+
+    private final LLMClient llmClient;
+    private final Function<String, float[]> embedder; // null = no centroid stage
+    private final double minMargin;
+    private volatile float[][] centroids; // [TECHNICAL, BILLING], unit length; null until trained
+
+    private final LongAdder byRules = new LongAdder();
+    private final LongAdder byCentroid = new LongAdder();
+    private final LongAdder byModel = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder localNanos = new LongAdder();
+    private final LongAdder modelNanos = new LongAdder();
+
+    /**
+     * LLM-only classification, as before the local fast path existed.
+     */
+    public IntentClassifier(LLMClient llmClient) {
+        this.llmClient = llmClient;
+        this.embedder = null;
+        this.minMargin = DEFAULT_MIN_MARGIN;
+    }
+
+    /**
+     * @param embedder  Query embedding function, e.g. {@link DocumentService#embedQuery}; an empty or
+     *                  {@code null} vector skips the centroid stage for that query.
+     * @param minMargin Minimum difference between the cosine similarities to the two centroids
+     *                  for a local answer.
+     */
+    public IntentClassifier(LLMClient llmClient, Function<String, float[]> embedder, double minMargin) {
+        this.llmClient = llmClient;
+        this.embedder = embedder;
+        this.minMargin = minMargin;
+        train();
+    }
+
+    public Intent classify(String query) {
+        long start = System.nanoTime();
+        Intent local = classifyLocally(query);
+        if (local != null) {
+            localNanos.add(System.nanoTime() - start);
+            return local;
+        }
+
+        List<ChatMessage> context = List.of(new ChatMessage("system", PROMPT), new ChatMessage("user", query));
+        LLMResponse res = llmClient.getCompletion(context);
+        byModel.increment();
+        modelNanos.add(System.nanoTime() - start);
+        return parseLabel(res);
+    }
+
+    /**
+     * The message's sub-queries, one per specialist, in the order they first appear in the message.
+     * Clauses are labelled by the keyword rules and those without domain terms join the clause before them;
+     * if a single clause mentions both domains, the model splits the message instead, in one call that replaces
+     * the classification call. A message for one specialist is returned whole, labelled by {@link #classify}.
+     */
+    public List<SubQuery> decompose(String query) {
+        String text = query.toLowerCase(Locale.ROOT);
+        if (!BILLING_TERMS.matcher(text).find() || !TECHNICAL_TERMS.matcher(text).find()) {
+            return List.of(new SubQuery(classify(query), query));
+        }
+
+        long start = System.nanoTime();
+        List<SubQuery> parts = splitClauses(query);
+        if (parts != null) {
+            byRules.increment();
+            localNanos.add(System.nanoTime() - start);
+        } else {
+            List<ChatMessage> context = List.of(new ChatMessage("system", SPLIT_PROMPT), new ChatMessage("user", query));
+            parts = parseParts(llmClient.getCompletion(context), query);
+            byModel.increment();
+            modelNanos.add(System.nanoTime() - start);
+        }
+        if (parts.size() > 1) splits.increment();
+        return parts;
+    }
+
+    /**
+     * Sub-queries from the keyword labels of the clauses, or {@code null} if a clause mentions both domains.
+     */
+    private static List<SubQuery> splitClauses(String query) {
+        StringBuilder technical = new StringBuilder();
+        StringBuilder billing = new StringBuilder();
+        List<Intent> order = new ArrayList<>(2);
+        StringBuilder unlabelled = new StringBuilder(); // clauses before the first labelled one
+        StringBuilder current = null;
+        for (String clause : CLAUSE_BOUNDARY.split(query.trim())) {
+            if (clause.isBlank()) continue;
+            String text = clause.toLowerCase(Locale.ROOT);
+            boolean billingTerms = BILLING_TERMS.matcher(text).find();
+            boolean technicalTerms = TECHNICAL_TERMS.matcher(text).find();
+            if (billingTerms && technicalTerms) return null;
+            if (billingTerms || technicalTerms) {
+                Intent intent = billingTerms ? Intent.BILLING : Intent.TECHNICAL;
+                if (!order.contains(intent)) order.add(intent);
+                current = billingTerms ? billing : technical;
+                if (unlabelled.length() > 0) {
+                    append(current, unlabelled.toString());
+                    unlabelled.setLength(0);
+                }
+            }
+            append(current == null ? unlabelled : current, clause);
+        }
+        List<SubQuery> parts = new ArrayList<>(2);
+        for (Intent intent : order) {
+            parts.add(new SubQuery(intent, (intent == Intent.BILLING ? billing : technical).toString()));
+        }
+        return parts;
+    }
+
+    private static void append(StringBuilder part, String clause) {
+        if (part.length() > 0) part.append(' ');
+        part.append(clause.trim());
+    }
+
+    /**
+     * Parts of the model's split answer in message order. An answer with fewer than two parts, or an error,
+     * leaves the message whole with the label found first (TECHNICAL if none, as in {@link #parseLabel}).
+     */
+    static List<SubQuery> parseParts(LLMResponse response, String query) {
+        if (response.text() == null || response.isError()) return List.of(new SubQuery(Intent.TECHNICAL, query));
+        List<SubQuery> parts = new ArrayList<>(2);
+        Matcher matcher = LLM_PART.matcher(response.text());
+        while (matcher.find()) {
+            Intent intent = Intent.valueOf(matcher.group(1));
+            String part = matcher.group(2).trim();
+            if (!part.isEmpty() && parts.stream().noneMatch(existing -> existing.intent() == intent)) {
+                parts.add(new SubQuery(intent, part));
+            }
+        }
+        if (parts.size() < 2) return List.of(new SubQuery(parseLabel(response), query));
+        String lower = query.toLowerCase(Locale.ROOT);
+        parts.sort(Comparator.comparingInt(part -> {
+            int at = lower.indexOf(part.text().toLowerCase(Locale.ROOT));
+            return at < 0 ? Integer.MAX_VALUE : at;
+        }));
+        return parts;
+    }
+
+    private Intent classifyLocally(String query) {
+        if (embedder == null) return null;
+
+        String text = query.toLowerCase(Locale.ROOT);
+        boolean billingTerms = BILLING_TERMS.matcher(text).find();
+        boolean technicalTerms = TECHNICAL_TERMS.matcher(text).find();
+        if (billingTerms != technicalTerms) {
+            byRules.increment();
+            return billingTerms ? Intent.BILLING : Intent.TECHNICAL;
+        }
+
+        float[][] trained = centroids;
+        if (trained == null) return null;
+        float[] vector = embedder.apply(query);
+        if (vector == null || vector.length != trained[0].length) return null;
+        float[] unit = VectorMath.normalize(vector);
+        float technical = VectorMath.dot(unit, trained[0]);
+        float billing = VectorMath.dot(unit, trained[1]);
+        if (Math.abs(billing - technical) < minMargin) return null;
+        byCentroid.increment();
+        return billing > technical ? Intent.BILLING : Intent.TECHNICAL;
+    }
+
+    /**
+     * First whole-word label in the model output; anything else (including error fallbacks) is TECHNICAL,
+     * the specialist that cannot trigger side effects.
+     */
+    static Intent parseLabel(LLMResponse response) {
+        if (response.text() == null || response.isError()) return Intent.TECHNICAL;
+        Matcher matcher = LLM_LABEL.matcher(response.text().toUpperCase(Locale.ROOT));
+        return matcher.find() && "BILLING".equals(matcher.group(1)) ? Intent.BILLING : Intent.TECHNICAL;
+    }
+
+    /**
+     * Embeds the examples in one batch and stores the normalized class means.
+     * Without usable embeddings the centroid stage stays disabled and ambiguous queries go to the LLM.
+     */
+    private void train() {
+        int technicalCount = TECHNICAL_EXAMPLES.size();
+        List<String> examples = new ArrayList<>(TECHNICAL_EXAMPLES);
+        examples.addAll(BILLING_EXAMPLES);
+        List<float[]> vectors = llmClient.getEmbeddings(examples);
+        if (vectors.size() != examples.size() || vectors.get(0).length == 0) return;
+
+        int dimension = vectors.get(0).length;
+        float[][] sums = new float[2][dimension];
+        for (int i = 0; i < vectors.size(); i++) {
+            float[] vector = vectors.get(i);
+            if (vector.length != dimension) return;
+            float[] unit = VectorMath.normalize(vector);
+            float[] sum = sums[i < technicalCount ? 0 : 1];
+            for (int d = 0; d < dimension; d++) sum[d] += unit[d];
+        }
+        centroids = new float[][]{VectorMath.normalize(sums[0]), VectorMath.normalize(sums[1])};
+    }
+
+    public Stats stats() {
+        return new Stats(byRules.sum(), byCentroid.sum(), byModel.sum(), splits.sum(), localNanos.sum(), modelNanos.sum());
+    }
+
+    /**
+     * Decision counters per stage, the number of messages split into several sub-queries, and the time spent
+     * in local vs. model classification.
+     */
+    public record Stats(long byRules, long byCentroid, long byModel, long splits, long localNanos, long modelNanos) {
+
+        public double localShare() {
+            long total = byRules + byCentroid + byModel;
+            return total == 0 ? 0.0 : (double) (byRules + byCentroid) / total;
+        }
+
+        /**
+         * Estimated latency saved: local decisions times the mean model round trip, minus the local time.
+         * Zero until the model has been called at least once.
+         */
+        public long savedNanos() {
+            if (byModel == 0) return 0;
+            return Math.max(0, (byRules + byCentroid) * (modelNanos / byModel) - localNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("intent: %.0f%% local (rules=%d centroid=%d model=%d), %d split, ~%d ms saved",
+                    localShare() * 100, byRules, byCentroid, byModel, splits, savedNanos() / 1_000_000);
+        }
+    }
+
+    /**
+     * The part of a user message meant for one specialist.
+     */
+    public record SubQuery(Intent intent, String text) {
+    }
+}
@@ -1,27 +1,162 @@
 package me.ather.support.service;
 
-import com.google.gson.*;
+import me.ather.support.metrics.Metrics;
 import me.ather.support.model.ChatMessage;
-import me.ather.support.model.FunctionCall;
 import me.ather.support.model.LLMResponse;
+import me.ather.support.model.ToolResult;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Enterprise-grade client for Google Gemini 3 Flash API.
  * Features robust JSON parsing, native Tool Calling, and Semantic Vectorization (RAG).
+ *
+ * Every call is non-blocking underneath ({@link HttpClient#sendAsync}); the blocking methods are thin
+ * wrappers, so no thread is parked per in-flight request unless the caller chooses to wait.
+ * Failures never surface as exceptions: completions resolve to a "Communication Error" response and
+ * embeddings to an empty vector, for both the blocking and the asynchronous API.
+ * Requests pass through a {@link CallPolicy}: transient failures (429, 5xx, I/O) are retried within the call's
+ * deadline and an adaptive limiter keeps bursts from exceeding what the API currently accepts.
+ * Latency, payload bytes, reported tokens and failures of every request are recorded in {@link Metrics#global()}.
+ *
+ * Completions take an optional stable prefix (system instruction, retrieved docs) that is sent ahead of the
+ * conversation. With a {@link ContextCache}, a large prefix that keeps coming back is registered once, together
+ * with the tool declarations, as a cachedContents resource and then referenced by name, so its tokens are neither
+ * resent nor billed at the full input rate. A request the API rejects while referencing a cache is sent once more
+ * with the prefix inline.
  */
 public class LLMClient {
-    private final String apiKey = System.getenv("GEMINI_API_KEY");
-
+    public static final String MODEL = "gemini-3-flash-preview";
+    public static final String EMBEDDING_MODEL = "text-embedding-004";
     // Using v1beta for early access to Gemini 3 Flash features
-    private final String apiUrl = "https://generativelanguage.googleapis.com/v1beta/models/gemini-3-flash-preview:generateContent?key=" + apiKey;
-    private final String embeddingUrl = "https://generativelanguage.googleapis.com/v1beta/models/text-embedding-004:embedContent?key=" + apiKey;
+    public static final String DEFAULT_BASE_URL = "https://generativelanguage.googleapis.com/v1beta";
+    public static final int DEFAULT_EMBEDDING_BATCH_SIZE = 100; // API limit for batchEmbedContents
+    public static final int DEFAULT_EMBEDDING_CONCURRENCY = 4;
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
 
-    private final HttpClient httpClient = HttpClient.newHttpClient();
-    private final Gson gson = new Gson();
+    /**
+     * Daemon pool shared by all clients for response handling and async continuations.
+     */
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "llm-client-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Metrics METRICS = Metrics.global();
+
+    private final String baseUrl;
+    private final String apiKey;
+    private final String apiUrl;
+    private final String streamUrl;
+    private final String embeddingUrl;
+    private final String batchEmbeddingUrl;
+    private final String cachedContentsUrl;
+    private final int embeddingBatchSize;
+    private final int embeddingConcurrency;
+    private final Duration requestTimeout;
+    private final CallPolicy policy;
+    private final ContextCache contextCache; // null = prefixes are always sent inline
+    private final ContextCache.Api cacheApi = new ContextCache.Api() {
+        @Override
+        public CompletableFuture<String> create(byte[] body) {
+            return sendAsync("cache_create", "POST", cachedContentsUrl, body, requestTimeout,
+                    ResponseDecoder::cachedContentName, error -> null);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> refresh(String name, Duration ttl) {
+            return sendAsync("cache_refresh", "PATCH", baseUrl + "/" + name + "?updateMask=ttl&key=" + apiKey,
+                    RequestEncoder.cacheTtl(ttl), requestTimeout, body -> ResponseDecoder.cachedContentName(body) != null,
+                    error -> false);
+        }
+    };
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2) // Multiplexes concurrent calls over one connection; falls back to 1.1
+            .connectTimeout(CONNECT_TIMEOUT)
+            .executor(SHARED_EXECUTOR)
+            .build();
+
+    public LLMClient() {
+        this(DEFAULT_BASE_URL, System.getenv("GEMINI_API_KEY"), DEFAULT_EMBEDDING_BATCH_SIZE, DEFAULT_EMBEDDING_CONCURRENCY,
+                DEFAULT_REQUEST_TIMEOUT, CallPolicy.fromEnvironment(), ContextCache.fromEnvironment());
+    }
+
+    public LLMClient(String baseUrl, String apiKey) {
+        this(baseUrl, apiKey, DEFAULT_EMBEDDING_BATCH_SIZE, DEFAULT_EMBEDDING_CONCURRENCY);
+    }
+
+    public LLMClient(String baseUrl, String apiKey, int embeddingBatchSize, int embeddingConcurrency) {
+        this(baseUrl, apiKey, embeddingBatchSize, embeddingConcurrency, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param baseUrl              API root, e.g. {@link #DEFAULT_BASE_URL} or a local stub server.
+     * @param embeddingBatchSize   Texts per batchEmbedContents request.
+     * @param embeddingConcurrency Maximum number of batch requests in flight at once.
+     * @param requestTimeout       Default end-to-end deadline of a single request.
+     */
+    public LLMClient(String baseUrl, String apiKey, int embeddingBatchSize, int embeddingConcurrency,
+                     Duration requestTimeout) {
+        this(baseUrl, apiKey, embeddingBatchSize, embeddingConcurrency, requestTimeout, new CallPolicy());
+    }
+
+    /**
+     * @param policy Retries, hedging and the adaptive concurrency limit for every request of this client.
+     */
+    public LLMClient(String baseUrl, String apiKey, int embeddingBatchSize, int embeddingConcurrency,
+                     Duration requestTimeout, CallPolicy policy) {
+        this(baseUrl, apiKey, embeddingBatchSize, embeddingConcurrency, requestTimeout, policy, new ContextCache());
+    }
+
+    /**
+     * @param contextCache Bookkeeping of the cachedContents resources for completion prefixes, or {@code null}
+     *                     to always send prefixes inline.
+     */
+    public LLMClient(String baseUrl, String apiKey, int embeddingBatchSize, int embeddingConcurrency,
+                     Duration requestTimeout, CallPolicy policy, ContextCache contextCache) {
+        if (embeddingBatchSize <= 0 || embeddingConcurrency <= 0) {
+            throw new IllegalArgumentException("Batch size and concurrency must be positive");
+        }
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.apiUrl = baseUrl + "/models/" + MODEL + ":generateContent?key=" + apiKey;
+        this.streamUrl = baseUrl + "/models/" + MODEL + ":streamGenerateContent?alt=sse&key=" + apiKey;
+        this.embeddingUrl = baseUrl + "/models/" + EMBEDDING_MODEL + ":embedContent?key=" + apiKey;
+        this.batchEmbeddingUrl = baseUrl + "/models/" + EMBEDDING_MODEL + ":batchEmbedContents?key=" + apiKey;
+        this.cachedContentsUrl = baseUrl + "/cachedContents?key=" + apiKey;
+        this.embeddingBatchSize = embeddingBatchSize;
+        this.embeddingConcurrency = embeddingConcurrency;
+        this.requestTimeout = requestTimeout;
+        this.policy = policy;
+        this.contextCache = contextCache;
+    }
 
     /**
      * Generates semantic embeddings using text-embedding-004.
@@ -29,150 +164,316 @@ public class LLMClient {
      * @return 768-dimension float array.
      */
     public float[] getEmbedding(String text) {
-        try {
-            JsonObject payload = new JsonObject();
-            JsonObject content = new JsonObject();
-            JsonArray parts = new JsonArray();
-            JsonObject textPart = new JsonObject();
-            textPart.addProperty("text", text);
-            parts.add(textPart);
-            content.add("parts", parts);
-            payload.add("content", content);
+        return getEmbeddingAsync(text).join();
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(embeddingUrl))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
-                    .build();
+    public CompletableFuture<float[]> getEmbeddingAsync(String text) {
+        return getEmbeddingAsync(text, requestTimeout);
+    }
+
+    /**
+     * Non-blocking embedding call. Cancelling the returned future aborts the HTTP exchange.
+     * @param timeout End-to-end deadline; on expiry the future completes with an empty vector.
+     */
+    public CompletableFuture<float[]> getEmbeddingAsync(String text, Duration timeout) {
+        return sendAsync("embed", embeddingUrl, RequestEncoder.embedding(text), timeout, ResponseDecoder::embedding, error -> new float[0]);
+    }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            JsonObject json = gson.fromJson(response.body(), JsonObject.class);
+    /**
+     * Bulk variant of {@link #getEmbedding} built on batchEmbedContents.
+     * Texts are split into batches of the configured size and up to the configured number of batches
+     * are sent concurrently, so N texts cost roughly N / batchSize round trips instead of N.
+     * @return One vector per input, in input order. Texts whose batch failed get an empty array.
+     */
+    public List<float[]> getEmbeddings(List<String> texts) {
+        return getEmbeddingsAsync(texts).join();
+    }
 
-            // Safely navigate the embedding response structure
-            if (!json.has("embedding")) return new float[0];
-            JsonArray values = json.getAsJsonObject("embedding").getAsJsonArray("values");
+    public CompletableFuture<List<float[]>> getEmbeddingsAsync(List<String> texts) {
+        if (texts.isEmpty()) return CompletableFuture.completedFuture(List.of());
 
-            float[] vector = new float[values.size()];
-            for (int i = 0; i < values.size(); i++) vector[i] = values.get(i).getAsFloat();
-            return vector;
-        } catch (Exception e) {
-            return new float[0];
+        List<List<String>> batches = new ArrayList<>();
+        for (int from = 0; from < texts.size(); from += embeddingBatchSize) {
+            batches.add(texts.subList(from, Math.min(from + embeddingBatchSize, texts.size())));
         }
+
+        // Each lane sends its next batch when the previous one completes, capping requests in flight
+        float[][] vectors = new float[texts.size()][];
+        AtomicInteger nextBatch = new AtomicInteger();
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(batches.size(), embeddingConcurrency)];
+        for (int i = 0; i < lanes.length; i++) lanes[i] = runBatches(batches, nextBatch, vectors);
+
+        return CompletableFuture.allOf(lanes).thenApply(done -> {
+            for (int i = 0; i < vectors.length; i++) {
+                if (vectors[i] == null) vectors[i] = new float[0];
+            }
+            return Arrays.asList(vectors);
+        });
+    }
+
+    private CompletableFuture<Void> runBatches(List<List<String>> batches, AtomicInteger nextBatch, float[][] target) {
+        int index = nextBatch.getAndIncrement();
+        if (index >= batches.size()) return CompletableFuture.completedFuture(null);
+        return embedBatchAsync(batches.get(index), target, index * embeddingBatchSize)
+                .thenCompose(done -> runBatches(batches, nextBatch, target));
+    }
+
+    /**
+     * Embeds one batch and writes the vectors into {@code target} starting at {@code offset}.
+     * On failure the slots are left empty, mirroring getEmbedding's failure contract.
+     */
+    private CompletableFuture<Boolean> embedBatchAsync(List<String> batch, float[][] target, int offset) {
+        return sendAsync("batch_embed", batchEmbeddingUrl, RequestEncoder.batchEmbedding(batch, "models/" + EMBEDDING_MODEL), requestTimeout, body -> {
+            List<float[]> embeddings = ResponseDecoder.batchEmbeddings(body);
+
+            // A partial answer cannot be matched to its inputs, so it is treated as a failed batch
+            if (embeddings.size() != batch.size()) return false;
+            for (int i = 0; i < embeddings.size(); i++) target[offset + i] = embeddings.get(i);
+            return true;
+        }, error -> false);
     }
 
     /**
      * Sends conversation history to Gemini 3 Flash and parses the multimodal response.
      */
     public LLMResponse getCompletion(List<ChatMessage> messages) {
-        try {
-            JsonObject payload = preparePayload(messages);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
-                    .build();
+        return getCompletionAsync(messages).join();
+    }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            return parseResponse(response.body());
-        } catch (Exception e) {
-            return new LLMResponse("Communication Error: " + e.getMessage(), null);
-        }
+    public CompletableFuture<LLMResponse> getCompletionAsync(List<ChatMessage> messages) {
+        return getCompletionAsync(messages, requestTimeout);
     }
 
     /**
-     * Constructs the payload with native Tool Calling definitions as requested.
+     * Completion of {@code messages} after the stable {@code prefix}, with the declarations of {@code tools};
+     * {@code toolResults} are the executed calls of the previous response, sent back for a follow-up answer
+     * (empty for a fresh turn). The prefix and the tools are served from a context cache when one is live.
      */
-    private JsonObject preparePayload(List<ChatMessage> messages) {
-        JsonObject payload = new JsonObject();
-        JsonArray contents = new JsonArray();
+    public LLMResponse getCompletion(List<ChatMessage> prefix, List<ChatMessage> messages, ToolRegistry tools,
+                                     List<ToolResult> toolResults) {
+        return getCompletionAsync(prefix, messages, tools, toolResults).join();
+    }
 
-        for (ChatMessage msg : messages) {
-            JsonObject contentObj = new JsonObject();
-            // Gemini requires 'model' role for assistant messages
-            contentObj.addProperty("role", "assistant".equalsIgnoreCase(msg.role()) ? "model" : "user");
-            JsonArray parts = new JsonArray();
-            JsonObject textPart = new JsonObject();
-            textPart.addProperty("text", msg.content());
-            parts.add(textPart);
-            contentObj.add("parts", parts);
-            contents.add(contentObj);
+    public CompletableFuture<LLMResponse> getCompletionAsync(List<ChatMessage> prefix, List<ChatMessage> messages,
+                                                           ToolRegistry tools, List<ToolResult> toolResults) {
+        CachedPrefix cached = cachedPrefix(prefix, tools);
+        if (cached == null) {
+            return completionAsync(RequestEncoder.completion(prefix, messages, tools, toolResults), requestTimeout);
         }
-        payload.add("contents", contents);
-
-        // Native Function Declaration for automated billing tasks
-        JsonArray tools = new JsonArray();
-        JsonObject functionDeclarations = new JsonObject();
-        JsonArray declarations = new JsonArray();
-
-        JsonObject refundTool = new JsonObject();
-        refundTool.addProperty("name", "initiateRefund");
-        refundTool.addProperty("description", "Automates refund ticket creation based on user justification.");
+        CompletableFuture<LLMResponse> first =
+                completionAsync(RequestEncoder.cachedCompletion(cached.name(), messages, toolResults), requestTimeout);
+        CompletableFuture<LLMResponse> result = first.thenCompose(response -> {
+            if (!rejected(response)) return CompletableFuture.completedFuture(response);
+            contextCache.invalidate(cached.body());
+            return completionAsync(RequestEncoder.completion(prefix, messages, tools, toolResults), requestTimeout);
+        });
+        result.whenComplete((value, error) -> first.cancel(true));
+        return result;
+    }
 
-        JsonObject parameters = new JsonObject();
-        parameters.addProperty("type", "OBJECT");
-        JsonObject properties = new JsonObject();
+    /**
+     * Non-blocking completion call. Cancelling the returned future aborts the HTTP exchange.
+     * @param timeout End-to-end deadline; on expiry the future completes with a "Communication Error" response.
+     */
+    public CompletableFuture<LLMResponse> getCompletionAsync(List<ChatMessage> messages, Duration timeout) {
+        return completionAsync(RequestEncoder.completion(messages), timeout);
+    }
 
-        JsonObject reasonProp = new JsonObject();
-        reasonProp.addProperty("type", "STRING");
-        reasonProp.addProperty("description", "The semantic reason extracted from user input.");
-        properties.add("reason", reasonProp);
+    private CompletableFuture<LLMResponse> completionAsync(byte[] payload, Duration timeout) {
+        return sendAsync("generate", apiUrl, payload, timeout,
+                body -> ResponseDecoder.completion(body, usage -> METRICS.recordTokens("generate", usage.promptTokens(),
+                        usage.completionTokens(), usage.cachedTokens())),
+                error -> LLMResponse.failure(LLMResponse.Failure.COMMUNICATION, "Communication Error: " + error.getMessage()));
+    }
 
-        parameters.add("properties", properties);
-        parameters.add("required", gson.toJsonTree(List.of("reason")));
+    /**
+     * Streaming completion over streamGenerateContent (server-sent events).
+     * Text deltas are passed to {@code onDelta} on an HTTP client thread as soon as each chunk arrives;
+     * the returned future completes with the aggregated response (or the function calls) once the stream ends.
+     * Errors resolve to the same fallbacks as {@link #getCompletionAsync}.
+     */
+    public CompletableFuture<LLMResponse> streamCompletion(List<ChatMessage> messages, Consumer<String> onDelta) {
+        return streamCompletion(List.of(), messages, null, List.of(), onDelta);
+    }
 
-        refundTool.add("parameters", parameters);
-        declarations.add(refundTool);
-        functionDeclarations.add("function_declarations", declarations);
-        tools.add(functionDeclarations);
-        payload.add("tools", tools);
+    /**
+     * Streaming variant of {@link #getCompletion(List, List, ToolRegistry, List)}. A stream rejected while
+     * referencing a context cache is only repeated inline if it delivered no text yet.
+     */
+    public CompletableFuture<LLMResponse> streamCompletion(List<ChatMessage> prefix, List<ChatMessage> messages,
+                                                           ToolRegistry tools, List<ToolResult> toolResults,
+                                                           Consumer<String> onDelta) {
+        CachedPrefix cached = cachedPrefix(prefix, tools);
+        if (cached == null) return stream(RequestEncoder.completion(prefix, messages, tools, toolResults), onDelta);
+        AtomicBoolean delivered = new AtomicBoolean();
+        CompletableFuture<LLMResponse> first = stream(RequestEncoder.cachedCompletion(cached.name(), messages, toolResults), delta -> {
+            delivered.set(true);
+            onDelta.accept(delta);
+        });
+        CompletableFuture<LLMResponse> result = first.thenCompose(response -> {
+            if (!rejected(response) || delivered.get()) return CompletableFuture.completedFuture(response);
+            contextCache.invalidate(cached.body());
+            return stream(RequestEncoder.completion(prefix, messages, tools, toolResults), onDelta);
+        });
+        result.whenComplete((value, error) -> first.cancel(true));
+        return result;
+    }
 
-        return payload;
+    /**
+     * Hit/miss counters of the context cache, or {@code null} if it is disabled.
+     */
+    public ContextCache.Stats getContextCacheStats() {
+        return contextCache == null ? null : contextCache.stats();
     }
 
     /**
-     * Safely parses the Gemini 3 Flash JSON response.
-     * Handles both standard text and complex functionCall structures.
+     * The live context cache for {@code prefix} and {@code tools}, or {@code null} to send them inline.
+     * Prefixes too small to cache are not even encoded for the lookup.
      */
-    private LLMResponse parseResponse(String body) {
-        try {
-            JsonObject json = gson.fromJson(body, JsonObject.class);
+    private CachedPrefix cachedPrefix(List<ChatMessage> prefix, ToolRegistry tools) {
+        if (contextCache == null || prefix.isEmpty() || !contextCache.eligible(TokenEstimator.estimate(prefix))) return null;
+        byte[] body = RequestEncoder.cachedContent("models/" + MODEL, prefix, tools, contextCache.ttl());
+        String name = contextCache.lookup(body, cacheApi);
+        return name == null ? null : new CachedPrefix(name, body);
+    }
 
-            // Validation: Ensure candidates exist to avoid NullPointerException
-            if (!json.has("candidates") || json.getAsJsonArray("candidates").isEmpty()) {
-                return new LLMResponse("Error: No candidates returned from model.", null);
-            }
+    /**
+     * True for an API answer without candidates, e.g. the 404 of a cache that expired early on the server;
+     * communication and parsing errors are not caused by the cache and keep their fallback.
+     */
+    private static boolean rejected(LLMResponse response) {
+        return response.failure() == LLMResponse.Failure.NO_ANSWER;
+    }
 
-            JsonObject candidate = json.getAsJsonArray("candidates").get(0).getAsJsonObject();
-            JsonObject content = candidate.getAsJsonObject("content");
-            JsonArray parts = content.getAsJsonArray("parts");
+    private record CachedPrefix(String name, byte[] body) {
+    }
 
-            if (parts == null || parts.isEmpty()) {
-                return new LLMResponse("Error: Empty parts in model response.", null);
+    private CompletableFuture<LLMResponse> stream(byte[] payload, Consumer<String> onDelta) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(streamUrl))
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .timeout(requestTimeout) // Time to response headers; the body is guarded by watchIdle
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+                .build();
+
+        long start = System.nanoTime();
+        StreamingResponseParser parser = new StreamingResponseParser(onDelta);
+        CompletableFuture<LLMResponse> result = parser.result();
+        // Streams share the concurrency limit but are never retried or hedged: deltas may already have been shown
+        CompletableFuture<ConcurrencyLimiter.Permit> permit = policy.limiter().acquire();
+        permit.whenComplete((granted, rejected) -> {
+            if (rejected != null) {
+                result.complete(LLMResponse.failure(LLMResponse.Failure.COMMUNICATION, "Communication Error: " + unwrap(rejected).getMessage()));
+                return;
             }
+            result.whenComplete((value, error) -> granted.release(value != null && !value.isError()
+                    ? ConcurrencyLimiter.Outcome.SUCCESS : ConcurrencyLimiter.Outcome.IGNORE));
+            if (result.isDone()) return;
+            parser.markActive();
+            watchIdle(parser, result);
+            CompletableFuture<HttpResponse<Void>> exchange = httpClient.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(parser));
+            exchange.whenComplete((response, error) -> {
+                if (error != null) result.complete(LLMResponse.failure(LLMResponse.Failure.COMMUNICATION, "Communication Error: " + unwrap(error).getMessage()));
+            });
+            result.whenComplete((value, error) -> exchange.cancel(true));
+        });
+        result.whenComplete((value, error) -> {
+            permit.cancel(false); // Still queued: give up the place
+            ResponseDecoder.Usage usage = parser.usage();
+            if (usage != null) {
+                METRICS.recordTokens("stream", usage.promptTokens(), usage.completionTokens(), usage.cachedTokens());
+            }
+            METRICS.recordLlmCall("stream", System.nanoTime() - start, payload.length, parser.bytesReceived(),
+                    !result.isCancelled() && (value == null || value.isError()));
+        });
+        return result;
+    }
 
-            JsonObject part = parts.get(0).getAsJsonObject();
-
-            // Handle Native Tool Calling / Function Call
-            if (part.has("functionCall")) {
-                JsonObject call = part.getAsJsonObject("functionCall");
-                String functionName = call.get("name").getAsString();
+    /**
+     * Fails the stream with a communication error once no line has arrived for the request timeout, which also
+     * cancels the exchange. A stream may run longer than the timeout in total as long as it keeps sending.
+     */
+    private void watchIdle(StreamingResponseParser parser, CompletableFuture<LLMResponse> result) {
+        if (result.isDone()) return;
+        long remaining = requestTimeout.toNanos() - (System.nanoTime() - parser.lastActivityNanos());
+        if (remaining <= 0) {
+            result.complete(LLMResponse.failure(LLMResponse.Failure.COMMUNICATION,
+                    "Communication Error: stream stalled, no data for " + requestTimeout.toMillis() + " ms"));
+            return;
+        }
+        CompletableFuture.delayedExecutor(remaining, TimeUnit.NANOSECONDS, SHARED_EXECUTOR).execute(() -> watchIdle(parser, result));
+    }
 
-                // Extract arguments safely
-                JsonObject args = call.getAsJsonObject("args");
-                String reason = args.has("reason") ? args.get("reason").getAsString() : "No justification provided.";
+    /**
+     * Posts the pre-encoded JSON body under the {@link CallPolicy} and maps the final body (or failure) to a result.
+     * The returned future is owned by the caller: completing it by timeout or cancelling it
+     * cancels every exchange of the call, so abandoned calls do not keep consuming a connection slot.
+     */
+    private <T> CompletableFuture<T> sendAsync(String operation, String url, byte[] payload, Duration timeout,
+                                               BodyParser<T> onBody, Function<Throwable, T> onError) {
+        return sendAsync(operation, "POST", url, payload, timeout, onBody, onError);
+    }
 
-                return new LLMResponse(null, new FunctionCall(functionName, reason));
+    private <T> CompletableFuture<T> sendAsync(String operation, String method, String url, byte[] payload, Duration timeout,
+                                               BodyParser<T> onBody, Function<Throwable, T> onError) {
+        long start = System.nanoTime();
+        AtomicInteger sent = new AtomicInteger();
+        CallOutcome outcome = new CallOutcome();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<byte[]>> exchange = policy.execute(operation, timeout, remaining -> {
+            sent.incrementAndGet();
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("Content-Type", "application/json")
+                    .timeout(remaining)
+                    .method(method, HttpRequest.BodyPublishers.ofByteArray(payload))
+                    .build();
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        });
+        exchange.whenComplete((response, error) -> {
+            if (error != null) {
+                result.complete(onError.apply(unwrap(error)));
+                return;
             }
-
-            // Handle Standard Text Output
-            if (part.has("text")) {
-                return new LLMResponse(part.get("text").getAsString(), null);
+            outcome.bytesReceived = response.body().length;
+            try {
+                T value = onBody.parse(new ByteArrayInputStream(response.body()));
+                outcome.answered = response.statusCode() < 400;
+                result.complete(value);
+            } catch (IOException | RuntimeException e) {
+                result.complete(onError.apply(e));
             }
+        });
+        // The timeout fallback is only built when the deadline actually expires
+        CompletableFuture<T> call = result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).handle((value, error) ->
+                error == null ? value : onError.apply(new HttpTimeoutException("request timed out after " + timeout.toMillis() + " ms")));
+        call.whenComplete((value, error) -> {
+            result.cancel(false);
+            exchange.cancel(true);
+            // A caller abandoning the call is not an API failure
+            METRICS.recordLlmCall(operation, System.nanoTime() - start, (long) payload.length * sent.get(), outcome.bytesReceived,
+                    !outcome.answered && !call.isCancelled());
+        });
+        return call;
+    }
+
+    /**
+     * What the exchange produced, written before the result is completed so the metrics see it.
+     */
+    private static final class CallOutcome {
+        volatile long bytesReceived;
+        volatile boolean answered; // 2xx/3xx response with a readable body
+    }
 
-            return new LLMResponse("Error: Unexpected response format from API.", null);
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
 
-        } catch (Exception e) {
-            return new LLMResponse("Parsing Error: " + e.getMessage(), null);
-        }
+    /**
+     * Decodes a response body; see {@link ResponseDecoder}. Any exception maps the call to its error fallback.
+     */
+    private interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
     }
-}
\ No newline at end of file
+}
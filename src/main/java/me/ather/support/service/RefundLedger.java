@@ -0,0 +1,419 @@
+package me.ather.support.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, idempotent record of refund tickets.
+ *
+ * - IDs: {@code REF-} plus a sequence number from an {@link AtomicLong}, continued after the highest replayed
+ *   ticket, so IDs never collide and issuing one takes no lock.
+ * - Idempotency: a ticket requested for a session is keyed by the session id and the normalized reason
+ *   (case, punctuation and whitespace ignored). The first request for a key claims it in a concurrent index and
+ *   every repeat, e.g. from a retried model call, receives that same ticket instead of a new one.
+ * - Durability: tickets are appended to a log by a single writer thread with group commit. Everything that queued
+ *   up during one fsync is written and synced in the next batch, so one fsync covers many tickets and a caller
+ *   waits for at most about two fsyncs. A ticket is returned only once it is on disk.
+ *
+ * Log layout (little-endian): {@code int magic ("RFLG"), int version}, then per ticket
+ * {@code int payload length, int CRC32 of the payload, payload}, where the payload is
+ * {@code long sequence, long createdAt (epoch ms)} and three strings (idempotency key, session id, reason),
+ * each an {@code int} UTF-8 length ({@code -1} for null) followed by the bytes.
+ * On open the log is replayed sequentially; a torn or corrupt tail from a crash mid-write is truncated.
+ */
+public class RefundLedger implements Closeable {
+    static final int MAGIC = 0x474C4652; // "RFLG" in little-endian byte order
+    static final int VERSION = 1;
+    public static final int DEFAULT_MAX_PENDING = 16_384;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final Pending CLOSE = new Pending(null, null, null);
+
+    /**
+     * One refund ticket. {@code idempotencyKey} and {@code sessionId} are null for tickets requested without a session.
+     */
+    public record Ticket(String id, long sequence, String idempotencyKey, String sessionId, String reason, long createdAt) {
+    }
+
+    private record Pending(Ticket ticket, String key, CompletableFuture<Ticket> done) {
+    }
+
+    private final FileChannel log; // null = in memory only
+    private final ConcurrentHashMap<String, CompletableFuture<Ticket>> index = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong tickets = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile boolean writerDone;
+
+    private RefundLedger(FileChannel log, int maxPending) {
+        this.log = log;
+        this.queue = new LinkedBlockingQueue<>(maxPending);
+        if (log == null) {
+            writer = null;
+            return;
+        }
+        writer = new Thread(this::writeLoop, "refund-ledger-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Opens (or creates) the ledger log at {@code path} and replays it.
+     * Throws if the file exists but is not a ledger, rather than overwriting it.
+     */
+    public static RefundLedger open(Path path) throws IOException {
+        return open(path, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param maxPending Tickets that may wait for the writer; further requests are rejected until it catches up.
+     */
+    public static RefundLedger open(Path path, int maxPending) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RefundLedger ledger = new RefundLedger(channel, maxPending);
+        try {
+            ledger.replay(path);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        ledger.writer.start();
+        return ledger;
+    }
+
+    /**
+     * Ledger without a log: IDs and idempotency behave the same, nothing survives a restart.
+     */
+    public static RefundLedger inMemory() {
+        return new RefundLedger(null, 1);
+    }
+
+    /**
+     * Blocking variant of {@link #submit}: returns once the ticket is durable.
+     * @throws IOException if the ticket could not be written, or the ledger is closed or overloaded.
+     */
+    public Ticket record(String sessionId, String reason) throws IOException {
+        try {
+            return submit(sessionId, reason).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException("Refund ticket not recorded: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Issues a ticket, or returns the one already issued for the same session and normalized reason.
+     * With a {@code null} session every request gets a new ticket. The future completes once the ticket is
+     * durable, or exceptionally if it could not be written; a failed ticket releases its idempotency key.
+     * A ticket too large for one log record fails here, before it can take down the batch it would be written in.
+     */
+    public CompletableFuture<Ticket> submit(String sessionId, String reason) {
+        String key = sessionId == null ? null : idempotencyKey(sessionId, reason);
+        int payload = payloadBytes(utf8(key), utf8(sessionId), utf8(reason));
+        if (payload > MAX_RECORD_BYTES) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Refund ticket too large: " + payload + " bytes"));
+        }
+        CompletableFuture<Ticket> done = new CompletableFuture<>();
+        if (key != null) {
+            CompletableFuture<Ticket> existing = index.putIfAbsent(key, done);
+            if (existing != null) return existing;
+        }
+        long number = sequence.incrementAndGet();
+        Ticket ticket = new Ticket(ticketId(number), number, key, sessionId, reason, System.currentTimeMillis());
+        Pending pending = new Pending(ticket, key, done);
+        if (log == null) {
+            complete(pending);
+        } else if (closed || !queue.offer(pending)) {
+            fail(pending, closed ? new IOException("Refund ledger is closed")
+                    : new RejectedExecutionException("Too many refund tickets waiting to be written"));
+        } else if (writerDone) {
+            failQueued(); // Raced with close(): the writer will not see this ticket
+        }
+        return done;
+    }
+
+    /**
+     * Session-scoped key of a refund reason: lower case, runs of anything but letters and digits collapsed to a space.
+     */
+    public static String idempotencyKey(String sessionId, String reason) {
+        String normalized = reason == null ? "" : reason.toLowerCase(Locale.ROOT)
+                .replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+        return sessionId + '\n' + normalized;
+    }
+
+    static String ticketId(long sequence) {
+        String digits = Long.toString(sequence);
+        return digits.length() >= 6 ? "REF-" + digits : "REF-" + "000000".substring(digits.length()) + digits;
+    }
+
+    /**
+     * Tickets recorded, including replayed ones.
+     */
+    public long size() {
+        return tickets.get();
+    }
+
+    /**
+     * fsync calls made so far; much lower than {@link #size()} when group commit is working.
+     */
+    public long syncs() {
+        return syncs.get();
+    }
+
+    /**
+     * Writes every ticket accepted before the call, then closes the log. Later requests fail.
+     */
+    @Override
+    public void close() throws IOException {
+        if (log == null || closed) return;
+        closed = true;
+        try {
+            queue.put(CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            log.close();
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> drained = new ArrayList<>();
+        List<Pending> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        boolean stop = false;
+        while (!stop) {
+            try {
+                drained.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(drained, MAX_BATCH - 1);
+            for (Pending pending : drained) {
+                if (pending == CLOSE) {
+                    stop = true;
+                } else if (stop) {
+                    fail(pending, new IOException("Refund ledger is closed"));
+                } else {
+                    batch.add(pending);
+                }
+            }
+            drained.clear();
+            buffer = writeBatch(batch, buffer);
+            batch.clear();
+        }
+        writerDone = true;
+        failQueued();
+    }
+
+    private ByteBuffer writeBatch(List<Pending> batch, ByteBuffer buffer) {
+        if (batch.isEmpty()) return buffer;
+        buffer.clear();
+        long start = -1;
+        try {
+            start = log.position();
+            for (Pending pending : batch) buffer = encode(pending.ticket(), buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) log.write(buffer);
+            log.force(false);
+            syncs.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Refund ledger write failed: " + e.getMessage());
+            rollBack(start);
+            IOException failure = e instanceof IOException io ? io : new IOException(e);
+            for (Pending pending : batch) fail(pending, failure);
+            return buffer;
+        }
+        for (Pending pending : batch) complete(pending);
+        return buffer;
+    }
+
+    /**
+     * Cuts a partially written batch off the log, so later batches are not appended behind a corrupt record.
+     */
+    private void rollBack(long position) {
+        if (position < 0) return;
+        try {
+            log.truncate(position);
+            log.position(position);
+        } catch (IOException e) {
+            System.err.println("Refund ledger could not discard a failed write: " + e.getMessage());
+        }
+    }
+
+    private void complete(Pending pending) {
+        tickets.incrementAndGet();
+        pending.done().complete(pending.ticket());
+    }
+
+    private void fail(Pending pending, Exception error) {
+        if (pending.key() != null) index.remove(pending.key(), pending.done());
+        pending.done().completeExceptionally(error);
+    }
+
+    private void failQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            if (pending != CLOSE) fail(pending, new IOException("Refund ledger is closed"));
+        }
+    }
+
+    private static ByteBuffer encode(Ticket ticket, ByteBuffer buffer) {
+        byte[] key = utf8(ticket.idempotencyKey());
+        byte[] session = utf8(ticket.sessionId());
+        byte[] reason = utf8(ticket.reason());
+        int payload = payloadBytes(key, session, reason); // At most MAX_RECORD_BYTES, checked by submit()
+        if (buffer.remaining() < 2 * Integer.BYTES + payload) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + 2 * Integer.BYTES + payload);
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN).put(buffer.flip());
+        }
+        int start = buffer.position();
+        buffer.putInt(payload).putInt(0);
+        buffer.putLong(ticket.sequence()).putLong(ticket.createdAt());
+        putString(buffer, key);
+        putString(buffer, session);
+        putString(buffer, reason);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start + 2 * Integer.BYTES, payload);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+        return buffer;
+    }
+
+    private void replay(Path path) throws IOException {
+        long size = log.size();
+        if (size < HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION).flip();
+            log.truncate(0);
+            while (header.hasRemaining()) log.write(header, HEADER_BYTES - header.remaining());
+            log.force(true);
+            log.position(HEADER_BYTES);
+            return;
+        }
+        Reader reader = new Reader(log);
+        if (!reader.fill(HEADER_BYTES) || reader.buffer.getInt() != MAGIC || reader.buffer.getInt() != VERSION) {
+            throw new IOException("Not a refund ledger (or an unsupported version): " + path);
+        }
+        long valid = HEADER_BYTES;
+        long maxSequence = 0;
+        long count = 0;
+        CRC32 crc = new CRC32();
+        while (reader.fill(2 * Integer.BYTES)) {
+            int payload = reader.buffer.getInt();
+            int checksum = reader.buffer.getInt();
+            if (payload < 0 || payload > MAX_RECORD_BYTES || !reader.fill(payload)) break;
+            ByteBuffer buffer = reader.buffer;
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), payload);
+            if ((int) crc.getValue() != checksum) break;
+            int end = buffer.position() + payload;
+            Ticket ticket;
+            try {
+                long number = buffer.getLong();
+                long createdAt = buffer.getLong();
+                String key = getString(buffer, end);
+                String session = getString(buffer, end);
+                String reason = getString(buffer, end);
+                ticket = new Ticket(ticketId(number), number, key, session, reason, createdAt);
+            } catch (RuntimeException e) {
+                break;
+            }
+            buffer.position(end);
+            if (ticket.idempotencyKey() != null) index.put(ticket.idempotencyKey(), CompletableFuture.completedFuture(ticket));
+            maxSequence = Math.max(maxSequence, ticket.sequence());
+            count++;
+            valid += 2 * Integer.BYTES + payload;
+        }
+        if (valid < size) {
+            System.err.println("Refund ledger " + path + ": dropping " + (size - valid) + " bytes of a torn or corrupt tail.");
+            log.truncate(valid);
+            log.force(true);
+        }
+        log.position(valid);
+        sequence.set(maxSequence);
+        tickets.set(count);
+    }
+
+    private static int payloadBytes(byte[] key, byte[] session, byte[] reason) {
+        return 2 * Long.BYTES + 3 * Integer.BYTES + length(key) + length(session) + length(reason);
+    }
+
+    private static byte[] utf8(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer, int end) {
+        int length = buffer.getInt();
+        if (length == -1) return null;
+        if (length < 0 || buffer.position() + length > end) throw new IllegalStateException("String overruns record");
+        String text = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return text;
+    }
+
+    /**
+     * Sequential reader over the log in 1 MB chunks, growing its buffer for larger records.
+     */
+    private static final class Reader {
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN).flip();
+        private long offset;
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Makes at least {@code bytes} bytes readable from the buffer; false at the end of the file.
+         */
+        boolean fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return true;
+            buffer.compact();
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN).put(buffer.flip());
+            }
+            while (buffer.position() < bytes) {
+                int read = channel.read(buffer, offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            buffer.flip();
+            return buffer.remaining() >= bytes;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package me.ather.support.service;
+
+import com.google.gson.stream.JsonWriter;
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.ToolResult;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes Gemini request bodies straight to UTF-8 bytes with a streaming {@link JsonWriter},
+ * without building a Gson tree or an intermediate String.
+ * Encoding happens in a per-thread scratch buffer that is reused across requests; the only per-request
+ * allocations are the writer and the final body array. The tool declarations are encoded once by the
+ * {@link ToolRegistry} and copied in as bytes, so their cost does not depend on the schema's structure.
+ */
+public final class RequestEncoder {
+    private static final byte[] CONTENTS_OPEN = bytes("{\"contents\":");
+    private static final byte[] CONTENTS = bytes(",\"contents\":");
+    private static final byte[] TOOLS = bytes(",\"tools\":");
+    private static final byte[] CLOSE = bytes("}");
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private static final ThreadLocal<Utf8Buffer> SCRATCH = ThreadLocal.withInitial(() -> new Utf8Buffer(8 * 1024));
+
+    private RequestEncoder() {}
+
+    /**
+     * generateContent / streamGenerateContent body with the conversation only, no tools.
+     */
+    public static byte[] completion(List<ChatMessage> messages) {
+        return completion(messages, null, List.of());
+    }
+
+    /**
+     * generateContent / streamGenerateContent body: the conversation, then, for a follow-up call, the model turn
+     * with the function calls and a user turn with one functionResponse per result, and the declarations of
+     * {@code tools} (none if null or empty).
+     */
+    public static byte[] completion(List<ChatMessage> messages, ToolRegistry tools, List<ToolResult> toolResults) {
+        return completion(List.of(), messages, tools, toolResults);
+    }
+
+    /**
+     * Like {@link #completion(List, ToolRegistry, List)}, with the stable {@code prefix} sent inline
+     * as the first turns of the conversation.
+     */
+    public static byte[] completion(List<ChatMessage> prefix, List<ChatMessage> messages, ToolRegistry tools,
+                                    List<ToolResult> toolResults) {
+        Utf8Buffer buffer = acquire();
+        buffer.write(CONTENTS_OPEN);
+        writeContents(buffer, prefix, messages, toolResults);
+        writeTools(buffer, tools);
+        buffer.write(CLOSE);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Body referencing the context cache {@code cachedContent}, which already holds the prefix and the tools;
+     * the API rejects tools in a request that uses a cache.
+     */
+    public static byte[] cachedCompletion(String cachedContent, List<ChatMessage> messages, List<ToolResult> toolResults) {
+        Utf8Buffer buffer = acquire();
+        writeObject(buffer, json -> json.name("cachedContent").value(cachedContent));
+        buffer.write(CONTENTS);
+        writeContents(buffer, List.of(), messages, toolResults);
+        buffer.write(CLOSE);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * cachedContents create body: {@code prefix} as the cached turns and the declarations of {@code tools}, for
+     * {@code model} (e.g. "models/gemini-3-flash-preview"). The prefix is encoded exactly as
+     * {@link #completion(List, List, ToolRegistry, List)} sends it inline, so both forms mean the same to the model.
+     */
+    public static byte[] cachedContent(String model, List<ChatMessage> prefix, ToolRegistry tools, Duration ttl) {
+        Utf8Buffer buffer = acquire();
+        writeObject(buffer, json -> {
+            json.name("model").value(model);
+            json.name("ttl").value(ttl.getSeconds() + "s");
+        });
+        buffer.write(CONTENTS);
+        writeContents(buffer, prefix, List.of(), List.of());
+        writeTools(buffer, tools);
+        buffer.write(CLOSE);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * cachedContents patch body that extends a cache's TTL.
+     */
+    public static byte[] cacheTtl(Duration ttl) {
+        Utf8Buffer buffer = acquire();
+        writeObject(buffer, json -> json.name("ttl").value(ttl.getSeconds() + "s"));
+        buffer.write(CLOSE);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * embedContent body for a single text.
+     */
+    public static byte[] embedding(String text) {
+        Utf8Buffer buffer = acquire();
+        try {
+            JsonWriter json = new JsonWriter(buffer);
+            json.beginObject();
+            json.name("content").beginObject();
+            writeParts(json, text);
+            json.endObject();
+            json.endObject();
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * batchEmbedContents body: one request per text, all for {@code model}.
+     */
+    public static byte[] batchEmbedding(List<String> texts, String model) {
+        Utf8Buffer buffer = acquire();
+        try {
+            JsonWriter json = new JsonWriter(buffer);
+            json.beginObject();
+            json.name("requests").beginArray();
+            for (String text : texts) {
+                json.beginObject();
+                json.name("model").value(model);
+                json.name("content").beginObject();
+                writeParts(json, text);
+                json.endObject();
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void writeContents(Utf8Buffer buffer, List<ChatMessage> prefix, List<ChatMessage> messages,
+                                      List<ToolResult> toolResults) {
+        try {
+            JsonWriter json = new JsonWriter(buffer);
+            json.beginArray();
+            for (ChatMessage message : prefix) writeMessage(json, message);
+            for (ChatMessage message : messages) writeMessage(json, message);
+            if (!toolResults.isEmpty()) writeToolTurns(json, toolResults);
+            json.endArray();
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Utf8Buffer never throws
+        }
+    }
+
+    private static void writeMessage(JsonWriter json, ChatMessage message) throws IOException {
+        json.beginObject();
+        // Gemini requires 'model' role for assistant messages
+        json.name("role").value("assistant".equalsIgnoreCase(message.role()) ? "model" : "user");
+        writeParts(json, message.content());
+        json.endObject();
+    }
+
+    private static void writeTools(Utf8Buffer buffer, ToolRegistry tools) {
+        if (tools != null && !tools.isEmpty()) {
+            buffer.write(TOOLS);
+            buffer.write(tools.encodedDeclarations());
+        }
+    }
+
+    /**
+     * Opens the body with the given fields, leaving the object open for a following {@code ,"name":...}.
+     */
+    private static void writeObject(Utf8Buffer buffer, Fields fields) {
+        try {
+            JsonWriter json = new JsonWriter(buffer);
+            json.beginObject();
+            fields.write(json);
+            json.flush(); // Not closed: the object continues with raw bytes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Fields {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    private static void writeToolTurns(JsonWriter json, List<ToolResult> results) throws IOException {
+        json.beginObject();
+        json.name("role").value("model");
+        json.name("parts").beginArray();
+        for (ToolResult result : results) {
+            json.beginObject().name("functionCall").beginObject();
+            json.name("name").value(result.call().name());
+            json.name("args").beginObject();
+            for (Map.Entry<String, String> arg : result.call().args().entrySet()) {
+                json.name(arg.getKey()).value(arg.getValue());
+            }
+            json.endObject();
+            json.endObject().endObject();
+        }
+        json.endArray();
+        json.endObject();
+
+        json.beginObject();
+        json.name("role").value("user");
+        json.name("parts").beginArray();
+        for (ToolResult result : results) {
+            json.beginObject().name("functionResponse").beginObject();
+            json.name("name").value(result.call().name());
+            json.name("response").beginObject().name(result.failed() ? "error" : "result").value(result.output()).endObject();
+            json.endObject().endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static void writeParts(JsonWriter json, String text) throws IOException {
+        json.name("parts").beginArray();
+        json.beginObject().name("text").value(text).endObject();
+        json.endArray();
+    }
+
+    private static Utf8Buffer acquire() {
+        Utf8Buffer buffer = SCRATCH.get();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            // Do not pin the memory of one unusually large request to the thread forever
+            buffer = new Utf8Buffer(8 * 1024);
+            SCRATCH.set(buffer);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Growable byte array that encodes the characters written to it as UTF-8 on the fly.
+     */
+    static final class Utf8Buffer extends Writer {
+        private byte[] bytes;
+        private int size;
+        private char highSurrogate;
+
+        Utf8Buffer(int initialCapacity) {
+            bytes = new byte[initialCapacity];
+        }
+
+        int capacity() {
+            return bytes.length;
+        }
+
+        void reset() {
+            size = 0;
+            highSurrogate = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        void write(byte[] source) {
+            write(source, 0, source.length);
+        }
+
+        void write(byte[] source, int offset, int length) {
+            ensure(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        @Override
+        public void write(int c) {
+            encode((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            ensure(length);
+            for (int i = offset; i < offset + length; i++) encode(chars[i]);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            ensure(length);
+            for (int i = offset; i < offset + length; i++) encode(text.charAt(i));
+        }
+
+        @Override
+        public void write(String text) {
+            write(text, 0, text.length());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void encode(char c) {
+            if (c < 0x80 && highSurrogate == 0) {
+                ensure(1);
+                bytes[size++] = (byte) c;
+                return;
+            }
+            ensure(4);
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                bytes[size++] = '?'; // Unpaired surrogate, as String.getBytes would encode it
+                encode(c);
+                return;
+            }
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                bytes[size++] = '?';
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xC0 | (c >> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[size++] = (byte) (0xE0 | (c >> 12));
+                bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
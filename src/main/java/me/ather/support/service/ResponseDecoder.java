@@ -0,0 +1,426 @@
+package me.ather.support.service;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import me.ather.support.model.FunctionCall;
+import me.ather.support.model.LLMResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Pull parser for Gemini response bodies. Reads the UTF-8 body with a {@link JsonReader} and extracts only
+ * the fields the client uses: embedding values go straight into a {@code float[]}, and for completions only
+ * the first text part and the function call parts of {@code candidates[0]} are materialized. Everything else is skipped without building
+ * JSON elements, so an embedding no longer costs hundreds of boxed primitives. The events of a streamed
+ * completion are decoded the same way, by {@link #streamChunk}.
+ */
+public final class ResponseDecoder {
+    private static final int EXPECTED_DIMENSION = 768;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private ResponseDecoder() {}
+
+    /**
+     * Same results as the former tree-based parsing: a text or function call response, or one of the
+     * "Error: ..." / "Parsing Error: ..." fallbacks.
+     */
+    public static LLMResponse completion(InputStream body) {
+        return completion(body, usage -> {});
+    }
+
+    /**
+     * Like {@link #completion(InputStream)}, and passes the body's {@code usageMetadata} token counts to
+     * {@code onUsage} if present. A malformed tail after the first candidate does not change the result.
+     */
+    public static LLMResponse completion(InputStream body, Consumer<Usage> onUsage) {
+        LLMResponse response = null;
+        try (JsonReader json = reader(body)) {
+            if (json.peek() != JsonToken.BEGIN_OBJECT) return parsingError("Expected a JSON object but was " + json.peek());
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("usageMetadata".equals(name) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                    onUsage.accept(readUsage(json));
+                } else if ("candidates".equals(name) && response == null) {
+                    json.beginArray();
+                    if (json.hasNext()) response = toResponse(readCandidate(json));
+                    while (json.hasNext()) json.skipValue();
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            return response != null ? response : noAnswer("No candidates returned from model.");
+        } catch (Exception e) {
+            return response != null ? response : parsingError(e.getMessage());
+        }
+    }
+
+    /**
+     * One server-sent event of a streamGenerateContent response: every text part and function call part of
+     * {@code candidates[0]} in order, and the usage counts if the event carries them. A candidate without
+     * content is not an error here, since streams may send such events between parts. Malformed JSON throws.
+     */
+    static StreamChunk streamChunk(String data) throws IOException {
+        boolean hasCandidate = false;
+        List<String> texts = new ArrayList<>(1);
+        List<FunctionCall> calls = new ArrayList<>(0);
+        Usage usage = null;
+        try (JsonReader json = new JsonReader(new StringReader(data))) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("usageMetadata".equals(name) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                    usage = readUsage(json);
+                } else if ("candidates".equals(name) && !hasCandidate) {
+                    json.beginArray();
+                    if (json.hasNext()) {
+                        hasCandidate = true;
+                        readStreamCandidate(json, texts, calls);
+                    }
+                    while (json.hasNext()) json.skipValue();
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        return new StreamChunk(hasCandidate, texts, calls, usage);
+    }
+
+    /**
+     * Resource name ("cachedContents/...") of a cachedContents create or patch response, or {@code null}
+     * if the body has none, e.g. an error. Malformed JSON throws, which callers map to the failure result.
+     */
+    public static String cachedContentName(InputStream body) throws IOException {
+        try (JsonReader json = reader(body)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("name".equals(json.nextName()) && json.peek() == JsonToken.STRING) return json.nextString();
+                json.skipValue();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Vector of an embedContent response, or an empty array if the response carries no embedding.
+     * Malformed JSON throws, which callers map to the empty-vector fallback.
+     */
+    public static float[] embedding(InputStream body) throws IOException {
+        try (JsonReader json = reader(body)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("embedding".equals(json.nextName())) return readEmbedding(json);
+                json.skipValue();
+            }
+            return new float[0];
+        }
+    }
+
+    /**
+     * Vectors of a batchEmbedContents response in response order; empty if the response has no embeddings.
+     */
+    public static List<float[]> batchEmbeddings(InputStream body) throws IOException {
+        try (JsonReader json = reader(body)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if (!"embeddings".equals(json.nextName())) {
+                    json.skipValue();
+                    continue;
+                }
+                List<float[]> vectors = new ArrayList<>();
+                json.beginArray();
+                while (json.hasNext()) vectors.add(readEmbedding(json));
+                json.endArray();
+                return vectors;
+            }
+            return List.of();
+        }
+    }
+
+    private static JsonReader reader(InputStream body) {
+        return new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads one candidate into its first text part and every function call part, or {@code null} if it has no parts.
+     * Throws on a missing or mistyped content/parts field, which the caller reports as a parsing error.
+     */
+    private static Parts readCandidate(JsonReader json) throws IOException {
+        boolean hasContent = false;
+        Parts parts = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!"content".equals(json.nextName())) {
+                json.skipValue();
+                continue;
+            }
+            hasContent = true;
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("parts".equals(json.nextName())) {
+                    parts = readParts(json);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        json.endObject();
+        if (!hasContent) throw new IllegalStateException("Candidate has no content");
+        return parts;
+    }
+
+    private static Parts readParts(JsonReader json) throws IOException {
+        json.beginArray();
+        if (!json.hasNext()) {
+            json.endArray();
+            return null;
+        }
+        String text = null;
+        List<FunctionCall> calls = new ArrayList<>(1);
+        while (json.hasNext()) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("functionCall".equals(name)) {
+                    calls.add(readFunctionCall(json));
+                } else if ("text".equals(name) && text == null) {
+                    text = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        json.endArray();
+        return new Parts(text, calls);
+    }
+
+    private static FunctionCall readFunctionCall(JsonReader json) throws IOException {
+        String name = null;
+        Map<String, String> args = new LinkedHashMap<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if ("name".equals(field)) {
+                name = json.nextString();
+            } else if ("args".equals(field) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    String arg = json.nextName();
+                    JsonToken type = json.peek();
+                    if (type == JsonToken.NULL) {
+                        json.nextNull();
+                    } else if (type == JsonToken.BEGIN_OBJECT || type == JsonToken.BEGIN_ARRAY) {
+                        args.put(arg, JsonParser.parseReader(json).toString());
+                    } else if (type == JsonToken.BOOLEAN) {
+                        args.put(arg, Boolean.toString(json.nextBoolean()));
+                    } else {
+                        args.put(arg, json.nextString()); // Numbers as their JSON text
+                    }
+                }
+                json.endObject();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (name == null) throw new IllegalStateException("functionCall without a name");
+        return new FunctionCall(name, args);
+    }
+
+    private static void readStreamCandidate(JsonReader json, List<String> texts, List<FunctionCall> calls) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!"content".equals(json.nextName()) || json.peek() != JsonToken.BEGIN_OBJECT) {
+                json.skipValue();
+                continue;
+            }
+            json.beginObject();
+            while (json.hasNext()) {
+                if (!"parts".equals(json.nextName())) {
+                    json.skipValue();
+                    continue;
+                }
+                json.beginArray();
+                while (json.hasNext()) {
+                    FunctionCall call = null;
+                    String text = null;
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        String name = json.nextName();
+                        if ("functionCall".equals(name)) {
+                            call = readFunctionCall(json);
+                        } else if ("text".equals(name)) {
+                            text = json.nextString();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                    if (call != null) calls.add(call);
+                    else if (text != null) texts.add(text);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    private static Usage readUsage(JsonReader json) throws IOException {
+        long prompt = 0;
+        long completion = 0;
+        long cached = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if ("promptTokenCount".equals(field)) {
+                prompt = json.nextLong();
+            } else if ("candidatesTokenCount".equals(field)) {
+                completion = json.nextLong();
+            } else if ("cachedContentTokenCount".equals(field)) {
+                cached = json.nextLong();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return new Usage(prompt, completion, cached);
+    }
+
+    private static LLMResponse toResponse(Parts parts) {
+        if (parts == null) return noAnswer("Empty parts in model response.");
+        if (!parts.calls().isEmpty() || parts.text() != null) return new LLMResponse(parts.text(), parts.calls());
+        return noAnswer("Unexpected response format from API.");
+    }
+
+    /**
+     * Reads {@code {"values": [...]}} into an exactly sized array; other fields are skipped.
+     */
+    private static float[] readEmbedding(JsonReader json) throws IOException {
+        float[] vector = new float[0];
+        json.beginObject();
+        while (json.hasNext()) {
+            if (!"values".equals(json.nextName())) {
+                json.skipValue();
+                continue;
+            }
+            float[] values = new float[EXPECTED_DIMENSION];
+            int size = 0;
+            json.beginArray();
+            while (json.hasNext()) {
+                if (size == values.length) values = Arrays.copyOf(values, size * 2);
+                values[size++] = parseFloat(json.nextString());
+            }
+            json.endArray();
+            vector = size == values.length ? values : Arrays.copyOf(values, size);
+        }
+        json.endObject();
+        return vector;
+    }
+
+    /**
+     * Same result as {@link Float#parseFloat} (and thus JsonPrimitive.getAsFloat), without its per-call buffers
+     * for the common case of a JSON number with at most 18 significant digits and a small exponent:
+     * the value is computed exactly rounded in double arithmetic and then narrowed. Narrowing can only round
+     * differently from a direct conversion when the double lands exactly on a float midpoint; those rare
+     * values and any other input fall back to Float.parseFloat.
+     */
+    static float parseFloat(String number) {
+        int length = number.length();
+        int i = 0;
+        boolean negative = length > 0 && number.charAt(0) == '-';
+        if (negative) i++;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean fraction = false;
+        for (; i < length; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    if (fraction) exponent--;
+                    continue;
+                }
+                if (++digits > 18) return Float.parseFloat(number);
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction) exponent--;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else if (c == 'e' || c == 'E') {
+                break;
+            } else {
+                return Float.parseFloat(number);
+            }
+        }
+        if (!seenDigit) return Float.parseFloat(number);
+        if (i < length) {
+            int e = 0;
+            boolean negativeExponent = false;
+            int start = ++i;
+            if (i < length && (number.charAt(i) == '+' || number.charAt(i) == '-')) negativeExponent = number.charAt(i++) == '-';
+            if (i == length || length - i > 3) return Float.parseFloat(number);
+            for (; i < length; i++) {
+                char c = number.charAt(i);
+                if (c < '0' || c > '9') return Float.parseFloat(number);
+                e = e * 10 + (c - '0');
+            }
+            if (i == start) return Float.parseFloat(number);
+            exponent += negativeExponent ? -e : e;
+        }
+        if (mantissa == 0) return negative ? -0f : 0f;
+        if (mantissa >= 1L << 53 || exponent < -22 || exponent > 22) return Float.parseFloat(number);
+
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        float narrowed = (float) value;
+        if (narrowed != value) {
+            float neighbour = Math.nextAfter(narrowed, value);
+            if (((double) narrowed + neighbour) / 2 == value) return Float.parseFloat(number);
+        }
+        return negative ? -narrowed : narrowed;
+    }
+
+    private static LLMResponse noAnswer(String message) {
+        return LLMResponse.failure(LLMResponse.Failure.NO_ANSWER, "Error: " + message);
+    }
+
+    private static LLMResponse parsingError(String message) {
+        return LLMResponse.failure(LLMResponse.Failure.PARSING, "Parsing Error: " + message);
+    }
+
+    private record Parts(String text, List<FunctionCall> calls) {
+    }
+
+    /**
+     * Decoded stream event. {@code hasCandidate} is false for events carrying only usage metadata;
+     * {@code usage} is {@code null} when the event has none.
+     */
+    record StreamChunk(boolean hasCandidate, List<String> texts, List<FunctionCall> functionCalls, Usage usage) {
+    }
+
+    /**
+     * Token counts from a response's {@code usageMetadata}. {@code cachedTokens} is the part of the prompt
+     * served from a context cache, already included in {@code promptTokens}.
+     */
+    public record Usage(long promptTokens, long completionTokens, long cachedTokens) {
+    }
+}
@@ -0,0 +1,168 @@
+package me.ather.support.service;
+
+import me.ather.support.retrieval.VectorMath;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Answer cache for near-duplicate technical questions ("how do I pair a new device" / "pairing new sensor?").
+ * An entry matches when the cosine similarity of the query embeddings is at least {@code minSimilarity},
+ * retrieval selected the same documents, and the knowledge base has not changed since the answer was generated.
+ * Entries expire after the TTL; the least recently used entry is evicted when the cache is full.
+ *
+ * The cache does not know about intents or sessions: callers store only text answers of technical turns that
+ * were generated without conversation history, never billing, tool-calling or follow-up turns, since one
+ * customer's answer may otherwise be served to another.
+ */
+public class SemanticResponseCache {
+    public static final double DEFAULT_MIN_SIMILARITY = 0.92;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private final float minSimilarity;
+    private final long ttlNanos;
+    private final int capacity;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long nextKey;
+    private long knowledgeVersion = Long.MIN_VALUE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SemanticResponseCache() {
+        this(DEFAULT_MIN_SIMILARITY, DEFAULT_TTL, DEFAULT_CAPACITY, System::nanoTime);
+    }
+
+    /**
+     * @param minSimilarity Minimum cosine similarity between two queries for one to reuse the other's answer.
+     * @param clock         Nanosecond time source, replaceable in tests.
+     */
+    public SemanticResponseCache(double minSimilarity, Duration ttl, int capacity, LongSupplier clock) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.minSimilarity = (float) minSimilarity;
+        this.ttlNanos = ttl.toNanos();
+        this.capacity = capacity;
+        this.clock = clock;
+    }
+
+    /**
+     * Cached answer for the query, or {@code null}. An empty query vector (failed embedding) never matches.
+     */
+    public String lookup(DocumentService.Retrieval retrieval) {
+        if (retrieval.queryVector().length == 0) return null;
+        float[] query = VectorMath.normalize(retrieval.queryVector());
+        int[] docIds = sortedIds(retrieval.docIds());
+        long now = clock.getAsLong();
+
+        synchronized (entries) {
+            syncVersion(retrieval.knowledgeVersion());
+            if (retrieval.knowledgeVersion() != knowledgeVersion) {
+                misses.increment(); // Retrieved before a document change; cached answers are newer
+                return null;
+            }
+            Entry best = null;
+            float bestScore = minSimilarity;
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (now - entry.createdNanos >= ttlNanos) {
+                    it.remove();
+                    evictions.increment();
+                    continue;
+                }
+                if (entry.vector.length != query.length || !Arrays.equals(entry.docIds, docIds)) continue;
+                float score = VectorMath.dot(query, entry.vector);
+                if (score >= bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+            if (best == null) {
+                misses.increment();
+                return null;
+            }
+            entries.get(best.key); // Refresh LRU position
+            hits.increment();
+            return best.answer;
+        }
+    }
+
+    public void store(DocumentService.Retrieval retrieval, String answer) {
+        if (retrieval.queryVector().length == 0) return;
+        Entry entry = new Entry(VectorMath.normalize(retrieval.queryVector()), sortedIds(retrieval.docIds()),
+                answer, clock.getAsLong());
+        synchronized (entries) {
+            syncVersion(retrieval.knowledgeVersion());
+            if (retrieval.knowledgeVersion() != knowledgeVersion) return; // Answer based on outdated documents
+            entry.key = nextKey++;
+            entries.put(entry.key, entry);
+            while (entries.size() > capacity) {
+                Iterator<Long> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            evictions.add(entries.size());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Documents changed since the cached answers were generated: drop them all.
+     */
+    private void syncVersion(long version) {
+        if (version > knowledgeVersion) {
+            evictions.add(entries.size());
+            entries.clear();
+            knowledgeVersion = version;
+        }
+    }
+
+    private static int[] sortedIds(int[] ids) {
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+
+    private static final class Entry {
+        final float[] vector;
+        final int[] docIds;
+        final String answer;
+        final long createdNanos;
+        long key;
+
+        Entry(float[] vector, int[] docIds, String answer, long createdNanos) {
+            this.vector = vector;
+            this.docIds = docIds;
+            this.answer = answer;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
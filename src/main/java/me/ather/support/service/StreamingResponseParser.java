@@ -0,0 +1,150 @@
+package me.ather.support.service;
+
+import me.ather.support.model.FunctionCall;
+import me.ather.support.model.LLMResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Incremental parser for the server-sent-event stream of streamGenerateContent.
+ * Receives the HTTP body line by line as it arrives, forwards every text part to the delta callback immediately,
+ * and collects every functionCall part seen anywhere in the stream.
+ * The aggregated result has the same shape as a non-streaming completion.
+ */
+final class StreamingResponseParser implements Flow.Subscriber<String> {
+    private final Consumer<String> onDelta;
+    private final CompletableFuture<LLMResponse> result = new CompletableFuture<>();
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder eventData = new StringBuilder();
+    private volatile Flow.Subscription subscription;
+    private final List<FunctionCall> functionCalls = new ArrayList<>(1);
+    private int chunks;
+    private long bytesReceived;
+    private ResponseDecoder.Usage usage; // cumulative, the last chunk carries the final counts
+    private volatile long lastActivityNanos = System.nanoTime();
+
+    StreamingResponseParser(Consumer<String> onDelta) {
+        this.onDelta = onDelta;
+        // A caller giving up on the stream, or a stalled stream completed by the client, stops the body subscription
+        result.whenComplete((response, error) -> {
+            Flow.Subscription current = subscription;
+            if (current != null) current.cancel();
+        });
+    }
+
+    CompletableFuture<LLMResponse> result() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    /**
+     * Restarts the idle clock, e.g. when the request is actually sent after waiting for a permit.
+     */
+    void markActive() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * {@link System#nanoTime} of the last line received, or of the last {@link #markActive} if later.
+     */
+    long lastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    /**
+     * UTF-8 size of the lines received so far, including line terminators.
+     */
+    long bytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Token counts of the last chunk that reported them, or {@code null}.
+     */
+    ResponseDecoder.Usage usage() {
+        return usage;
+    }
+
+    @Override
+    public void onNext(String line) {
+        lastActivityNanos = System.nanoTime();
+        bytesReceived += utf8Length(line) + 1;
+        if (line.isEmpty()) {
+            dispatchEvent();
+        } else if (line.startsWith("data:")) {
+            if (eventData.length() > 0) eventData.append('\n');
+            eventData.append(line.substring(5).trim());
+        }
+        // Comments (":"), "event:" and "id:" fields carry nothing we need
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        result.complete(LLMResponse.failure(LLMResponse.Failure.COMMUNICATION, "Communication Error: " + error.getMessage()));
+    }
+
+    @Override
+    public void onComplete() {
+        dispatchEvent();
+        if (!functionCalls.isEmpty()) {
+            result.complete(new LLMResponse(text.length() == 0 ? null : text.toString(), functionCalls));
+        } else if (chunks == 0) {
+            result.complete(LLMResponse.failure(LLMResponse.Failure.NO_ANSWER, "Error: No candidates returned from model."));
+        } else if (text.length() == 0) {
+            result.complete(LLMResponse.failure(LLMResponse.Failure.NO_ANSWER, "Error: Empty parts in model response."));
+        } else {
+            result.complete(new LLMResponse(text.toString(), null));
+        }
+    }
+
+    private void dispatchEvent() {
+        if (eventData.length() == 0) return;
+        String data = eventData.toString();
+        eventData.setLength(0);
+        ResponseDecoder.StreamChunk chunk;
+        try {
+            chunk = ResponseDecoder.streamChunk(data);
+        } catch (IOException | RuntimeException e) {
+            return; // A malformed chunk is skipped; the rest of the stream is still usable
+        }
+        if (chunk.usage() != null) usage = chunk.usage();
+        if (!chunk.hasCandidate()) return;
+        chunks++;
+        functionCalls.addAll(chunk.functionCalls());
+        for (String delta : chunk.texts()) {
+            text.append(delta);
+            deliver(delta);
+        }
+    }
+
+    private static int utf8Length(String line) {
+        int bytes = line.length();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c >= 0x800) {
+                bytes += Character.isSurrogate(c) ? 1 : 2; // A surrogate pair is 4 bytes for 2 chars
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    private void deliver(String delta) {
+        try {
+            onDelta.accept(delta);
+        } catch (RuntimeException e) {
+            // A failing consumer (e.g. a disconnected client) must not break parsing
+        }
+    }
+}
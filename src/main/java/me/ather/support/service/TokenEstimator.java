@@ -0,0 +1,31 @@
+package me.ather.support.service;
+
+import me.ather.support.model.ChatMessage;
+
+import java.util.List;
+
+/**
+ * Cheap local token estimate used for budgeting prompts without a countTokens round trip.
+ * Gemini tokenizers average roughly four characters of English text per token;
+ * each message adds a small fixed overhead for its role and structure.
+ */
+public final class TokenEstimator {
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {}
+
+    public static int estimate(String text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    public static int estimate(ChatMessage message) {
+        return estimate(message.content()) + MESSAGE_OVERHEAD;
+    }
+
+    public static int estimate(List<ChatMessage> messages) {
+        int total = 0;
+        for (ChatMessage message : messages) total += estimate(message);
+        return total;
+    }
+}
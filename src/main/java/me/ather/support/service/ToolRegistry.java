@@ -0,0 +1,124 @@
+package me.ather.support.service;
+
+import me.ather.support.model.FunctionCall;
+import me.ather.support.model.GeminiSchema;
+import me.ather.support.model.ToolDefinition;
+import me.ather.support.model.ToolResult;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tools the model may call, each a declaration plus the handler that executes it.
+ * The function declarations sent to the API are generated from the registered tools and encoded once per change,
+ * in registration order, so adding a tool needs no schema code.
+ *
+ * All function calls of one model response run concurrently, each bounded by its tool's timeout; a slow tool
+ * delays the turn by at most that timeout. A handler that times out is not interrupted, its result is dropped.
+ */
+public class ToolRegistry {
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final ExecutorService TOOL_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "tool-executor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Executes one call of a tool for a conversation and returns the text sent back to the model.
+     * Exceptions become failed results. {@code sessionId} lets side-effecting tools deduplicate repeated calls.
+     */
+    @FunctionalInterface
+    public interface ToolHandler {
+        String execute(String sessionId, FunctionCall call) throws Exception;
+    }
+
+    private record Tool(ToolDefinition definition, Duration timeout, ToolHandler handler) {
+    }
+
+    /**
+     * Immutable view replaced on every registration, so lookups and encoding never lock.
+     */
+    private record Snapshot(Map<String, Tool> tools, byte[] encodedDeclarations) {
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), encode(Map.of()));
+
+    public void register(ToolDefinition definition, ToolHandler handler) {
+        register(definition, DEFAULT_TIMEOUT, handler);
+    }
+
+    public synchronized void register(ToolDefinition definition, Duration timeout, ToolHandler handler) {
+        if (timeout.isNegative() || timeout.isZero()) throw new IllegalArgumentException("Tool timeout must be positive");
+        Map<String, Tool> tools = new LinkedHashMap<>(snapshot.tools());
+        tools.put(definition.name(), new Tool(definition, timeout, handler));
+        snapshot = new Snapshot(Collections.unmodifiableMap(tools), encode(tools));
+    }
+
+    public boolean isEmpty() {
+        return snapshot.tools().isEmpty();
+    }
+
+    public List<ToolDefinition> definitions() {
+        List<ToolDefinition> definitions = new ArrayList<>();
+        for (Tool tool : snapshot.tools().values()) definitions.add(tool.definition());
+        return definitions;
+    }
+
+    /**
+     * The {@code tools} array of a request as UTF-8 JSON. Shared; callers must not modify it.
+     */
+    byte[] encodedDeclarations() {
+        return snapshot.encodedDeclarations();
+    }
+
+    /**
+     * Runs all calls of one conversation concurrently and waits for them; results are in the order of {@code calls}.
+     * Unknown tools, handler exceptions and timeouts produce failed results instead of throwing.
+     */
+    public List<ToolResult> executeAll(String sessionId, List<FunctionCall> calls) {
+        Map<String, Tool> tools = snapshot.tools();
+        List<CompletableFuture<ToolResult>> pending = new ArrayList<>(calls.size());
+        for (FunctionCall call : calls) {
+            Tool tool = tools.get(call.name());
+            if (tool == null) {
+                pending.add(CompletableFuture.completedFuture(
+                        new ToolResult(call, "Unknown tool: " + call.name(), true)));
+                continue;
+            }
+            ToolResult timedOut = new ToolResult(call,
+                    "Tool " + call.name() + " timed out after " + tool.timeout().toMillis() + " ms", true);
+            pending.add(CompletableFuture.supplyAsync(() -> execute(tool, sessionId, call), TOOL_EXECUTOR)
+                    .completeOnTimeout(timedOut, tool.timeout().toNanos(), TimeUnit.NANOSECONDS));
+        }
+        List<ToolResult> results = new ArrayList<>(pending.size());
+        for (CompletableFuture<ToolResult> result : pending) results.add(result.join());
+        return results;
+    }
+
+    private static ToolResult execute(Tool tool, String sessionId, FunctionCall call) {
+        try {
+            String output = tool.handler().execute(sessionId, call);
+            return new ToolResult(call, output == null ? "" : output, false);
+        } catch (Exception e) {
+            System.err.println("Tool " + call.name() + " failed: " + e.getMessage());
+            return new ToolResult(call, "Tool " + call.name() + " failed: " + e.getMessage(), true);
+        }
+    }
+
+    private static byte[] encode(Map<String, Tool> tools) {
+        List<ToolDefinition> definitions = new ArrayList<>();
+        for (Tool tool : tools.values()) definitions.add(tool.definition());
+        return GeminiSchema.tools(definitions).toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
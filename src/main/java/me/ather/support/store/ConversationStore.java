@@ -0,0 +1,540 @@
+package me.ather.support.store;
+
+import me.ather.support.model.ChatMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of conversation messages, so sessions survive a restart and a directory can be opened by
+ * another node. Every appended message is written to the active memory-mapped segment; the index in memory
+ * holds only the record positions of each open session, and a session's messages are decoded when it is
+ * {@linkplain #load loaded}, typically on its next turn.
+ *
+ * Record layout (little-endian):
+ * <pre>
+ *   int    payload length (0 = end of segment data; written last, so a half-written record is invisible)
+ *   int    CRC32 of the payload
+ *   byte   type (1 = message, 2 = end of session)
+ *   long   incarnation (a store-wide number, new each time a session id is (re)opened)
+ *   int    sequence number of the message within the session
+ *   long   timestamp (epoch ms)
+ *   short  session id length, followed by the UTF-8 session id
+ *   byte   role (1 system, 2 user, 3 assistant, 0 = other: short length and UTF-8 role follow); messages only
+ *   ...    UTF-8 content up to the end of the payload; messages only
+ * </pre>
+ *
+ * Recovery scans the segments once, checking CRCs and reading only record headers; the first bad record of a
+ * segment ends it. Sequence numbers put messages back in order however compaction moved them, and duplicates
+ * left by a crash during compaction are dropped.
+ *
+ * Compaction: sessions without a message for longer than the retention are ended. When at least half of the
+ * bytes in sealed segments belong to ended sessions, the live records of all sealed segments are copied to the
+ * active one and the sealed files are deleted. End records are only needed while their session's messages
+ * exist, which is never longer than the sealed segments they are in, so they are not copied. Records are
+ * copied in slices of at most {@value #COPY_SLICE_BYTES} bytes, and appends may run between the slices.
+ *
+ * Writes reach the page cache immediately and survive a process crash; they are forced to disk every
+ * {@value #FLUSH_INTERVAL_MILLIS} ms, when a segment is sealed and on close. The periodic flush forces the
+ * segments without holding the store lock, so appends do not wait for the disk.
+ */
+public class ConversationStore implements Closeable {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(7);
+    public static final long FLUSH_INTERVAL_MILLIS = 1000;
+    public static final long COMPACTION_INTERVAL_MILLIS = 60_000;
+    static final int COPY_SLICE_BYTES = 256 << 10;
+    private static final int PREFIX_BYTES = 8; // length + CRC
+    private static final int FIXED_HEADER_BYTES = 1 + 8 + 4 + 8 + 2;
+    private static final byte MESSAGE = 1;
+    private static final byte END = 2;
+    private static final String[] ROLES = {null, "system", "user", "assistant"};
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionMillis;
+    private final TreeMap<Integer, LogSegment> segments = new TreeMap<>();
+    private final Map<String, SessionLog> sessions = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService maintenance;
+    private final Object forcing = new Object(); // Held by flush() while it forces segments; taken before the store lock
+    private final Object compaction = new Object(); // One compaction at a time; taken before the other locks
+    private LogSegment active;
+    private long nextIncarnation = 1;
+    private boolean closed;
+
+    private ConversationStore(Path directory, int segmentBytes, Duration retention, boolean background) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.retentionMillis = retention.toMillis();
+        if (!background) {
+            maintenance = null;
+            return;
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "conversation-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the store in {@code directory} with the default segment size and retention, flushing and compacting
+     * in the background.
+     */
+    public static ConversationStore open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_RETENTION, true);
+    }
+
+    /**
+     * @param background Whether to flush and compact on a daemon thread; otherwise call {@link #flush} and
+     *                   {@link #compact} yourself.
+     */
+    public static ConversationStore open(Path directory, int segmentBytes, Duration retention, boolean background)
+            throws IOException {
+        if (segmentBytes < 4096) throw new IllegalArgumentException("segmentBytes must be at least 4096: " + segmentBytes);
+        Files.createDirectories(directory);
+        ConversationStore store = new ConversationStore(directory, segmentBytes, retention, background);
+        try {
+            store.recover();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        if (store.maintenance != null) {
+            store.maintenance.scheduleWithFixedDelay(store::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            store.maintenance.scheduleWithFixedDelay(store::compactQuietly, COMPACTION_INTERVAL_MILLIS,
+                    COMPACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return store;
+    }
+
+    /**
+     * Appends a message to the session's log, opening the session if needed.
+     */
+    public synchronized void append(String sessionId, ChatMessage message) throws IOException {
+        ensureOpen();
+        SessionLog log = sessions.get(sessionId);
+        if (log == null) {
+            log = new SessionLog(nextIncarnation++);
+            sessions.put(sessionId, log);
+        }
+        long now = System.currentTimeMillis();
+        int sequence = log.nextSequence;
+        long position = write(MESSAGE, sessionId, log.incarnation, sequence, now, message);
+        log.add(position, sequence, now);
+    }
+
+    /**
+     * The session's messages in order, or an empty list for an unknown or ended session.
+     */
+    public synchronized List<ChatMessage> load(String sessionId) {
+        SessionLog log = sessions.get(sessionId);
+        if (log == null) return List.of();
+        List<ChatMessage> messages = new ArrayList<>(log.count);
+        for (int i = 0; i < log.count; i++) messages.add(readMessage(log.positions[i]));
+        return messages;
+    }
+
+    public synchronized boolean contains(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    public synchronized int sessionCount() {
+        return sessions.size();
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Ends a session: its messages become garbage for the next compaction. Returns false if it was not open.
+     */
+    public synchronized boolean end(String sessionId) throws IOException {
+        ensureOpen();
+        SessionLog log = sessions.get(sessionId);
+        if (log == null) return false;
+        write(END, sessionId, log.incarnation, log.nextSequence, System.currentTimeMillis(), null);
+        release(sessions.remove(sessionId));
+        return true;
+    }
+
+    /**
+     * Forces written records to disk. The dirty segments are collected under the store lock and forced after
+     * releasing it; records appended meanwhile mark their segment dirty again for the next flush.
+     */
+    public void flush() {
+        synchronized (forcing) {
+            List<LogSegment> dirty = new ArrayList<>();
+            synchronized (this) {
+                if (closed) return;
+                for (LogSegment segment : segments.values()) {
+                    if (!segment.dirty) continue;
+                    segment.dirty = false;
+                    dirty.add(segment);
+                }
+            }
+            for (int i = 0; i < dirty.size(); i++) {
+                try {
+                    dirty.get(i).buffer.force();
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        for (LogSegment segment : dirty.subList(i, dirty.size())) segment.dirty = true;
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends sessions idle for longer than the retention, then rewrites the sealed segments if at least half of
+     * their bytes are garbage. Returns the number of segment files deleted.
+     */
+    public int compact() throws IOException {
+        synchronized (compaction) {
+            List<Map.Entry<String, SessionLog>> work;
+            List<LogSegment> sealed;
+            int firstUnsealed;
+            synchronized (this) {
+                ensureOpen();
+                long cutoff = System.currentTimeMillis() - retentionMillis;
+                List<String> expired = new ArrayList<>();
+                for (Map.Entry<String, SessionLog> entry : sessions.entrySet()) {
+                    if (entry.getValue().lastAppendMillis < cutoff) expired.add(entry.getKey());
+                }
+                for (String sessionId : expired) end(sessionId);
+
+                sealed = new ArrayList<>(segments.headMap(active.id).values());
+                long used = 0;
+                long live = 0;
+                for (LogSegment segment : sealed) {
+                    used += segment.writePosition;
+                    live += segment.liveBytes;
+                }
+                if (sealed.isEmpty() || live * 2 > used) return 0;
+                firstUnsealed = active.id; // Segments rolled over during the copy are not compacted
+                work = new ArrayList<>(Map.copyOf(sessions).entrySet());
+            }
+
+            int session = 0;
+            int record = 0;
+            while (session < work.size()) {
+                synchronized (this) {
+                    if (closed) return 0; // The originals are still there; recovery drops the partial copies
+                    int copied = 0;
+                    while (session < work.size() && copied < COPY_SLICE_BYTES) {
+                        Map.Entry<String, SessionLog> entry = work.get(session);
+                        SessionLog log = entry.getValue();
+                        if (sessions.get(entry.getKey()) != log || record >= log.count) {
+                            // Ended between slices (its records are garbage now) or fully copied
+                            session++;
+                            record = 0;
+                            continue;
+                        }
+                        long position = log.positions[record];
+                        if (segmentId(position) < firstUnsealed) {
+                            LogSegment source = segments.get(segmentId(position));
+                            int offset = offset(position);
+                            int length = PREFIX_BYTES + source.buffer.getInt(offset);
+                            log.positions[record] = copy(source, offset, length);
+                            source.liveBytes -= length;
+                            copied += length;
+                        }
+                        record++;
+                    }
+                }
+            }
+
+            flush(); // The copies must be durable before the originals go away
+            synchronized (this) {
+                if (closed) return 0;
+                for (LogSegment segment : sealed) {
+                    segments.remove(segment.id);
+                    segment.delete();
+                }
+            }
+            return sealed.size();
+        }
+    }
+
+    /**
+     * Waits for a flush in progress, then forces and closes every segment.
+     */
+    @Override
+    public void close() throws IOException {
+        if (maintenance != null) maintenance.shutdownNow();
+        synchronized (forcing) {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                for (LogSegment segment : segments.values()) segment.close();
+            }
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Conversation store compaction failed: " + e.getMessage());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Conversation store is closed");
+    }
+
+    private long write(byte type, String sessionId, long incarnation, int sequence, long timestamp, ChatMessage message)
+            throws IOException {
+        byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > Short.MAX_VALUE) throw new IllegalArgumentException("Session id too long");
+        int roleCode = 0;
+        byte[] role = null;
+        byte[] content = null;
+        int payload = FIXED_HEADER_BYTES + id.length;
+        if (message != null) {
+            roleCode = roleCode(message.role());
+            role = roleCode == 0 ? String.valueOf(message.role()).getBytes(StandardCharsets.UTF_8) : null;
+            content = message.content() == null ? new byte[0] : message.content().getBytes(StandardCharsets.UTF_8);
+            payload += 1 + (role == null ? 0 : 2 + role.length) + content.length;
+        }
+        int length = PREFIX_BYTES + payload;
+        if (length > segmentBytes) throw new IllegalArgumentException("Message of " + length + " bytes exceeds the segment size");
+        if (active.remaining() < length) roll();
+
+        int offset = active.writePosition;
+        ByteBuffer out = active.buffer.duplicate().order(active.buffer.order());
+        out.position(offset + PREFIX_BYTES);
+        out.put(type).putLong(incarnation).putInt(sequence).putLong(timestamp);
+        out.putShort((short) id.length).put(id);
+        if (message != null) {
+            out.put((byte) roleCode);
+            if (role != null) out.putShort((short) role.length).put(role);
+            out.put(content);
+        }
+        out.position(offset + PREFIX_BYTES).limit(offset + length);
+        crc.reset();
+        crc.update(out);
+        active.buffer.putInt(offset + 4, (int) crc.getValue());
+        active.buffer.putInt(offset, payload); // Publishes the record
+        active.writePosition += length;
+        active.dirty = true;
+        if (type == MESSAGE) active.liveBytes += length;
+        return position(active.id, offset);
+    }
+
+    private long copy(LogSegment source, int offset, int length) throws IOException {
+        if (active.remaining() < length) roll();
+        int target = active.writePosition;
+        ByteBuffer from = source.buffer.duplicate();
+        from.position(offset + 4).limit(offset + length);
+        ByteBuffer to = active.buffer.duplicate();
+        to.position(target + 4);
+        to.put(from);
+        active.buffer.putInt(target, length - PREFIX_BYTES); // Length last, as for a fresh record
+        active.writePosition += length;
+        active.liveBytes += length;
+        active.dirty = true;
+        return position(active.id, target);
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        LogSegment next = LogSegment.create(directory, active.id + 1, segmentBytes);
+        segments.put(next.id, next);
+        active = next;
+    }
+
+    private void release(SessionLog log) {
+        for (int i = 0; i < log.count; i++) {
+            LogSegment segment = segments.get(segmentId(log.positions[i]));
+            int offset = offset(log.positions[i]);
+            segment.liveBytes -= PREFIX_BYTES + segment.buffer.getInt(offset);
+        }
+    }
+
+    private ChatMessage readMessage(long position) {
+        ByteBuffer in = segments.get(segmentId(position)).buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int offset = offset(position);
+        int end = offset + PREFIX_BYTES + in.getInt(offset);
+        int idLength = in.getShort(offset + PREFIX_BYTES + FIXED_HEADER_BYTES - 2);
+        in.position(offset + PREFIX_BYTES + FIXED_HEADER_BYTES + idLength);
+        int roleCode = in.get();
+        String role = roleCode == 0 ? readString(in, in.getShort()) : ROLES[roleCode];
+        return new ChatMessage(role, readString(in, end - in.position()));
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int roleCode(String role) {
+        for (int i = 1; i < ROLES.length; i++) if (ROLES[i].equals(role)) return i;
+        return 0;
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                int id = LogSegment.parseId(file.getFileName().toString());
+                if (id >= 0) segments.put(id, LogSegment.open(file, id));
+            }
+        }
+        Map<String, Long> ended = new HashMap<>();
+        for (LogSegment segment : segments.values()) scan(segment, ended);
+        for (Iterator<Map.Entry<String, SessionLog>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, SessionLog> entry = it.next();
+            Long endedIncarnation = ended.get(entry.getKey());
+            if (endedIncarnation != null && endedIncarnation >= entry.getValue().incarnation) {
+                it.remove();
+                continue;
+            }
+            SessionLog log = entry.getValue();
+            log.sortBySequence();
+            for (int i = 0; i < log.count; i++) {
+                LogSegment segment = segments.get(segmentId(log.positions[i]));
+                segment.liveBytes += PREFIX_BYTES + segment.buffer.getInt(offset(log.positions[i]));
+            }
+        }
+        if (segments.isEmpty()) {
+            active = LogSegment.create(directory, 1, segmentBytes);
+            segments.put(active.id, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Indexes the valid records of one segment and sets its write position after the last of them.
+     * The rest of a segment with a torn record is zeroed, so the next record written there is not mistaken for it.
+     */
+    private void scan(LogSegment segment, Map<String, Long> ended) {
+        ByteBuffer in = segment.buffer.duplicate().order(segment.buffer.order());
+        int capacity = segment.capacity();
+        int offset = 0;
+        while (offset + PREFIX_BYTES <= capacity) {
+            int payload = in.getInt(offset);
+            if (payload < FIXED_HEADER_BYTES || payload > capacity - offset - PREFIX_BYTES) break;
+            in.position(offset + PREFIX_BYTES).limit(offset + PREFIX_BYTES + payload);
+            crc.reset();
+            crc.update(in);
+            in.limit(capacity);
+            if ((int) crc.getValue() != in.getInt(offset + 4)) break;
+
+            in.position(offset + PREFIX_BYTES);
+            byte type = in.get();
+            long incarnation = in.getLong();
+            int sequence = in.getInt();
+            long timestamp = in.getLong();
+            int idLength = in.getShort();
+            if (idLength < 0 || idLength > payload - FIXED_HEADER_BYTES) break;
+            String sessionId = readString(in, idLength);
+            nextIncarnation = Math.max(nextIncarnation, incarnation + 1);
+            if (type == END) {
+                ended.merge(sessionId, incarnation, Math::max);
+            } else if (type == MESSAGE) {
+                SessionLog log = sessions.get(sessionId);
+                if (log == null || incarnation > log.incarnation) {
+                    log = new SessionLog(incarnation);
+                    sessions.put(sessionId, log);
+                }
+                if (incarnation == log.incarnation) log.add(position(segment.id, offset), sequence, timestamp);
+            }
+            offset += PREFIX_BYTES + payload;
+        }
+        segment.writePosition = offset;
+        if (offset + PREFIX_BYTES <= capacity && in.getInt(offset) != 0) {
+            for (int i = offset; i < capacity && i < offset + PREFIX_BYTES + Math.max(0, in.getInt(offset)); i++) {
+                segment.buffer.put(i, (byte) 0);
+            }
+            segment.dirty = true;
+            System.err.println("Conversation store: dropped a torn record at " + segment.path + ":" + offset);
+        }
+    }
+
+    private static long position(int segmentId, int offset) {
+        return (long) segmentId << 32 | offset;
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Record positions of one open session, in message order once recovered.
+     */
+    private static final class SessionLog {
+        final long incarnation;
+        long[] positions = new long[4];
+        int[] sequences = new int[4];
+        int count;
+        int nextSequence;
+        long lastAppendMillis;
+
+        SessionLog(long incarnation) {
+            this.incarnation = incarnation;
+        }
+
+        void add(long position, int sequence, long timestamp) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                sequences = Arrays.copyOf(sequences, count * 2);
+            }
+            positions[count] = position;
+            sequences[count] = sequence;
+            count++;
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            lastAppendMillis = Math.max(lastAppendMillis, timestamp);
+        }
+
+        /**
+         * Restores message order after compaction moved records, and drops copies left by an interrupted one.
+         */
+        void sortBySequence() {
+            boolean sorted = true;
+            for (int i = 1; i < count && sorted; i++) sorted = sequences[i - 1] < sequences[i];
+            if (!sorted) {
+                Integer[] order = new Integer[count];
+                for (int i = 0; i < count; i++) order[i] = i;
+                Arrays.sort(order, (a, b) -> Integer.compare(sequences[a], sequences[b]));
+                long[] sortedPositions = new long[count];
+                int[] sortedSequences = new int[count];
+                int kept = 0;
+                for (int index : order) {
+                    if (kept > 0 && sortedSequences[kept - 1] == sequences[index]) continue;
+                    sortedPositions[kept] = positions[index];
+                    sortedSequences[kept++] = sequences[index];
+                }
+                positions = sortedPositions;
+                sequences = sortedSequences;
+                count = kept;
+            }
+        }
+    }
+}
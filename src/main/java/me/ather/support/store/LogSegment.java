@@ -0,0 +1,104 @@
+package me.ather.support.store;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One fixed-size, memory-mapped file of the conversation log. Records are written at {@code writePosition};
+ * the zero-filled rest of a fresh file marks the end of the data. Not thread-safe, guarded by the store;
+ * only the store's flush forces {@code buffer} without holding its lock.
+ */
+final class LogSegment {
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    final int id;
+    final Path path;
+    final MappedByteBuffer buffer;
+    private final FileChannel channel;
+    int writePosition;
+    long liveBytes;  // bytes of records still referenced by an open session
+    boolean dirty;
+
+    private LogSegment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a new segment of {@code capacity} bytes; mapping extends the file, so the space reads as zeros.
+     */
+    static LogSegment create(Path directory, int id, int capacity) throws IOException {
+        Path path = directory.resolve(fileName(id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new LogSegment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static LogSegment open(Path path, int id) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Segment larger than 2 GB: " + path);
+            return new LogSegment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static String fileName(int id) {
+        return PREFIX + String.format("%08d", id) + SUFFIX;
+    }
+
+    /**
+     * Segment id of a file name written by {@link #fileName}, or -1 for any other file.
+     */
+    static int parseId(String fileName) {
+        if (!fileName.startsWith(PREFIX) || !fileName.endsWith(SUFFIX)) return -1;
+        try {
+            return Integer.parseInt(fileName.substring(PREFIX.length(), fileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    int remaining() {
+        return buffer.capacity() - writePosition;
+    }
+
+    void force() {
+        if (!dirty) return;
+        buffer.force();
+        dirty = false;
+    }
+
+    void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Closes and removes the file. The mapping itself is released once the buffer is garbage collected.
+     */
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,94 @@
+package me.ather.support;
+
+import me.ather.support.service.LLMClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic corpora and recorded Gemini responses shared by the JMH benchmarks ({@code -P benchmarks}).
+ * Everything is generated or read from test resources; no benchmark touches the network.
+ */
+final class BenchmarkFixtures {
+    static final int DIMENSION = 768;
+
+    private BenchmarkFixtures() {}
+
+    /**
+     * Body of a recorded Gemini response from {@code src/test/resources/gemini}.
+     */
+    static byte[] recordedBody(String name) {
+        try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/gemini/" + name)) {
+            if (in == null) throw new IllegalArgumentException("No recorded response " + name);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Troubleshooting snippet with a unique error code, in the style of the built-in knowledge base.
+     */
+    static String docText(int id) {
+        String component = HybridRetrievalReport.COMPONENTS[id % HybridRetrievalReport.COMPONENTS.length];
+        String issue = HybridRetrievalReport.ISSUES[(id / HybridRetrievalReport.COMPONENTS.length) % HybridRetrievalReport.ISSUES.length];
+        return "Troubleshooting the " + component + " (" + issue + "): Error Code " + (100_000 + id) + " is shown when the "
+                + component + " has a " + issue + " fault. Follow the " + issue + " checklist in the app.";
+    }
+
+    /**
+     * Gaussian clusters around random centroids, as in {@link HnswRecallReport}, generated one vector at a time
+     * so that a corpus of a million vectors is never held twice.
+     */
+    static final class ClusteredVectors {
+        private final Random random;
+        private final float[][] centroids;
+
+        ClusteredVectors(long seed, int clusters) {
+            this.random = new Random(seed);
+            this.centroids = new float[clusters][];
+            for (int c = 0; c < clusters; c++) centroids[c] = HnswRecallReport.randomUnitVector(random, DIMENSION);
+        }
+
+        float[] next() {
+            return HnswRecallReport.perturb(random, centroids[random.nextInt(centroids.length)]);
+        }
+    }
+
+    /**
+     * LLMClient stand-in that embeds instantly: documents get the next clustered vector,
+     * registered queries their fixed vector.
+     */
+    static final class SyntheticEmbedder extends LLMClient {
+        private final ClusteredVectors vectors;
+        private final Map<String, float[]> queries = new HashMap<>();
+
+        SyntheticEmbedder(ClusteredVectors vectors) {
+            super("http://localhost:0", "unused");
+            this.vectors = vectors;
+        }
+
+        synchronized void registerQuery(String text) {
+            queries.put(text, vectors.next());
+        }
+
+        @Override
+        public synchronized float[] getEmbedding(String text) {
+            float[] vector = queries.get(text);
+            return vector != null ? vector : vectors.next();
+        }
+
+        @Override
+        public synchronized List<float[]> getEmbeddings(List<String> texts) {
+            List<float[]> embedded = new ArrayList<>(texts.size());
+            for (int i = 0; i < texts.size(); i++) embedded.add(vectors.next());
+            return embedded;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package me.ather.support;
+
+import me.ather.support.metrics.Metrics;
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.service.CallPolicy;
+import me.ather.support.service.ConcurrencyLimiter;
+import me.ather.support.service.LLMClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for retries, deadlines, adaptive concurrency limiting and hedging of LLMClient requests,
+ * against the stub Gemini API with injected faults.
+ */
+class CallPolicyTest {
+
+    private static final String TEXT_RESPONSE =
+            "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hello\"}]}}]}";
+    private static final List<ChatMessage> MESSAGES = List.of(new ChatMessage("user", "Hi"));
+
+    private StubGeminiServer stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubGeminiServer();
+        stub.handle("generateContent", body -> TEXT_RESPONSE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    private LLMClient client(CallPolicy policy, Duration timeout) {
+        return new LLMClient(stub.baseUrl(), "test-key", LLMClient.DEFAULT_EMBEDDING_BATCH_SIZE,
+                LLMClient.DEFAULT_EMBEDDING_CONCURRENCY, timeout, policy);
+    }
+
+    private static CallPolicy retries(int maxAttempts, ConcurrencyLimiter limiter) {
+        return new CallPolicy(maxAttempts, Duration.ofMillis(10), Duration.ofMillis(50), 0, limiter);
+    }
+
+    @Test
+    @DisplayName("Should retry retryable statuses with backoff until the API answers")
+    void shouldRetryTransientFailures() {
+        // GIVEN
+        stub.injectFaults("generateContent", StubGeminiServer.Fault.status(503), StubGeminiServer.Fault.status(429));
+        LLMClient client = client(retries(3, new ConcurrencyLimiter()), Duration.ofSeconds(10));
+        long retries = Metrics.global().calls("generate").retries();
+
+        // WHEN
+        LLMResponse response = client.getCompletion(MESSAGES);
+
+        // THEN
+        assertEquals("Hello", response.text());
+        assertEquals(3, stub.calls("generateContent"));
+        assertEquals(2, Metrics.global().calls("generate").retries() - retries);
+    }
+
+    @Test
+    @DisplayName("Should not retry client errors or exceed the attempt budget")
+    void shouldStopOnPermanentFailures() {
+        // GIVEN
+        stub.injectFaults("generateContent", StubGeminiServer.Fault.status(400));
+        stub.injectFaults("embedContent", StubGeminiServer.Fault.status(500), StubGeminiServer.Fault.status(500),
+                StubGeminiServer.Fault.status(500));
+        LLMClient client = client(retries(2, new ConcurrencyLimiter()), Duration.ofSeconds(10));
+
+        // WHEN
+        LLMResponse response = client.getCompletion(MESSAGES);
+        float[] vector = client.getEmbedding("Hi");
+
+        // THEN
+        assertTrue(response.isError(), response.text());
+        assertEquals(1, stub.calls("generateContent"), "A 400 must not be retried.");
+        assertEquals(0, vector.length);
+        assertEquals(2, stub.calls("embedContent"), "Retries stop after maxAttempts.");
+    }
+
+    @Test
+    @DisplayName("Should give up instead of waiting for a Retry-After beyond the deadline")
+    void shouldRespectDeadline() {
+        // GIVEN
+        stub.injectFaults("generateContent", new StubGeminiServer.Fault(429, 0, "30"));
+        LLMClient client = client(retries(3, new ConcurrencyLimiter()), Duration.ofSeconds(2));
+
+        // WHEN
+        long start = System.nanoTime();
+        LLMResponse response = client.getCompletion(MESSAGES);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // THEN
+        assertTrue(response.isError(), response.text());
+        assertEquals(1, stub.calls("generateContent"));
+        assertTrue(millis < 1000, "The call should fail fast, took " + millis + " ms");
+    }
+
+    @Test
+    @DisplayName("Should cap requests in flight and halve the limit when the API is overloaded")
+    void shouldLimitConcurrency() {
+        // GIVEN
+        stub.handle("generateContent", body -> {
+            sleep(100);
+            return TEXT_RESPONSE;
+        });
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 4, 100);
+        LLMClient client = client(retries(1, limiter), Duration.ofSeconds(10));
+
+        // WHEN
+        List<CompletableFuture<LLMResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 12; i++) calls.add(client.getCompletionAsync(MESSAGES));
+        calls.forEach(CompletableFuture::join);
+        stub.injectFaults("generateContent", StubGeminiServer.Fault.status(429));
+        client.getCompletion(MESSAGES);
+
+        // THEN
+        for (CompletableFuture<LLMResponse> call : calls) assertEquals("Hello", call.join().text());
+        assertTrue(stub.maxInFlight() <= 4, "At most 4 requests may be in flight, saw " + stub.maxInFlight());
+        assertEquals(2, limiter.limit(), "A 429 halves the limit.");
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    @DisplayName("Should reject immediately when the limiter queue is full")
+    void shouldRejectWhenQueueIsFull() {
+        // GIVEN
+        stub.handle("generateContent", body -> {
+            sleep(500);
+            return TEXT_RESPONSE;
+        });
+        LLMClient client = client(retries(1, new ConcurrencyLimiter(1, 1, 1, 0)), Duration.ofSeconds(10));
+        CompletableFuture<LLMResponse> first = client.getCompletionAsync(MESSAGES);
+        sleep(100); // first request holds the only permit
+
+        // WHEN
+        LLMResponse second = client.getCompletion(MESSAGES);
+
+        // THEN
+        assertTrue(second.text().startsWith("Communication Error"), second.text());
+        assertEquals("Hello", first.join().text());
+    }
+
+    @Test
+    @DisplayName("Should send a hedged copy of a slow request and return the first answer")
+    void shouldHedgeSlowRequests() {
+        // GIVEN: enough fast answers to know the p95 latency, then one stalled request
+        LLMClient client = client(new CallPolicy(1, Duration.ofMillis(10), Duration.ofMillis(50),
+                CallPolicy.DEFAULT_HEDGE_QUANTILE, new ConcurrencyLimiter()), Duration.ofSeconds(10));
+        for (int i = 0; i < CallPolicy.HEDGE_MIN_SAMPLES; i++) assertEquals("Hello", client.getCompletion(MESSAGES).text());
+        stub.injectFaults("generateContent", StubGeminiServer.Fault.delay(3000));
+        long hedges = Metrics.global().calls("generate").hedges();
+
+        // WHEN
+        long start = System.nanoTime();
+        LLMResponse response = client.getCompletion(MESSAGES);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // THEN
+        assertEquals("Hello", response.text());
+        assertTrue(millis < 2000, "The hedged copy should answer long before the stalled one, took " + millis + " ms");
+        assertEquals(CallPolicy.HEDGE_MIN_SAMPLES + 2, stub.calls("generateContent"));
+        assertEquals(1, Metrics.global().calls("generate").hedges() - hedges);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package me.ather.support;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.server.ChatServer;
+import me.ather.support.server.SessionManager;
+import me.ather.support.service.BillingService;
+import me.ather.support.service.DocumentService;
+import me.ather.support.service.LLMClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Integration tests for the HTTP serving mode.
+ * The model is mocked to report how many user messages it saw, which exposes any history leaking between sessions.
+ */
+class ChatServerTest {
+
+    private ChatServer server;
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        LLMClient llmClient = mock(LLMClient.class);
+        when(llmClient.getCompletion(anyList())).thenReturn(new LLMResponse("TECHNICAL", null));
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> history = invocation.getArgument(1);
+            long userTurns = history.stream().filter(m -> m.role().equals("user")).count();
+            return new LLMResponse("turn " + userTurns, null);
+        });
+        DocumentService docService = mock(DocumentService.class);
+        when(docService.retrieve(anyString())).thenReturn(OrchestratorTest.retrieval("docs"));
+
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE);
+        server = new ChatServer(orchestrator, new SessionManager(), 0);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    private HttpResponse<String> post(String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/chat"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static JsonObject json(HttpResponse<String> response) {
+        return JsonParser.parseString(response.body()).getAsJsonObject();
+    }
+
+    @Test
+    @DisplayName("Should keep conversation history isolated per session")
+    void shouldIsolateSessions() throws Exception {
+        // WHEN
+        post("{\"sessionId\":\"alice\",\"message\":\"hello\"}");
+        HttpResponse<String> aliceSecond = post("{\"sessionId\":\"alice\",\"message\":\"battery?\"}");
+        HttpResponse<String> bobFirst = post("{\"sessionId\":\"bob\",\"message\":\"hi\"}");
+
+        // THEN
+        assertEquals(200, aliceSecond.statusCode());
+        assertEquals("turn 2", json(aliceSecond).get("reply").getAsString());
+        assertEquals("turn 1", json(bobFirst).get("reply").getAsString());
+    }
+
+    @Test
+    @DisplayName("Should serve many sessions concurrently")
+    void shouldHandleConcurrentSessions() {
+        // WHEN
+        List<CompletableFuture<HttpResponse<String>>> calls = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/chat"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"sessionId\":\"s" + i + "\",\"message\":\"hi\"}"))
+                    .build();
+            calls.add(http.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+
+        // THEN
+        for (CompletableFuture<HttpResponse<String>> call : calls) {
+            HttpResponse<String> response = call.join();
+            assertEquals(200, response.statusCode());
+            assertEquals("turn 1", json(response).get("reply").getAsString());
+        }
+    }
+
+    @Test
+    @DisplayName("Should create a session when none is given and reject empty messages")
+    void shouldValidateRequests() throws Exception {
+        // WHEN
+        HttpResponse<String> created = post("{\"message\":\"hello\"}");
+        HttpResponse<String> invalid = post("{\"sessionId\":\"x\"}");
+        HttpResponse<String> objectMessage = post("{\"message\":{\"text\":\"hi\"}}");
+        HttpResponse<String> numericSession = post("{\"sessionId\":42,\"message\":\"hi\"}");
+
+        // THEN
+        assertEquals(200, created.statusCode());
+        assertFalse(json(created).get("sessionId").getAsString().isBlank());
+        assertEquals(400, invalid.statusCode());
+        assertEquals(400, objectMessage.statusCode());
+        assertEquals(400, numericSession.statusCode());
+    }
+
+    @Test
+    @DisplayName("Should answer 503 beyond the turn limit while health checks still pass")
+    void shouldRejectTurnsBeyondLimit() throws Exception {
+        // GIVEN: a server for one turn at a time, busy with a turn that waits for the model
+        CountDownLatch modelCalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LLMClient llmClient = mock(LLMClient.class);
+        when(llmClient.getCompletion(anyList())).thenReturn(new LLMResponse("TECHNICAL", null));
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(invocation -> {
+            modelCalled.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return new LLMResponse("done", null);
+        });
+        DocumentService docService = mock(DocumentService.class);
+        when(docService.retrieve(anyString())).thenReturn(OrchestratorTest.retrieval("docs"));
+        try (ChatServer limited = new ChatServer(new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE), new SessionManager(), 0, 1)) {
+            limited.start();
+            String chatUrl = "http://localhost:" + limited.port() + "/chat";
+            CompletableFuture<HttpResponse<String>> busy = http.sendAsync(HttpRequest.newBuilder(URI.create(chatUrl))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"message\":\"first\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertTrue(modelCalled.await(10, TimeUnit.SECONDS));
+
+            // WHEN
+            HttpResponse<String> rejected = http.send(HttpRequest.newBuilder(URI.create(chatUrl))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"message\":\"second\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> health = http.send(HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + limited.port() + "/health")).build(), HttpResponse.BodyHandlers.ofString());
+            release.countDown();
+
+            // THEN
+            assertEquals(503, rejected.statusCode());
+            assertEquals(200, health.statusCode());
+            assertEquals(200, busy.join().statusCode());
+        }
+    }
+
+    @Test
+    @DisplayName("Should end a failing streamed turn with an error event")
+    void shouldReportStreamFailureAsEvent() throws Exception {
+        // GIVEN: retrieval fails after the event stream has started
+        LLMClient llmClient = mock(LLMClient.class);
+        when(llmClient.getCompletion(anyList())).thenReturn(new LLMResponse("TECHNICAL", null));
+        DocumentService docService = mock(DocumentService.class);
+        when(docService.retrieve(anyString())).thenThrow(new IllegalStateException("index unavailable"));
+        try (ChatServer failing = new ChatServer(new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE), new SessionManager(), 0)) {
+            failing.start();
+
+            // WHEN
+            HttpResponse<String> response = http.send(HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + failing.port() + "/chat?stream=true"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"message\":\"What battery does the Hub-V3 use?\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            // THEN
+            assertEquals(200, response.statusCode());
+            String[] events = response.body().strip().split("\n\n");
+            JsonObject last = JsonParser.parseString(events[events.length - 1].substring("data: ".length())).getAsJsonObject();
+            assertTrue(last.get("error").getAsString().contains("index unavailable"), response.body());
+            assertFalse(last.has("done"));
+        }
+    }
+
+    @Test
+    @DisplayName("Should expose stage latencies in the Prometheus text format")
+    void shouldExposeMetrics() throws Exception {
+        // GIVEN
+        post("{\"sessionId\":\"metrics\",\"message\":\"What battery does the Hub-V3 use?\"}");
+
+        // WHEN
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/metrics")).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        // THEN
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+        assertTrue(response.body().contains("# TYPE support_stage_duration_seconds histogram"));
+        assertTrue(response.body().contains("support_stage_duration_seconds_count{stage=\"generate\"}"));
+        assertTrue(response.body().contains("support_stage_duration_seconds_count{stage=\"turn\"}"));
+    }
+}
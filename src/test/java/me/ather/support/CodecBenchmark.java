@@ -0,0 +1,93 @@
+package me.ather.support;
+
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.service.LLMClient;
+import me.ather.support.service.RequestEncoder;
+import me.ather.support.service.ResponseDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the LLM client's request encoding (the former preparePayload) and response decoding
+ * (the former parseResponse), using recorded Gemini response bodies from {@code src/test/resources/gemini}.
+ *
+ * Run with:
+ * mvn -P benchmarks test-compile exec:exec -Djmh.args="CodecBenchmark -prof gc"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private byte[] textBody;
+    private byte[] functionCallBody;
+    private byte[] embeddingBody;
+    private byte[] batchEmbeddingBody;
+    private final List<String> batchTexts = new ArrayList<>();
+
+    @State(Scope.Thread)
+    public static class History {
+        @Param({"4", "32"})
+        public int messages;
+
+        List<ChatMessage> history;
+
+        @Setup(Level.Trial)
+        public void build() {
+            history = new ArrayList<>();
+            history.add(new ChatMessage("system", "You are Agent A (Technical Specialist). Answer only from the documentation."));
+            for (int i = 1; i < messages; i++) {
+                history.add(i % 2 == 1
+                        ? new ChatMessage("user", "My hub shows \"Error Code 404\" after the firmware update, what should I do? (" + i + ")")
+                        : new ChatMessage("assistant", "Press the 'Reset' button for 5 seconds, then re-pair the sensor from the app."));
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void load() {
+        textBody = BenchmarkFixtures.recordedBody("generate-content-text.json");
+        functionCallBody = BenchmarkFixtures.recordedBody("generate-content-function-call.json");
+        embeddingBody = BenchmarkFixtures.recordedBody("embed-content.json");
+        batchEmbeddingBody = BenchmarkFixtures.recordedBody("batch-embed-contents.json");
+        for (int i = 0; i < 16; i++) batchTexts.add(BenchmarkFixtures.docText(i));
+    }
+
+    @Benchmark
+    public byte[] encodeCompletion(History history) {
+        return RequestEncoder.completion(history.history);
+    }
+
+    @Benchmark
+    public byte[] encodeBatchEmbedding() {
+        return RequestEncoder.batchEmbedding(batchTexts, "models/" + LLMClient.EMBEDDING_MODEL);
+    }
+
+    @Benchmark
+    public LLMResponse decodeTextCompletion() {
+        return ResponseDecoder.completion(new ByteArrayInputStream(textBody));
+    }
+
+    @Benchmark
+    public LLMResponse decodeFunctionCall() {
+        return ResponseDecoder.completion(new ByteArrayInputStream(functionCallBody));
+    }
+
+    @Benchmark
+    public float[] decodeEmbedding() throws IOException {
+        return ResponseDecoder.embedding(new ByteArrayInputStream(embeddingBody));
+    }
+
+    @Benchmark
+    public List<float[]> decodeBatchEmbeddings() throws IOException {
+        return ResponseDecoder.batchEmbeddings(new ByteArrayInputStream(batchEmbeddingBody));
+    }
+}
@@ -0,0 +1,178 @@
+package me.ather.support;
+
+import me.ather.support.metrics.Metrics;
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.model.ToolDefinition;
+import me.ather.support.service.CallPolicy;
+import me.ather.support.service.ContextCache;
+import me.ather.support.service.LLMClient;
+import me.ather.support.service.ToolRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for prompt-prefix caching through cachedContents against the stub Gemini API:
+ * registration after repeated use, reference by name, TTL extension and expiry, and the inline fallback.
+ */
+class ContextCacheTest {
+
+    private static final String DOCS = "Hub-V3 battery: CR2032, replace every 12 months. ".repeat(60);
+    private static final List<ChatMessage> PREFIX = List.of(
+            new ChatMessage("system", "You are a Technical Specialist. Use provided docs only: " + DOCS));
+    private static final List<ChatMessage> HISTORY = List.of(new ChatMessage("user", "What battery does it use?"));
+    private static final String TEXT_RESPONSE = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"CR2032\"}]}}],"
+            + "\"usageMetadata\":{\"promptTokenCount\":760,\"candidatesTokenCount\":3,\"cachedContentTokenCount\":%d}}";
+
+    private StubGeminiServer stub;
+    private final Queue<String> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubGeminiServer();
+        stub.handle("generateContent", body -> {
+            requests.add(body);
+            boolean cached = body.contains("\"cachedContent\"");
+            return String.format(TEXT_RESPONSE, cached ? 750 : 0);
+        });
+        stub.handle("POST cachedContents", body -> "{\"name\":\"cachedContents/hub-docs\",\"model\":\"models/"
+                + LLMClient.MODEL + "\"}");
+        stub.handle("PATCH cachedContents", body -> "{\"name\":\"cachedContents/hub-docs\"}");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    private LLMClient client(ContextCache cache) {
+        return new LLMClient(stub.baseUrl(), "test-key", LLMClient.DEFAULT_EMBEDDING_BATCH_SIZE,
+                LLMClient.DEFAULT_EMBEDDING_CONCURRENCY, Duration.ofSeconds(10), new CallPolicy(), cache);
+    }
+
+    private ContextCache cache() {
+        return new ContextCache(Duration.ofSeconds(60), 500, 2, ContextCache.DEFAULT_CAPACITY, clock::get);
+    }
+
+    private static ToolRegistry tools() {
+        ToolRegistry tools = new ToolRegistry();
+        tools.register(new ToolDefinition("initiateRefund", "Opens a refund ticket.", List.of(
+                new ToolDefinition.Parameter("reason", "STRING", "Why the customer wants a refund.", true))),
+                (session, call) -> "ok");
+        return tools;
+    }
+
+    @Test
+    @DisplayName("Should register a recurring prefix once and then reference it by name")
+    void shouldReferencePrefixByName() {
+        // GIVEN
+        ContextCache cache = cache();
+        LLMClient client = client(cache);
+        ToolRegistry tools = tools();
+        long cachedTokens = Metrics.global().calls("generate").cachedTokens();
+
+        // WHEN: the second use registers the prefix, later uses find it live
+        client.getCompletion(PREFIX, HISTORY, tools, List.of());
+        client.getCompletion(PREFIX, HISTORY, tools, List.of());
+        await(() -> cache.stats().live() == 1);
+        LLMResponse first = client.getCompletion(PREFIX, HISTORY, tools, List.of());
+        LLMResponse second = client.getCompletion(PREFIX, HISTORY, tools, List.of());
+
+        // THEN
+        assertEquals("CR2032", first.text());
+        assertEquals("CR2032", second.text());
+        assertEquals(1, stub.calls("POST cachedContents"));
+        List<String> bodies = List.copyOf(requests);
+        assertTrue(bodies.get(0).contains(DOCS) && bodies.get(0).contains("\"tools\""), "Inline before registration.");
+        String cachedBody = bodies.get(3);
+        assertTrue(cachedBody.startsWith("{\"cachedContent\":\"cachedContents/hub-docs\""), cachedBody);
+        assertFalse(cachedBody.contains("Technical Specialist") || cachedBody.contains("\"tools\""), cachedBody);
+        assertTrue(cachedBody.contains("What battery does it use?"));
+        assertTrue(cachedBody.length() * 10 < bodies.get(0).length(),
+                "Input should shrink from " + bodies.get(0).length() + " to " + cachedBody.length() + " bytes");
+        assertEquals(1500, Metrics.global().calls("generate").cachedTokens() - cachedTokens);
+        ContextCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(2, stats.misses());
+    }
+
+    @Test
+    @DisplayName("Should extend the TTL of a prefix in use and register it again once it expired")
+    void shouldTrackTtl() {
+        // GIVEN: a registered prefix
+        ContextCache cache = cache();
+        LLMClient client = client(cache);
+        client.getCompletion(PREFIX, HISTORY, null, List.of());
+        client.getCompletion(PREFIX, HISTORY, null, List.of());
+        await(() -> cache.stats().live() == 1);
+
+        // WHEN: used in the second half of its TTL (t = 40 s), then left idle past the extended TTL (t = 100 s)
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(40));
+        client.getCompletion(PREFIX, HISTORY, null, List.of());
+        await(() -> cache.stats().refreshes() == 1);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(55));
+        boolean liveBeforeExpiry = cache.stats().live() == 1;
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        String afterExpiry = client.getCompletion(PREFIX, HISTORY, null, List.of()).text();
+
+        // THEN
+        assertEquals(1, stub.calls("PATCH cachedContents"));
+        assertTrue(liveBeforeExpiry, "The extension should keep the cache live past its first TTL.");
+        assertEquals("CR2032", afterExpiry);
+        List<String> bodies = List.copyOf(requests);
+        assertTrue(bodies.get(2).contains("\"cachedContent\""));
+        assertTrue(bodies.get(3).contains(DOCS), "An expired cache must not be referenced.");
+        await(() -> stub.calls("POST cachedContents") == 2);
+    }
+
+    @Test
+    @DisplayName("Should send the prefix inline when the API rejects the cache or it is too small")
+    void shouldFallBackToInlinePrefix() {
+        // GIVEN
+        ContextCache cache = cache();
+        LLMClient client = client(cache);
+        List<ChatMessage> shortPrefix = List.of(new ChatMessage("system", "You are a Billing Specialist."));
+        for (int i = 0; i < 3; i++) client.getCompletion(shortPrefix, HISTORY, null, List.of());
+        client.getCompletion(PREFIX, HISTORY, null, List.of());
+        client.getCompletion(PREFIX, HISTORY, null, List.of());
+        await(() -> cache.stats().live() == 1);
+        stub.injectFaults("generateContent", StubGeminiServer.Fault.status(404));
+
+        // WHEN
+        LLMResponse response = client.getCompletion(PREFIX, HISTORY, null, List.of());
+
+        // THEN
+        assertEquals("CR2032", response.text());
+        assertEquals(1, stub.calls("POST cachedContents"), "Prefixes below the minimum size are never registered.");
+        assertEquals(7, stub.calls("generateContent"));
+        List<String> bodies = List.copyOf(requests);
+        assertTrue(bodies.get(bodies.size() - 1).contains(DOCS), "The retry carries the prefix inline.");
+        assertEquals(0, cache.stats().live());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met within 5 s");
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package me.ather.support;
+
+import me.ather.support.model.ChatMessage;
+import me.ather.support.store.ConversationStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Recovery time of the conversation log: writes two messages for each of many sessions, then measures how long
+ * reopening the store takes to rebuild its session index and load one history.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dmain.class=me.ather.support.ConversationStoreReport -Dexec.args="100000"
+ */
+public class ConversationStoreReport {
+
+    public static void main(String[] args) throws Exception {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path dir = Files.createTempDirectory("conversation-store-report");
+        try {
+            long writeStart = System.nanoTime();
+            try (ConversationStore store = open(dir)) {
+                for (int i = 0; i < sessionCount; i++) {
+                    store.append("session-" + i, new ChatMessage("user", "My Hub-V3 shows error E-" + i + " after the update"));
+                    store.append("session-" + i, new ChatMessage("assistant", "Please restart the hub and send the log."));
+                }
+            }
+            long writeMillis = (System.nanoTime() - writeStart) / 1_000_000;
+
+            long start = System.nanoTime();
+            int recovered;
+            List<ChatMessage> sample;
+            try (ConversationStore store = open(dir)) {
+                recovered = store.sessionCount();
+                sample = store.load("session-" + sessionCount / 2);
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf("sessions=%d messages=%d%n", sessionCount, 2 * sessionCount);
+            System.out.printf("write    %6d ms%n", writeMillis);
+            System.out.printf("recover  %6d ms (%d sessions, sample history of %d messages)%n", millis, recovered, sample.size());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static ConversationStore open(Path dir) throws IOException {
+        return ConversationStore.open(dir, ConversationStore.DEFAULT_SEGMENT_BYTES, ConversationStore.DEFAULT_RETENTION, false);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package me.ather.support;
+
+import me.ather.support.model.ChatMessage;
+import me.ather.support.server.SessionManager;
+import me.ather.support.store.ConversationStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the write-ahead conversation log: lazy reload through SessionManager, torn writes,
+ * compaction of ended sessions and recovery of many sessions. Recovery time is measured by ConversationStoreReport.
+ */
+class ConversationStoreTest {
+
+    private static final String PADDING = " ".repeat(100);
+
+    @TempDir
+    Path tempDir;
+
+    private ConversationStore open(int segmentBytes) throws Exception {
+        return ConversationStore.open(tempDir, segmentBytes, ConversationStore.DEFAULT_RETENTION, false);
+    }
+
+    @Test
+    @DisplayName("Should restore a conversation lazily on its next message after a restart")
+    void shouldRestoreSessionsAfterRestart() throws Exception {
+        // GIVEN
+        List<ChatMessage> messages = List.of(new ChatMessage("user", "My Hub-V3 ✓ won't pair"),
+                new ChatMessage("assistant", "Hold the button for 5 s."), new ChatMessage("tool", ""));
+        try (SessionManager sessions = new SessionManager(Duration.ofMinutes(1), 10, System::nanoTime, false,
+                open(ConversationStore.DEFAULT_SEGMENT_BYTES))) {
+            ConversationSession session = sessions.getOrCreate("customer-1");
+            messages.forEach(session::append);
+            sessions.getOrCreate("customer-2").append(new ChatMessage("user", "Other"));
+            sessions.remove("customer-2");
+        }
+
+        // WHEN
+        try (ConversationStore store = open(ConversationStore.DEFAULT_SEGMENT_BYTES);
+             SessionManager sessions = new SessionManager(Duration.ofMinutes(1), 10, System::nanoTime, false, store)) {
+            boolean knownAtBoot = store.contains("customer-1");
+            ConversationSession restored = sessions.getOrCreate("customer-1");
+            restored.append(new ChatMessage("user", "Still broken"));
+
+            // THEN
+            assertTrue(knownAtBoot);
+            assertEquals(4, restored.history().size());
+            assertEquals(messages, restored.history().subList(0, 3));
+            assertTrue(sessions.getOrCreate("customer-2").history().isEmpty(), "An ended session starts over.");
+            assertEquals(4, store.load("customer-1").size());
+        }
+    }
+
+    @Test
+    @DisplayName("Should drop a torn record on recovery and keep appending after the last good one")
+    void shouldRecoverFromTornRecord() throws Exception {
+        // GIVEN
+        try (ConversationStore store = open(64 * 1024)) {
+            store.append("s", new ChatMessage("user", "first"));
+            store.append("s", new ChatMessage("assistant", "second"));
+            store.append("s", new ChatMessage("user", "third-message"));
+        }
+        Path segment;
+        try (var files = Files.list(tempDir)) {
+            segment = files.filter(file -> file.getFileName().toString().startsWith("segment-")).findFirst().orElseThrow();
+        }
+        byte[] bytes = Files.readAllBytes(segment);
+        int content = indexOf(bytes, "third-message".getBytes(StandardCharsets.UTF_8));
+        bytes[content] ^= 0x7F; // corrupts the last record as a partial write would
+        Files.write(segment, bytes);
+
+        // WHEN
+        try (ConversationStore store = open(64 * 1024)) {
+            store.append("s", new ChatMessage("user", "retry"));
+        }
+
+        // THEN
+        try (ConversationStore store = open(64 * 1024)) {
+            assertEquals(List.of("first", "second", "retry"),
+                    store.load("s").stream().map(ChatMessage::content).toList());
+        }
+    }
+
+    @Test
+    @DisplayName("Should reclaim segments of ended sessions and keep live histories in order")
+    void shouldCompactEndedSessions() throws Exception {
+        // GIVEN: interleaved sessions over many small segments, three quarters of them ended
+        try (ConversationStore store = open(4096)) {
+            for (int turn = 0; turn < 10; turn++) {
+                for (int s = 0; s < 20; s++) store.append("s" + s, new ChatMessage("user", "turn " + turn + " of s" + s + PADDING));
+            }
+            for (int s = 0; s < 15; s++) store.end("s" + s);
+            store.append("s0", new ChatMessage("user", "new conversation"));
+            int before = store.segmentCount();
+
+            // WHEN
+            int deleted = store.compact();
+
+            // THEN
+            assertTrue(deleted > 0, "Sealed segments should be rewritten");
+            assertTrue(store.segmentCount() < before / 2, store.segmentCount() + " of " + before + " segments left");
+        }
+        try (ConversationStore store = open(4096)) {
+            assertEquals(6, store.sessionCount());
+            List<String> history = store.load("s17").stream().map(ChatMessage::content).toList();
+            assertEquals(10, history.size());
+            for (int turn = 0; turn < 10; turn++) assertEquals("turn " + turn + " of s17" + PADDING, history.get(turn));
+            assertEquals(List.of("new conversation"), store.load("s0").stream().map(ChatMessage::content).toList());
+            assertFalse(store.contains("s5"));
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep every appended message when appends and ends run between compaction slices")
+    void shouldCompactWhileAppending() throws Exception {
+        // GIVEN: more live data than one copy slice, and three quarters of the sealed bytes garbage
+        String padding = " ".repeat(2000);
+        int sessionCount = 40;
+        try (ConversationStore store = open(64 << 10)) {
+            for (int turn = 0; turn < 20; turn++) {
+                for (int s = 0; s < sessionCount; s++) store.append("s" + s, new ChatMessage("user", "turn " + turn + padding));
+            }
+            for (int s = 0; s < sessionCount; s++) if (s % 4 != 0) store.end("s" + s);
+
+            // WHEN: the remaining sessions keep talking, and s0 ends and starts over, while the store compacts
+            CompletableFuture<Void> traffic = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int turn = 20; turn < 40; turn++) {
+                        for (int s = 0; s < sessionCount; s += 4) store.append("s" + s, new ChatMessage("user", "turn " + turn + padding));
+                        if (turn == 30) store.end("s0");
+                        store.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            int deleted = store.compact();
+            traffic.join();
+            deleted += store.compact();
+
+            // THEN
+            assertTrue(deleted > 0, "Sealed segments should be rewritten");
+        }
+        try (ConversationStore store = open(64 << 10)) {
+            assertEquals(sessionCount / 4, store.sessionCount());
+            assertEquals(9, store.load("s0").size(), "Only the turns after the end belong to the new conversation");
+            for (int s = 4; s < sessionCount; s += 4) {
+                List<String> history = store.load("s" + s).stream().map(ChatMessage::content).toList();
+                assertEquals(40, history.size(), "s" + s);
+                for (int turn = 0; turn < 40; turn++) assertEquals("turn " + turn + padding, history.get(turn));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should recover the index of many sessions without loading their messages")
+    void shouldRecoverManySessions() throws Exception {
+        // GIVEN
+        int sessionCount = 2_000;
+        try (ConversationStore store = open(ConversationStore.DEFAULT_SEGMENT_BYTES)) {
+            for (int i = 0; i < sessionCount; i++) {
+                store.append("session-" + i, new ChatMessage("user", "My Hub-V3 shows error E-" + i + " after the update"));
+                store.append("session-" + i, new ChatMessage("assistant", "Please restart the hub and send the log."));
+            }
+        }
+
+        // WHEN
+        try (ConversationStore store = open(ConversationStore.DEFAULT_SEGMENT_BYTES)) {
+            int recovered = store.sessionCount();
+            List<ChatMessage> sample = store.load("session-1777");
+
+            // THEN
+            assertEquals(sessionCount, recovered);
+            assertEquals(2, sample.size());
+            assertEquals("My Hub-V3 shows error E-1777 after the update", sample.get(0).content());
+        }
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) if (haystack[i + j] != needle[j]) continue outer;
+            return i;
+        }
+        throw new AssertionError("not found");
+    }
+}
@@ -0,0 +1,162 @@
+package me.ather.support;
+
+import me.ather.support.ingest.DirectoryIngestor;
+import me.ather.support.ingest.TextChunker;
+import me.ather.support.service.DocumentService;
+import me.ather.support.service.LLMClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for incremental directory ingestion.
+ * Files in a temporary directory are ingested into a DocumentService whose embeddings are mocked;
+ * queries use exact error codes so they are resolved by the lexical index.
+ */
+@ExtendWith(MockitoExtension.class)
+class DirectoryIngestorTest {
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    private LLMClient llmClient;
+
+    private final AtomicInteger embeddedTexts = new AtomicInteger();
+    private DocumentService docService;
+
+    @BeforeEach
+    void setUp() {
+        when(llmClient.getEmbeddings(anyList())).thenAnswer(invocation -> {
+            List<float[]> vectors = new ArrayList<>();
+            for (Object ignored : invocation.<List<?>>getArgument(0)) {
+                embeddedTexts.incrementAndGet();
+                vectors.add(new float[]{1f, 0f});
+            }
+            return vectors;
+        });
+        // Queries point away from every document, so they are ranked by their lexical match
+        lenient().when(llmClient.getEmbedding(anyString())).thenReturn(new float[]{-1f, 0f});
+        docService = new DocumentService(llmClient);
+        embeddedTexts.set(0); // Built-in docs
+    }
+
+    @Test
+    @DisplayName("Should embed each distinct chunk once and skip unchanged files on resync")
+    void shouldIngestIncrementally() throws Exception {
+        // GIVEN
+        String boilerplate = "Warranty: contact support for replacement units.";
+        Files.writeString(dir.resolve("siren.md"), "Error Code 701: the siren is offline.\n\n" + boilerplate);
+        Files.writeString(dir.resolve("keypad.txt"), "Error Code 702: keypad battery low.\n\n" + boilerplate);
+        Files.writeString(dir.resolve("photo.png"), "not a manual");
+        DirectoryIngestor ingestor = new DirectoryIngestor(docService, dir, new TextChunker(60, 10));
+
+        // WHEN
+        DirectoryIngestor.SyncResult first = ingestor.sync();
+        DirectoryIngestor.SyncResult unchanged = ingestor.sync();
+
+        // THEN
+        assertEquals(new DirectoryIngestor.SyncResult(2, 0, 4, 3), first);
+        assertEquals(3, embeddedTexts.get(), "The shared warranty chunk is embedded once.");
+        assertEquals(new DirectoryIngestor.SyncResult(0, 0, 0, 0), unchanged);
+        assertEquals(Set.of("keypad.txt", "siren.md"), ingestor.indexedFiles());
+        assertTrue(docService.findRelevantContext("Error Code 701").startsWith("Error Code 701"));
+    }
+
+    @Test
+    @DisplayName("Should re-embed only changed chunks and drop deleted files")
+    void shouldApplyUpdatesAndDeletes() throws Exception {
+        // GIVEN
+        Path siren = dir.resolve("siren.md");
+        Path keypad = dir.resolve("keypad.md");
+        Files.writeString(siren, "Error Code 701: the siren is offline.\n\nReset: hold the button for ten seconds.");
+        Files.writeString(keypad, "Error Code 702: keypad battery low.");
+        DirectoryIngestor ingestor = new DirectoryIngestor(docService, dir, new TextChunker(60, 10));
+        ingestor.sync();
+        int before = embeddedTexts.get();
+
+        // WHEN
+        Files.writeString(siren, "Error Code 703: the siren is offline.\n\nReset: hold the button for ten seconds.");
+        Files.delete(keypad);
+        DirectoryIngestor.SyncResult result = ingestor.sync();
+
+        // THEN
+        assertEquals(new DirectoryIngestor.SyncResult(1, 1, 2, 1), result);
+        assertEquals(before + 1, embeddedTexts.get());
+        assertEquals(Set.of("siren.md"), ingestor.indexedFiles());
+        assertEquals(4 + 2, docService.getDocumentCount());
+        assertTrue(docService.findRelevantContext("Error Code 703").startsWith("Error Code 703"));
+    }
+
+    @Test
+    @DisplayName("Should retry chunks whose embedding failed on the next sync")
+    void shouldRetryFailedEmbeddings() throws Exception {
+        // GIVEN: the embedding API fails once
+        Files.writeString(dir.resolve("siren.md"), "Error Code 701: the siren is offline.");
+        DirectoryIngestor ingestor = new DirectoryIngestor(docService, dir, new TextChunker(60, 10));
+        doReturn(List.of(new float[0])).doAnswer(invocation -> List.of(new float[]{1f, 0f}))
+                .when(llmClient).getEmbeddings(anyList());
+
+        // WHEN
+        DirectoryIngestor.SyncResult failed = ingestor.sync();
+        String duringOutage = docService.findRelevantContext("Error Code 701");
+        DirectoryIngestor.SyncResult retried = ingestor.sync();
+
+        // THEN
+        assertEquals(new DirectoryIngestor.SyncResult(1, 0, 1, 0), failed);
+        assertFalse(duringOutage.contains("701"), duringOutage);
+        assertEquals(new DirectoryIngestor.SyncResult(1, 0, 1, 1), retried, "The unchanged file must be read again.");
+        assertTrue(docService.findRelevantContext("Error Code 701").startsWith("Error Code 701"));
+        assertEquals(new DirectoryIngestor.SyncResult(0, 0, 0, 0), ingestor.sync());
+    }
+
+    @Test
+    @DisplayName("Should apply file changes picked up by the watcher")
+    void shouldWatchDirectory() throws Exception {
+        // GIVEN
+        DirectoryIngestor ingestor = new DirectoryIngestor(docService, dir);
+        ingestor.sync();
+        ingestor.watch();
+
+        try {
+            // WHEN
+            Path nested = Files.createDirectories(dir.resolve("hub"));
+            Files.writeString(nested.resolve("errors.md"), "Error Code 801: the gateway lost its uplink.");
+
+            // THEN
+            awaitTrue(() -> ingestor.indexedFiles().contains(Path.of("hub", "errors.md").toString()));
+            assertTrue(docService.findRelevantContext("Error Code 801").startsWith("Error Code 801"));
+
+            Files.delete(nested.resolve("errors.md"));
+            awaitTrue(() -> ingestor.indexedFiles().isEmpty());
+            assertEquals(4, docService.getDocumentCount());
+        } finally {
+            ingestor.close();
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the watcher");
+            Thread.sleep(50);
+        }
+    }
+}
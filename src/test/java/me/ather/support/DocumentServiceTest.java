@@ -9,9 +9,19 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
 
 /**
  * Unit tests for DocumentService focusing on RAG logic.
@@ -31,10 +41,12 @@ class DocumentServiceTest {
      */
     @BeforeEach
     void setUp() {
-        // Return a vector with at least one value to allow similarity calculation
+        // Return a vector with at least one value to allow similarity calculation.
+        // The knowledge base is bulk-loaded through the batched embedding API.
         float[] baseVector = new float[768];
         baseVector[0] = 0.5f;
-        when(mockLlmClient.getEmbedding(anyString())).thenReturn(baseVector);
+        when(mockLlmClient.getEmbeddings(anyList())).thenAnswer(invocation ->
+                Collections.nCopies(invocation.<List<String>>getArgument(0).size(), baseVector));
 
         documentService = new DocumentService(mockLlmClient);
     }
@@ -93,4 +105,128 @@ class DocumentServiceTest {
         // THEN
         assertEquals("No specific technical docs found for this query.", result);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Should return the fallback message when the query shares only stopwords with the documents")
+    void shouldNotMatchOnStopwordsAlone() {
+        // GIVEN: "what", "is" and "the" occur in the knowledge base, "weather" does not
+        String query = "what is the weather?";
+        float[] weakVector = new float[768];
+        weakVector[0] = -1.0f;
+        when(mockLlmClient.getEmbedding(query)).thenReturn(weakVector);
+
+        // WHEN
+        String result = documentService.findRelevantContext(query);
+
+        // THEN
+        assertEquals("No specific technical docs found for this query.", result);
+    }
+
+    @Test
+    @DisplayName("Should answer exact-token queries lexically without an embedding call")
+    void shouldSkipEmbeddingForConfidentLexicalHit() {
+        // WHEN
+        String result = documentService.findRelevantContext("Error Code 501");
+
+        // THEN
+        assertTrue(result.startsWith("Troubleshooting Errors"), result);
+        assertFalse(result.contains("---"), "Only the matching document should be returned.");
+        verify(mockLlmClient, never()).getEmbedding(anyString());
+        assertEquals(1, documentService.getEmbeddingsSkipped());
+    }
+
+    @Test
+    @DisplayName("Should fuse lexical hits with the vector ranking when vectors miss")
+    void shouldFuseLexicalAndVectorResults() {
+        // GIVEN: the embedding points away from every document
+        String query = "Which protocol and range does it support?";
+        float[] weakVector = new float[768];
+        weakVector[0] = -1.0f;
+        when(mockLlmClient.getEmbedding(query)).thenReturn(weakVector);
+
+        // WHEN
+        String result = documentService.findRelevantContext(query);
+
+        // THEN
+        assertTrue(result.contains("Zigbee 3.0"), result);
+        assertEquals(0, documentService.getEmbeddingsSkipped());
+    }
+
+    @Test
+    @DisplayName("Should replace and remove sources, embedding each new snippet once")
+    void shouldUpdateSourcesIncrementally() {
+        // GIVEN
+        String shared = "Safety: unplug the Hub-V3 before opening the case.";
+        documentService.updateSources(Map.of(
+                "a.md", List.of("Error Code 701 means the siren is offline.", shared),
+                "b.md", List.of(shared)), Set.of());
+        clearInvocations(mockLlmClient);
+        float[] awayVector = new float[768];
+        awayVector[0] = -1.0f;
+        when(mockLlmClient.getEmbedding(anyString())).thenReturn(awayVector); // Rank by the lexical match only
+
+        // WHEN
+        DocumentService.Update update = documentService.updateSources(
+                Map.of("a.md", List.of("Error Code 702 means the siren is offline.", shared)), Set.of("b.md"));
+
+        // THEN
+        assertEquals(new DocumentService.Update(1, Set.of()), update);
+        verify(mockLlmClient).getEmbeddings(List.of("Error Code 702 means the siren is offline."));
+        assertEquals(6, documentService.getDocumentCount(), "4 built-in docs + 2 distinct snippets");
+        assertTrue(documentService.findRelevantContext("Error Code 702").startsWith("Error Code 702"));
+        assertFalse(documentService.findRelevantContext("Error Code 701").contains("701"));
+    }
+
+    @Test
+    @DisplayName("Should keep results consistent across many updates as deleted snippets are merged away")
+    void shouldStayConsistentAcrossManyUpdates() {
+        // GIVEN
+        documentService.updateSources(Map.of("pinned.md", List.of("Error Code 650 means the chime is muted.")), Set.of());
+        float[] awayVector = new float[768];
+        awayVector[0] = -1.0f;
+        when(mockLlmClient.getEmbedding(anyString())).thenReturn(awayVector); // Rank by the lexical match only
+
+        // WHEN: every update replaces the log and adds one more note
+        for (int i = 0; i < 40; i++) {
+            documentService.updateSources(Map.of(
+                    "log.md", List.of("Error Code " + (800 + i) + " means the relay is stuck."),
+                    "note" + i + ".md", List.of("Note " + i + ": the relay clicks twice.")), Set.of());
+        }
+        clearInvocations(mockLlmClient);
+        documentService.updateSources(Map.of("copy.md", List.of("Error Code 650 means the chime is muted.")), Set.of());
+
+        // THEN
+        verify(mockLlmClient, never()).getEmbeddings(anyList()); // The pinned vector is found wherever it was merged
+        assertEquals(4 + 1 + 1 + 40, documentService.getDocumentCount());
+        assertTrue(documentService.findRelevantContext("Error Code 839").startsWith("Error Code 839"));
+        assertFalse(documentService.findRelevantContext("Error Code 838").contains("838"));
+        assertTrue(documentService.findRelevantContext("Error Code 650").startsWith("Error Code 650"));
+    }
+
+    @Test
+    @DisplayName("Should keep serving queries from the previous snapshot while an update is embedded")
+    void shouldNotBlockQueriesDuringUpdate() throws Exception {
+        // GIVEN: embedding the new manual hangs until released
+        CountDownLatch embedding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockLlmClient.getEmbeddings(argThat(texts -> texts != null && texts.contains("Error Code 900: fan stall.")))).thenAnswer(invocation -> {
+            embedding.countDown();
+            release.await();
+            float[] vector = new float[768];
+            vector[1] = 1f;
+            return List.of(vector);
+        });
+        CompletableFuture<DocumentService.Update> update = CompletableFuture.supplyAsync(() ->
+                documentService.updateSources(Map.of("fan.md", List.of("Error Code 900: fan stall.")), Set.of()));
+        assertTrue(embedding.await(5, TimeUnit.SECONDS));
+
+        // WHEN
+        String during = documentService.findRelevantContext("Error Code 501");
+        release.countDown();
+        update.get(5, TimeUnit.SECONDS);
+
+        // THEN
+        assertTrue(during.startsWith("Troubleshooting Errors"), during);
+        assertTrue(documentService.findRelevantContext("Error Code 900 fan").startsWith("Error Code 900: fan stall."));
+    }
+}
@@ -0,0 +1,120 @@
+package me.ather.support;
+
+import me.ather.support.service.EmbeddingCache;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for EmbeddingCache.
+ * Validates key normalization, LRU eviction, failure handling and single-flight de-duplication.
+ */
+class EmbeddingCacheTest {
+
+    @Test
+    @DisplayName("Should serve trivially different phrasings from one cache entry")
+    void shouldNormalizeKeys() {
+        // GIVEN
+        AtomicInteger loads = new AtomicInteger();
+        EmbeddingCache cache = new EmbeddingCache(text -> {
+            loads.incrementAndGet();
+            return new float[]{1f};
+        }, 10);
+
+        // WHEN
+        float[] first = cache.get("Battery?");
+        float[] second = cache.get("  battery ");
+
+        // THEN
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.stats().hits());
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently used entry when full")
+    void shouldEvictLeastRecentlyUsed() {
+        // GIVEN
+        List<String> loaded = new ArrayList<>();
+        EmbeddingCache cache = new EmbeddingCache(text -> {
+            loaded.add(text);
+            return new float[]{text.length()};
+        }, 2);
+        cache.get("a");
+        cache.get("b");
+        cache.get("a"); // "b" is now the eldest
+
+        // WHEN
+        cache.get("c");
+        cache.get("a");
+        cache.get("b");
+
+        // THEN
+        assertEquals(List.of("a", "b", "c", "b"), loaded);
+        assertEquals(2, cache.stats().evictions());
+        assertEquals(2, cache.stats().size());
+    }
+
+    @Test
+    @DisplayName("Should not cache failed (empty) embeddings")
+    void shouldNotCacheFailures() {
+        // GIVEN
+        AtomicInteger loads = new AtomicInteger();
+        EmbeddingCache cache = new EmbeddingCache(text -> {
+            loads.incrementAndGet();
+            return new float[0];
+        }, 10);
+
+        // WHEN
+        cache.get("query");
+        cache.get("query");
+
+        // THEN
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.stats().size());
+    }
+
+    @Test
+    @DisplayName("Should collapse concurrent misses for the same key into one load")
+    void shouldCoalesceConcurrentMisses() throws Exception {
+        // GIVEN
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        EmbeddingCache cache = new EmbeddingCache(text -> {
+            loads.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new float[]{42f};
+        }, 10);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        // WHEN
+        List<Future<float[]>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) results.add(pool.submit(() -> cache.get("what battery")));
+        while (loads.get() == 0) Thread.onSpinWait();
+        Thread.sleep(100); // Let the followers queue up behind the leader
+        release.countDown();
+
+        // THEN
+        for (Future<float[]> result : results) assertArrayEquals(new float[]{42f}, result.get(5, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(1, loads.get(), "Only one embedding request should be made.");
+        EmbeddingCache.Stats stats = cache.stats();
+        assertEquals(8, stats.misses() + stats.hits() + stats.coalesced());
+        assertEquals(1, stats.misses());
+    }
+}
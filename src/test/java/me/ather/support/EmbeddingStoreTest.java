@@ -0,0 +1,151 @@
+package me.ather.support;
+
+import me.ather.support.ingest.DirectoryIngestor;
+import me.ather.support.retrieval.EmbeddingStore;
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.service.DocumentService;
+import me.ather.support.service.LLMClient;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the persistent, memory-mapped EmbeddingStore.
+ * Validates the round trip through disk and that unchanged documents are never re-embedded.
+ */
+class EmbeddingStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Should round-trip embeddings through the mapped file")
+    void shouldPersistAndReloadEmbeddings() throws Exception {
+        // GIVEN
+        Path file = tempDir.resolve("embeddings.bin");
+        try (EmbeddingStore store = EmbeddingStore.open(file, "model-a")) {
+            store.put("doc one", new float[]{1f, 2f, 3f});
+            store.put("doc two", new float[]{-1f, 0.5f, 0f});
+            store.save();
+        }
+
+        // WHEN
+        try (EmbeddingStore reopened = EmbeddingStore.open(file, "model-a")) {
+            // THEN
+            assertEquals(2, reopened.persistedCount());
+            assertArrayEquals(new float[]{1f, 2f, 3f}, reopened.get("doc one"));
+            assertArrayEquals(new float[]{-1f, 0.5f, 0f}, reopened.get("doc two"));
+            assertNull(reopened.get("doc three"), "Unknown text must be reported as missing.");
+        }
+    }
+
+    @Test
+    @DisplayName("Should ignore a store written by a different embedding model")
+    void shouldInvalidateOnModelChange() throws Exception {
+        // GIVEN
+        Path file = tempDir.resolve("embeddings.bin");
+        try (EmbeddingStore store = EmbeddingStore.open(file, "model-a")) {
+            store.put("doc", new float[]{1f});
+            store.save();
+        }
+
+        // WHEN
+        try (EmbeddingStore reopened = EmbeddingStore.open(file, "model-b")) {
+            // THEN
+            assertEquals(0, reopened.persistedCount());
+            assertNull(reopened.get("doc"));
+        }
+    }
+
+    @Test
+    @DisplayName("Should drop documents that are no longer used when saving")
+    void shouldCompactUnusedEntries() throws Exception {
+        // GIVEN
+        Path file = tempDir.resolve("embeddings.bin");
+        try (EmbeddingStore store = EmbeddingStore.open(file, "m")) {
+            store.put("kept", new float[]{1f, 1f});
+            store.put("removed", new float[]{2f, 2f});
+            store.save();
+        }
+
+        // WHEN
+        try (EmbeddingStore store = EmbeddingStore.open(file, "m")) {
+            assertNotNull(store.get("kept"));
+            assertTrue(store.isDirty(), "An unused entry should make the store dirty.");
+            store.save();
+        }
+
+        // THEN
+        try (EmbeddingStore reopened = EmbeddingStore.open(file, "m")) {
+            assertEquals(1, reopened.persistedCount());
+            assertNull(reopened.get("removed"));
+        }
+    }
+
+    @Test
+    @DisplayName("Should start without any embedding calls when the corpus is unchanged")
+    void shouldSkipEmbeddingOnWarmRestart() throws Exception {
+        // GIVEN: a first start populates the store
+        Path file = tempDir.resolve("embeddings.bin");
+        float[] vector = new float[768];
+        vector[0] = 0.5f;
+        LLMClient firstClient = mock(LLMClient.class);
+        when(firstClient.getEmbeddings(anyList())).thenAnswer(invocation ->
+                Collections.nCopies(invocation.<List<String>>getArgument(0).size(), vector));
+        try (EmbeddingStore store = EmbeddingStore.open(file, LLMClient.EMBEDDING_MODEL)) {
+            new DocumentService(firstClient, new FlatVectorStore(), 2, 0.35, store).persistEmbeddings();
+        }
+        verify(firstClient).getEmbeddings(argThat(texts -> texts.size() == 4));
+        long writtenAt = Files.getLastModifiedTime(file).toMillis();
+
+        // WHEN: the process restarts with the same documents
+        LLMClient secondClient = mock(LLMClient.class);
+        try (EmbeddingStore store = EmbeddingStore.open(file, LLMClient.EMBEDDING_MODEL)) {
+            new DocumentService(secondClient, new FlatVectorStore(), 2, 0.35, store);
+            assertFalse(store.isDirty(), "Nothing new should need saving.");
+        }
+
+        // THEN
+        verifyNoInteractions(secondClient);
+        assertEquals(writtenAt, Files.getLastModifiedTime(file).toMillis(), "An unchanged store must not be rewritten.");
+    }
+
+    @Test
+    @DisplayName("Should keep the embeddings of directory manuals across a restart")
+    void shouldKeepDirectoryEmbeddingsOnRestart() throws Exception {
+        // GIVEN: a first start ingests a manual directory into the store
+        Path file = tempDir.resolve("embeddings.bin");
+        Path manuals = Files.createDirectory(tempDir.resolve("manuals"));
+        Files.writeString(manuals.resolve("siren.md"), "Error Code 701 means the siren is offline.");
+        float[] vector = new float[768];
+        vector[0] = 0.5f;
+        LLMClient firstClient = mock(LLMClient.class);
+        when(firstClient.getEmbeddings(anyList())).thenAnswer(invocation ->
+                Collections.nCopies(invocation.<List<String>>getArgument(0).size(), vector));
+        try (EmbeddingStore store = EmbeddingStore.open(file, LLMClient.EMBEDDING_MODEL)) {
+            DocumentService docService = new DocumentService(firstClient, new FlatVectorStore(), 2, 0.35, store);
+            new DirectoryIngestor(docService, manuals).sync();
+        }
+
+        // WHEN: the process restarts; the service exists before the directory is ingested again
+        LLMClient secondClient = mock(LLMClient.class);
+        try (EmbeddingStore store = EmbeddingStore.open(file, LLMClient.EMBEDDING_MODEL)) {
+            DocumentService docService = new DocumentService(secondClient, new FlatVectorStore(), 2, 0.35, store);
+            new DirectoryIngestor(docService, manuals).sync();
+            assertEquals(5, store.persistedCount());
+        }
+
+        // THEN
+        verifyNoInteractions(secondClient);
+    }
+}
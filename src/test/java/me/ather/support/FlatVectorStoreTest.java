@@ -0,0 +1,92 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.SearchHits;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for FlatVectorStore.
+ * Verifies that the pre-normalized dot-product scan ranks exactly like classic cosine similarity.
+ */
+class FlatVectorStoreTest {
+
+    @Test
+    @DisplayName("Should rank documents identically to reference cosine similarity")
+    void shouldMatchReferenceCosineRanking() {
+        // GIVEN
+        Random random = new Random(42);
+        int dimension = 768;
+        float[][] docs = new float[500][];
+        FlatVectorStore store = new FlatVectorStore();
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = randomVector(random, dimension);
+            store.add(docs[i]);
+        }
+        float[] query = randomVector(random, dimension);
+
+        // WHEN
+        SearchHits hits = store.search(query, 10, -1f);
+
+        // THEN
+        int[] expected = IntStream.range(0, docs.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> cosine(query, docs[i])).reversed())
+                .limit(10)
+                .mapToInt(Integer::intValue)
+                .toArray();
+        assertArrayEquals(expected, hits.ids(), "Top-K order must match the cosine ranking.");
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(cosine(query, docs[hits.ids()[i]]), hits.scores()[i], 1e-4);
+        }
+    }
+
+    @Test
+    @DisplayName("Should exclude results at or below the similarity threshold")
+    void shouldApplyThreshold() {
+        // GIVEN
+        FlatVectorStore store = new FlatVectorStore();
+        store.add(new float[]{1f, 0f});
+        store.add(new float[]{0f, 1f});
+        store.add(new float[]{1f, 1f});
+
+        // WHEN
+        SearchHits hits = store.search(new float[]{2f, 0f}, 5, 0.5f);
+
+        // THEN
+        assertArrayEquals(new int[]{0, 2}, hits.ids());
+    }
+
+    @Test
+    @DisplayName("Should return no hits for an empty or mismatched query vector")
+    void shouldHandleMismatchedQuery() {
+        // GIVEN
+        FlatVectorStore store = new FlatVectorStore();
+        store.add(new float[]{1f, 0f, 0f});
+
+        // WHEN / THEN
+        assertEquals(0, store.search(new float[0], 2, 0f).size());
+        assertEquals(0, new FlatVectorStore().search(new float[]{1f}, 2, 0f).size());
+    }
+
+    private static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) vector[i] = (float) random.nextGaussian();
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
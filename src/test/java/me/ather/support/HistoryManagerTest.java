@@ -0,0 +1,106 @@
+package me.ather.support;
+
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.service.LLMClient;
+import me.ather.support.service.TokenEstimator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the token-budgeted HistoryManager.
+ * Validates that the payload stays flat over long conversations and that summaries are refreshed off the turn path.
+ */
+@ExtendWith(MockitoExtension.class)
+class HistoryManagerTest {
+
+    private static final int BUDGET = 300;
+
+    @Mock
+    private LLMClient llmClient;
+
+    private static void addTurn(ConversationSession session, int turn) {
+        session.append(new ChatMessage("user", "Turn " + turn + ": my Hub-V3 still blinks red after the reset you suggested."));
+        session.append(new ChatMessage("assistant", "Turn " + turn + ": please hold the pairing button for ten seconds and retry."));
+    }
+
+    @Test
+    @DisplayName("Should keep the payload size flat as the conversation grows")
+    void shouldKeepPayloadFlat() {
+        // GIVEN
+        when(llmClient.getCompletionAsync(anyList())).thenReturn(
+                CompletableFuture.completedFuture(new LLMResponse("Customer's Hub-V3 blinks red; reset and re-pairing tried.", null)));
+        HistoryManager manager = new HistoryManager(llmClient, BUDGET, 4);
+        ConversationSession session = new ConversationSession("s1");
+
+        // WHEN
+        int largest = 0;
+        List<ChatMessage> history = null;
+        for (int turn = 0; turn < 200; turn++) {
+            addTurn(session, turn);
+            history = manager.buildHistory(session);
+            largest = Math.max(largest, TokenEstimator.estimate(history));
+        }
+
+        // THEN
+        assertTrue(largest <= BUDGET, "History part of the payload exceeded the budget: " + largest);
+        assertEquals("Summary of the earlier conversation: Customer's Hub-V3 blinks red; reset and re-pairing tried.",
+                history.get(0).content());
+        assertEquals(session.history().get(session.history().size() - 1), history.get(history.size() - 1),
+                "The latest message must always be sent verbatim.");
+        assertTrue(session.summary().coveredMessages() > 300, "Summary should follow the sliding window.");
+    }
+
+    @Test
+    @DisplayName("Should not wait for a pending summary refresh and start only one at a time")
+    void shouldRefreshSummaryInBackground() {
+        // GIVEN
+        CompletableFuture<LLMResponse> pending = new CompletableFuture<>();
+        when(llmClient.getCompletionAsync(anyList())).thenReturn(pending);
+        HistoryManager manager = new HistoryManager(llmClient, BUDGET, 4);
+        ConversationSession session = new ConversationSession("s2");
+
+        // WHEN: turns keep coming while the model is still summarizing
+        for (int turn = 0; turn < 20; turn++) {
+            addTurn(session, turn);
+            manager.buildHistory(session);
+        }
+
+        // THEN
+        verify(llmClient, times(1)).getCompletionAsync(anyList());
+        assertEquals(ConversationSession.Summary.EMPTY, session.summary());
+
+        pending.complete(new LLMResponse("Hub-V3 blinking red.", null));
+        assertEquals("Hub-V3 blinking red.", session.summary().text());
+    }
+
+    @Test
+    @DisplayName("Should keep the previous summary when the refresh fails")
+    void shouldIgnoreFailedSummary() {
+        // GIVEN
+        when(llmClient.getCompletionAsync(anyList())).thenReturn(
+                CompletableFuture.completedFuture(LLMResponse.failure(LLMResponse.Failure.COMMUNICATION, "Communication Error: timeout")));
+        HistoryManager manager = new HistoryManager(llmClient, BUDGET, 4);
+        ConversationSession session = new ConversationSession("s3");
+
+        // WHEN
+        for (int turn = 0; turn < 10; turn++) {
+            addTurn(session, turn);
+            manager.buildHistory(session);
+        }
+
+        // THEN
+        assertEquals(ConversationSession.Summary.EMPTY, session.summary());
+        verify(llmClient, atLeast(2)).getCompletionAsync(anyList());
+    }
+}
@@ -0,0 +1,83 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.HnswIndex;
+import me.ather.support.retrieval.SearchHits;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the approximate HNSW retrieval engine.
+ * Exact search (FlatVectorStore) serves as ground truth for recall checks.
+ */
+class HnswIndexTest {
+
+    @Test
+    @DisplayName("Should reach high recall@10 against exact search on a clustered corpus")
+    void shouldApproximateExactSearch() {
+        // GIVEN
+        Random random = new Random(7);
+        float[][] corpus = HnswRecallReport.clusteredCorpus(random, 3000, 64, 30);
+        HnswIndex hnsw = new HnswIndex(16, 100, 64);
+        FlatVectorStore exact = new FlatVectorStore();
+        for (float[] vector : corpus) {
+            hnsw.add(vector);
+            exact.add(vector);
+        }
+
+        // WHEN
+        double recall = 0;
+        int queries = 100;
+        for (int i = 0; i < queries; i++) {
+            float[] query = HnswRecallReport.perturb(random, corpus[random.nextInt(corpus.length)]);
+            recall += HnswRecallReport.recall(exact.search(query, 10, -1f), hnsw.search(query, 10, -1f));
+        }
+
+        // THEN
+        assertTrue(recall / queries >= 0.9, "Recall@10 should be at least 0.9 but was " + recall / queries);
+    }
+
+    @Test
+    @DisplayName("Should make incrementally inserted vectors immediately searchable")
+    void shouldSupportIncrementalInserts() {
+        // GIVEN
+        Random random = new Random(11);
+        HnswIndex hnsw = new HnswIndex(8, 50, 32);
+        for (int i = 0; i < 500; i++) hnsw.add(HnswRecallReport.randomUnitVector(random, 32));
+        float[] late = HnswRecallReport.randomUnitVector(random, 32);
+
+        // WHEN
+        int id = hnsw.add(late);
+        SearchHits hits = hnsw.search(late, 1, 0.5f);
+
+        // THEN
+        assertEquals(500, id);
+        assertArrayEquals(new int[]{500}, hits.ids());
+        assertEquals(1f, hits.scores()[0], 1e-5);
+    }
+
+    @Test
+    @DisplayName("Should honour the threshold and return results best first")
+    void shouldApplyThresholdAndOrdering() {
+        // GIVEN
+        HnswIndex hnsw = new HnswIndex();
+        hnsw.add(new float[]{1f, 0f});
+        hnsw.add(new float[]{0f, 1f});
+        hnsw.add(new float[]{1f, 1f});
+
+        // WHEN
+        SearchHits hits = hnsw.search(new float[]{1f, 0.1f}, 3, 0.5f);
+
+        // THEN
+        assertArrayEquals(new int[]{0, 2}, hits.ids());
+        float[] sorted = hits.scores().clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted[1], hits.scores()[0]);
+        assertEquals(0, hnsw.search(new float[3], 3, 0f).size(), "Mismatched dimension must match nothing.");
+    }
+}
@@ -0,0 +1,108 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.HnswIndex;
+import me.ather.support.retrieval.SearchHits;
+
+import java.util.Random;
+
+/**
+ * Recall-vs-latency report for the HNSW engine against exact search on a synthetic clustered corpus.
+ * Use it to pick M / efConstruction / efSearch for a latency SLO.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dmain.class=me.ather.support.HnswRecallReport -Dexec.args="100000 768"
+ */
+public class HnswRecallReport {
+    private static final int K = 10;
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) {
+        int corpusSize = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 768;
+        Random random = new Random(1);
+
+        float[][] corpus = clusteredCorpus(random, corpusSize, dimension, Math.max(10, corpusSize / 200));
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) queries[i] = perturb(random, corpus[random.nextInt(corpusSize)]);
+
+        FlatVectorStore exact = new FlatVectorStore();
+        for (float[] vector : corpus) exact.add(vector);
+        SearchHits[] truth = new SearchHits[QUERIES];
+        long exactNanos = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            long start = System.nanoTime();
+            truth[i] = exact.search(queries[i], K, -1f);
+            exactNanos += System.nanoTime() - start;
+        }
+
+        System.out.printf("corpus=%d dim=%d k=%d queries=%d%n", corpusSize, dimension, K, QUERIES);
+        System.out.printf("exact scan: %.3f ms/query%n%n", exactNanos / 1e6 / QUERIES);
+        System.out.printf("%4s %8s %8s %10s %12s %12s%n", "M", "efConst", "efSearch", "build(s)", "recall@" + K, "ms/query");
+
+        for (int m : new int[]{8, 16, 32}) {
+            for (int efConstruction : new int[]{100, 200}) {
+                HnswIndex hnsw = new HnswIndex(m, efConstruction, K);
+                long buildStart = System.nanoTime();
+                for (float[] vector : corpus) hnsw.add(vector);
+                double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+
+                for (int efSearch : new int[]{16, 32, 64, 128, 256}) {
+                    hnsw.setEfSearch(efSearch);
+                    double recall = 0;
+                    long nanos = 0;
+                    for (int i = 0; i < QUERIES; i++) {
+                        long start = System.nanoTime();
+                        SearchHits approx = hnsw.search(queries[i], K, -1f);
+                        nanos += System.nanoTime() - start;
+                        recall += recall(truth[i], approx);
+                    }
+                    System.out.printf("%4d %8d %8d %10.2f %12.4f %12.3f%n",
+                            m, efConstruction, efSearch, buildSeconds, recall / QUERIES, nanos / 1e6 / QUERIES);
+                }
+            }
+        }
+    }
+
+    /** Fraction of the exact top-K ids that the approximate search also returned. */
+    static double recall(SearchHits truth, SearchHits approx) {
+        if (truth.size() == 0) return 1.0;
+        int found = 0;
+        for (int expected : truth.ids()) {
+            for (int actual : approx.ids()) {
+                if (expected == actual) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return (double) found / truth.size();
+    }
+
+    /** Gaussian clusters around random centroids, mimicking topic structure of real embeddings. */
+    static float[][] clusteredCorpus(Random random, int size, int dimension, int clusters) {
+        float[][] centroids = new float[clusters][];
+        for (int c = 0; c < clusters; c++) centroids[c] = randomUnitVector(random, dimension);
+        float[][] corpus = new float[size][];
+        for (int i = 0; i < size; i++) corpus[i] = perturb(random, centroids[random.nextInt(clusters)]);
+        return corpus;
+    }
+
+    static float[] perturb(Random random, float[] base) {
+        float[] vector = new float[base.length];
+        double noise = 1.0 / Math.sqrt(base.length);
+        for (int i = 0; i < base.length; i++) vector[i] = base[i] + (float) (random.nextGaussian() * noise);
+        return vector;
+    }
+
+    static float[] randomUnitVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        double norm = 0;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < dimension; i++) vector[i] /= (float) Math.sqrt(norm);
+        return vector;
+    }
+}
@@ -0,0 +1,145 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.service.DocumentService;
+import me.ather.support.service.LLMClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hit-rate and latency report for hybrid (BM25 + vector, fused by reciprocal rank) against vector-only retrieval
+ * on a fixture corpus of device troubleshooting snippets.
+ *
+ * Embeddings come from a local stand-in model that, like real embedding models, captures topics and synonyms
+ * but not exact identifiers: every word maps to a concept vector and digits are ignored.
+ * Two query sets are measured: exact error codes ("Error Code 517") and paraphrases using synonyms that never
+ * occur in the documents. Each embedding call is charged a simulated round trip.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dmain.class=me.ather.support.HybridRetrievalReport -Dexec.args="30"
+ */
+public class HybridRetrievalReport {
+    private static final int DIMENSION = 64;
+
+    static final String[] COMPONENTS = {"thermostat", "doorbell", "camera", "siren", "keypad", "lock",
+            "plug", "switch", "detector", "sensor", "hub", "bridge"};
+    static final String[] ISSUES = {"offline", "battery", "pairing", "firmware"};
+
+    /** Query-side synonyms, each mapped to the concept of a word used in the documents. */
+    static final Map<String, String> SYNONYMS = Map.ofEntries(
+            Map.entry("heating", "thermostat"), Map.entry("chime", "doorbell"), Map.entry("webcam", "camera"),
+            Map.entry("alarm", "siren"), Map.entry("pinpad", "keypad"), Map.entry("deadbolt", "lock"),
+            Map.entry("socket", "plug"), Map.entry("dimmer", "switch"), Map.entry("smoke", "detector"),
+            Map.entry("probe", "sensor"), Map.entry("gateway", "hub"), Map.entry("repeater", "bridge"),
+            Map.entry("disconnected", "offline"), Map.entry("power", "battery"), Map.entry("link", "pairing"),
+            Map.entry("update", "firmware"));
+
+    public static void main(String[] args) {
+        int embeddingMillis = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        List<String> docs = corpus();
+        List<String[]> exact = new ArrayList<>();
+        List<String[]> paraphrases = new ArrayList<>();
+        for (int c = 0; c < COMPONENTS.length; c++) {
+            for (int i = 0; i < ISSUES.length; i++) {
+                String doc = docs.get(c * ISSUES.length + i);
+                exact.add(new String[]{"Error Code " + errorCode(c, i), doc});
+                paraphrases.add(new String[]{"my " + synonymOf(COMPONENTS[c]) + " " + synonymOf(ISSUES[i]) + " problem", doc});
+            }
+        }
+
+        System.out.printf("docs=%d exact queries=%d paraphrases=%d simulated embedding=%d ms%n%n",
+                docs.size(), exact.size(), paraphrases.size(), embeddingMillis);
+        System.out.printf("%-8s %-12s %8s %12s %16s%n", "mode", "queries", "hit@1", "ms/query", "embedding calls");
+        for (DocumentService.RetrievalMode mode : DocumentService.RetrievalMode.values()) {
+            ConceptEmbedder embedder = new ConceptEmbedder(embeddingMillis);
+            DocumentService service = new DocumentService(embedder, new FlatVectorStore(), 1, 0.0, null, mode);
+            service.addDocs(docs);
+            measure(mode, "exact", service, embedder, exact);
+            measure(mode, "paraphrase", service, embedder, paraphrases);
+        }
+    }
+
+    private static void measure(DocumentService.RetrievalMode mode, String name, DocumentService service,
+                                ConceptEmbedder embedder, List<String[]> queries) {
+        int before = embedder.calls.get();
+        int hits = 0;
+        long start = System.nanoTime();
+        for (String[] query : queries) {
+            if (service.findRelevantContext(query[0]).equals(query[1])) hits++;
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / queries.size();
+        System.out.printf("%-8s %-12s %8.2f %12.2f %16d%n",
+                mode, name, (double) hits / queries.size(), millis, embedder.calls.get() - before);
+    }
+
+    /** One snippet per component and issue, each naming a unique error code. */
+    static List<String> corpus() {
+        List<String> docs = new ArrayList<>();
+        for (int c = 0; c < COMPONENTS.length; c++) {
+            for (int i = 0; i < ISSUES.length; i++) {
+                docs.add("Troubleshooting the " + COMPONENTS[c] + " (" + ISSUES[i] + "): Error Code " + errorCode(c, i)
+                        + " is shown when the " + COMPONENTS[c] + " has a " + ISSUES[i] + " fault. Follow the "
+                        + ISSUES[i] + " checklist in the app.");
+            }
+        }
+        return docs;
+    }
+
+    static int errorCode(int component, int issue) {
+        return 500 + component * ISSUES.length + issue;
+    }
+
+    private static String synonymOf(String word) {
+        for (Map.Entry<String, String> entry : SYNONYMS.entrySet()) {
+            if (entry.getValue().equals(word)) return entry.getKey();
+        }
+        return word;
+    }
+
+    /**
+     * Stand-in embedding model: the normalized sum of per-concept random vectors over the words of the text.
+     * Synonyms share a concept; numbers carry no meaning.
+     */
+    static final class ConceptEmbedder extends LLMClient {
+        final AtomicInteger calls = new AtomicInteger();
+        private final int latencyMillis;
+
+        ConceptEmbedder(int latencyMillis) {
+            super("http://localhost:0", "unused");
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public float[] getEmbedding(String text) {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return embed(text);
+        }
+
+        @Override
+        public List<float[]> getEmbeddings(List<String> texts) {
+            List<float[]> vectors = new ArrayList<>();
+            for (String text : texts) vectors.add(embed(text));
+            return vectors;
+        }
+
+        static float[] embed(String text) {
+            float[] vector = new float[DIMENSION];
+            for (String word : text.toLowerCase(Locale.ROOT).split("[^a-z]+")) {
+                if (word.length() < 3) continue;
+                Random concept = new Random(SYNONYMS.getOrDefault(word, word).hashCode());
+                for (int d = 0; d < DIMENSION; d++) vector[d] += (float) concept.nextGaussian();
+            }
+            return vector;
+        }
+    }
+}
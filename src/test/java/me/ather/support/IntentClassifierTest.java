@@ -0,0 +1,179 @@
+package me.ather.support;
+
+import me.ather.support.model.LLMResponse;
+import me.ather.support.service.IntentClassifier;
+import me.ather.support.service.IntentClassifier.Intent;
+import me.ather.support.service.IntentClassifier.SubQuery;
+import me.ather.support.service.LLMClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the local intent classifier and its LLM fallback.
+ * Example utterances are embedded by a mock so that technical and billing examples form two clear clusters.
+ */
+@ExtendWith(MockitoExtension.class)
+class IntentClassifierTest {
+
+    private static final float[] TECHNICAL = {1f, 0.1f, 0f};
+    private static final float[] BILLING = {0.1f, 1f, 0f};
+    private static final float[] NEUTRAL = {1f, 1f, 0.2f};
+
+    @Mock
+    private LLMClient llmClient;
+
+    private final Map<String, float[]> queryVectors = Map.of(
+            "My hub stopped responding after the storm", TECHNICAL,
+            "Is the annual plan cheaper than monthly?", BILLING,
+            "Hello?", NEUTRAL,
+            "How long does it take to charge the hub?", TECHNICAL,
+            "The refund page shows error 500", NEUTRAL);
+
+    @BeforeEach
+    void setUp() {
+        // The classifier embeds its technical examples first, then the billing ones, in equal numbers
+        lenient().when(llmClient.getEmbeddings(anyList())).thenAnswer(invocation -> {
+            int size = invocation.<List<String>>getArgument(0).size();
+            List<float[]> vectors = new ArrayList<>();
+            for (int i = 0; i < size; i++) vectors.add(i < size / 2 ? TECHNICAL : BILLING);
+            return vectors;
+        });
+    }
+
+    private IntentClassifier classifier() {
+        return new IntentClassifier(llmClient, queryVectors::get, IntentClassifier.DEFAULT_MIN_MARGIN);
+    }
+
+    @Test
+    @DisplayName("Should resolve single-domain keywords without calling the model")
+    void shouldClassifyByKeywords() {
+        // GIVEN
+        IntentClassifier classifier = classifier();
+
+        // WHEN / THEN
+        assertEquals(Intent.BILLING, classifier.classify("I want a refund, it arrived damaged"));
+        assertEquals(Intent.TECHNICAL, classifier.classify("How do I pair the hub?"));
+        verify(llmClient, never()).getCompletion(anyList());
+        assertEquals(2, classifier.stats().byRules());
+    }
+
+    @Test
+    @DisplayName("Should not route a question about charging the hub to billing by keyword")
+    void shouldNotTreatChargingAsBilling() {
+        // GIVEN
+        IntentClassifier classifier = classifier();
+
+        // WHEN
+        Intent intent = classifier.classify("How long does it take to charge the hub?");
+
+        // THEN
+        assertEquals(Intent.TECHNICAL, intent);
+        assertEquals(0, classifier.stats().byRules());
+        assertEquals(1, classifier.stats().byCentroid());
+    }
+
+    @Test
+    @DisplayName("Should classify by nearest centroid when no keyword decides")
+    void shouldClassifyByCentroid() {
+        // GIVEN
+        IntentClassifier classifier = classifier();
+
+        // WHEN / THEN
+        assertEquals(Intent.TECHNICAL, classifier.classify("My hub stopped responding after the storm"));
+        assertEquals(Intent.BILLING, classifier.classify("Is the annual plan cheaper than monthly?"));
+        verify(llmClient, never()).getCompletion(anyList());
+        assertEquals(2, classifier.stats().byCentroid());
+    }
+
+    @Test
+    @DisplayName("Should ask the model about ambiguous queries and report the latency saved")
+    void shouldFallBackToModel() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return new LLMResponse("Billing.", null);
+        });
+        IntentClassifier classifier = classifier();
+
+        // WHEN
+        Intent mixed = classifier.classify("The refund page shows error 500");
+        Intent vague = classifier.classify("Hello?");
+        classifier.classify("I was overcharged twice");
+
+        // THEN
+        assertEquals(Intent.BILLING, mixed);
+        assertEquals(Intent.BILLING, vague);
+        verify(llmClient, times(2)).getCompletion(anyList());
+        IntentClassifier.Stats stats = classifier.stats();
+        assertEquals(1.0 / 3, stats.localShare(), 1e-9);
+        assertTrue(stats.savedNanos() >= 40_000_000L, stats.toString());
+    }
+
+    @Test
+    @DisplayName("Should split a message for both specialists into sub-queries by clause")
+    void shouldDecomposeByClause() {
+        // GIVEN
+        IntentClassifier classifier = classifier();
+
+        // WHEN
+        List<SubQuery> parts = classifier.decompose("My Hub-V3 is acting up. What battery does it use? "
+                + "Also, the device arrived damaged, so I would like to request a refund.");
+        List<SubQuery> single = classifier.decompose("What battery does the Hub-V3 use?");
+
+        // THEN
+        assertEquals(List.of(
+                new SubQuery(Intent.TECHNICAL, "My Hub-V3 is acting up. What battery does it use?"),
+                new SubQuery(Intent.BILLING, "Also, the device arrived damaged, so I would like to request a refund.")), parts);
+        assertEquals(List.of(new SubQuery(Intent.TECHNICAL, "What battery does the Hub-V3 use?")), single);
+        verify(llmClient, never()).getCompletion(anyList());
+        assertEquals(1, classifier.stats().splits());
+    }
+
+    @Test
+    @DisplayName("Should let the model split a clause that mentions both domains")
+    void shouldDecomposeWithModel() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenReturn(
+                new LLMResponse("BILLING: refund the sensor\nTECHNICAL: the sensor battery dies daily", null),
+                new LLMResponse("TECHNICAL: The refund page shows error 500", null));
+        IntentClassifier classifier = classifier();
+
+        // WHEN
+        List<SubQuery> parts = classifier.decompose("The sensor battery dies daily so please refund the sensor");
+        List<SubQuery> single = classifier.decompose("The refund page shows error 500");
+
+        // THEN
+        assertEquals(List.of(new SubQuery(Intent.TECHNICAL, "the sensor battery dies daily"),
+                new SubQuery(Intent.BILLING, "refund the sensor")), parts);
+        assertEquals(List.of(new SubQuery(Intent.TECHNICAL, "The refund page shows error 500")), single);
+        verify(llmClient, times(2)).getCompletion(argThat(messages -> messages.get(0).content().startsWith("Split")));
+        assertEquals(1, classifier.stats().splits());
+    }
+
+    @Test
+    @DisplayName("Should route model errors and non-labels to the technical specialist")
+    void shouldDefaultToTechnical() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenReturn(
+                LLMResponse.failure(LLMResponse.Failure.COMMUNICATION, "Communication Error: BILLING endpoint unreachable"),
+                new LLMResponse("NONBILLING", null));
+        IntentClassifier classifier = new IntentClassifier(llmClient);
+
+        // WHEN / THEN
+        assertEquals(Intent.TECHNICAL, classifier.classify("I want a refund"));
+        assertEquals(Intent.TECHNICAL, classifier.classify("I want a refund"));
+        verify(llmClient, never()).getEmbeddings(anyList());
+    }
+}
@@ -0,0 +1,97 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.InvertedIndex;
+import me.ather.support.retrieval.RankFusion;
+import me.ather.support.retrieval.SearchHits;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the BM25 inverted index and reciprocal-rank fusion.
+ */
+class InvertedIndexTest {
+
+    private static InvertedIndex index(String... docs) {
+        InvertedIndex index = new InvertedIndex();
+        for (String doc : docs) index.add(doc);
+        return index;
+    }
+
+    @Test
+    @DisplayName("Should rank the document containing the rare token first")
+    void shouldRankRareTokensHighest() {
+        // GIVEN
+        InvertedIndex index = index(
+                "Error Code 404 means the sensor is offline.",
+                "Error Code 501 indicates a database sync failure.",
+                "Webhooks are available via /v2/webhooks using POST requests.",
+                "The error LED blinks when the hub has an error.");
+
+        // WHEN
+        SearchHits code = index.search("error code 501", 4);
+        SearchHits path = index.search("/v2/webhooks", 4);
+
+        // THEN
+        assertEquals(1, code.ids()[0]);
+        assertTrue(code.scores()[0] > 2 * code.scores()[1], "The exact code should clearly lead.");
+        assertArrayEquals(new int[]{2}, path.ids());
+        assertEquals(1f, index.coverage("What is error code 501?", 1), "Stopwords must not count.");
+    }
+
+    @Test
+    @DisplayName("Should return nothing for queries without shared tokens")
+    void shouldIgnoreUnknownTokens() {
+        // GIVEN
+        InvertedIndex index = index("CR2032 battery", "Zigbee 3.0 protocol");
+
+        // WHEN / THEN
+        assertEquals(0, index.search("refund please", 3).size());
+        assertEquals(0, new InvertedIndex().search("anything", 3).size());
+    }
+
+    @Test
+    @DisplayName("Should score segments with deleted documents like one index of the remaining documents")
+    void shouldScoreSegmentsLikeOneIndex() {
+        // GIVEN: the same three documents, once in one index and once spread over two segments with deletions
+        InvertedIndex single = index("Error Code 404 means the sensor is offline.",
+                "Error Code 501 indicates a database sync failure.",
+                "Error Code 502 indicates a cloud sync failure.");
+        List<InvertedIndex> segments = List.of(
+                index("Error Code 404 means the sensor is offline.", "Error Code 503 indicates a stale cache."),
+                index("Error Code 501 indicates a database sync failure.", "Error Code 501 is obsolete.",
+                        "Error Code 502 indicates a cloud sync failure."));
+        int[] bases = {0, 2};
+        BitSet deleted = new BitSet();
+        deleted.set(1);
+        deleted.set(3);
+
+        // WHEN
+        SearchHits expected = single.search("error 501 sync", 3);
+        SearchHits actual = InvertedIndex.search(segments, bases, deleted,
+                InvertedIndex.Corpus.of(segments, bases, deleted), "error 501 sync", 3);
+
+        // THEN
+        assertArrayEquals(new int[]{1, 2, 0}, expected.ids());
+        assertArrayEquals(new int[]{2, 4, 0}, actual.ids(), "Same ranking, in the ids of the segments");
+        assertArrayEquals(expected.scores(), actual.scores(), 1e-6f);
+    }
+
+    @Test
+    @DisplayName("Should prefer documents ranked well by both lists when fusing")
+    void shouldFuseByReciprocalRank() {
+        // GIVEN
+        SearchHits vector = new SearchHits(new int[]{7, 3, 5}, new float[]{0.9f, 0.8f, 0.7f});
+        SearchHits lexical = new SearchHits(new int[]{3, 9}, new float[]{12f, 4f});
+
+        // WHEN
+        SearchHits fused = RankFusion.reciprocalRank(3, RankFusion.DEFAULT_C, vector, lexical);
+
+        // THEN
+        assertArrayEquals(new int[]{3, 7, 9}, fused.ids());
+    }
+}
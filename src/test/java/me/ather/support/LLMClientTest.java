@@ -0,0 +1,287 @@
+package me.ather.support;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.ather.support.metrics.Metrics;
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.service.LLMClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for LLMClient against a local stub of the Gemini API.
+ * Covers request batching, concurrency limits, result ordering and the asynchronous API without network access.
+ */
+class LLMClientTest {
+
+    private StubGeminiServer stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new StubGeminiServer();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    /**
+     * Embeds each text "doc-N" as the one-dimensional vector [N], so ordering is easy to check.
+     */
+    private static String embedByIndex(String body) {
+        try {
+            Thread.sleep(50); // Keep batches overlapping so the concurrency cap is exercised
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        JsonArray embeddings = new JsonArray();
+        for (JsonElement request : JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("requests")) {
+            String text = request.getAsJsonObject().getAsJsonObject("content")
+                    .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString();
+            JsonArray values = new JsonArray();
+            values.add(Integer.parseInt(text.substring("doc-".length())));
+            JsonObject embedding = new JsonObject();
+            embedding.add("values", values);
+            embeddings.add(embedding);
+        }
+        JsonObject response = new JsonObject();
+        response.add("embeddings", embeddings);
+        return response.toString();
+    }
+
+    @Test
+    @DisplayName("Should split texts into batches and keep results in input order")
+    void shouldBatchEmbeddingsInOrder() {
+        // GIVEN
+        stub.handle("batchEmbedContents", LLMClientTest::embedByIndex);
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key", 10, 3);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 95; i++) texts.add("doc-" + i);
+
+        // WHEN
+        List<float[]> vectors = client.getEmbeddings(texts);
+
+        // THEN
+        assertEquals(10, stub.calls("batchEmbedContents"), "95 texts at batch size 10 need 10 requests.");
+        assertEquals(0, stub.calls("embedContent"), "No single-text requests should be sent.");
+        assertTrue(stub.maxInFlight() <= 3, "Concurrency cap exceeded: " + stub.maxInFlight());
+        assertTrue(stub.maxInFlight() > 1, "Batches should run concurrently.");
+        assertEquals(95, vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            assertArrayEquals(new float[]{i}, vectors.get(i), "Vector " + i + " is out of order.");
+        }
+    }
+
+    @Test
+    @DisplayName("Should return empty vectors for a batch the API fails to answer")
+    void shouldReportFailedBatchesAsEmpty() {
+        // GIVEN
+        stub.handle("batchEmbedContents", body -> body.contains("doc-0") ? "{\"error\":{}}" : embedByIndex(body));
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key", 2, 2);
+
+        // WHEN
+        List<float[]> vectors = client.getEmbeddings(List.of("doc-0", "doc-1", "doc-2"));
+
+        // THEN
+        assertEquals(0, vectors.get(0).length);
+        assertEquals(0, vectors.get(1).length);
+        assertArrayEquals(new float[]{2}, vectors.get(2));
+    }
+
+    private static final String TEXT_RESPONSE =
+            "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hello\"}]}}]}";
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("Should run many completions concurrently without blocking the caller")
+    void shouldCompleteAsynchronously() {
+        // GIVEN
+        stub.handle("generateContent", body -> {
+            sleep(200);
+            return TEXT_RESPONSE;
+        });
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key");
+        List<ChatMessage> messages = List.of(new ChatMessage("user", "Hi"));
+
+        // WHEN
+        long start = System.nanoTime();
+        List<CompletableFuture<LLMResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) calls.add(client.getCompletionAsync(messages));
+        long submitMillis = (System.nanoTime() - start) / 1_000_000;
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+        long totalMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // THEN
+        assertTrue(submitMillis < 200, "Submitting must not wait for responses: " + submitMillis + " ms");
+        assertTrue(totalMillis < 20 * 200, "Calls should overlap: " + totalMillis + " ms");
+        for (CompletableFuture<LLMResponse> call : calls) assertEquals("Hello", call.join().text());
+    }
+
+    @Test
+    @DisplayName("Should resolve to the error fallbacks when the per-request timeout expires")
+    void shouldApplyPerRequestTimeout() {
+        // GIVEN
+        stub.handle("generateContent", body -> {
+            sleep(2000);
+            return TEXT_RESPONSE;
+        });
+        stub.handle("embedContent", body -> {
+            sleep(2000);
+            return "{\"embedding\":{\"values\":[1.0]}}";
+        });
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key");
+
+        // WHEN
+        LLMResponse response = client.getCompletionAsync(List.of(new ChatMessage("user", "Hi")), Duration.ofMillis(100)).join();
+        float[] vector = client.getEmbeddingAsync("Hi", Duration.ofMillis(100)).join();
+
+        // THEN
+        assertTrue(response.text().startsWith("Communication Error"), response.text());
+        assertEquals(0, vector.length);
+    }
+
+    @Test
+    @DisplayName("Should stop waiting for a cancelled request")
+    void shouldSupportCancellation() throws Exception {
+        // GIVEN
+        CountDownLatch received = new CountDownLatch(1);
+        stub.handle("generateContent", body -> {
+            received.countDown();
+            sleep(2000);
+            return TEXT_RESPONSE;
+        });
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key");
+        CompletableFuture<LLMResponse> call = client.getCompletionAsync(List.of(new ChatMessage("user", "Hi")));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        // WHEN
+        boolean cancelled = call.cancel(true);
+
+        // THEN
+        assertTrue(cancelled);
+        assertTrue(call.isCancelled());
+    }
+
+    private static String textChunk(String text) {
+        return "{\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\"" + text + "\"}]}}]}";
+    }
+
+    @Test
+    @DisplayName("Should deliver streamed text deltas before the stream has finished")
+    void shouldStreamTextDeltas() {
+        // GIVEN
+        stub.handleStream("streamGenerateContent", 150, textChunk("The Hub-V3 "), textChunk("uses a "), textChunk("CR2032."));
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key");
+        List<String> deltas = new ArrayList<>();
+        long[] firstDeltaAt = new long[1];
+
+        // WHEN
+        long start = System.nanoTime();
+        LLMResponse response = client.streamCompletion(List.of(new ChatMessage("user", "battery?")), delta -> {
+            if (deltas.isEmpty()) firstDeltaAt[0] = System.nanoTime();
+            deltas.add(delta);
+        }).join();
+        long total = System.nanoTime() - start;
+
+        // THEN
+        assertEquals(List.of("The Hub-V3 ", "uses a ", "CR2032."), deltas);
+        assertEquals("The Hub-V3 uses a CR2032.", response.text());
+        assertTrue(firstDeltaAt[0] - start < total - 200_000_000L, "First token should arrive well before the end of the stream.");
+    }
+
+    @Test
+    @DisplayName("Should detect a function call emitted in the middle of a stream")
+    void shouldDetectStreamedFunctionCall() {
+        // GIVEN
+        String call = "{\"candidates\":[{\"content\":{\"parts\":[{\"functionCall\":"
+                + "{\"name\":\"initiateRefund\",\"args\":{\"reason\":\"Damaged\"}}}]}}]}";
+        stub.handleStream("streamGenerateContent", 10, textChunk("Let me open a ticket."), call);
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key");
+        List<String> deltas = new ArrayList<>();
+
+        // WHEN
+        LLMResponse response = client.streamCompletion(List.of(new ChatMessage("user", "refund")), deltas::add).join();
+
+        // THEN
+        assertEquals(List.of("Let me open a ticket."), deltas);
+        assertNotNull(response.functionCall());
+        assertEquals("initiateRefund", response.functionCall().name());
+        assertEquals("Damaged", response.functionCall().reason());
+    }
+
+    @Test
+    @DisplayName("Should fail a stream that stops sending after its headers")
+    void shouldTimeOutStalledStream() {
+        // GIVEN: the first event arrives, then the server goes quiet for far longer than the timeout
+        stub.handleStream("streamGenerateContent", 30_000, textChunk("The Hub-V3 "), textChunk("uses a CR2032."));
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key", 1, 1, Duration.ofMillis(500));
+        List<String> deltas = new ArrayList<>();
+
+        // WHEN
+        LLMResponse response = client.streamCompletion(List.of(new ChatMessage("user", "battery?")), deltas::add)
+                .orTimeout(10, TimeUnit.SECONDS).join();
+
+        // THEN
+        assertEquals(List.of("The Hub-V3 "), deltas);
+        assertEquals(LLMResponse.Failure.COMMUNICATION, response.failure());
+        assertTrue(response.text().contains("stream stalled"), response.text());
+    }
+
+    @Test
+    @DisplayName("Should record latency, bytes, tokens and failures of every request")
+    void shouldRecordCallMetrics() {
+        // GIVEN
+        String body = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hello\"}]}}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":12,\"candidatesTokenCount\":3,\"totalTokenCount\":15}}";
+        stub.handle("generateContent", request -> body);
+        LLMClient client = new LLMClient(stub.baseUrl(), "test-key");
+        Metrics.CallStats generate = Metrics.global().calls("generate");
+        Metrics.CallStats embed = Metrics.global().calls("embed");
+        long requests = generate.requests();
+        long received = generate.bytesReceived();
+        long promptTokens = generate.promptTokens();
+        long completionTokens = generate.completionTokens();
+        long embedErrors = embed.errors();
+
+        // WHEN: one answered completion and one embedding the stub does not know (HTTP 404)
+        client.getCompletion(List.of(new ChatMessage("user", "Hi")));
+        client.getEmbedding("unknown");
+
+        // THEN: the metrics are recorded right after the result completes
+        awaitCount(() -> generate.requests() - requests, 1);
+        awaitCount(() -> embed.errors() - embedErrors, 1);
+        assertEquals(body.length(), generate.bytesReceived() - received);
+        assertEquals(12, generate.promptTokens() - promptTokens);
+        assertEquals(3, generate.completionTokens() - completionTokens);
+        assertTrue(generate.bytesSent() > 0);
+    }
+
+    private static void awaitCount(LongSupplier count, long expected) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (count.getAsLong() < expected && System.nanoTime() < deadline) sleep(5);
+        assertEquals(expected, count.getAsLong());
+    }
+}
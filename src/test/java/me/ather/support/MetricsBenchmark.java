@@ -0,0 +1,55 @@
+package me.ather.support;
+
+import me.ather.support.metrics.Metrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the hot-path cost of the instrumentation: timing a stage (two nanoTime reads plus a
+ * histogram update) against the bare nanoTime reads, uncontended and from 8 threads hitting the same stage,
+ * and recording one LLM call. Run once without and once with a JFR recording to see the cost of the events:
+ *
+ * mvn -P benchmarks test-compile exec:exec -Djmh.args="MetricsBenchmark -prof gc"
+ * mvn -P benchmarks test-compile exec:exec -Djmh.args="MetricsBenchmark -jvmArgsAppend -XX:StartFlightRecording"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final Metrics metrics = new Metrics();
+
+    @Setup(Level.Trial)
+    public void register() {
+        metrics.recordStage("retrieve", 0);
+        metrics.recordLlmCall("generate", 0, 0, 0, false);
+    }
+
+    @Benchmark
+    public long baselineNanoTime() {
+        long start = System.nanoTime();
+        return System.nanoTime() - start;
+    }
+
+    @Benchmark
+    public long timedStage() {
+        long start = System.nanoTime();
+        long elapsed = System.nanoTime() - start;
+        metrics.recordStage("retrieve", elapsed);
+        return elapsed;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long timedStageContended() {
+        return timedStage();
+    }
+
+    @Benchmark
+    public void llmCall() {
+        metrics.recordLlmCall("generate", 40_000_000, 1200, 800, false);
+    }
+}
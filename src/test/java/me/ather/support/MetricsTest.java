@@ -0,0 +1,161 @@
+package me.ather.support;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import me.ather.support.metrics.LatencyHistogram;
+import me.ather.support.metrics.Metrics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the lock-free latency histograms, the Prometheus text output and the JFR events.
+ */
+class MetricsTest {
+
+    @Test
+    @DisplayName("Should bucket latencies by power of two and report quantiles as bucket bounds")
+    void shouldReportQuantiles() {
+        // GIVEN
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // WHEN: 90 fast values (~10 µs) and 10 slow ones (~3 ms)
+        for (int i = 0; i < 90; i++) histogram.record(10_000);
+        for (int i = 0; i < 10; i++) histogram.record(3_000_000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        // THEN
+        assertEquals(100, snapshot.count());
+        assertEquals(90 * 10_000L + 10 * 3_000_000L, snapshot.sumNanos());
+        assertEquals(1L << 14, snapshot.quantileNanos(0.5), "The median lies in the first bucket (16 µs).");
+        long p99 = snapshot.quantileNanos(0.99);
+        assertTrue(p99 >= 3_000_000 && p99 < 6_000_000, "p99 must bound 3 ms within a factor of two, was " + p99);
+    }
+
+    @Test
+    @DisplayName("Should not lose values recorded concurrently")
+    void shouldCountConcurrentRecords() throws Exception {
+        // GIVEN
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 8;
+        int perThread = 100_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long value = 1_000L << t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) histogram.record(value);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        // WHEN
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        // THEN
+        assertEquals((long) threads * perThread, histogram.snapshot().count());
+    }
+
+    @Test
+    @DisplayName("Should render stage histograms and call counters in the Prometheus text format")
+    void shouldScrapePrometheusText() {
+        // GIVEN
+        Metrics metrics = new Metrics();
+        metrics.recordStage("classify", 2_000_000);
+        metrics.recordStage("retrieve", 5_000_000, true); // discarded speculative work
+        metrics.recordLlmCall("generate", 40_000_000, 1200, 800, false);
+        metrics.recordLlmCall("generate", 60_000_000, 1300, 0, true);
+        metrics.recordRetry("generate");
+        metrics.recordTokens("generate", 250, 40, 200);
+
+        // WHEN
+        String text = metrics.scrape();
+
+        // THEN
+        assertTrue(text.contains("# TYPE support_stage_duration_seconds histogram\n"));
+        assertTrue(text.contains("support_stage_duration_seconds_bucket{stage=\"classify\",le=\"0.002097152\"} 1\n"));
+        assertTrue(text.contains("support_stage_duration_seconds_bucket{stage=\"classify\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("support_stage_duration_seconds_sum{stage=\"classify\"} 0.002\n"));
+        assertFalse(text.contains("stage=\"retrieve\""), "Discarded work must not count as stage latency.");
+        assertTrue(text.contains("support_llm_request_duration_seconds_count{operation=\"generate\"} 2\n"));
+        assertTrue(text.contains("support_llm_requests_total{operation=\"generate\"} 2\n"));
+        assertTrue(text.contains("support_llm_errors_total{operation=\"generate\"} 1\n"));
+        assertTrue(text.contains("support_llm_retries_total{operation=\"generate\"} 1\n"));
+        assertTrue(text.contains("support_llm_sent_bytes_total{operation=\"generate\"} 2500\n"));
+        assertTrue(text.contains("support_llm_received_bytes_total{operation=\"generate\"} 800\n"));
+        assertTrue(text.contains("support_llm_tokens_total{operation=\"generate\",direction=\"prompt\"} 250\n"));
+        assertTrue(text.contains("support_llm_tokens_total{operation=\"generate\",direction=\"completion\"} 40\n"));
+        assertTrue(text.contains("support_llm_tokens_total{operation=\"generate\",direction=\"cached\"} 200\n"));
+    }
+
+    @Test
+    @DisplayName("Should add the samples of registered collectors to the scrape, one collector per key")
+    void shouldScrapeRegisteredCollectors() {
+        // GIVEN
+        Metrics metrics = new Metrics();
+        metrics.register("old", samples -> samples.counter(Metrics.CACHE_HITS, "Hits.", "cache", "stale", 9));
+        metrics.register("old", samples -> samples.counter(Metrics.CACHE_HITS, "Hits.", "cache", "response", 3));
+        metrics.register("intent", samples -> {
+            samples.counter(Metrics.CACHE_HITS, "Hits.", "cache", "query_embedding", 5);
+            samples.gauge(Metrics.INTENT_LOCAL_RATIO, "Local share.", 0.75);
+        });
+
+        // WHEN
+        String text = metrics.scrape();
+
+        // THEN
+        assertTrue(text.contains("# TYPE support_cache_hits_total counter\n"
+                + "support_cache_hits_total{cache=\"query_embedding\"} 5\n"
+                + "support_cache_hits_total{cache=\"response\"} 3\n"), text);
+        assertTrue(text.contains("# TYPE support_intent_local_ratio gauge\nsupport_intent_local_ratio 0.75\n"), text);
+        assertFalse(text.contains("stale"), "A replaced collector must not be scraped.");
+    }
+
+    @Test
+    @DisplayName("Should emit stage and LLM call events to a JFR recording")
+    void shouldEmitJfrEvents() throws Exception {
+        // GIVEN
+        Metrics metrics = new Metrics();
+        Path file = Files.createTempFile("metrics", ".jfr");
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("me.ather.support.Stage");
+            recording.enable("me.ather.support.LlmCall");
+            recording.start();
+
+            // WHEN
+            metrics.recordStage("generate", 7_000_000);
+            metrics.recordLlmCall("embed", 3_000_000, 100, 6000, false);
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        // THEN
+        RecordedEvent stage = events.stream()
+                .filter(e -> e.getEventType().getName().equals("me.ather.support.Stage")).findFirst().orElseThrow();
+        assertEquals("generate", stage.getString("stage"));
+        assertEquals(7_000_000L, stage.getLong("durationNanos"));
+        RecordedEvent call = events.stream()
+                .filter(e -> e.getEventType().getName().equals("me.ather.support.LlmCall")).findFirst().orElseThrow();
+        assertEquals("embed", call.getString("operation"));
+        assertEquals(6000L, call.getLong("bytesReceived"));
+    }
+}
@@ -0,0 +1,310 @@
+package me.ather.support;
+
+import me.ather.support.metrics.Metrics;
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.FunctionCall;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.model.ToolDefinition;
+import me.ather.support.model.ToolResult;
+import me.ather.support.model.TurnTrace;
+import me.ather.support.service.BillingService;
+import me.ather.support.service.DocumentService;
+import me.ather.support.service.IntentClassifier;
+import me.ather.support.service.LLMClient;
+import me.ather.support.service.SemanticResponseCache;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for Orchestrator routing and the speculative retrieval pipeline.
+ * The LLM and the knowledge base are mocked with artificial latency so stage overlap is measurable.
+ */
+@ExtendWith(MockitoExtension.class)
+class OrchestratorTest {
+
+    private static final long STAGE_MILLIS = 300;
+
+    @Mock
+    private LLMClient llmClient;
+
+    @Mock
+    private DocumentService docService;
+
+    /**
+     * Answers the classification prompt with the given intent and any agent prompt (whose first argument is the
+     * agent's prefix) with "Agent reply".
+     */
+    private Answer<LLMResponse> modelAnswering(String intent) {
+        return invocation -> {
+            List<ChatMessage> messages = invocation.getArgument(0);
+            Thread.sleep(STAGE_MILLIS);
+            boolean classification = messages.get(0).content().startsWith("Classify");
+            return new LLMResponse(classification ? intent : "Agent reply", null);
+        };
+    }
+
+    static DocumentService.Retrieval retrieval(String context) {
+        return new DocumentService.Retrieval(new float[0], new int[0], context, 0);
+    }
+
+    private void slowRetrieval() {
+        when(docService.retrieve(anyString())).thenAnswer(invocation -> {
+            Thread.sleep(STAGE_MILLIS);
+            return retrieval("CR2032 battery docs");
+        });
+    }
+
+    @Test
+    @DisplayName("Should overlap retrieval with intent classification in speculative mode")
+    void shouldOverlapRetrievalWithClassification() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenAnswer(modelAnswering("TECHNICAL"));
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(modelAnswering("TECHNICAL"));
+        slowRetrieval();
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE);
+
+        // WHEN
+        String reply = orchestrator.handleUserQuery("What battery does the Hub-V3 use?");
+
+        // THEN
+        assertEquals("Agent reply", reply);
+        TurnTrace trace = orchestrator.getLastTurnTrace();
+        TurnTrace.Span classify = trace.span("classify");
+        TurnTrace.Span retrieve = trace.span("retrieve");
+        assertTrue(retrieve.startNanos() < classify.endNanos(), "Retrieval should start before classification ends: " + trace);
+        assertTrue(trace.totalNanos() < 3 * STAGE_MILLIS * 1_000_000, "Turn should not pay the sum of stages: " + trace);
+        verify(llmClient).getCompletion(argThat(prefix -> prefix.get(0).content().contains("CR2032 battery docs")),
+                argThat(history -> history.stream().noneMatch(message -> message.role().equals("system"))), isNull(), anyList());
+    }
+
+    @Test
+    @DisplayName("Should run stages back to back in sequential mode")
+    void shouldRunSequentially() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenAnswer(modelAnswering("TECHNICAL"));
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(modelAnswering("TECHNICAL"));
+        slowRetrieval();
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SEQUENTIAL);
+
+        // WHEN
+        orchestrator.handleUserQuery("What battery does the Hub-V3 use?");
+
+        // THEN
+        TurnTrace trace = orchestrator.getLastTurnTrace();
+        assertTrue(trace.span("retrieve").startNanos() >= trace.span("classify").endNanos(), trace.toString());
+        assertTrue(trace.totalNanos() >= 3 * STAGE_MILLIS * 1_000_000, trace.toString());
+    }
+
+    @Test
+    @DisplayName("Should discard speculative retrieval and execute the tool for billing turns")
+    void shouldDiscardRetrievalForBilling() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenReturn(new LLMResponse("BILLING", null));
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(invocation -> {
+            List<ToolResult> results = invocation.getArgument(3);
+            return results.isEmpty()
+                    ? new LLMResponse(null, List.of(new FunctionCall("initiateRefund", "Device arrived damaged")))
+                    : new LLMResponse("Your refund is on its way.", null);
+        });
+        lenient().when(docService.retrieve(anyString())).thenReturn(retrieval("irrelevant docs"));
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE);
+
+        // WHEN
+        String reply = orchestrator.handleUserQuery("I want a refund, the device arrived damaged");
+
+        // THEN
+        assertTrue(reply.startsWith("[System Action]"), reply);
+        assertTrue(reply.contains("Device arrived damaged"));
+        assertTrue(reply.endsWith("\nYour refund is on its way."), reply);
+        assertTrue(orchestrator.getLastTurnTrace().span("retrieve").wasted());
+        verify(llmClient, never()).getCompletion(argThat(prefix -> prefix.get(0).content().contains("irrelevant docs")),
+                anyList(), any(), anyList());
+        verify(llmClient, times(2)).getCompletion(anyList(), anyList(), same(orchestrator.tools()), anyList());
+    }
+
+    @Test
+    @DisplayName("Should run all function calls of a response concurrently and answer in one follow-up call")
+    void shouldRunFunctionCallsInParallel() {
+        // GIVEN: two slow tools next to the refund tool, all called in one response
+        when(llmClient.getCompletion(anyList())).thenReturn(new LLMResponse("BILLING", null));
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(invocation -> {
+            List<ToolResult> results = invocation.getArgument(3);
+            if (!results.isEmpty()) return new LLMResponse("Done: " + results.size() + " actions.", null);
+            return new LLMResponse(null, List.of(new FunctionCall("initiateRefund", "Broken"),
+                    new FunctionCall("lookupOrder", Map.of("id", "42")),
+                    new FunctionCall("lookupInvoice", Map.of("id", "7"))));
+        });
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SEQUENTIAL);
+        for (String name : List.of("lookupOrder", "lookupInvoice")) {
+            orchestrator.tools().register(new ToolDefinition(name, "Looks up a record.", List.of(
+                    new ToolDefinition.Parameter("id", "STRING", "Record id.", true))), (session, call) -> {
+                Thread.sleep(STAGE_MILLIS);
+                return name + " " + call.arg("id") + ": shipped";
+            });
+        }
+
+        // WHEN
+        String reply = orchestrator.handleUserQuery("Refund order 42 and check invoice 7");
+
+        // THEN
+        assertEquals(4, reply.split("\n").length, reply);
+        assertTrue(reply.contains("[System Action]: lookupOrder 42: shipped"), reply);
+        assertTrue(reply.endsWith("Done: 3 actions."), reply);
+        long toolNanos = orchestrator.getLastTurnTrace().span("tool").durationNanos();
+        assertTrue(toolNanos < 2 * STAGE_MILLIS * 1_000_000, "Tools should run concurrently, took " + toolNanos / 1_000_000 + " ms");
+        verify(llmClient, times(2)).getCompletion(anyList(), anyList(), any(), anyList());
+    }
+
+    @Test
+    @DisplayName("Should answer a technical question and a refund request in one turn, with both agents at once")
+    void shouldFanOutMultiIntentMessage() {
+        // GIVEN: each agent needs two slow stages (retrieve + generate, or generate + follow-up)
+        String technical = "I'm having trouble with my Hub-V3, what battery does it use?";
+        String billing = "Also, the device arrived damaged, so I would like to request a refund.";
+        when(llmClient.streamCompletion(anyList(), anyList(), isNull(), anyList(), any())).thenAnswer(invocation -> {
+            Thread.sleep(STAGE_MILLIS);
+            Consumer<String> onDelta = invocation.getArgument(4);
+            onDelta.accept("It uses a ");
+            onDelta.accept("CR2032 battery.");
+            return CompletableFuture.completedFuture(new LLMResponse("It uses a CR2032 battery.", null));
+        });
+        when(llmClient.getCompletion(anyList(), anyList(), notNull(), anyList())).thenAnswer(invocation -> {
+            Thread.sleep(STAGE_MILLIS);
+            List<ToolResult> results = invocation.getArgument(3);
+            return results.isEmpty()
+                    ? new LLMResponse(null, List.of(new FunctionCall("initiateRefund", "Device arrived damaged")))
+                    : new LLMResponse("Your refund is on its way.", null);
+        });
+        slowRetrieval();
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SEQUENTIAL);
+        List<String> tokens = new ArrayList<>();
+
+        // WHEN
+        String reply = orchestrator.handleUserQuery(technical + " " + billing, tokens::add);
+
+        // THEN
+        assertTrue(reply.startsWith("It uses a CR2032 battery.\n\n[System Action]: "), reply);
+        assertTrue(reply.endsWith("\nYour refund is on its way."), reply);
+        assertEquals(List.of("It uses a ", "CR2032 battery.", reply.substring(reply.indexOf("\n\n"))), tokens);
+        TurnTrace trace = orchestrator.getLastTurnTrace();
+        assertTrue(trace.totalNanos() < 3 * STAGE_MILLIS * 1_000_000, "Agents should run concurrently: " + trace);
+        verify(llmClient, never()).getCompletion(anyList()); // split by the keyword rules, no classification call
+        verify(docService).retrieve(technical);
+        verify(llmClient).streamCompletion(anyList(), argThat(history -> history.get(history.size() - 1).content().equals(technical)),
+                isNull(), anyList(), any());
+        verify(llmClient, times(2)).getCompletion(anyList(), argThat(history -> history.get(history.size() - 1).content().equals(billing)),
+                notNull(), anyList());
+    }
+
+    @Test
+    @DisplayName("Should forward streamed tokens and record time to first token")
+    void shouldStreamAgentReply() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenReturn(new LLMResponse("TECHNICAL", null));
+        when(docService.retrieve(anyString())).thenReturn(retrieval("docs"));
+        when(llmClient.streamCompletion(anyList(), anyList(), any(), anyList(), any())).thenAnswer(invocation -> {
+            Consumer<String> onDelta = invocation.getArgument(4);
+            onDelta.accept("CR2032 ");
+            onDelta.accept("battery.");
+            return CompletableFuture.completedFuture(new LLMResponse("CR2032 battery.", null));
+        });
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE);
+        List<String> tokens = new ArrayList<>();
+
+        // WHEN
+        String reply = orchestrator.handleUserQuery("battery?", tokens::add);
+
+        // THEN
+        assertEquals("CR2032 battery.", reply);
+        assertEquals(List.of("CR2032 ", "battery."), tokens);
+        assertNotNull(orchestrator.getLastTurnTrace().span("first-token"));
+    }
+
+    @Test
+    @DisplayName("Should serve near-duplicate technical questions from the answer cache but never billing turns")
+    void shouldCacheOnlyTechnicalAnswers() {
+        // GIVEN
+        when(llmClient.getCompletion(anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> messages = invocation.getArgument(0);
+            String last = messages.get(messages.size() - 1).content();
+            return new LLMResponse(last.contains("charged") ? "BILLING" : "TECHNICAL", null);
+        });
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> history = invocation.getArgument(1);
+            return new LLMResponse("Agent reply to: " + history.get(history.size() - 1).content(), null);
+        });
+        when(docService.retrieve(anyString())).thenReturn(
+                new DocumentService.Retrieval(new float[]{1f, 0.2f, 0f}, new int[]{2}, "Pairing docs", 4));
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE, new HistoryManager(llmClient), new IntentClassifier(llmClient),
+                new SemanticResponseCache());
+
+        // WHEN
+        String first = orchestrator.handleUserQuery(new ConversationSession("a"), "How do I pair a new device?");
+        String paraphrase = orchestrator.handleUserQuery(new ConversationSession("b"), "pairing new sensor?");
+        orchestrator.handleUserQuery(new ConversationSession("c"), "I was charged twice");
+        String billingAgain = orchestrator.handleUserQuery(new ConversationSession("d"), "I was charged twice");
+
+        // THEN
+        assertEquals("Agent reply to: How do I pair a new device?", first);
+        assertEquals(first, paraphrase, "The paraphrase should reuse the cached answer.");
+        assertEquals("Agent reply to: I was charged twice", billingAgain);
+        verify(llmClient, times(1)).getCompletion(anyList(), anyList(), isNull(), anyList()); // technical agent
+        verify(llmClient, times(2)).getCompletion(anyList(), anyList(), notNull(), anyList()); // billing agent, with tools
+        assertEquals(1, orchestrator.getResponseCacheStats().hits());
+        String scraped = Metrics.global().scrape();
+        assertTrue(scraped.contains("support_cache_hits_total{cache=\"response\"} 1\n"), scraped);
+        assertTrue(scraped.contains("support_intent_local_ratio 0\n"), scraped);
+    }
+
+    @Test
+    @DisplayName("Should neither serve nor store cached answers for questions that follow earlier turns")
+    void shouldNotShareAnswersGivenWithHistory() {
+        // GIVEN: a customer whose follow-up question arrives with their earlier turn in the history
+        when(llmClient.getCompletion(anyList())).thenReturn(new LLMResponse("TECHNICAL", null));
+        when(llmClient.getCompletion(anyList(), anyList(), any(), anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> history = invocation.getArgument(1);
+            return new LLMResponse("Reply after " + history.size() + " messages", null);
+        });
+        when(docService.retrieve(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).contains("blinking")
+                ? new DocumentService.Retrieval(new float[]{0f, 1f, 0f}, new int[]{5}, "LED docs", 4)
+                : new DocumentService.Retrieval(new float[]{1f, 0.2f, 0f}, new int[]{2}, "Pairing docs", 4));
+        Orchestrator orchestrator = new Orchestrator(llmClient, docService, new BillingService(),
+                Orchestrator.ExecutionMode.SPECULATIVE, new HistoryManager(llmClient), new IntentClassifier(llmClient),
+                new SemanticResponseCache());
+        ConversationSession alice = new ConversationSession("alice");
+        orchestrator.handleUserQuery(alice, "My hub serial is HX-991, it keeps blinking.");
+
+        // WHEN
+        String followUp = orchestrator.handleUserQuery(alice, "How do I pair a new device?");
+        String otherCustomer = orchestrator.handleUserQuery(new ConversationSession("bob"), "How do I pair a new device?");
+
+        // THEN
+        assertEquals("Reply after 3 messages", followUp);
+        assertEquals("Reply after 1 messages", otherCustomer, "Bob must not get the answer generated for Alice's context.");
+        verify(llmClient, times(3)).getCompletion(anyList(), anyList(), isNull(), anyList());
+        assertEquals(0, orchestrator.getResponseCacheStats().hits());
+    }
+}
@@ -0,0 +1,64 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.QuantizedVectorStore;
+import me.ather.support.retrieval.QuantizedVectorStore.Quantization;
+import me.ather.support.retrieval.SearchHits;
+import me.ather.support.retrieval.VectorIndex;
+
+import java.util.Random;
+
+/**
+ * Memory, throughput and recall report for quantized storage against exact float32 search
+ * on a synthetic clustered corpus. Use it to pick the quantization and over-fetch factor.
+ *
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dmain.class=me.ather.support.QuantizationReport -Dexec.args="100000 768"
+ */
+public class QuantizationReport {
+    private static final int K = 10;
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) {
+        int corpusSize = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 768;
+        Random random = new Random(1);
+
+        float[][] corpus = HnswRecallReport.clusteredCorpus(random, corpusSize, dimension, Math.max(10, corpusSize / 200));
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) queries[i] = HnswRecallReport.perturb(random, corpus[random.nextInt(corpusSize)]);
+
+        FlatVectorStore exact = new FlatVectorStore();
+        for (float[] vector : corpus) exact.add(vector);
+        SearchHits[] truth = new SearchHits[QUERIES];
+        for (int i = 0; i < QUERIES; i++) truth[i] = exact.search(queries[i], K, -1f);
+
+        System.out.printf("corpus=%d dim=%d k=%d queries=%d%n%n", corpusSize, dimension, K, QUERIES);
+        System.out.printf("%-8s %9s %12s %10s %10s %12s%n", "mode", "overFetch", "heap MB", "bytes/vec", "QPS", "recall@" + K);
+        report("FLOAT32", "-", exact, (long) corpusSize * dimension * Float.BYTES, queries, truth);
+
+        int[][] overFetches = {{1, 2, 4, 8}, {4, 8, 16, 32}};
+        for (Quantization quantization : Quantization.values()) {
+            for (int overFetch : overFetches[quantization.ordinal()]) {
+                try (QuantizedVectorStore store = new QuantizedVectorStore(quantization, overFetch, null)) {
+                    for (float[] vector : corpus) store.add(vector);
+                    report(quantization.name(), String.valueOf(overFetch), store, store.heapBytes(), queries, truth);
+                }
+            }
+        }
+    }
+
+    private static void report(String mode, String overFetch, VectorIndex index, long heapBytes,
+                               float[][] queries, SearchHits[] truth) {
+        for (float[] query : queries) index.search(query, K, -1f); // Warm-up: JIT and page cache
+
+        double recall = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++) {
+            recall += HnswRecallReport.recall(truth[i], index.search(queries[i], K, -1f));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-8s %9s %12.1f %10d %10.0f %12.4f%n", mode, overFetch, heapBytes / 1e6,
+                heapBytes / index.size(), queries.length / seconds, recall / queries.length);
+    }
+}
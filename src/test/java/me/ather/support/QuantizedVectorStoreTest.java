@@ -0,0 +1,90 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.QuantizedVectorStore;
+import me.ather.support.retrieval.QuantizedVectorStore.Quantization;
+import me.ather.support.retrieval.SearchHits;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the quantized vector store.
+ * Compares INT8 and BINARY search against exact float32 search on a clustered corpus.
+ */
+class QuantizedVectorStoreTest {
+
+    private static final int DIMENSION = 768;
+    private static final int K = 10;
+
+    @Test
+    @DisplayName("Should find nearly the exact top-K and report exact cosine scores")
+    void shouldMatchExactSearch() {
+        for (Quantization quantization : Quantization.values()) assertMatchesExactSearch(quantization);
+    }
+
+    @Test
+    @DisplayName("Should keep full-precision vectors off-heap and codes compact")
+    void shouldStoreCompactCodes() {
+        for (Quantization quantization : Quantization.values()) assertCompact(quantization);
+    }
+
+    private static void assertMatchesExactSearch(Quantization quantization) {
+        // GIVEN
+        Random random = new Random(7);
+        float[][] corpus = HnswRecallReport.clusteredCorpus(random, 2000, DIMENSION, 20);
+        FlatVectorStore exact = new FlatVectorStore();
+        try (QuantizedVectorStore store = new QuantizedVectorStore(quantization)) {
+            for (float[] vector : corpus) {
+                exact.add(vector);
+                store.add(vector);
+            }
+
+            // WHEN
+            double recall = 0;
+            for (int i = 0; i < 50; i++) {
+                float[] query = HnswRecallReport.perturb(random, corpus[random.nextInt(corpus.length)]);
+                SearchHits truth = exact.search(query, K, -1f);
+                SearchHits hits = store.search(query, K, -1f);
+                recall += HnswRecallReport.recall(truth, hits);
+
+                // THEN: the scores are full-precision similarities, not quantized estimates
+                for (int j = 0; j < hits.size(); j++) {
+                    float expected = exactScore(exact, query, hits.ids()[j]);
+                    assertEquals(expected, hits.scores()[j], 1e-5f);
+                }
+            }
+            assertTrue(recall / 50 >= 0.9, quantization + " recall@" + K + " = " + recall / 50);
+        }
+    }
+
+    private static void assertCompact(Quantization quantization) {
+        // GIVEN
+        Random random = new Random(3);
+        try (QuantizedVectorStore store = new QuantizedVectorStore(quantization)) {
+            float[] first = HnswRecallReport.randomUnitVector(random, DIMENSION);
+            store.add(first);
+            for (int i = 1; i < 100; i++) store.add(HnswRecallReport.randomUnitVector(random, DIMENSION));
+
+            // WHEN
+            long perVector = store.heapBytes() / store.size();
+
+            // THEN
+            assertEquals(quantization == Quantization.INT8 ? DIMENSION + 4 : DIMENSION / 8, perVector);
+            assertArrayEquals(first, store.vector(0), 1e-6f);
+            assertEquals(0, store.search(first, K, 1.0f).size(), "The threshold applies to exact scores.");
+            assertEquals(0, store.search(new float[3], K, -1f).size());
+        }
+    }
+
+    private static float exactScore(FlatVectorStore exact, float[] query, int id) {
+        SearchHits all = exact.search(query, exact.size(), -2f);
+        for (int i = 0; i < all.size(); i++) {
+            if (all.ids()[i] == id) return all.scores()[i];
+        }
+        throw new AssertionError("Unknown id " + id);
+    }
+}
@@ -0,0 +1,98 @@
+package me.ather.support;
+
+import me.ather.support.service.RefundLedger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JMH benchmarks for the refund ledger under contention: durable tickets from 1 and 64 threads (group commit
+ * lets the throughput grow with the number of waiting callers, while the latency stays near two fsyncs),
+ * repeated requests answered from the idempotency index, and replaying a 100k-ticket log on startup.
+ * The log lives in the default temp directory; point java.io.tmpdir at the disk under test.
+ *
+ * mvn -P benchmarks test-compile exec:exec -Djmh.args="RefundLedgerBenchmark"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RefundLedgerBenchmark {
+    private final AtomicLong requests = new AtomicLong();
+    private Path directory;
+    private RefundLedger ledger;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        directory = Files.createTempDirectory("ledger-bench");
+        ledger = RefundLedger.open(directory.resolve("refunds.log"), 1 << 20);
+        ledger.record("repeat", "Device arrived damaged");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        ledger.close();
+        deleteAll(directory);
+    }
+
+    @Benchmark
+    public RefundLedger.Ticket durableTicket() throws IOException {
+        return ledger.record("session-" + requests.incrementAndGet(), "Device arrived damaged");
+    }
+
+    @Benchmark
+    @Threads(64)
+    public RefundLedger.Ticket durableTicketContended() throws IOException {
+        return durableTicket();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public RefundLedger.Ticket repeatedRequestContended() throws IOException {
+        return ledger.record("repeat", "device arrived damaged");
+    }
+
+    /**
+     * A log of 100k tickets, written once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class ReplayState {
+        Path directory;
+        Path file;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException {
+            directory = Files.createTempDirectory("ledger-replay");
+            file = directory.resolve("refunds.log");
+            try (RefundLedger ledger = RefundLedger.open(file, 1 << 20)) {
+                for (int i = 0; i < 100_000; i++) ledger.submit("session-" + i, "Order " + i + " arrived damaged");
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            deleteAll(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public long replay(ReplayState state) throws IOException {
+        try (RefundLedger ledger = RefundLedger.open(state.file)) {
+            return ledger.size();
+        }
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,153 @@
+package me.ather.support;
+
+import me.ather.support.service.BillingService;
+import me.ather.support.service.RefundLedger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the refund ticket ledger: unique IDs under contention, idempotency keys,
+ * group commit and replay of the log after a restart or a torn write.
+ */
+class RefundLedgerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Should issue unique, durable tickets to concurrent requests with few fsyncs")
+    void shouldRecordConcurrentRefunds() throws Exception {
+        // GIVEN
+        Path file = tempDir.resolve("refunds.log");
+        int threads = 16;
+        int perThread = 250;
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        long syncs;
+
+        // WHEN
+        try (RefundLedger ledger = RefundLedger.open(file)) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String session = "session-" + t;
+                workers.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        try {
+                            ids.add(ledger.record(session, "Order " + i + " arrived damaged").id());
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }, pool));
+            }
+            workers.forEach(CompletableFuture::join);
+            pool.shutdown();
+            syncs = ledger.syncs();
+        }
+
+        // THEN
+        int total = threads * perThread;
+        assertEquals(total, ids.size(), "Every request must get its own ticket ID.");
+        assertTrue(syncs < total, "Group commit should share fsyncs, saw " + syncs + " for " + total + " tickets");
+        try (RefundLedger reopened = RefundLedger.open(file)) {
+            assertEquals(total, reopened.size());
+            assertEquals("REF-" + String.format("%06d", total + 1), reopened.record(null, "Late refund").id(),
+                    "Numbering continues after the replayed tickets.");
+            assertTrue(ids.contains(reopened.record("session-3", "order 7 ARRIVED damaged!").id()),
+                    "Idempotency keys survive a restart.");
+        }
+    }
+
+    @Test
+    @DisplayName("Should return the same ticket for a repeated request of the same session and reason")
+    void shouldDeduplicateRequests() throws Exception {
+        // GIVEN
+        RefundLedger ledger = RefundLedger.inMemory();
+        BillingService billing = new BillingService(ledger);
+
+        // WHEN
+        List<CompletableFuture<RefundLedger.Ticket>> retries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) retries.add(CompletableFuture.supplyAsync(() -> ledger.submit("s1", "Device broken")).thenCompose(f -> f));
+        String first = billing.initiateRefund("s1", "device   broken.");
+        String otherSession = billing.initiateRefund("s2", "Device broken");
+        String otherReason = billing.initiateRefund("s1", "Charged twice");
+
+        // THEN
+        String id = retries.get(0).join().id();
+        assertTrue(retries.stream().allMatch(ticket -> ticket.join().id().equals(id)));
+        assertTrue(first.contains(id), first);
+        assertFalse(otherSession.contains(id));
+        assertFalse(otherReason.contains(id));
+        assertEquals(3, ledger.size());
+    }
+
+    @Test
+    @DisplayName("Should fail only the oversized ticket, not the batch it was submitted with")
+    void shouldRejectOversizedTicketAlone() throws Exception {
+        // GIVEN
+        Path file = tempDir.resolve("refunds.log");
+        String huge = "x".repeat(2 << 20);
+
+        try (RefundLedger ledger = RefundLedger.open(file)) {
+            // WHEN
+            List<CompletableFuture<RefundLedger.Ticket>> normal = new ArrayList<>();
+            for (int i = 0; i < 100; i++) normal.add(ledger.submit("s" + i, "Order " + i + " arrived damaged"));
+            CompletableFuture<RefundLedger.Ticket> oversized = ledger.submit("s0", huge);
+            for (int i = 100; i < 200; i++) normal.add(ledger.submit("s" + i, "Order " + i + " arrived damaged"));
+
+            // THEN
+            CompletionException error = assertThrows(CompletionException.class, oversized::join);
+            assertInstanceOf(IllegalArgumentException.class, error.getCause());
+            assertThrows(IOException.class, () -> ledger.record("s0", huge));
+            normal.forEach(CompletableFuture::join);
+            assertEquals(200, ledger.size());
+        }
+        try (RefundLedger reopened = RefundLedger.open(file)) {
+            assertEquals(200, reopened.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Should drop a torn tail on replay and refuse files that are not a ledger")
+    void shouldRecoverFromTornWrite() throws Exception {
+        // GIVEN
+        Path file = tempDir.resolve("refunds.log");
+        try (RefundLedger ledger = RefundLedger.open(file)) {
+            ledger.record("s1", "First");
+            ledger.record("s1", "Second");
+        }
+        long intact = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{40, 0, 0, 0, 1, 2, 3})); // header of a record cut short
+        }
+        Path foreign = Files.writeString(tempDir.resolve("notes.txt"), "not a ledger");
+
+        // WHEN
+        try (RefundLedger ledger = RefundLedger.open(file)) {
+            // THEN
+            assertEquals(2, ledger.size());
+            assertEquals(intact, Files.size(file), "The torn record is cut off.");
+            assertEquals("REF-000003", ledger.record("s1", "Third").id());
+        }
+        assertThrows(IOException.class, () -> RefundLedger.open(foreign));
+        assertEquals("not a ledger", Files.readString(foreign));
+    }
+}
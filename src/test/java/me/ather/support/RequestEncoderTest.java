@@ -0,0 +1,183 @@
+package me.ather.support;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.ather.support.model.ChatMessage;
+import me.ather.support.model.FunctionCall;
+import me.ather.support.model.GeminiSchema;
+import me.ather.support.model.ToolResult;
+import me.ather.support.service.BillingService;
+import me.ather.support.service.RequestEncoder;
+import me.ather.support.service.ToolRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests for the streaming request encoder.
+ * Validates wire compatibility with the former Gson tree payload and measures allocation per request.
+ */
+class RequestEncoderTest {
+
+    private static final List<ChatMessage> CONVERSATION = List.of(
+            new ChatMessage("system", "You are a Billing Specialist. Use the 'initiateRefund' tool if criteria are met."),
+            new ChatMessage("user", "My Hub-V3 arrived broken, I want my money back \"now\" – 😠"),
+            new ChatMessage("assistant", "I'm sorry to hear that.\nCould you describe the damage?"));
+    private static final ToolRegistry TOOLS = new ToolRegistry();
+
+    static {
+        new BillingService().registerTools(TOOLS);
+    }
+
+    /**
+     * The payload as LLMClient used to build it: a Gson tree serialized with toString().
+     */
+    private static JsonObject treePayload(List<ChatMessage> messages, ToolRegistry tools) {
+        JsonArray contents = new JsonArray();
+        for (ChatMessage message : messages) {
+            JsonObject textPart = new JsonObject();
+            textPart.addProperty("text", message.content());
+            JsonArray parts = new JsonArray();
+            parts.add(textPart);
+            JsonObject content = new JsonObject();
+            content.addProperty("role", "assistant".equals(message.role()) ? "model" : "user");
+            content.add("parts", parts);
+            contents.add(content);
+        }
+        JsonObject payload = new JsonObject();
+        payload.add("contents", contents);
+        if (tools != null) payload.add("tools", GeminiSchema.tools(tools.definitions()));
+        return payload;
+    }
+
+    @Test
+    @DisplayName("Should encode the same completion payload as the Gson tree, with and without tools")
+    void shouldMatchTreePayload() {
+        // WHEN
+        byte[] withTools = RequestEncoder.completion(CONVERSATION, TOOLS, List.of());
+        byte[] withoutTools = RequestEncoder.completion(CONVERSATION);
+
+        // THEN
+        assertEquals(treePayload(CONVERSATION, TOOLS), JsonParser.parseString(new String(withTools, StandardCharsets.UTF_8)));
+        assertEquals(treePayload(CONVERSATION, null), JsonParser.parseString(new String(withoutTools, StandardCharsets.UTF_8)));
+        assertEquals("initiateRefund", treePayload(CONVERSATION, TOOLS).getAsJsonArray("tools").get(0).getAsJsonObject()
+                .getAsJsonArray("function_declarations").get(0).getAsJsonObject().get("name").getAsString());
+    }
+
+    @Test
+    @DisplayName("Should send every call and its result back in one follow-up request")
+    void shouldEncodeToolResults() {
+        // GIVEN
+        List<ToolResult> results = List.of(
+                new ToolResult(new FunctionCall("initiateRefund", "Broken"), "Ticket REF-1", false),
+                new ToolResult(new FunctionCall("lookupOrder", Map.of("id", "42")), "Unknown tool: lookupOrder", true));
+
+        // WHEN
+        JsonObject body = JsonParser.parseString(new String(
+                RequestEncoder.completion(CONVERSATION, TOOLS, results), StandardCharsets.UTF_8)).getAsJsonObject();
+
+        // THEN
+        JsonArray contents = body.getAsJsonArray("contents");
+        assertEquals(CONVERSATION.size() + 2, contents.size());
+        JsonObject calls = contents.get(CONVERSATION.size()).getAsJsonObject();
+        assertEquals("model", calls.get("role").getAsString());
+        assertEquals("Broken", calls.getAsJsonArray("parts").get(0).getAsJsonObject().getAsJsonObject("functionCall")
+                .getAsJsonObject("args").get("reason").getAsString());
+        JsonArray responses = contents.get(CONVERSATION.size() + 1).getAsJsonObject().getAsJsonArray("parts");
+        assertEquals(2, responses.size());
+        JsonObject first = responses.get(0).getAsJsonObject().getAsJsonObject("functionResponse");
+        assertEquals("initiateRefund", first.get("name").getAsString());
+        assertEquals("Ticket REF-1", first.getAsJsonObject("response").get("result").getAsString());
+        assertEquals("Unknown tool: lookupOrder", responses.get(1).getAsJsonObject().getAsJsonObject("functionResponse")
+                .getAsJsonObject("response").get("error").getAsString());
+        assertTrue(body.has("tools"));
+    }
+
+    @Test
+    @DisplayName("Should split a prefix into a cachedContents body and a request that references it")
+    void shouldEncodeCachedPrefix() {
+        // GIVEN
+        List<ChatMessage> prefix = CONVERSATION.subList(0, 1);
+        List<ChatMessage> history = CONVERSATION.subList(1, CONVERSATION.size());
+
+        // WHEN
+        JsonObject inline = JsonParser.parseString(new String(
+                RequestEncoder.completion(prefix, history, TOOLS, List.of()), StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject cache = JsonParser.parseString(new String(RequestEncoder.cachedContent("models/gemini-3-flash-preview",
+                prefix, TOOLS, Duration.ofMinutes(10)), StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject cached = JsonParser.parseString(new String(
+                RequestEncoder.cachedCompletion("cachedContents/abc", history, List.of()), StandardCharsets.UTF_8)).getAsJsonObject();
+
+        // THEN
+        assertEquals(treePayload(CONVERSATION, TOOLS), inline, "Inline, the prefix is just the first turns.");
+        assertEquals("models/gemini-3-flash-preview", cache.get("model").getAsString());
+        assertEquals("600s", cache.get("ttl").getAsString());
+        assertEquals(treePayload(prefix, TOOLS).get("contents"), cache.get("contents"));
+        assertEquals(inline.get("tools"), cache.get("tools"));
+        assertEquals("cachedContents/abc", cached.get("cachedContent").getAsString());
+        assertEquals(treePayload(history, null).get("contents"), cached.get("contents"));
+        assertFalse(cached.has("tools"), "Tools live in the cache.");
+        assertEquals("{\"ttl\":\"600s\"}", new String(RequestEncoder.cacheTtl(Duration.ofMinutes(10)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should encode embedding requests for single and batch calls")
+    void shouldEncodeEmbeddingRequests() {
+        // WHEN
+        JsonObject single = JsonParser.parseString(new String(RequestEncoder.embedding("café"), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        JsonObject batch = JsonParser.parseString(new String(
+                RequestEncoder.batchEmbedding(List.of("a", "b"), "models/text-embedding-004"), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+
+        // THEN
+        assertEquals("café", single.getAsJsonObject("content").getAsJsonArray("parts")
+                .get(0).getAsJsonObject().get("text").getAsString());
+        JsonArray requests = batch.getAsJsonArray("requests");
+        assertEquals(2, requests.size());
+        assertEquals("models/text-embedding-004", requests.get(1).getAsJsonObject().get("model").getAsString());
+        assertEquals("b", requests.get(1).getAsJsonObject().getAsJsonObject("content").getAsJsonArray("parts")
+                .get(0).getAsJsonObject().get("text").getAsString());
+    }
+
+    @Test
+    @DisplayName("Should allocate little more than the body itself per request")
+    void shouldAllocateLessThanTree() {
+        // GIVEN
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        List<ChatMessage> conversation = new ArrayList<>();
+        for (int i = 0; i < 10; i++) conversation.addAll(CONVERSATION);
+        int bodySize = RequestEncoder.completion(conversation, TOOLS, List.of()).length;
+        int rounds = 2_000;
+        for (int i = 0; i < rounds; i++) {
+            RequestEncoder.completion(conversation, TOOLS, List.of());
+            treePayload(conversation, TOOLS).toString().getBytes(StandardCharsets.UTF_8);
+        }
+        long threadId = Thread.currentThread().getId();
+
+        // WHEN
+        long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rounds; i++) RequestEncoder.completion(conversation, TOOLS, List.of());
+        long streaming = (threads.getThreadAllocatedBytes(threadId) - start) / rounds;
+
+        start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rounds; i++) treePayload(conversation, TOOLS).toString().getBytes(StandardCharsets.UTF_8);
+        long tree = (threads.getThreadAllocatedBytes(threadId) - start) / rounds;
+
+        // THEN
+        assertTrue(streaming < bodySize + 1024, "Streaming encoder should only allocate the body: " + streaming);
+        assertTrue(streaming * 3 < tree, "Streaming encoder should allocate far less than the tree: " + streaming + " vs " + tree);
+    }
+}
@@ -0,0 +1,220 @@
+package me.ather.support;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import me.ather.support.model.FunctionCall;
+import me.ather.support.model.LLMResponse;
+import me.ather.support.service.ResponseDecoder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests for the pull-parsing response decoder.
+ * Validates that the error fallbacks of the former tree parser are preserved and measures allocation per embedding.
+ */
+class ResponseDecoderTest {
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static LLMResponse completion(String json) {
+        return ResponseDecoder.completion(body(json));
+    }
+
+    @Test
+    @DisplayName("Should read the first part and skip unrelated fields")
+    void shouldReadFirstPart() {
+        // GIVEN
+        String json = "{\"usageMetadata\":{\"totalTokenCount\":12},\"candidates\":[{\"finishReason\":\"STOP\","
+                + "\"safetyRatings\":[{\"a\":[1,2,{\"b\":null}]}],\"content\":{\"role\":\"model\","
+                + "\"parts\":[{\"text\":\"Use a CR2032 battery.\"},{\"text\":\"ignored\"}]}},{\"content\":{}}]}";
+
+        // WHEN
+        LLMResponse response = completion(json);
+
+        // THEN
+        assertEquals("Use a CR2032 battery.", response.text());
+        assertNull(response.functionCall());
+    }
+
+    @Test
+    @DisplayName("Should read function calls with and without arguments")
+    void shouldReadFunctionCall() {
+        // WHEN
+        LLMResponse withReason = completion("{\"candidates\":[{\"content\":{\"parts\":[{\"functionCall\":"
+                + "{\"name\":\"initiateRefund\",\"args\":{\"reason\":\"Damaged on arrival\",\"extra\":[1]}}}]}}]}");
+        LLMResponse withoutArgs = completion("{\"candidates\":[{\"content\":{\"parts\":[{\"functionCall\":"
+                + "{\"name\":\"initiateRefund\"}}]}}]}");
+
+        // THEN
+        assertEquals("initiateRefund", withReason.functionCall().name());
+        assertEquals("Damaged on arrival", withReason.functionCall().reason());
+        assertEquals("No justification provided.", withoutArgs.functionCall().reason());
+    }
+
+    @Test
+    @DisplayName("Should read every function call of a response alongside its text")
+    void shouldReadMultipleFunctionCalls() {
+        // WHEN
+        LLMResponse response = completion("{\"candidates\":[{\"content\":{\"parts\":["
+                + "{\"text\":\"Opening both tickets.\"},"
+                + "{\"functionCall\":{\"name\":\"initiateRefund\",\"args\":{\"reason\":\"Broken\"}}},"
+                + "{\"functionCall\":{\"name\":\"lookupOrder\",\"args\":{\"id\":42,\"express\":true,"
+                + "\"items\":[\"hub\",{\"qty\":2}],\"note\":null}}}]}}]}");
+
+        // THEN
+        assertEquals("Opening both tickets.", response.text());
+        assertFalse(response.isError());
+        assertEquals(2, response.functionCalls().size());
+        assertEquals("Broken", response.functionCalls().get(0).reason());
+        FunctionCall lookup = response.functionCalls().get(1);
+        assertEquals("lookupOrder", lookup.name());
+        assertEquals("42", lookup.arg("id"));
+        assertEquals("true", lookup.arg("express"));
+        assertEquals("[\"hub\",{\"qty\":2}]", lookup.arg("items"));
+        assertFalse(lookup.args().containsKey("note"));
+    }
+
+    @Test
+    @DisplayName("Should keep the error fallbacks of the tree parser")
+    void shouldKeepErrorSemantics() {
+        assertEquals("Error: No candidates returned from model.", completion("{\"promptFeedback\":{}}").text());
+        assertEquals("Error: No candidates returned from model.", completion("{\"candidates\":[]}").text());
+        assertEquals("Error: Empty parts in model response.", completion("{\"candidates\":[{\"content\":{\"parts\":[]}}]}").text());
+        assertEquals("Error: Empty parts in model response.", completion("{\"candidates\":[{\"content\":{}}]}").text());
+        assertEquals("Error: Unexpected response format from API.",
+                completion("{\"candidates\":[{\"content\":{\"parts\":[{\"inlineData\":{}}]}}]}").text());
+        assertTrue(completion("{\"candidates\":[{\"finishReason\":\"SAFETY\"}]}").text().startsWith("Parsing Error: "));
+        assertTrue(completion("{\"candidates\":[{").text().startsWith("Parsing Error: "));
+        assertTrue(completion("").text().startsWith("Parsing Error: "));
+        assertEquals(LLMResponse.Failure.NO_ANSWER, completion("{\"candidates\":[]}").failure());
+        assertEquals(LLMResponse.Failure.PARSING, completion("").failure());
+    }
+
+    @Test
+    @DisplayName("Should treat a model answer starting with an error word as an answer")
+    void shouldNotMistakeAnswerTextForError() {
+        // WHEN
+        LLMResponse response = completion("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":"
+                + "\"Error: E42 means the hub lost its Wi-Fi connection.\"}]}}]}");
+
+        // THEN
+        assertFalse(response.isError());
+        assertNull(response.failure());
+    }
+
+    @Test
+    @DisplayName("Should decode single and batch embeddings into float arrays")
+    void shouldDecodeEmbeddings() throws Exception {
+        // WHEN
+        float[] single = ResponseDecoder.embedding(body("{\"embedding\":{\"values\":[0.5,-1,2.25e-3]}}"));
+        float[] missing = ResponseDecoder.embedding(body("{\"error\":{\"code\":429}}"));
+        List<float[]> batch = ResponseDecoder.batchEmbeddings(body("{\"embeddings\":[{\"values\":[1]},{\"values\":[2,3]}]}"));
+
+        // THEN
+        assertArrayEquals(new float[]{0.5f, -1f, 2.25e-3f}, single);
+        assertEquals(0, missing.length);
+        assertEquals(2, batch.size());
+        assertArrayEquals(new float[]{2f, 3f}, batch.get(1));
+    }
+
+    @Test
+    @DisplayName("Should decode numbers exactly like Float.parseFloat")
+    void shouldMatchFloatParsing() throws Exception {
+        // GIVEN
+        Random random = new Random(42);
+        String[] numbers = new String[20_000];
+        for (int i = 0; i < numbers.length; i++) {
+            double magnitude = Math.pow(10, random.nextInt(16) - 10);
+            numbers[i] = switch (i % 4) {
+                case 0 -> Float.toString((float) (random.nextGaussian() * magnitude));
+                case 1 -> Double.toString(random.nextGaussian() * magnitude);
+                case 2 -> String.format("%.9e", random.nextGaussian() * magnitude);
+                default -> Long.toString(random.nextInt(2_000_000) - 1_000_000);
+            };
+        }
+        String json = "{\"embedding\":{\"values\":[" + String.join(",", numbers) + ",-0.0,0,1E+3,7.006492321624085e-46]}}";
+
+        // WHEN
+        float[] decoded = ResponseDecoder.embedding(body(json));
+
+        // THEN
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(Float.parseFloat(numbers[i]), decoded[i], numbers[i]);
+        }
+        assertEquals(Float.floatToIntBits(-0f), Float.floatToIntBits(decoded[numbers.length]));
+        assertEquals(1000f, decoded[numbers.length + 2]);
+        assertEquals(Float.parseFloat("7.006492321624085e-46"), decoded[numbers.length + 3]);
+    }
+
+    @Test
+    @DisplayName("Should allocate far less than the Gson tree for a 768-dimension embedding")
+    void shouldAllocateLessThanTree() throws Exception {
+        // GIVEN
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        Random random = new Random(7);
+        JsonArray values = new JsonArray();
+        for (int i = 0; i < 768; i++) values.add(random.nextFloat() * 2 - 1);
+        byte[] response = ("{\"embedding\":{\"values\":" + values + "}}").getBytes(StandardCharsets.UTF_8);
+        Gson gson = new Gson();
+        int rounds = 1_000;
+        for (int i = 0; i < rounds; i++) {
+            ResponseDecoder.embedding(new ByteArrayInputStream(response));
+            treeEmbedding(gson, response);
+        }
+        long threadId = Thread.currentThread().getId();
+
+        // WHEN
+        long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rounds; i++) ResponseDecoder.embedding(new ByteArrayInputStream(response));
+        long streaming = (threads.getThreadAllocatedBytes(threadId) - start) / rounds;
+
+        start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rounds; i++) treeEmbedding(gson, response);
+        long tree = (threads.getThreadAllocatedBytes(threadId) - start) / rounds;
+
+        // THEN
+        assertTrue(streaming * 3 < tree, "Pull parser should allocate far less than the tree: " + streaming + " vs " + tree);
+    }
+
+    @Test
+    @DisplayName("Should decode the recorded Gemini responses used by the benchmarks")
+    void shouldDecodeRecordedResponses() throws Exception {
+        // WHEN
+        LLMResponse text = ResponseDecoder.completion(new ByteArrayInputStream(BenchmarkFixtures.recordedBody("generate-content-text.json")));
+        LLMResponse call = ResponseDecoder.completion(new ByteArrayInputStream(BenchmarkFixtures.recordedBody("generate-content-function-call.json")));
+        float[] embedding = ResponseDecoder.embedding(new ByteArrayInputStream(BenchmarkFixtures.recordedBody("embed-content.json")));
+        List<float[]> batch = ResponseDecoder.batchEmbeddings(new ByteArrayInputStream(BenchmarkFixtures.recordedBody("batch-embed-contents.json")));
+
+        // THEN
+        assertTrue(text.text().startsWith("The Hub-V3 runs on a CR2032"), text.text());
+        assertEquals("initiateRefund", call.functionCall().name());
+        assertEquals(768, embedding.length);
+        assertEquals(16, batch.size());
+        assertTrue(batch.stream().allMatch(vector -> vector.length == 768));
+    }
+
+    /**
+     * The former path: body as String, full Gson tree, then a walk over boxed values.
+     */
+    private static float[] treeEmbedding(Gson gson, byte[] response) {
+        JsonObject json = gson.fromJson(new String(response, StandardCharsets.UTF_8), JsonObject.class);
+        JsonArray values = json.getAsJsonObject("embedding").getAsJsonArray("values");
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < values.size(); i++) vector[i] = values.get(i).getAsFloat();
+        return vector;
+    }
+}
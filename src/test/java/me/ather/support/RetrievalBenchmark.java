@@ -0,0 +1,69 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.service.DocumentService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for {@link DocumentService#findRelevantContext} over 1k / 100k / 1M synthetic snippets.
+ * Embeddings come from {@link BenchmarkFixtures.SyntheticEmbedder}, so only local retrieval work is measured:
+ * query-embedding cache, BM25, vector scan and rank fusion ({@code semanticQuery}), or the lexical
+ * fast path for exact error codes ({@code exactCodeQuery}).
+ *
+ * Run with:
+ * mvn -P benchmarks test-compile exec:exec -Djmh.args="RetrievalBenchmark -prof gc"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+@State(Scope.Thread)
+public class RetrievalBenchmark {
+    private static final int BATCH = 50_000; // snippets per knowledge base update while loading
+    private static final int QUERIES = 1024; // power of two, cycled with a mask
+
+    @Param({"1000", "100000", "1000000"})
+    public int corpusSize;
+
+    private DocumentService docService;
+    private final String[] semanticQueries = new String[QUERIES];
+    private final String[] exactQueries = new String[QUERIES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        BenchmarkFixtures.SyntheticEmbedder embedder =
+                new BenchmarkFixtures.SyntheticEmbedder(new BenchmarkFixtures.ClusteredVectors(1, Math.max(10, corpusSize / 200)));
+        docService = new DocumentService(embedder, new FlatVectorStore(), DocumentService.DEFAULT_TOP_K,
+                DocumentService.DEFAULT_THRESHOLD, null);
+        for (int start = 0; start < corpusSize; start += BATCH) {
+            List<String> batch = new ArrayList<>();
+            for (int id = start; id < Math.min(corpusSize, start + BATCH); id++) batch.add(BenchmarkFixtures.docText(id));
+            docService.addDocs(batch);
+        }
+
+        String[] components = HybridRetrievalReport.COMPONENTS;
+        String[] issues = HybridRetrievalReport.ISSUES;
+        for (int i = 0; i < QUERIES; i++) {
+            semanticQueries[i] = "why does my " + components[i % components.length] + " keep having "
+                    + issues[(i / components.length) % issues.length] + " trouble";
+            embedder.registerQuery(semanticQueries[i]);
+            exactQueries[i] = "Error Code " + (100_000 + (i * 7919) % corpusSize);
+        }
+    }
+
+    @Benchmark
+    public String semanticQuery() {
+        return docService.findRelevantContext(semanticQueries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public String exactCodeQuery() {
+        return docService.findRelevantContext(exactQueries[next++ & (QUERIES - 1)]);
+    }
+}
@@ -0,0 +1,102 @@
+package me.ather.support;
+
+import me.ather.support.service.DocumentService.Retrieval;
+import me.ather.support.service.SemanticResponseCache;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the semantic answer cache.
+ * Covers the similarity threshold, the document-set key, TTL expiry, LRU bound and invalidation on document changes.
+ */
+class SemanticResponseCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private SemanticResponseCache cache(int capacity) {
+        return new SemanticResponseCache(0.9, Duration.ofMinutes(10), capacity, now::get);
+    }
+
+    private static Retrieval retrieval(float[] query, long version, int... docIds) {
+        return new Retrieval(query, docIds, "docs", version);
+    }
+
+    @Test
+    @DisplayName("Should answer a paraphrase that retrieved the same documents")
+    void shouldServeNearDuplicate() {
+        // GIVEN
+        SemanticResponseCache cache = cache(8);
+        cache.store(retrieval(new float[]{1f, 0.1f, 0f}, 4, 2, 0), "Hold 'Pair' until the LED flashes blue.");
+
+        // WHEN
+        String paraphrase = cache.lookup(retrieval(new float[]{1f, 0.15f, 0.05f}, 4, 0, 2));
+        String otherDocs = cache.lookup(retrieval(new float[]{1f, 0.15f, 0.05f}, 4, 0, 3));
+        String unrelated = cache.lookup(retrieval(new float[]{0f, 1f, 0f}, 4, 0, 2));
+
+        // THEN
+        assertEquals("Hold 'Pair' until the LED flashes blue.", paraphrase);
+        assertNull(otherDocs, "A different document set must not reuse the answer.");
+        assertNull(unrelated, "A dissimilar query must not reuse the answer.");
+        assertEquals(1, cache.stats().hits());
+        assertEquals(2, cache.stats().misses());
+    }
+
+    @Test
+    @DisplayName("Should expire entries after the TTL")
+    void shouldExpireEntries() {
+        // GIVEN
+        SemanticResponseCache cache = cache(8);
+        float[] query = {0f, 0f, 1f};
+        cache.store(retrieval(query, 1, 1), "answer");
+
+        // WHEN
+        now.addAndGet(Duration.ofMinutes(10).toNanos());
+
+        // THEN
+        assertNull(cache.lookup(retrieval(query, 1, 1)));
+        assertEquals(0, cache.stats().size());
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently used entry when full")
+    void shouldBoundSize() {
+        // GIVEN
+        SemanticResponseCache cache = cache(2);
+        Retrieval first = retrieval(new float[]{1f, 0f, 0f}, 1, 1);
+        Retrieval second = retrieval(new float[]{0f, 1f, 0f}, 1, 1);
+        Retrieval third = retrieval(new float[]{0f, 0f, 1f}, 1, 1);
+        cache.store(first, "first");
+        cache.store(second, "second");
+        assertEquals("first", cache.lookup(first));
+
+        // WHEN
+        cache.store(third, "third");
+
+        // THEN
+        assertEquals(2, cache.stats().size());
+        assertEquals("first", cache.lookup(first));
+        assertNull(cache.lookup(second));
+    }
+
+    @Test
+    @DisplayName("Should drop all answers when the knowledge base changes")
+    void shouldInvalidateOnDocumentChange() {
+        // GIVEN
+        SemanticResponseCache cache = cache(8);
+        float[] query = {1f, 1f, 0f};
+        cache.store(retrieval(query, 4, 1), "old answer");
+
+        // WHEN
+        String afterChange = cache.lookup(retrieval(query, 5, 1));
+        cache.store(retrieval(query, 4, 1), "answer generated from the old documents");
+
+        // THEN
+        assertNull(afterChange);
+        assertEquals(0, cache.stats().size(), "Answers based on an outdated version must not be stored.");
+    }
+}
@@ -0,0 +1,99 @@
+package me.ather.support;
+
+import me.ather.support.server.SessionManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SessionManager eviction policies, driven by a manual clock.
+ */
+class SessionManagerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    @DisplayName("Should return the same session for the same id")
+    void shouldReuseSessions() {
+        // GIVEN
+        SessionManager sessions = new SessionManager(Duration.ofMinutes(1), 10, clock::get, false);
+
+        // WHEN
+        ConversationSession first = sessions.getOrCreate("a");
+        ConversationSession second = sessions.getOrCreate("a");
+
+        // THEN
+        assertSame(first, second);
+        assertEquals(1, sessions.size());
+    }
+
+    @Test
+    @DisplayName("Should evict sessions idle for longer than the TTL")
+    void shouldEvictExpiredSessions() {
+        // GIVEN
+        SessionManager sessions = new SessionManager(Duration.ofSeconds(10), 10, clock::get, false);
+        ConversationSession idle = sessions.getOrCreate("idle");
+        sessions.getOrCreate("active");
+
+        // WHEN
+        clock.addAndGet(Duration.ofSeconds(8).toNanos());
+        sessions.getOrCreate("active");
+        clock.addAndGet(Duration.ofSeconds(5).toNanos());
+        sessions.evictExpired();
+
+        // THEN
+        assertEquals(1, sessions.size());
+        assertEquals(1, sessions.evictions());
+        assertNotSame(idle, sessions.getOrCreate("idle"), "An evicted session starts over.");
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently used session when the cap is exceeded")
+    void shouldEnforceMaxSessions() {
+        // GIVEN
+        SessionManager sessions = new SessionManager(Duration.ofHours(1), 2, clock::get, false);
+        ConversationSession a = sessions.getOrCreate("a");
+        clock.incrementAndGet();
+        sessions.getOrCreate("b");
+        clock.incrementAndGet();
+        sessions.getOrCreate("a"); // "b" is now least recently used
+        clock.incrementAndGet();
+
+        // WHEN
+        sessions.getOrCreate("c");
+
+        // THEN
+        assertEquals(2, sessions.size());
+        assertSame(a, sessions.getOrCreate("a"));
+        assertFalse(sessions.remove("b"), "Session b should already be evicted.");
+    }
+
+    @Test
+    @DisplayName("Should not evict a session while one of its turns holds the lock")
+    void shouldKeepSessionsDuringTurn() {
+        // GIVEN: a long turn on the least recently used session, which has also outlived the TTL
+        SessionManager sessions = new SessionManager(Duration.ofSeconds(10), 2, clock::get, false);
+        ConversationSession streaming = sessions.getOrCreate("streaming");
+        streaming.lock().lock();
+        try {
+            clock.addAndGet(Duration.ofSeconds(20).toNanos());
+            sessions.getOrCreate("b");
+            clock.incrementAndGet();
+
+            // WHEN
+            sessions.getOrCreate("c");
+            sessions.evictExpired();
+
+            // THEN
+            assertSame(streaming, sessions.getOrCreate("streaming"), "The next message must wait on the same lock.");
+            assertFalse(sessions.remove("b"), "The idle session b should be evicted instead.");
+            assertEquals(1, sessions.evictions());
+        } finally {
+            streaming.lock().unlock();
+        }
+    }
+}
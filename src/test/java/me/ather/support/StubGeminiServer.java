@@ -0,0 +1,168 @@
+package me.ather.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Local stand-in for the Gemini REST API used by client tests.
+ * Handlers are registered per API method (the part after ':' in the URL, e.g. "batchEmbedContents", or the HTTP
+ * method and collection for resource calls, e.g. "POST cachedContents" or "PATCH cachedContents")
+ * and map the raw request body to a JSON response body.
+ * Faults (error statuses, stalls) can be injected per call to exercise retries, timeouts and hedging.
+ */
+class StubGeminiServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Function<String, String>> handlers = new ConcurrentHashMap<>();
+    private final Map<String, StreamScript> streams = new ConcurrentHashMap<>();
+    private final Map<String, Queue<Fault>> faults = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    StubGeminiServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::dispatch);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta";
+    }
+
+    void handle(String method, Function<String, String> handler) {
+        handlers.put(method, handler);
+    }
+
+    /**
+     * Answers the method with a server-sent-event stream, flushing one event every {@code delayMillis}.
+     */
+    void handleStream(String method, long delayMillis, String... events) {
+        streams.put(method, new StreamScript(delayMillis, events));
+    }
+
+    /**
+     * Applies one fault to each of the next calls of the method, in order; later calls reach the handler again.
+     */
+    void injectFaults(String method, Fault... injected) {
+        faults.computeIfAbsent(method, m -> new ConcurrentLinkedQueue<>()).addAll(List.of(injected));
+    }
+
+    int calls(String method) {
+        AtomicInteger count = calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    /** Highest number of requests the stub was serving at the same moment. */
+    int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            String path = exchange.getRequestURI().getPath();
+            int colon = path.lastIndexOf(':');
+            String method = colon >= 0 ? path.substring(colon + 1)
+                    : exchange.getRequestMethod() + " " + path.replaceFirst("^/v1beta/", "").split("/")[0];
+            calls.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            Queue<Fault> pending = faults.get(method);
+            Fault fault = pending == null ? null : pending.poll();
+            if (fault != null && !fault.apply(exchange)) return;
+
+            StreamScript stream = streams.get(method);
+            if (stream != null) {
+                stream.play(exchange);
+                return;
+            }
+            Function<String, String> handler = handlers.get(method);
+            byte[] response = (handler == null ? "{}" : handler.apply(body)).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(handler == null ? 404 : 200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * A stall of {@code delayMillis}, then an error status (with an optional Retry-After header),
+     * or the normal answer if {@code status} is 0.
+     */
+    record Fault(int status, long delayMillis, String retryAfter) {
+
+        static Fault status(int status) {
+            return new Fault(status, 0, null);
+        }
+
+        static Fault delay(long delayMillis) {
+            return new Fault(0, delayMillis, null);
+        }
+
+        /**
+         * Returns true if the request should still be answered normally.
+         */
+        boolean apply(HttpExchange exchange) throws IOException {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (status == 0) return true;
+            byte[] response = ("{\"error\":{\"code\":" + status + "}}").getBytes(StandardCharsets.UTF_8);
+            if (retryAfter != null) exchange.getResponseHeaders().add("Retry-After", retryAfter);
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+            return false;
+        }
+    }
+
+    private record StreamScript(long delayMillis, String[] events) {
+
+        void play(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (String event : events) {
+                    out.write(("data: " + event + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
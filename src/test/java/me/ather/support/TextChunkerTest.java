@@ -0,0 +1,96 @@
+package me.ather.support;
+
+import me.ather.support.ingest.TextChunker;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the streaming TextChunker.
+ * Validates size limits, overlap between consecutive chunks and word/paragraph boundaries.
+ */
+class TextChunkerTest {
+
+    @Test
+    @DisplayName("Should split long text into bounded chunks that overlap on whole words")
+    void shouldChunkWithOverlap() {
+        // GIVEN
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) text.append("word").append(i).append(' ');
+        TextChunker chunker = new TextChunker(100, 20);
+
+        // WHEN
+        List<String> chunks = chunker.chunk(text.toString());
+
+        // THEN
+        assertTrue(chunks.size() > 10);
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            assertTrue(chunk.length() <= 100, chunk);
+            assertTrue(chunk.startsWith("word"), "Chunks must start at a word boundary: " + chunk);
+            if (i > 0) {
+                String firstWord = chunk.split(" ")[0];
+                assertTrue(chunks.get(i - 1).endsWith(" " + firstWord) || chunks.get(i - 1).contains(" " + firstWord + " "),
+                        "Consecutive chunks must overlap: " + chunk);
+            }
+        }
+        assertTrue(chunks.get(0).startsWith("word0 "));
+        assertTrue(chunks.get(chunks.size() - 1).endsWith("word199"));
+    }
+
+    @Test
+    @DisplayName("Should prefer paragraph breaks as chunk ends")
+    void shouldBreakAtParagraphs() {
+        // GIVEN
+        String text = "Pairing: hold the Pair button until the LED flashes blue.\n\n"
+                + "Reset: press Reset for five seconds to restore factory settings.";
+        TextChunker chunker = new TextChunker(80, 10);
+
+        // WHEN
+        List<String> chunks = chunker.chunk(text);
+
+        // THEN
+        assertEquals("Pairing: hold the Pair button until the LED flashes blue.", chunks.get(0));
+        assertTrue(chunks.get(chunks.size() - 1).endsWith("factory settings."));
+    }
+
+    @Test
+    @DisplayName("Should stream input larger than the read buffer in small reads")
+    void shouldChunkStreamedInput() throws Exception {
+        // GIVEN: a reader that returns at most 7 characters per read
+        String text = "Error Code 404 means the sensor is offline. ".repeat(2000);
+        Reader trickle = new StringReader(text) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws java.io.IOException {
+                return super.read(buffer, offset, Math.min(length, 7));
+            }
+        };
+        TextChunker chunker = new TextChunker(500, 50);
+        List<String> streamed = new ArrayList<>();
+
+        // WHEN
+        chunker.chunk(trickle, streamed::add);
+
+        // THEN
+        assertEquals(chunker.chunk(text), streamed);
+    }
+
+    @Test
+    @DisplayName("Should return short text whole and skip blank input")
+    void shouldHandleShortAndBlankText() {
+        // GIVEN
+        TextChunker chunker = new TextChunker();
+
+        // WHEN / THEN
+        assertEquals(List.of("Error Code 501 indicates a database sync failure."),
+                chunker.chunk("  Error Code 501 indicates a database sync failure.\n"));
+        assertTrue(chunker.chunk(" \n\n ").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new TextChunker(100, 100));
+    }
+}
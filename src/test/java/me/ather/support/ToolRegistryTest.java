@@ -0,0 +1,102 @@
+package me.ather.support;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import me.ather.support.model.FunctionCall;
+import me.ather.support.model.GeminiSchema;
+import me.ather.support.model.ToolDefinition;
+import me.ather.support.model.ToolResult;
+import me.ather.support.service.BillingService;
+import me.ather.support.service.ToolRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the tool registry: generated declarations and concurrent execution with per-tool timeouts.
+ */
+class ToolRegistryTest {
+
+    private static ToolDefinition lookup(String name) {
+        return new ToolDefinition(name, "Looks up a record.",
+                List.of(new ToolDefinition.Parameter("id", "STRING", "Record id.", true),
+                        new ToolDefinition.Parameter("verbose", "BOOLEAN", "Include details.", false)));
+    }
+
+    @Test
+    @DisplayName("Should generate function declarations from the registered tools")
+    void shouldGenerateDeclarations() {
+        // GIVEN
+        ToolRegistry tools = new ToolRegistry();
+        new BillingService().registerTools(tools);
+        tools.register(lookup("lookupOrder"), (session, call) -> "ok");
+
+        // WHEN
+        JsonArray declarations = GeminiSchema.tools(tools.definitions()).get(0).getAsJsonObject()
+                .getAsJsonArray("function_declarations");
+
+        // THEN
+        assertEquals(2, declarations.size());
+        JsonObject refund = declarations.get(0).getAsJsonObject();
+        assertEquals("initiateRefund", refund.get("name").getAsString());
+        assertEquals("STRING", refund.getAsJsonObject("parameters").getAsJsonObject("properties")
+                .getAsJsonObject("reason").get("type").getAsString());
+        JsonObject parameters = declarations.get(1).getAsJsonObject().getAsJsonObject("parameters");
+        assertEquals(2, parameters.getAsJsonObject("properties").size());
+        assertEquals(1, parameters.getAsJsonArray("required").size(), "Only 'id' is required.");
+    }
+
+    @Test
+    @DisplayName("Should run calls concurrently and keep their order")
+    void shouldExecuteConcurrently() {
+        // GIVEN
+        ToolRegistry tools = new ToolRegistry();
+        tools.register(lookup("lookupOrder"), (session, call) -> {
+            Thread.sleep(300);
+            return "order " + call.arg("id");
+        });
+        List<FunctionCall> calls = List.of(new FunctionCall("lookupOrder", Map.of("id", "1")),
+                new FunctionCall("lookupOrder", Map.of("id", "2")), new FunctionCall("lookupOrder", Map.of("id", "3")));
+
+        // WHEN
+        long start = System.nanoTime();
+        List<ToolResult> results = tools.executeAll("s1", calls);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // THEN
+        assertEquals(List.of("order 1", "order 2", "order 3"), results.stream().map(ToolResult::output).toList());
+        assertTrue(millis < 600, "Three 300 ms calls should overlap, took " + millis + " ms");
+    }
+
+    @Test
+    @DisplayName("Should turn timeouts, exceptions and unknown tools into failed results")
+    void shouldReportFailures() {
+        // GIVEN
+        ToolRegistry tools = new ToolRegistry();
+        tools.register(lookup("slow"), Duration.ofMillis(100), (session, call) -> {
+            Thread.sleep(2000);
+            return "too late";
+        });
+        tools.register(lookup("broken"), (session, call) -> {
+            throw new IllegalStateException("database offline");
+        });
+
+        // WHEN
+        long start = System.nanoTime();
+        List<ToolResult> results = tools.executeAll("s1", List.of(new FunctionCall("slow", Map.of()),
+                new FunctionCall("broken", Map.of()), new FunctionCall("missing", Map.of())));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // THEN
+        assertTrue(results.stream().allMatch(ToolResult::failed));
+        assertTrue(results.get(0).output().contains("timed out"), results.get(0).output());
+        assertTrue(results.get(1).output().contains("database offline"), results.get(1).output());
+        assertEquals("Unknown tool: missing", results.get(2).output());
+        assertTrue(millis < 1000, "The slow tool must be cut off at its timeout, took " + millis + " ms");
+    }
+}
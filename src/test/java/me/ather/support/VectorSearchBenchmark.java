@@ -0,0 +1,91 @@
+package me.ather.support;
+
+import me.ather.support.retrieval.FlatVectorStore;
+import me.ather.support.retrieval.QuantizedVectorStore;
+import me.ather.support.retrieval.SearchHits;
+import me.ather.support.retrieval.VectorIndex;
+import me.ather.support.retrieval.VectorMath;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the similarity kernel and top-K search over 1k / 100k / 1M vectors of 768 dimensions,
+ * for exact float32 and both quantized engines. The 1M float32 corpus needs about 3 GB of heap.
+ *
+ * Run with:
+ * mvn -P benchmarks test-compile exec:exec -Djmh.args="VectorSearchBenchmark -prof gc"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class VectorSearchBenchmark {
+    private static final int K = 10;
+    private static final int QUERIES = 1024; // power of two, cycled with a mask
+
+    @State(Scope.Thread)
+    public static class Corpus {
+        @Param({"1000", "100000", "1000000"})
+        public int corpusSize;
+
+        @Param({"FLAT", "INT8", "BINARY"})
+        public String engine;
+
+        VectorIndex index;
+        float[][] queries;
+        int next;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = engine.equals("FLAT") ? new FlatVectorStore()
+                    : new QuantizedVectorStore(QuantizedVectorStore.Quantization.valueOf(engine));
+            BenchmarkFixtures.ClusteredVectors vectors = new BenchmarkFixtures.ClusteredVectors(1, Math.max(10, corpusSize / 200));
+            for (int i = 0; i < corpusSize; i++) index.add(vectors.next());
+            queries = new float[QUERIES][];
+            for (int i = 0; i < QUERIES; i++) queries[i] = vectors.next();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            if (index instanceof QuantizedVectorStore) ((QuantizedVectorStore) index).close();
+        }
+
+        float[] nextQuery() {
+            return queries[next++ & (QUERIES - 1)];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Kernel {
+        float[] a;
+        float[] b;
+
+        @Setup(Level.Trial)
+        public void build() {
+            Random random = new Random(1);
+            a = HnswRecallReport.randomUnitVector(random, BenchmarkFixtures.DIMENSION);
+            b = HnswRecallReport.randomUnitVector(random, BenchmarkFixtures.DIMENSION);
+        }
+    }
+
+    /**
+     * Cosine similarity of two pre-normalized vectors (the former calculateCosineSimilarity).
+     */
+    @Benchmark
+    public float cosine(Kernel kernel) {
+        return VectorMath.dot(kernel.a, kernel.b);
+    }
+
+    @Benchmark
+    public float[] normalize(Kernel kernel) {
+        return VectorMath.normalize(kernel.a);
+    }
+
+    @Benchmark
+    public SearchHits search(Corpus corpus) {
+        return corpus.index.search(corpus.nextQuery(), K, -1f);
+    }
+}